@@ -19,6 +19,8 @@
  * limitations under the License.
  */
 
+import actors.ForkScheduler;
+import actors.PullRequestMergeScheduler;
 import com.avaje.ebean.Ebean;
 import com.typesafe.config.ConfigFactory;
 import controllers.SvnApp;
@@ -26,6 +28,10 @@ import controllers.UserApp;
 import controllers.routes;
 import mailbox.MailboxService;
 import models.*;
+import models.support.SearchIndex;
+import models.support.UserCache;
+import models.support.VisibleProjects;
+import notification.NotificationMailSender;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.impl.cookie.DateUtils;
 import play.Application;
@@ -40,6 +46,9 @@ import play.mvc.Http;
 import play.mvc.Http.RequestHeader;
 import play.mvc.Result;
 import play.mvc.Results;
+import playRepository.DiffCache;
+import playRepository.ForkNetwork;
+import playRepository.RepositoryRegistry;
 import utils.*;
 import views.html.welcome.restart;
 import views.html.welcome.secret;
@@ -140,10 +149,17 @@ public class Global extends GlobalSettings {
         Config.onStart();
         Property.onStart();
         PullRequest.onStart();
+        PullRequestMergeScheduler.onStart();
         NotificationMail.onStart();
         NotificationEvent.onStart();
         Attachment.onStart();
         AccessControl.onStart();
+        RepositoryRegistry.onStart();
+        ForkScheduler.onStart();
+        ForkNetwork.onStart();
+        DiffCache.onStart();
+        SearchIndex.onStart();
+        Markdown.onStart();
 
         if (!isSecretInvalid) {
             YobiUpdate.onStart();
@@ -295,6 +311,18 @@ public class Global extends GlobalSettings {
 
     public void onStop(Application app) {
         mailboxService.stop();
+        RepositoryRegistry.onStop();
+        DiffCache.onStop();
+        SearchIndex.onStop();
+        VisibleProjects.onStop();
+        Markdown.onStop();
+        NotificationEvent.onStop();
+        NotificationMailSender.onStop();
+        AttachmentCache.onStop();
+        UserCache.onStop();
+        PullRequestMergeScheduler.onStop();
+        ForkScheduler.onStop();
+        ForkNetwork.onStop();
     }
 
     @Override
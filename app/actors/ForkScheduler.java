@@ -0,0 +1,278 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actors;
+
+import com.avaje.ebean.Ebean;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import models.Project;
+import models.ProjectUser;
+import models.User;
+import models.enumeration.RoleType;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import play.Configuration;
+import playRepository.GitRepository;
+import utils.Metrics;
+
+import java.text.MessageFormat;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forks projects in the background, and tells how far they have been forked.
+ *
+ * A fork is a job which clones the repository of the original project and
+ * then creates the project. The job is found by the owner and the name of the
+ * new project while it is running, and for a while after it has finished, so
+ * the user who requested it can poll its progress.
+ *
+ * If the scheduler has not been started, a project is forked at once.
+ *
+ * Metrics:
+ *   git.fork.running: the number of running or waiting jobs
+ *
+ * Configuration:
+ *   application.git.fork.threads: the number of workers (default: 2)
+ */
+public class ForkScheduler {
+    private static final int DEFAULT_THREADS = 2;
+    private static final long FINISHED_JOB_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Running or waiting jobs by the owner and the name of the new project.
+     */
+    private static final ConcurrentMap<String, Job> running = new ConcurrentHashMap<>();
+
+    private static final Cache<String, Job> finished = CacheBuilder.newBuilder()
+            .expireAfterWrite(FINISHED_JOB_TTL, TimeUnit.MILLISECONDS)
+            .build();
+
+    private static volatile ExecutorService executor;
+
+    static {
+        Metrics.gauge("git.fork.running", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                return running.size();
+            }
+        });
+    }
+
+    public enum Status {
+        RUNNING, SUCCEEDED, FAILED
+    }
+
+    /**
+     * A fork, which is told the progress of cloning by JGit.
+     */
+    public static class Job implements ProgressMonitor, Runnable {
+        private final Project originalProject;
+        private final Project forkProject;
+        private final Long requesterId;
+
+        private volatile Status status = Status.RUNNING;
+
+        // The progress when the current task began, the amount of work of
+        // the task, and how much of it is done.
+        private double base;
+        private int totalWork;
+        private int done;
+
+        Job(Project originalProject, Project forkProject, Long requesterId) {
+            this.originalProject = originalProject;
+            this.forkProject = forkProject;
+            this.requesterId = requesterId;
+        }
+
+        @Override
+        public void run() {
+            boolean cloned = false;
+            try {
+                GitRepository.cloneLocalRepository(originalProject, forkProject, this);
+                cloned = true;
+                createProject();
+                status = Status.SUCCEEDED;
+            } catch (Exception e) {
+                play.Logger.error(MessageFormat.format("Failed to fork \"{0}\"",
+                        originalProject), e);
+                // A failed clone has deleted what it created. Do not delete a
+                // repository which this job has not created.
+                if (cloned) {
+                    try {
+                        new GitRepository(forkProject).delete();
+                    } catch (Exception ignored) {
+                    }
+                }
+                status = Status.FAILED;
+            } finally {
+                String key = keyOf(forkProject.owner, forkProject.name);
+                finished.put(key, this);
+                running.remove(key, this);
+            }
+        }
+
+        private void createProject() {
+            Ebean.beginTransaction();
+            try {
+                Long projectId = Project.create(forkProject);
+                ProjectUser.assignRole(requesterId, projectId, RoleType.MANAGER);
+                Ebean.commitTransaction();
+            } finally {
+                Ebean.endTransaction();
+            }
+        }
+
+        public Project getOriginalProject() {
+            return originalProject;
+        }
+
+        public Project getForkProject() {
+            return forkProject;
+        }
+
+        public Long getRequesterId() {
+            return requesterId;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns how much of the fork is done.
+         *
+         * JGit tells the progress of each task, and the number of tasks is
+         * not known in advance. So each task moves the progress from where
+         * the previous one left it, by up to half of what remains. The
+         * progress never goes back, and never reaches 1 while the job runs.
+         *
+         * @return the progress, between 0 and 1
+         */
+        public synchronized double getProgress() {
+            if (totalWork <= 0) {
+                return base;
+            }
+            double task = Math.min(1.0, (double) done / totalWork);
+            return base + (1 - base) * task / 2;
+        }
+
+        @Override
+        public void start(int totalTasks) {
+        }
+
+        @Override
+        public synchronized void beginTask(String title, int totalWork) {
+            this.base = getProgress();
+            this.done = 0;
+            this.totalWork = totalWork;
+        }
+
+        @Override
+        public synchronized void update(int completed) {
+            done += completed;
+        }
+
+        @Override
+        public void endTask() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    public static void onStart() {
+        int threads = Configuration.root().getInt("application.git.fork.threads",
+                DEFAULT_THREADS);
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "git-fork-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static void onStop() {
+        ExecutorService executor = ForkScheduler.executor;
+        ForkScheduler.executor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        running.clear();
+        finished.invalidateAll();
+    }
+
+    /**
+     * Forks {@code originalProject} into {@code forkProject} for the given
+     * user.
+     *
+     * @param originalProject
+     * @param forkProject  the new project, which is not saved yet
+     * @param requester  the user who will manage the new project
+     * @return the job, or null if the project is already being forked or its
+     *         repository already exists
+     */
+    public static Job schedule(Project originalProject, Project forkProject, User requester) {
+        String key = keyOf(forkProject.owner, forkProject.name);
+        Job job = new Job(originalProject, forkProject, requester.id);
+        if (running.putIfAbsent(key, job) != null) {
+            return null;
+        }
+        if (GitRepository.getGitDirectory(forkProject).exists()) {
+            running.remove(key, job);
+            return null;
+        }
+        finished.invalidate(key);
+
+        ExecutorService executor = ForkScheduler.executor;
+        if (executor == null) {
+            job.run();
+            return job;
+        }
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            job.run();
+        }
+        return job;
+    }
+
+    /**
+     * Finds the job which forks into the project of the given owner and name.
+     *
+     * @param owner
+     * @param name
+     * @return the job, or null if there is no such job or it has finished a
+     *         while ago
+     */
+    public static Job find(String owner, String name) {
+        String key = keyOf(owner, name);
+        Job job = running.get(key);
+        return job != null ? job : finished.getIfPresent(key);
+    }
+
+    private static String keyOf(String owner, String name) {
+        return (owner + "/" + name).toLowerCase();
+    }
+}
@@ -22,26 +22,16 @@ package actors;
 
 import akka.actor.UntypedActor;
 import models.PostReceiveMessage;
-import models.Project;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.transport.ReceiveCommand;
-import playRepository.GitRepository;
-
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
 
 /**
  * This abstract implementation can be used to add after-receive jobs.
  * To add a post hook, extends this classs and execute it with Akka
+ * A job which needs the pushed commits should rather be a
+ * {@link playRepository.hooks.PushEventPipeline.Stage}, which reads them from
+ * the {@link playRepository.hooks.PushEvent} shared by every stage.
  *
  * @author Keesun Baik
- * @see IssueReferredFromCommitEventActor
- * @see CommitsNotificationActor
+ * @see playRepository.hooks.PushEventPipeline
  */
 public abstract class PostReceiveActor extends UntypedActor {
 
@@ -56,83 +46,4 @@ public abstract class PostReceiveActor extends UntypedActor {
     }
 
     abstract void doReceive(PostReceiveMessage cap);
-
-    class CommitAndRefNames {
-
-        List<RevCommit> commits = new ArrayList<>();
-        List<String> refNames = new ArrayList<>();
-
-        public List<RevCommit> getCommits() {
-            return commits;
-        }
-
-        public void setCommits(List<RevCommit> commits) {
-            this.commits = commits;
-        }
-
-        public List<String> getRefNames() {
-            return refNames;
-        }
-
-        public void setRefNames(List<String> refNames) {
-            this.refNames = refNames;
-        }
-
-        public void addAll(Collection<? extends RevCommit> revCommits) {
-            this.commits.addAll(revCommits);
-        }
-
-        public void add(String refName) {
-            this.refNames.add(refName);
-        }
-    }
-
-    protected CommitAndRefNames commitAndRefNames(PostReceiveMessage message) {
-        CommitAndRefNames car = new CommitAndRefNames();
-        for(ReceiveCommand command : message.getCommands()) {
-            if(isNewOrUpdateCommand(command)) {
-                car.addAll(parseCommitsFrom(command, message.getProject()));
-                car.add(command.getRefName());
-            }
-        }
-        return car;
-    }
-
-    protected boolean isNewOrUpdateCommand(ReceiveCommand command) {
-        List<ReceiveCommand.Type> allowdTypes = new ArrayList<>();
-        allowdTypes.add(ReceiveCommand.Type.CREATE);
-        allowdTypes.add(ReceiveCommand.Type.UPDATE);
-        allowdTypes.add(ReceiveCommand.Type.UPDATE_NONFASTFORWARD);
-        return allowdTypes.contains(command.getType());
-    }
-
-    protected Collection<? extends RevCommit> parseCommitsFrom(ReceiveCommand command, Project project) {
-        Repository repository = GitRepository.buildGitRepository(project);
-        List<RevCommit> list = new ArrayList<>();
-
-        try {
-            ObjectId endRange = command.getNewId();
-            ObjectId startRange = command.getOldId();
-
-            RevWalk rw = new RevWalk(repository);
-            rw.markStart(rw.parseCommit(endRange));
-            if (startRange.equals(ObjectId.zeroId())) {
-                // maybe this is a tag or an orphan branch
-                list.add(rw.parseCommit(endRange));
-                rw.dispose();
-                return list;
-            } else {
-                rw.markUninteresting(rw.parseCommit(startRange));
-            }
-
-            for (RevCommit rev : rw) {
-                list.add(rev);
-            }
-            rw.dispose();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return list;
-    }
 }
@@ -0,0 +1,461 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actors;
+
+import com.avaje.ebean.Ebean;
+import models.*;
+import models.enumeration.EventType;
+import models.enumeration.State;
+import org.apache.commons.lang3.StringUtils;
+import play.Configuration;
+import utils.Metrics;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges pull requests again in the background, when they are opened or their
+ * branches are updated.
+ *
+ * A pull request is queued at most once. If it is queued again before its
+ * turn, for example because its destination branch is pushed many times in a
+ * row, the queued one is kept and merged only once with the newest commits of
+ * the branches, which are read when it is merged.
+ *
+ * Pull requests are queued by their destination project, because merging
+ * fetches the source branch into the destination repository. The pull
+ * requests of a project are merged one by one, while those of different
+ * projects are merged in parallel on a bounded pool of workers. Pull requests
+ * opened or reopened by users are merged before those queued by pushes.
+ *
+ * If the scheduler has not been started, a pull request is merged at once.
+ *
+ * Metrics:
+ *   pullRequest.merge.queue: the number of queued pull requests
+ *   pullRequest.merge.lag: how long the oldest queued pull request has
+ *       waited, in milliseconds
+ *   pullRequest.merge.coalesced: the number of requests merged into a queued
+ *       one
+ *   pullRequest.merge.merged: the number of merged pull requests
+ *
+ * Configuration:
+ *   application.pullRequest.merge.threads: the number of workers (default: 2)
+ */
+public class PullRequestMergeScheduler {
+    private static final int DEFAULT_THREADS = 2;
+
+    private static final Metrics.Counter COALESCED = Metrics.counter("pullRequest.merge.coalesced");
+    private static final Metrics.Meter MERGED = Metrics.meter("pullRequest.merge.merged");
+
+    /**
+     * The queues of the projects which have queued pull requests, by the id
+     * of the project. Guarded by itself, as well as {@link #tasks}.
+     */
+    private static final Map<Long, ProjectQueue> queues = new HashMap<>();
+
+    /**
+     * Queued pull requests by their ids.
+     */
+    private static final Map<Long, Task> tasks = new HashMap<>();
+
+    private static volatile ExecutorService executor;
+    private static volatile Merger merger;
+
+    static {
+        Metrics.gauge("pullRequest.merge.queue", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                synchronized (queues) {
+                    return tasks.size();
+                }
+            }
+        });
+        Metrics.gauge("pullRequest.merge.lag", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                long oldest = System.currentTimeMillis();
+                synchronized (queues) {
+                    for (Task task : tasks.values()) {
+                        oldest = Math.min(oldest, task.queued);
+                    }
+                }
+                return System.currentTimeMillis() - oldest;
+            }
+        });
+    }
+
+    /**
+     * Merges a queued pull request on a worker.
+     */
+    interface Merger {
+        void merge(Long pullRequestId, PullRequestEventMessage message);
+    }
+
+    /**
+     * A queued pull request.
+     */
+    private static class Task {
+        private final Long pullRequestId;
+        private final long queued = System.currentTimeMillis();
+        private PullRequestEventMessage message;
+        private boolean urgent;
+
+        Task(Long pullRequestId, PullRequestEventMessage message, boolean urgent) {
+            this.pullRequestId = pullRequestId;
+            this.message = message;
+            this.urgent = urgent;
+        }
+    }
+
+    /**
+     * The queued pull requests of a project. Urgent ones are merged first.
+     */
+    private static class ProjectQueue {
+        private final LinkedHashMap<Long, Task> urgent = new LinkedHashMap<>();
+        private final LinkedHashMap<Long, Task> normal = new LinkedHashMap<>();
+
+        void add(Task task) {
+            (task.urgent ? urgent : normal).put(task.pullRequestId, task);
+        }
+
+        void promote(Task task) {
+            if (!task.urgent) {
+                normal.remove(task.pullRequestId);
+                task.urgent = true;
+                urgent.put(task.pullRequestId, task);
+            }
+        }
+
+        Task poll() {
+            LinkedHashMap<Long, Task> tasks = !urgent.isEmpty() ? urgent : normal;
+            if (tasks.isEmpty()) {
+                return null;
+            }
+            Iterator<Task> iterator = tasks.values().iterator();
+            Task task = iterator.next();
+            iterator.remove();
+            return task;
+        }
+
+        boolean isEmpty() {
+            return urgent.isEmpty() && normal.isEmpty();
+        }
+    }
+
+    /**
+     * Merges the queued pull requests of a project, one for each run.
+     *
+     * It submits itself again while the project has queued pull requests, so
+     * the workers are shared fairly by the projects.
+     */
+    private static class Worker implements Runnable {
+        private final Long projectId;
+
+        Worker(Long projectId) {
+            this.projectId = projectId;
+        }
+
+        @Override
+        public void run() {
+            Task task = null;
+            synchronized (queues) {
+                ProjectQueue queue = queues.get(projectId);
+                if (queue != null) {
+                    task = queue.poll();
+                }
+                if (task == null) {
+                    queues.remove(projectId);
+                    return;
+                }
+                tasks.remove(task.pullRequestId);
+            }
+
+            try {
+                merger.merge(task.pullRequestId, task.message);
+            } finally {
+                synchronized (queues) {
+                    ProjectQueue queue = queues.get(projectId);
+                    if (queue == null || queue.isEmpty() || !submit(this)) {
+                        queues.remove(projectId);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void onStart() {
+        start(Configuration.root().getInt("application.pullRequest.merge.threads",
+                DEFAULT_THREADS), new Merger() {
+            @Override
+            public void merge(Long pullRequestId, PullRequestEventMessage message) {
+                mergeQueued(pullRequestId, message);
+            }
+        });
+    }
+
+    static void start(int threads, Merger merger) {
+        PullRequestMergeScheduler.merger = merger;
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "pull-request-merge-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static void onStop() {
+        ExecutorService executor = PullRequestMergeScheduler.executor;
+        PullRequestMergeScheduler.executor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        synchronized (queues) {
+            queues.clear();
+            tasks.clear();
+        }
+    }
+
+    /**
+     * Merges the pull request of the given message, which has been opened or
+     * reopened by a user.
+     *
+     * @param message  a message which has the pull request
+     */
+    public static void schedule(PullRequestEventMessage message) {
+        schedule(Collections.singletonList(message.getPullRequest()), message, true);
+    }
+
+    /**
+     * Merges the pull requests from or to the branch of the given message,
+     * which has been updated.
+     *
+     * @param message  a message which has the project and the branch
+     */
+    public static void scheduleRelated(PullRequestEventMessage message) {
+        List<PullRequest> pullRequests = PullRequest.findRelatedPullRequests(
+                message.getProject(), message.getBranch());
+        if (!pullRequests.isEmpty()) {
+            schedule(pullRequests, message, false);
+        }
+    }
+
+    /**
+     * Queues the given pull requests, or merges them at once if the scheduler
+     * has not been started.
+     *
+     * The pull requests are marked as being merged before they are queued,
+     * so that a worker cannot merge one and mark it as merged before it has
+     * been marked as being merged.
+     *
+     * @param pullRequests
+     * @param message
+     * @param urgent  whether to merge them before those which are not urgent
+     */
+    static void schedule(List<PullRequest> pullRequests, PullRequestEventMessage message,
+                         boolean urgent) {
+        if (executor == null) {
+            mergeAtOnce(pullRequests, message);
+            return;
+        }
+
+        List<Long> notQueued = new ArrayList<>();
+        synchronized (queues) {
+            for (PullRequest pullRequest : pullRequests) {
+                if (!tasks.containsKey(pullRequest.id)) {
+                    notQueued.add(pullRequest.id);
+                }
+            }
+        }
+        startMerge(notQueued);
+
+        List<PullRequest> rejected = new ArrayList<>();
+        for (PullRequest pullRequest : pullRequests) {
+            if (!enqueue(pullRequest, message, urgent)) {
+                rejected.add(pullRequest);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            mergeAtOnce(rejected, message);
+        }
+    }
+
+    private static void mergeAtOnce(List<PullRequest> pullRequests,
+                                    PullRequestEventMessage message) {
+        for (PullRequest pullRequest : pullRequests) {
+            pullRequest.startMerge();
+            pullRequest.update();
+        }
+        for (PullRequest pullRequest : pullRequests) {
+            merge(message, pullRequest);
+        }
+    }
+
+    /**
+     * Queues the pull request, or updates the queued one.
+     *
+     * @return false if the pull request could not be queued because the
+     *         scheduler is being stopped
+     */
+    private static boolean enqueue(PullRequest pullRequest, PullRequestEventMessage message,
+                                   boolean urgent) {
+        Long projectId = pullRequest.toProject.id;
+
+        synchronized (queues) {
+            ProjectQueue queue = queues.get(projectId);
+            Task task = tasks.get(pullRequest.id);
+
+            if (task != null) {
+                COALESCED.inc();
+                // Keep the message of a new pull request, which must not
+                // notify that its commits are changed.
+                if (!task.message.isNewPullRequest()) {
+                    task.message = message;
+                }
+                if (urgent) {
+                    queue.promote(task);
+                }
+                return true;
+            }
+
+            task = new Task(pullRequest.id, message, urgent);
+            tasks.put(task.pullRequestId, task);
+
+            if (queue == null) {
+                queue = new ProjectQueue();
+                queue.add(task);
+                if (submit(new Worker(projectId))) {
+                    queues.put(projectId, queue);
+                } else {
+                    tasks.remove(task.pullRequestId);
+                    return false;
+                }
+            } else {
+                queue.add(task);
+            }
+            return true;
+        }
+    }
+
+    private static boolean submit(Worker worker) {
+        ExecutorService executor = PullRequestMergeScheduler.executor;
+        if (executor == null) {
+            return false;
+        }
+        try {
+            executor.execute(worker);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // The scheduler is being stopped.
+            return false;
+        }
+    }
+
+    /**
+     * Marks the queued pull requests as being merged with a single statement.
+     */
+    private static void startMerge(List<Long> pullRequestIds) {
+        if (pullRequestIds.isEmpty()) {
+            return;
+        }
+        Ebean.createSqlUpdate("update pull_request set is_merging = :merging"
+                + " where id in (" + StringUtils.join(pullRequestIds, ",") + ")")
+                .setParameter("merging", true)
+                .execute();
+    }
+
+    private static void mergeQueued(Long pullRequestId, PullRequestEventMessage message) {
+        PullRequest pullRequest;
+        try {
+            pullRequest = PullRequest.findById(pullRequestId);
+        } catch (Exception e) {
+            play.Logger.error("Failed to find the pull request: " + pullRequestId, e);
+            return;
+        }
+
+        // It may have been closed or merged while it was queued.
+        if (pullRequest == null || pullRequest.state == State.CLOSED
+                || pullRequest.state == State.MERGED) {
+            return;
+        }
+
+        merge(message, pullRequest);
+    }
+
+    private static void merge(PullRequestEventMessage message, PullRequest pullRequest) {
+        try {
+            String oldMergeCommitId = pullRequest.mergedCommitIdTo;
+            boolean wasConflict = pullRequest.isConflict != null ? pullRequest.isConflict : false;
+
+            PullRequestMergeResult mergeResult = pullRequest.updateMerge();
+
+            if (mergeResult.hasDiffCommits()) {
+                mergeResult.saveCommits();
+                if (!mergeResult.getNewCommits().isEmpty()) {
+                    if (!message.isNewPullRequest()) {
+                        NotificationEvent.afterPullRequestCommitChanged(message.getSender(), pullRequest);
+                    }
+                    PullRequestEvent.addCommitEvents(message.getSender(), pullRequest,
+                            mergeResult.getNewCommits(),
+                            getCommitEventOldValue(oldMergeCommitId, pullRequest.mergedCommitIdTo));
+                    pullRequest.clearReviewers();
+                }
+            } else {
+                mergeResult.setMergedStateOfPullRequest(message.getSender());
+                NotificationEvent notiEvent = NotificationEvent.afterPullRequestUpdated(message.getSender(),
+                        pullRequest, pullRequest.state, State.MERGED);
+                PullRequestEvent.addFromNotificationEvent(notiEvent, pullRequest);
+            }
+
+            if (!wasConflict && mergeResult.conflicts()) {
+                mergeResult.setConflictStateOfPullRequest();
+                NotificationEvent notiEvent = NotificationEvent.afterMerge(message.getSender(),
+                        pullRequest, State.CONFLICT);
+                PullRequestEvent.addMergeEvent(notiEvent.getSender(), EventType.PULL_REQUEST_MERGED, State.CONFLICT, pullRequest);
+            }
+
+            if (wasConflict && !mergeResult.conflicts()) {
+                mergeResult.setResolvedStateOfPullRequest();
+                NotificationEvent notiEvent = NotificationEvent.afterMerge(message.getSender(),
+                        pullRequest, State.RESOLVED);
+                PullRequestEvent.addMergeEvent(notiEvent.getSender(), EventType.PULL_REQUEST_MERGED, State.RESOLVED, pullRequest);
+            }
+
+            mergeResult.save();
+            MERGED.mark();
+        } catch (Exception e) {
+            play.Logger.error("Failed to check merging from " + pullRequest, e);
+        }
+    }
+
+    private static String getCommitEventOldValue(String oldMergeCommitId, String newMergeCommitId) {
+        if (oldMergeCommitId == null) {
+            return null;
+        }
+        return oldMergeCommitId + PullRequest.DELIMETER + newMergeCommitId;
+    }
+}
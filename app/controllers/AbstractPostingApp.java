@@ -33,6 +33,9 @@ import play.i18n.Messages;
 import play.mvc.*;
 import utils.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @AnonymousCheck
 public class AbstractPostingApp extends Controller {
     public static final int ITEMS_PER_PAGE = 15;
@@ -67,6 +70,24 @@ public class AbstractPostingApp extends Controller {
         return comment;
     }
 
+    /**
+     * Loads the attachments of the given posting and its comments at once,
+     * so that rendering the comments does not query the attachments of each
+     * comment.
+     *
+     * @param posting
+     * @param comments  the comments of the posting
+     */
+    protected static void prefetchAttachments(AbstractPosting posting,
+                                              List<? extends Comment> comments) {
+        List<Resource> containers = new ArrayList<>();
+        containers.add(posting.asResource());
+        for (Comment comment : comments) {
+            containers.add(comment.asResource());
+        }
+        Attachment.findByContainers(containers);
+    }
+
     protected static Result delete(Model target, Resource resource, Call redirectTo) {
         if (!AccessControl.isAllowed(UserApp.currentUser(), resource, Operation.DELETE)) {
             return forbidden(ErrorViews.Forbidden.render("error.forbidden", resource.getProject()));
@@ -33,6 +33,8 @@ import play.mvc.Controller;
 import play.mvc.Http.MultipartFormData.FilePart;
 import play.mvc.Result;
 import utils.AccessControl;
+import utils.FastHttpDateFormat;
+import utils.FileRangeResult;
 import utils.HttpUtil;
 
 import java.io.File;
@@ -131,15 +133,25 @@ public class AttachmentApp extends Controller {
 
         response().setHeader("Cache-Control", "private, max-age=3600");
 
+        File file = attachment.getFile();
+        long lastModified = (file.lastModified() / 1000) * 1000;
+
         String ifNoneMatchValue = request().getHeader("If-None-Match");
-        if(ifNoneMatchValue != null && ifNoneMatchValue.equals(eTag)) {
-            response().setHeader("ETag", eTag);
-            return status(NOT_MODIFIED);
+        String ifModifiedSinceValue = request().getHeader("If-Modified-Since");
+        if (ifNoneMatchValue != null) {
+            if (ifNoneMatchValue.equals(eTag)) {
+                response().setHeader("ETag", eTag);
+                return status(NOT_MODIFIED);
+            }
+        } else if (ifModifiedSinceValue != null && lastModified > 0) {
+            long ifModifiedSince = FastHttpDateFormat.parseDate(ifModifiedSinceValue, null);
+            if (ifModifiedSince >= lastModified) {
+                response().setHeader("ETag", eTag);
+                return status(NOT_MODIFIED);
+            }
         }
 
-        File file = attachment.getFile();
-
-        if(file != null && !file.exists()){
+        if(!file.isFile()){
             Logger.error("Attachment ID:" + id + " (" + file.getAbsolutePath() + ") does not exist on storage");
             return internalServerError("The file does not exist");
         }
@@ -149,8 +161,28 @@ public class AttachmentApp extends Controller {
         response().setHeader("Content-Type", attachment.mimeType);
         response().setHeader("Content-Disposition", dispositionType + "; " + filename);
         response().setHeader("ETag", eTag);
+        response().setHeader("Last-Modified", FastHttpDateFormat.formatDate(lastModified, null));
+        response().setHeader("Accept-Ranges", "bytes");
+
+        long length = file.length();
+        long[] range = null;
+        String ifRange = request().getHeader("If-Range");
+        if (ifRange == null || ifRange.equals(eTag)) {
+            range = FileRangeResult.parseRange(request().getHeader("Range"), length);
+        }
+
+        if (range == FileRangeResult.UNSATISFIABLE) {
+            response().setHeader("Content-Range", "bytes */" + length);
+            return status(REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+
+        if (range != null) {
+            response().setHeader("Content-Range",
+                    "bytes " + range[0] + "-" + range[1] + "/" + length);
+            return new FileRangeResult(PARTIAL_CONTENT, file, range[0], range[1] - range[0] + 1);
+        }
 
-        return ok(file);
+        return new FileRangeResult(OK, file);
     }
 
     public static Result deleteFile(Long id) {
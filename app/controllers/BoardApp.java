@@ -186,6 +186,7 @@ public class BoardApp extends AbstractPostingApp {
 
         UserApp.currentUser().visits(project);
         Form<PostingComment> commentForm = new Form<>(PostingComment.class);
+        prefetchAttachments(post, post.comments);
         return ok(view.render(post, commentForm, project));
     }
 
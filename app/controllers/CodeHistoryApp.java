@@ -33,9 +33,12 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.NoHeadException;
 import org.tmatesoft.svn.core.SVNException;
 import play.data.Form;
+import play.libs.Json;
 import play.mvc.*;
 import playRepository.Commit;
 import playRepository.FileDiff;
+import playRepository.FileDiffSummary;
+import playRepository.GitRepository;
 import playRepository.PlayRepository;
 import playRepository.RepositoryService;
 import utils.*;
@@ -44,9 +47,11 @@ import views.html.code.history;
 import views.html.code.nohead;
 import views.html.code.svnDiff;
 import views.html.error.notfound;
+import views.html.partial_filediff;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -132,17 +137,74 @@ public class CodeHistoryApp extends Controller {
 
             return ok(svnDiff.render(project, commit, parentCommit, patch, comments, selectedBranch, path));
         } else {
-            List<FileDiff> fileDiffs = repository.getDiff(commitId);
+            List<FileDiffSummary> summaries =
+                    ((GitRepository) repository).getDiffSummary(commitId);
 
-            if (fileDiffs == null) {
+            if (summaries == null) {
                 return notFound(ErrorViews.NotFound.render("error.notfound", project));
             }
 
             return ok(diff.render(project, commit, parentCommit, threads, selectedBranch,
-                    fileDiffs, path));
+                    summaries, path));
         }
     }
 
+    /**
+     * Responds with the summary of the changes made by the given commit, as
+     * JSON, without the contents of the files.
+     *
+     * The difference of each file can be loaded on demand by
+     * {@link #fileDiff(String, String, String, String)}.
+     */
+    @IsAllowed(Operation.READ)
+    public static Result diffSummary(String ownerName, String projectName, String commitId)
+            throws IOException, ServletException {
+        Project project = Project.findByOwnerAndProjectName(ownerName, projectName);
+
+        if (!RepositoryService.VCS_GIT.equals(project.vcs)) {
+            return badRequest(ErrorViews.BadRequest.render("error.badrequest.only.available.for.git", project));
+        }
+
+        GitRepository repository = (GitRepository) RepositoryService.getRepository(project);
+        List<FileDiffSummary> summaries = repository.getDiffSummary(commitId);
+
+        if (summaries == null) {
+            return notFound(ErrorViews.NotFound.render("error.notfound.commit", project));
+        }
+
+        return ok(Json.toJson(summaries));
+    }
+
+    /**
+     * Renders the difference of a file made by the given commit.
+     */
+    @IsAllowed(Operation.READ)
+    public static Result fileDiff(String ownerName, String projectName, String commitId,
+                                  String path) throws IOException, ServletException {
+        Project project = Project.findByOwnerAndProjectName(ownerName, projectName);
+
+        if (!RepositoryService.VCS_GIT.equals(project.vcs)) {
+            return badRequest(ErrorViews.BadRequest.render("error.badrequest.only.available.for.git", project));
+        }
+
+        GitRepository repository = (GitRepository) RepositoryService.getRepository(project);
+        FileDiff fileDiff = repository.getFileDiff(commitId, path);
+
+        if (fileDiff == null) {
+            return notFound(ErrorViews.NotFound.render("error.notfound", project));
+        }
+
+        List<CodeCommentThread> threads = new ArrayList<>();
+        for (CommentThread thread : CommentThread.findByCommitId(CommentThread.find, project,
+                fileDiff.commitB)) {
+            if (thread instanceof CodeCommentThread) {
+                threads.add((CodeCommentThread) thread);
+            }
+        }
+
+        return ok(partial_filediff.render(fileDiff, threads, project, project));
+    }
+
     @With(NullProjectCheckAction.class)
     public static Result newSVNComment(String ownerName, String projectName, String commitId)
             throws IOException, ServletException, SVNException {
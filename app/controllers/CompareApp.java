@@ -25,15 +25,19 @@ import controllers.annotation.AnonymousCheck;
 import controllers.annotation.IsAllowed;
 import models.Project;
 import models.enumeration.Operation;
+import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Result;
 import playRepository.Commit;
 import playRepository.FileDiff;
+import playRepository.FileDiffSummary;
+import playRepository.GitRepository;
 import playRepository.PlayRepository;
 import playRepository.RepositoryService;
 import utils.ErrorViews;
 import views.html.code.compare;
 import views.html.code.compare_svn;
+import views.html.partial_filediff;
 
 import java.util.List;
 
@@ -58,11 +62,56 @@ public class CompareApp extends Controller {
             }
             return ok(compare_svn.render(project, commitA, commitB, patch));
         } else {
-            List<FileDiff> diffs = repository.getDiff(revA, revB);
-            if (diffs == null) {
+            List<FileDiffSummary> summaries =
+                    ((GitRepository) repository).getDiffSummary(revA, revB);
+            if (summaries == null) {
                 return notFound(ErrorViews.NotFound.render("error.notfound", project));
             }
-            return ok(compare.render(project, commitA, commitB, diffs));
+            return ok(compare.render(project, commitA, commitB, summaries));
         }
     }
+
+    /**
+     * Responds with the summary of the changes between the given revisions,
+     * as JSON, without the contents of the files.
+     *
+     * The difference of each file can be loaded on demand by
+     * {@link #fileDiff(String, String, String, String, String)}.
+     */
+    @IsAllowed(Operation.READ)
+    public static Result diffSummary(String ownerName, String projectName, String revA,
+                                     String revB) throws Exception {
+        Project project = Project.findByOwnerAndProjectName(ownerName, projectName);
+
+        if (!RepositoryService.VCS_GIT.equals(project.vcs)) {
+            return badRequest(ErrorViews.BadRequest.render("error.badrequest.only.available.for.git", project));
+        }
+
+        GitRepository repository = (GitRepository) RepositoryService.getRepository(project);
+        List<FileDiffSummary> summaries = repository.getDiffSummary(revA, revB);
+        if (summaries == null) {
+            return notFound(ErrorViews.NotFound.render("error.notfound.commit", project));
+        }
+        return ok(Json.toJson(summaries));
+    }
+
+    /**
+     * Renders the difference of a file between the given revisions.
+     */
+    @IsAllowed(Operation.READ)
+    public static Result fileDiff(String ownerName, String projectName, String revA,
+                                  String revB, String path) throws Exception {
+        Project project = Project.findByOwnerAndProjectName(ownerName, projectName);
+
+        if (!RepositoryService.VCS_GIT.equals(project.vcs)) {
+            return badRequest(ErrorViews.BadRequest.render("error.badrequest.only.available.for.git", project));
+        }
+
+        GitRepository repository = (GitRepository) RepositoryService.getRepository(project);
+        FileDiff fileDiff = repository.getFileDiff(revA, revB, path);
+        if (fileDiff == null) {
+            return notFound(ErrorViews.NotFound.render("error.notfound", project));
+        }
+        return ok(partial_filediff.render(fileDiff, null, project, project));
+    }
 }
@@ -21,6 +21,7 @@
 package controllers;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletException;
 
@@ -33,6 +34,7 @@ import play.i18n.Messages;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.With;
+import playRepository.GitTransport;
 import playRepository.PlayRepository;
 import playRepository.RepositoryService;
 import utils.AccessControl;
@@ -124,8 +126,16 @@ public class GitApp extends Controller {
                 return status(REQUEST_ENTITY_TOO_LARGE);
             } else {
                 user.visits(project);
-                return ok(RepositoryService
-                        .gitRpc(project, service, request(), response()));
+                try {
+                    return ok(RepositoryService
+                            .gitRpc(project, service, request(), response()),
+                            GitTransport.getBufferSize());
+                } catch (RejectedExecutionException e) {
+                    play.Logger.warn("Rejected " + service + " for " + ownerName + "/"
+                            + projectName + ": " + e.getMessage());
+                    response().setHeader("Retry-After", "10");
+                    return status(SERVICE_UNAVAILABLE, e.getMessage());
+                }
             }
         }
     }
@@ -246,6 +246,7 @@ public class IssueApp extends AbstractPostingApp {
             result.put("link", routes.IssueApp.issue(project.owner, project.name, issueInfo.getNumber()).toString());
             return ok(result);
         } else {
+            prefetchAttachments(issueInfo, issueInfo.comments);
             return ok(view.render("title.issueDetail", issueInfo, editForm, commentForm, project));
         }
     }
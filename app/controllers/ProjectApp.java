@@ -28,6 +28,7 @@ import controllers.annotation.IsAllowed;
 import info.schleichardt.play2.mailplugin.Mailer;
 import models.*;
 import models.enumeration.*;
+import models.support.VisibleProjects;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -997,15 +998,7 @@ public class ProjectApp extends Controller {
             if(user.isAnonymous()) {
                 el.eq("projectScope", ProjectScope.PUBLIC);
             } else {
-                Junction<Project> junction = el.conjunction();
-                Junction<Project> pj = junction.disjunction();
-                pj.add(Expr.eq("projectScope", ProjectScope.PUBLIC)); // public
-                List<Organization> orgs = Organization.findOrganizationsByUserLoginId(user.loginId); // protected
-                if(!orgs.isEmpty()) {
-                    pj.and(Expr.in("organization", orgs), Expr.eq("projectScope", ProjectScope.PROTECTED));
-                }
-                pj.add(Expr.eq("projectUser.user.id", user.id)); // private
-                pj.endJunction();
+                VisibleProjects.restrict(el, user, null);
             }
         }
 
@@ -20,8 +20,8 @@
  */
 package controllers;
 
-import actors.PullRequestMergingActor;
-import akka.actor.Props;
+import actors.ForkScheduler;
+import actors.PullRequestMergeScheduler;
 import com.avaje.ebean.Page;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import controllers.annotation.AnonymousCheck;
@@ -40,7 +40,6 @@ import org.tmatesoft.svn.core.SVNException;
 import play.api.mvc.Call;
 import play.data.Form;
 import play.db.ebean.Transactional;
-import play.libs.Akka;
 import play.libs.F;
 import play.libs.F.Function;
 import play.libs.F.Promise;
@@ -48,6 +47,8 @@ import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.Result;
+import playRepository.FileDiff;
+import playRepository.FileDiffSummary;
 import playRepository.GitBranch;
 import playRepository.GitRepository;
 import playRepository.RepositoryService;
@@ -109,7 +110,6 @@ public class PullRequestApp extends Controller {
         return ok(clone.render("fork", forkProject));
     }
 
-    @Transactional
     @IsCreatable(ResourceType.FORK)
     public static Result doClone(String userName, String projectName) {
         Form<Project> form = new Form<>(Project.class).bindFromRequest();
@@ -144,19 +144,65 @@ public class PullRequestApp extends Controller {
         }
         originalProject.addFork(forkProject);
 
-        try {
-            GitRepository.cloneLocalRepository(originalProject, forkProject);
-            Long projectId = Project.create(forkProject);
-            ProjectUser.assignRole(currentUser.id, projectId, RoleType.MANAGER);
-            result.put(status, "success");
-            result.put(url, routes.ProjectApp.project(forkProject.owner, forkProject.name).url());
-            return ok(result);
-        } catch (Exception e) {
-            play.Logger.error(MessageFormat.format("Failed to fork \"{0}\"", originalProject), e);
+        ForkScheduler.Job job = null;
+        if (!Project.exists(forkProject.owner, forkProject.name)) {
+            job = ForkScheduler.schedule(originalProject, forkProject, currentUser);
+        }
+        if (job == null) {
             result.put(status, failed);
             result.put(url, routes.PullRequestApp.pullRequests(originalProject.owner, originalProject.name).url());
             return ok(result);
         }
+
+        return ok(cloneProgressOf(job));
+    }
+
+    /**
+     * Tells the user who has requested a fork how far it has been done.
+     *
+     * @param userName the owner of the original project
+     * @param projectName the name of the original project
+     * @param owner the owner of the new project
+     * @param name the name of the new project
+     */
+    @IsCreatable(ResourceType.FORK)
+    public static Result cloneProgress(String userName, String projectName, String owner, String name) {
+        ForkScheduler.Job job = ForkScheduler.find(owner, name);
+        if (job != null && job.getRequesterId().equals(UserApp.currentUser().id)) {
+            return ok(cloneProgressOf(job));
+        }
+
+        ObjectNode result = Json.newObject();
+        if (Project.exists(owner, name)) {
+            result.put("status", "success");
+            result.put("url", routes.ProjectApp.project(owner, name).url());
+        } else {
+            result.put("status", "failed");
+            result.put("url", routes.PullRequestApp.pullRequests(userName, projectName).url());
+        }
+        return ok(result);
+    }
+
+    private static ObjectNode cloneProgressOf(ForkScheduler.Job job) {
+        Project originalProject = job.getOriginalProject();
+        Project forkProject = job.getForkProject();
+        ObjectNode result = Json.newObject();
+        switch (job.getStatus()) {
+        case SUCCEEDED:
+            result.put("status", "success");
+            result.put("url", routes.ProjectApp.project(forkProject.owner, forkProject.name).url());
+            break;
+        case FAILED:
+            result.put("status", "failed");
+            result.put("url", routes.PullRequestApp.pullRequests(originalProject.owner, originalProject.name).url());
+            break;
+        default:
+            result.put("status", "progress");
+            result.put("progress", job.getProgress());
+            result.put("url", routes.PullRequestApp.cloneProgress(originalProject.owner,
+                    originalProject.name, forkProject.owner, forkProject.name).url());
+        }
+        return result;
     }
 
     @AnonymousCheck(requiresLogin = true, displaysFlashMessage = true)
@@ -282,7 +328,7 @@ public class PullRequestApp extends Controller {
         PullRequestEvent.addFromNotificationEvent(notiEvent, pullRequest);
 
         PullRequestEventMessage message = new PullRequestEventMessage(UserApp.currentUser(), request(), pullRequest, notiEvent.eventType);
-        Akka.system().actorOf(Props.create(PullRequestMergingActor.class)).tell(message, null);
+        PullRequestMergeScheduler.schedule(message);
 
         return redirect(pullRequestCall);
     }
@@ -382,6 +428,53 @@ public class PullRequestApp extends Controller {
         return ok(views.html.git.viewChanges.render(project, pullRequest, commitId));
     }
 
+    /**
+     * Responds with the summary of the changes of the pull request, or of
+     * the given commit in it, as JSON, without the contents of the files.
+     */
+    @IsAllowed(value = Operation.READ, resourceType = ResourceType.PULL_REQUEST)
+    public static Result diffSummary(String userName, String projectName,
+                                     long pullRequestNumber, String commitId) throws IOException {
+        Project project = Project.findByOwnerAndProjectName(userName, projectName);
+        PullRequest pullRequest = PullRequest.findOne(project, pullRequestNumber);
+
+        if (commitId == null && (pullRequest.mergedCommitIdFrom == null
+                || pullRequest.mergedCommitIdTo == null)) {
+            return notFound(ErrorViews.NotFound.render("error.notfound", project));
+        }
+
+        List<FileDiffSummary> summaries = pullRequest.getDiffSummary(commitId);
+        if (summaries == null) {
+            return notFound(ErrorViews.NotFound.render("error.notfound.commit", project));
+        }
+        return ok(Json.toJson(summaries));
+    }
+
+    /**
+     * Renders the difference of a file in the changes of the pull request, or
+     * in the given commit in it.
+     */
+    @IsAllowed(value = Operation.READ, resourceType = ResourceType.PULL_REQUEST)
+    public static Result fileDiff(String userName, String projectName, long pullRequestNumber,
+                                  String commitId, String path)
+            throws IOException, GitAPIException {
+        Project project = Project.findByOwnerAndProjectName(userName, projectName);
+        PullRequest pullRequest = PullRequest.findOne(project, pullRequestNumber);
+
+        if (commitId == null && (pullRequest.mergedCommitIdFrom == null
+                || pullRequest.mergedCommitIdTo == null)) {
+            return notFound(ErrorViews.NotFound.render("error.notfound", project));
+        }
+
+        FileDiff fileDiff = pullRequest.getFileDiff(commitId, path);
+        if (fileDiff == null) {
+            return notFound(ErrorViews.NotFound.render("error.notfound", project));
+        }
+        return ok(views.html.partial_filediff.render(fileDiff,
+                pullRequest.getCodeCommentThreadsForChanges(commitId, fileDiff), pullRequest.toProject,
+                pullRequest.toProject));
+    }
+
     @Transactional
     @AnonymousCheck(requiresLogin = true, displaysFlashMessage = true)
     @IsAllowed(value = Operation.ACCEPT, resourceType = ResourceType.PULL_REQUEST)
@@ -463,7 +556,7 @@ public class PullRequestApp extends Controller {
 
         PullRequestEventMessage message = new PullRequestEventMessage(
                 UserApp.currentUser(), request(), pullRequest);
-        Akka.system().actorOf(Props.create(PullRequestMergingActor.class)).tell(message, null);
+        PullRequestMergeScheduler.schedule(message);
 
         return redirect(call);
     }
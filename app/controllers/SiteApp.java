@@ -26,6 +26,7 @@ import info.schleichardt.play2.mailplugin.Mailer;
 import models.*;
 import models.enumeration.State;
 import models.enumeration.UserState;
+import models.support.SearchIndex;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.SimpleEmail;
@@ -276,4 +277,18 @@ public class SiteApp extends Controller {
     public static Result diagnose() {
         return ok(diagnostic.render("title.siteSetting", Diagnostic.checkAll()));
     }
+
+    public static Result metrics() {
+        return ok(toJson(Metrics.snapshot()));
+    }
+
+    /**
+     * Rebuild the search index in the background.
+     *
+     * @see models.support.SearchIndex#rebuild()
+     */
+    public static Result rebuildSearchIndex() {
+        SearchIndex.rebuildInBackground();
+        return ok();
+    }
 }
@@ -25,6 +25,7 @@ import controllers.annotation.AnonymousCheck;
 import models.*;
 import models.enumeration.Operation;
 import models.enumeration.UserState;
+import models.support.UserCache;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -38,12 +39,14 @@ import play.Logger;
 import play.Play;
 import play.data.Form;
 import play.i18n.Messages;
+import play.libs.Crypto;
 import play.libs.Json;
 import play.mvc.*;
 import play.mvc.Http.Cookie;
 import utils.*;
 import views.html.user.*;
 
+import java.security.MessageDigest;
 import java.util.*;
 
 import static play.data.Form.form;
@@ -68,6 +71,7 @@ public class UserApp extends Controller {
     public static final String DEFAULT_GROUP = "own";
     public static final String DEFAULT_SELECTED_TAB = "projects";
     public static final String TOKEN_USER = "TOKEN_USER";
+    private static final String CURRENT_USER = "CURRENT_USER";
 
     @AnonymousCheck
     public static Result users(String query) {
@@ -356,12 +360,27 @@ public class UserApp extends Controller {
         user.save();
     }
 
+    /**
+     * Returns the user who sends the current request.
+     *
+     * The user is found once for a request, and then kept in the context of
+     * the request.
+     *
+     * @return the user, or {@link User#anonymous}
+     */
     public static User currentUser() {
+        Map<String, Object> args = Http.Context.current().args;
+        Object cached = args.get(CURRENT_USER);
+        if (cached instanceof User) {
+            return (User) cached;
+        }
+
         User user = getUserFromSession();
-        if (!user.isAnonymous()) {
-            return user;
+        if (user.isAnonymous()) {
+            user = getUserFromContext();
         }
-        return getUserFromContext();
+        args.put(CURRENT_USER, user);
+        return user;
     }
 
     private static User getUserFromSession() {
@@ -372,7 +391,7 @@ public class UserApp extends Controller {
         if (!StringUtils.isNumeric(userId)) {
             return invalidSession();
         }
-        User user = User.find.byId(Long.valueOf(userId));
+        User user = UserCache.get(Long.valueOf(userId));
         if (user == null) {
             return invalidSession();
         }
@@ -388,10 +407,17 @@ public class UserApp extends Controller {
         return (User) Http.Context.current().args.get(TOKEN_USER);
     }
 
+    /**
+     * Signs in the user of the remember-me cookie, if the user has not signed
+     * in yet.
+     */
     public static void initTokenUser() {
+        if (!getUserFromSession().isAnonymous()) {
+            return;
+        }
         User user = getUserFromToken();
         Http.Context.current().args.put(TOKEN_USER, user);
-        if (!user.isAnonymous() && getUserFromSession().isAnonymous()) {
+        if (!user.isAnonymous()) {
             addUserInfoToSession(user);
         }
     }
@@ -405,15 +431,52 @@ public class UserApp extends Controller {
         if (ArrayUtils.getLength(subject) != TOKEN_LENGTH) {
             return invalidToken();
         }
-        User user = authenticateWithHashedPassword(subject[0], subject[1]);
+        User user = authenticateWithSignedToken(subject[0], subject[1]);
         if (user.isAnonymous()) {
-            return invalidToken();
+            // The cookie may have been set by the older versions, which have
+            // the login id and the hashed password.
+            user = authenticateWithHashedPassword(subject[0], subject[1]);
+            if (user.isAnonymous()) {
+                return invalidToken();
+            }
+            setupRememberMe(user);
         }
         return user;
     }
 
+    /**
+     * Finds the user of the given id, if the signature is made by
+     * {@link #signToken(User)} for the user.
+     *
+     * The signature is an HMAC of the id and the hashed password with the
+     * application secret, so it is checked without hashing the password, and
+     * becomes invalid when the password is changed.
+     *
+     * @param userId
+     * @param signature
+     * @return the user, or {@link User#anonymous}
+     */
+    private static User authenticateWithSignedToken(String userId, String signature) {
+        if (!StringUtils.isNumeric(userId)) {
+            return User.anonymous;
+        }
+        User user = UserCache.get(Long.valueOf(userId));
+        if (user == null || user.password == null) {
+            return User.anonymous;
+        }
+        if (MessageDigest.isEqual(signToken(user).getBytes(), signature.getBytes())) {
+            return user;
+        }
+        return User.anonymous;
+    }
+
+    private static String signToken(User user) {
+        return Crypto.sign(user.id + TOKEN_SEPARATOR + user.password);
+    }
+
     private static User invalidSession() {
         session().clear();
+        Http.Context.current().args.remove(CURRENT_USER);
         return User.anonymous;
     }
 
@@ -825,13 +888,15 @@ public class UserApp extends Controller {
     }
 
     private static void setupRememberMe(User user) {
-        response().setCookie(TOKEN, user.loginId + ":" + user.password, MAX_AGE);
+        response().setCookie(TOKEN, user.id + TOKEN_SEPARATOR + signToken(user), MAX_AGE);
         Logger.debug("remember me enabled");
     }
 
     private static void processLogout() {
         session().clear();
         response().discardCookie(TOKEN);
+        Http.Context.current().args.remove(CURRENT_USER);
+        Http.Context.current().args.remove(TOKEN_USER);
     }
 
     private static void validate(Form<User> newUserForm) {
@@ -875,6 +940,7 @@ public class UserApp extends Controller {
         session(SESSION_USERID, String.valueOf(user.id));
         session(SESSION_LOGINID, user.loginId);
         session(SESSION_USERNAME, user.name);
+        Http.Context.current().args.put(CURRENT_USER, user);
     }
 
     public static void updatePreferredLanguage() {
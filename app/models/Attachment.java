@@ -20,12 +20,16 @@
  */
 package models;
 
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.ExpressionList;
+import com.google.common.collect.Iterables;
 import controllers.AttachmentApp;
 import models.enumeration.ResourceType;
 import models.resource.GlobalResource;
 import models.resource.Resource;
 import models.resource.ResourceConvertible;
-import org.apache.commons.io.FileUtils;
+import models.support.AttachmentStorage;
+import models.support.ChunkedPurge;
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.mime.MimeTypeException;
 import play.data.validation.Constraints;
@@ -40,22 +44,18 @@ import utils.JodaDateUtil;
 import javax.annotation.Nullable;
 import javax.persistence.*;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.NotDirectoryException;
-import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.Formatter;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 @Entity
 public class Attachment extends Model implements ResourceConvertible {
     private static final long serialVersionUID = 7856282252495067924L;
     public static final Finder<Long, Attachment> find = new Finder<>(Long.class, Attachment.class);
     public static final int NOTHING_TO_ATTACH = 0;
+    private static final int MAX_IDS_PER_QUERY = 100;
     private static String uploadDirectory = "uploads";
     @Id
     public Long id;
@@ -118,8 +118,7 @@ public class Attachment extends Model implements ResourceConvertible {
         List<Attachment> list = find.where()
                 .eq("containerType", containerType)
                 .eq("containerId", containerId).findList();
-        AttachmentCache.set(containerType.name() + containerId, list);
-        return list;
+        return AttachmentCache.set(containerType, containerId, list);
     }
 
     /**
@@ -129,14 +128,65 @@ public class Attachment extends Model implements ResourceConvertible {
      * @return attachments of the container
      */
     public static List<Attachment> findByContainer(Resource container) {
-        List<Attachment> cachedData = AttachmentCache.get(container);
-        if (cachedData != null) {
-            return cachedData;
+        return findByContainer(container.getType(), container.getId());
+    }
+
+    /**
+     * Gets all attachments from each of the given containers.
+     *
+     * The attachments of the containers which are not cached are found by a
+     * query for each type of container, instead of a query for each
+     * container.
+     *
+     * @param containers
+     * @return attachments of each container, in the order of the given
+     *         containers
+     */
+    public static Map<Resource, List<Attachment>> findByContainers(
+            Collection<? extends Resource> containers) {
+        Map<Resource, List<Attachment>> result = new LinkedHashMap<>();
+        Map<ResourceType, Set<String>> missing = new HashMap<>();
+
+        for (Resource container : containers) {
+            List<Attachment> cachedData = AttachmentCache.get(container);
+            if (cachedData != null) {
+                result.put(container, cachedData);
+            } else {
+                Set<String> ids = missing.get(container.getType());
+                if (ids == null) {
+                    ids = new HashSet<>();
+                    missing.put(container.getType(), ids);
+                }
+                ids.add(container.getId());
+            }
+        }
+
+        Map<String, List<Attachment>> found = new HashMap<>();
+        for (Map.Entry<ResourceType, Set<String>> entry : missing.entrySet()) {
+            for (List<String> ids : Iterables.partition(entry.getValue(), MAX_IDS_PER_QUERY)) {
+                for (Attachment attachment : find.where()
+                        .eq("containerType", entry.getKey())
+                        .in("containerId", ids).orderBy("id asc").findList()) {
+                    String key = attachment.containerType.name() + attachment.containerId;
+                    List<Attachment> list = found.get(key);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        found.put(key, list);
+                    }
+                    list.add(attachment);
+                }
+            }
         }
 
-        List<Attachment> list = findByContainer(container.getType(), container.getId());
-        AttachmentCache.set(container, list);
-        return list;
+        for (Resource container : containers) {
+            if (!result.containsKey(container)) {
+                List<Attachment> list = found.get(container.getType().name() + container.getId());
+                result.put(container, AttachmentCache.set(container,
+                        list != null ? list : new ArrayList<Attachment>()));
+            }
+        }
+
+        return result;
     }
 
     /**
@@ -199,49 +249,62 @@ public class Attachment extends Model implements ResourceConvertible {
      * @param to  the destination
      */
     public void moveTo(Resource to) {
+        AttachmentCache.remove(this);
         containerType = to.getType();
         containerId = to.getId();
         update();
     }
 
     /**
-     * Moves a file to the Upload Directory.
-     *
-     * This method is used to move a file stored in temporary directory by
-     * PlayFramework to the Upload Directory managed by Yobi.
+     * Computes SHA1 hash of a file.
      *
      * @param file
      * @return SHA1 hash of the file
      * @throws NoSuchAlgorithmException
      * @throws IOException
      */
-    private static File moveFileIntoUploadDirectory(File file)
+    private static String hashOf(File file)
             throws NoSuchAlgorithmException, IOException {
-        // Compute sha1 checksum.
         InputStream is = new FileInputStream(file);
         byte buf[] = new byte[10240];
         MessageDigest algorithm = MessageDigest.getInstance("SHA1");
-        for (int readSize = 0; readSize >= 0; readSize = is.read(buf)) {
-            algorithm.update(buf, 0, readSize);
+        try {
+            for (int readSize = 0; readSize >= 0; readSize = is.read(buf)) {
+                algorithm.update(buf, 0, readSize);
+            }
+        } finally {
+            is.close();
         }
-        is.close();
-        String hash = toHex(algorithm.digest());
-
-        return moveFileIntoUploadDirectory(file, hash);
+        return toHex(algorithm.digest());
     }
 
-    private static File moveFileIntoUploadDirectory(File file, String hash)
-            throws NoSuchAlgorithmException, IOException {
-        // Store the file.
-        File attachedFile = new File(createUploadDirectory(), hash);
-        boolean isMoved = file.renameTo(attachedFile);
-
-        if(!isMoved){
-            FileUtils.copyFile(file, attachedFile);
-            file.delete();
+    /**
+     * Moves a file to the Upload Directory and saves this attachment.
+     *
+     * The file is moved while holding the lock for the hash, so that the file
+     * is not deleted by {@link #delete()} of another attachment before this
+     * attachment refers it.
+     *
+     * @param file  a file whose SHA1 hash is {@code hash}
+     * @param hash
+     * @param name
+     * @param container
+     * @return {@code true} if the file is attached, {@code false} otherwise.
+     * @throws IOException
+     */
+    private boolean moveIntoUploadDirectoryAndSave(File file, String hash, String name,
+                                                   Resource container) throws IOException {
+        Lock lock = AttachmentStorage.lock(hash);
+        lock.lock();
+        try {
+            return save(storage().put(file, hash), name, container);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return attachedFile;
+    private static AttachmentStorage storage() {
+        return new AttachmentStorage(getUploadDirectory());
     }
 
     /**
@@ -267,7 +330,7 @@ public class Attachment extends Model implements ResourceConvertible {
      */
     @Transient
     public boolean store(File file, String name, Resource container) throws IOException, NoSuchAlgorithmException {
-        return save(moveFileIntoUploadDirectory(file), name, container);
+        return moveIntoUploadDirectoryAndSave(file, hashOf(file), name, container);
     }
 
     /**
@@ -278,7 +341,7 @@ public class Attachment extends Model implements ResourceConvertible {
      * @return the file
      */
     public File getFile() {
-        return new File(getUploadDirectory(), this.hash);
+        return storage().get(this.hash);
     }
 
     public static File getUploadDirectory() {
@@ -305,7 +368,7 @@ public class Attachment extends Model implements ResourceConvertible {
      * @return true if the file exists
      */
     public static boolean fileExists(String hash) {
-        return new File(getUploadDirectory(), hash).isFile();
+        return storage().exists(hash);
     }
 
     /**
@@ -317,23 +380,31 @@ public class Attachment extends Model implements ResourceConvertible {
     @Override
     public void delete() {
         super.delete();
-        // FIXME: Rarely this may delete a file which is still referred by
-        // attachment, if new attachment is added after checking nonexistence
-        // of an attachment refers the file and before deleting the file.
-        //
-        // But synchronization with Attachment class may be a bad idea to solve
-        // the problem. If you do that, blocking of project deletion causes
-        // that all requests to attachments (even a user avatars you can see in
-        // most of pages) are blocked.
-        if (!exists(this.hash)) {
-            try {
-                Files.delete(Paths.get(uploadDirectory, this.hash));
-            } catch (Exception e) {
-                play.Logger.error("Failed to delete: " + this, e);
+        deleteFileIfUnreferenced(this.hash);
+        AttachmentCache.remove(this);
+    }
+
+    /**
+     * Deletes the file of the given hash if no attachment refers it.
+     *
+     * Only the attachments of the given hash are blocked while checking, so
+     * deleting a project does not block the requests to the other
+     * attachments.
+     *
+     * @param hash
+     */
+    private static void deleteFileIfUnreferenced(String hash) {
+        Lock lock = AttachmentStorage.lock(hash);
+        lock.lock();
+        try {
+            if (!exists(hash)) {
+                storage().delete(hash);
             }
+        } catch (Exception e) {
+            play.Logger.error("Failed to delete: " + hash, e);
+        } finally {
+            lock.unlock();
         }
-
-        AttachmentCache.remove(this);
     }
 
     /**
@@ -450,36 +521,77 @@ public class Attachment extends Model implements ResourceConvertible {
                     @Override
                     public void run() {
                         try {
-                            String result = removeUserTemporaryFiles();
-                            play.Logger.info("User uploaded temporary files are cleaned up..." + result);
+                            int deleted = deleteTemporaryFilesOlderThan(JodaDateUtil.beforeByMillis(
+                                    AttachmentApp.TEMPORARYFILES_KEEPUP_TIME_MILLIS));
+                            play.Logger.info("User uploaded temporary files are cleaned up..." + deleted);
                         } catch (Exception e) {
                             play.Logger.warn("Failed!! User uploaded temporary files clean-up action failed!", e);
                         }
                     }
-
-                    private String removeUserTemporaryFiles() {
-                        List<Attachment> attachmentList = Attachment.find.where()
-                                .eq("containerType", ResourceType.USER)
-                                .ge("createdDate", JodaDateUtil.beforeByMillis(AttachmentApp.TEMPORARYFILES_KEEPUP_TIME_MILLIS))
-                                .findList();
-                        int deletedFileCount = 0;
-                        for (Attachment attachment : attachmentList) {
-                            attachment.delete();
-                            deletedFileCount++;
-                        }
-                        if (attachmentList.size() != deletedFileCount) {
-                            play.Logger.error(
-                                    String.format("Failed to delete user temporary files.\nExpected: %d  Actual: %d",
-                                            attachmentList.size(), deletedFileCount)
-                            );
-                        }
-                        return String.format("(%d of %d)", attachmentList.size(), deletedFileCount);
-                    }
                 },
                 Akka.system().dispatcher()
         );
     }
 
+    /**
+     * Deletes the temporary files uploaded before the given time, in chunks.
+     *
+     * The files in the Upload Directory are deleted if no other attachment
+     * refers them.
+     *
+     * @param threshold
+     * @return the number of attachments deleted
+     * @see models.support.ChunkedPurge
+     */
+    public static int deleteTemporaryFilesOlderThan(final Date threshold) {
+        return new ChunkedPurge("attachment.temporary") {
+            private final Set<String> hashes = new HashSet<>();
+            private final Set<String> containerIds = new HashSet<>();
+
+            @Override
+            protected List<Long> nextIds(Long afterId, int size) {
+                ExpressionList<Attachment> el = find.where()
+                        .eq("containerType", ResourceType.USER)
+                        .lt("createdDate", threshold);
+                if (afterId != null) {
+                    el.gt("id", afterId);
+                }
+                return toLongs(el.orderBy("id asc").setMaxRows(size).findIds());
+            }
+
+            @Override
+            protected int delete(List<Long> ids) {
+                hashes.clear();
+                containerIds.clear();
+                for (Attachment attachment : find.select("hash, containerId").where()
+                        .idIn(ids).findList()) {
+                    hashes.add(attachment.hash);
+                    containerIds.add(attachment.containerId);
+                }
+
+                return Ebean.createSqlUpdate("delete from attachment"
+                        + " where id between :from and :to"
+                        + " and container_type = :containerType and created_date < :threshold")
+                        .setParameter("from", ids.get(0))
+                        .setParameter("to", ids.get(ids.size() - 1))
+                        .setParameter("containerType", ResourceType.USER.name())
+                        .setParameter("threshold", threshold)
+                        .execute();
+            }
+
+            @Override
+            protected void afterDelete(List<Long> ids) {
+                for (String containerId : containerIds) {
+                    AttachmentCache.remove(ResourceType.USER, containerId);
+                }
+
+                for (String hash : hashes) {
+                    deleteFileIfUnreferenced(hash);
+                }
+            }
+        }.run();
+    }
+
     public static void onStart() {
         cleanupTemporaryUploadFilesWithSchedule();
     }
@@ -521,7 +633,7 @@ public class Attachment extends Model implements ResourceConvertible {
         }
 
         // Save this attachment with metadata
-        return save(moveFileIntoUploadDirectory(tmpFile, tempFileHash), fileName, container);
+        return moveIntoUploadDirectoryAndSave(tmpFile, tempFileHash, fileName, container);
     }
 
     /**
@@ -579,16 +691,4 @@ public class Attachment extends Model implements ResourceConvertible {
         formatter.close();
         return hex;
     }
-
-    // Create the upload directory if it doesn't exist.
-    private static File createUploadDirectory() throws NotDirectoryException {
-        File uploads = getUploadDirectory();
-        uploads.mkdirs();
-        if (!uploads.isDirectory()) {
-            throw new NotDirectoryException(
-                    "'" + uploads.getAbsolutePath() + "' is not a directory.");
-        }
-        return uploads;
-    }
-
 }
@@ -23,6 +23,7 @@ package models;
 import com.avaje.ebean.Ebean;
 import com.avaje.ebean.Page;
 import com.avaje.ebean.annotation.Formula;
+import com.google.common.collect.Iterables;
 import jxl.Workbook;
 import jxl.format.Alignment;
 import jxl.format.Border;
@@ -63,6 +64,7 @@ public class Issue extends AbstractPosting implements LabelOwner {
     public static final String DEFAULT_SORTER = "createdDate";
     public static final String TO_BE_ASSIGNED = "TBA";
     public static final Pattern ISSUE_PATTERN = Pattern.compile("#\\d+");
+    private static final int MAX_NUMBERS_PER_QUERY = 1000;
 
     public State state;
 
@@ -348,6 +350,25 @@ public class Issue extends AbstractPosting implements LabelOwner {
         return AbstractPosting.findByNumber(finder, project, number);
     }
 
+    /**
+     * Finds the issues of the given numbers in the {@code project}, with one
+     * query for every {@link #MAX_NUMBERS_PER_QUERY} numbers.
+     *
+     * @param project
+     * @param numbers
+     * @return the found issues by their numbers
+     */
+    public static Map<Long, Issue> findByNumbers(Project project, Collection<Long> numbers) {
+        Map<Long, Issue> issues = new HashMap<>();
+        for (List<Long> chunk : Iterables.partition(new HashSet<>(numbers), MAX_NUMBERS_PER_QUERY)) {
+            for (Issue issue : finder.where().eq("project.id", project.id)
+                    .in("number", chunk).findList()) {
+                issues.put(issue.getNumber(), issue);
+            }
+        }
+        return issues;
+    }
+
     /**
      * Returns all users watching or voting the issue.
      *
@@ -20,6 +20,9 @@
  */
 package models;
 
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Transaction;
+import com.google.common.collect.Lists;
 import models.enumeration.EventType;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
@@ -29,6 +32,8 @@ import play.db.ebean.Model;
 import javax.persistence.*;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 
@@ -57,6 +62,8 @@ public class IssueEvent extends Model implements TimelineItem {
     private static final int DRAFT_TIME_IN_MILLIS = Configuration.root()
         .getMilliseconds("application.issue-event.draft-time", 30 * 1000L).intValue();
 
+    private static final int BATCH_SIZE = 500;
+
     public static final Finder<Long, IssueEvent> find = new Finder<>(Long.class,
             IssueEvent.class);
 
@@ -134,18 +141,54 @@ public class IssueEvent extends Model implements TimelineItem {
     }
 
     public static Set<Issue> findReferredIssue(String message, Project project) {
+        return new HashSet<>(Issue.findByNumbers(project, findReferredIssueNumbers(message)).values());
+    }
+
+    /**
+     * Finds the numbers of the issues referred by the {@code message}, such
+     * as {@code #12}.
+     *
+     * @param message
+     * @return the numbers in the order of appearance
+     */
+    public static Set<Long> findReferredIssueNumbers(String message) {
         Matcher m = Issue.ISSUE_PATTERN.matcher(message);
-        Set<Issue> referredIssues = new HashSet<>();
+        Set<Long> numbers = new LinkedHashSet<>();
 
         while(m.find()) {
             String issueText = m.group();
             String issueNumber = issueText.substring(1); // removing the leading char #
-            Issue issue = Issue.findByNumber(project, Long.parseLong(issueNumber));
-            if(issue != null) {
-                referredIssues.add(issue);
+            try {
+                numbers.add(Long.parseLong(issueNumber));
+            } catch (NumberFormatException e) {
+                // Too large to be an issue number
             }
         }
 
-        return referredIssues;
+        return numbers;
+    }
+
+    /**
+     * Saves the {@code events} with JDBC batching, in a transaction for every
+     * {@link #BATCH_SIZE} events.
+     *
+     * Unlike {@link #add(IssueEvent)}, the events are not merged with the
+     * last events.
+     *
+     * @param events
+     */
+    public static void saveAll(List<IssueEvent> events) {
+        for (List<IssueEvent> chunk : Lists.partition(events, BATCH_SIZE)) {
+            Transaction transaction = Ebean.beginTransaction();
+            try {
+                transaction.setBatchMode(true);
+                transaction.setBatchSize(BATCH_SIZE);
+                transaction.setBatchGetGeneratedKeys(false);
+                Ebean.save(chunk);
+                Ebean.commitTransaction();
+            } finally {
+                Ebean.endTransaction();
+            }
+        }
     }
 }
@@ -20,7 +20,12 @@
  */
 package models;
 
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Expr;
+import com.avaje.ebean.ExpressionList;
 import com.avaje.ebean.RawSqlBuilder;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebean.Transaction;
 import controllers.UserApp;
 import controllers.routes;
 import notification.INotificationEvent;
@@ -28,11 +33,11 @@ import models.enumeration.*;
 import models.resource.GlobalResource;
 import models.resource.Resource;
 import models.resource.ResourceConvertible;
+import models.support.ChunkedPurge;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Predicate;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.revwalk.RevCommit;
 import org.joda.time.DateTime;
 import org.tmatesoft.svn.core.SVNException;
 import play.api.i18n.Lang;
@@ -40,9 +45,11 @@ import play.db.ebean.Model;
 import play.i18n.Messages;
 import play.libs.Akka;
 import playRepository.*;
+import playRepository.hooks.PushEvent;
 import scala.concurrent.duration.Duration;
 import utils.AccessControl;
 import utils.EventConstants;
+import utils.Metrics;
 import utils.RouteUtil;
 
 import javax.naming.LimitExceededException;
@@ -51,11 +58,8 @@ import javax.servlet.ServletException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,6 +69,20 @@ import static models.enumeration.EventType.*;
 public class NotificationEvent extends Model implements INotificationEvent {
     private static final long serialVersionUID = 1L;
 
+    private static final int DEFAULT_DISPATCHER_QUEUE_SIZE = 10000;
+    private static final long DISPATCHER_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The key of the events added in a transaction, which are dispatched
+     * after the transaction is committed.
+     */
+    private static final String PENDING_EVENTS = NotificationEvent.class.getName() + ".pending";
+
+    private static final Metrics.Counter DISPATCH_REJECTED =
+            Metrics.counter("notification.dispatcher.rejected");
+
+    private static volatile ThreadPoolExecutor dispatcher;
+
     @Id
     public Long id;
 
@@ -356,7 +374,106 @@ public class NotificationEvent extends Model implements INotificationEvent {
         return Resource.exists(resourceType, resourceId);
     }
 
+    /**
+     * Adds the given event.
+     *
+     * If the dispatcher has been started, the event is queued and added by
+     * the dispatcher in the background, so that the request which caused the
+     * event does not wait for its receivers to be filtered. Otherwise, e.g.
+     * if the dispatcher is busy, the event is added at once.
+     *
+     * In a transaction, the event is queued after the transaction is
+     * committed, because the dispatcher could not see the resource of the
+     * event until then. It is dropped if the transaction is rolled back.
+     *
+     * The dispatcher adds a copy of the event, so the given event is not
+     * changed while the caller reads it; in particular, it is not merged
+     * into the last event.
+     *
+     * @param event
+     * @see models.support.NotificationEventTransactionListener
+     */
     public static void add(NotificationEvent event) {
+        if (dispatcher == null) {
+            addNow(event);
+            return;
+        }
+
+        Transaction transaction = Ebean.currentTransaction();
+        if (transaction != null && transaction.isActive()) {
+            @SuppressWarnings("unchecked")
+            List<NotificationEvent> pending =
+                    (List<NotificationEvent>) transaction.getUserObject(PENDING_EVENTS);
+            if (pending == null) {
+                pending = new ArrayList<>();
+                transaction.putUserObject(PENDING_EVENTS, pending);
+                // Ebean does not notify the commit of a transaction which has
+                // not used its connection.
+                transaction.getConnection();
+            }
+            pending.add(event.copy());
+            return;
+        }
+
+        dispatch(event.copy());
+    }
+
+    /**
+     * Queues the events added in the given transaction, which has been
+     * committed.
+     *
+     * @param transaction
+     * @see models.support.NotificationEventTransactionListener
+     */
+    public static void onCommit(Transaction transaction) {
+        @SuppressWarnings("unchecked")
+        List<NotificationEvent> pending =
+                (List<NotificationEvent>) transaction.getUserObject(PENDING_EVENTS);
+        if (pending == null) {
+            return;
+        }
+        transaction.putUserObject(PENDING_EVENTS, null);
+        for (NotificationEvent event : pending) {
+            dispatch(event);
+        }
+    }
+
+    /**
+     * Queues the given event, or adds it at once if the dispatcher has been
+     * stopped or its queue is full.
+     */
+    private static void dispatch(NotificationEvent event) {
+        ThreadPoolExecutor dispatcher = NotificationEvent.dispatcher;
+        if (dispatcher != null) {
+            try {
+                dispatcher.execute(new Dispatch(event));
+                return;
+            } catch (RejectedExecutionException e) {
+                DISPATCH_REJECTED.inc();
+            }
+        }
+        addNow(event);
+    }
+
+    /**
+     * Returns a new event with the same values as this one, which has not
+     * been saved and has no mail.
+     */
+    private NotificationEvent copy() {
+        NotificationEvent copy = new NotificationEvent();
+        copy.title = title;
+        copy.senderId = senderId;
+        copy.receivers = (receivers != null) ? new HashSet<>(receivers) : null;
+        copy.created = created;
+        copy.resourceType = resourceType;
+        copy.resourceId = resourceId;
+        copy.eventType = eventType;
+        copy.oldValue = oldValue;
+        copy.newValue = newValue;
+        return copy;
+    }
+
+    private static void addNow(NotificationEvent event) {
         if (event.notificationMail == null) {
             event.notificationMail = new NotificationMail();
             event.notificationMail.notificationEvent = event;
@@ -394,33 +511,123 @@ public class NotificationEvent extends Model implements INotificationEvent {
         event.saveManyToManyAssociations("receivers");
     }
 
+    /**
+     * Removes the receivers who cannot read the resource of the event, and
+     * those who watch the project but have turned off this type of event.
+     *
+     * Each condition is checked with a query or two for all the receivers.
+     */
     private static void filterReceivers(final NotificationEvent event) {
         final Project project = event.getProject();
         if (project == null) {
             return;
         }
 
-        final Resource resource = project.asResource();
+        Iterator<User> iterator = event.receivers.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().loginId == null) {
+                iterator.remove();
+            }
+        }
+
+        AccessControl.retainAllowedToRead(event.receivers, event.getResource());
+
+        Set<Long> receiverIds = new HashSet<>();
+        for (User receiver : event.receivers) {
+            receiverIds.add(receiver.id);
+        }
+
+        Set<Long> watchingIds = Watch.findWatchingUserIds(project.asResource(), receiverIds);
+        final Set<Long> disabledIds =
+                UserProjectNotification.findDisabledUserIds(project, event.eventType, watchingIds);
+
         CollectionUtils.filter(event.receivers, new Predicate() {
             @Override
             public boolean evaluate(Object obj) {
-                User receiver = (User) obj;
-                if(receiver.loginId == null) {
-                    return false;
-                }
+                return !disabledIds.contains(((User) obj).id);
+            }
+        });
+    }
 
-                if (!AccessControl.isAllowed(receiver, event.getResource(), Operation.READ)) {
-                    return false;
-                }
+    /**
+     * A queued event, which is added by the dispatcher.
+     */
+    private static class Dispatch implements Runnable {
+        private final NotificationEvent event;
+        private final long queued = System.currentTimeMillis();
+
+        Dispatch(NotificationEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            try {
+                addNow(event);
+            } catch (Exception e) {
+                play.Logger.error("Failed to add a notification event: " + event.title, e);
+            }
+        }
+    }
+
+    private static void startDispatcher() {
+        int queueSize = play.Configuration.root().getInt(
+                "application.notification.dispatcher.queueSize", DEFAULT_DISPATCHER_QUEUE_SIZE);
+
+        // A single worker keeps the order of events, which matters when an
+        // event is merged into the last one of the same resource.
+        dispatcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "notification-dispatcher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
 
-                if (!Watch.isWatching(receiver, resource)) {
-                    return true;
+        Metrics.gauge("notification.dispatcher.queue", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                ThreadPoolExecutor dispatcher = NotificationEvent.dispatcher;
+                return dispatcher != null ? dispatcher.getQueue().size() : 0;
+            }
+        });
+        Metrics.gauge("notification.dispatcher.lag", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                ThreadPoolExecutor dispatcher = NotificationEvent.dispatcher;
+                Runnable oldest = (dispatcher != null) ? dispatcher.getQueue().peek() : null;
+                if (oldest instanceof Dispatch) {
+                    return System.currentTimeMillis() - ((Dispatch) oldest).queued;
                 }
-                return UserProjectNotification.isEnabledNotiType(receiver, project, event.eventType);
+                return 0;
             }
         });
     }
 
+    /**
+     * Stops the dispatcher after adding the queued events.
+     */
+    private static void stopDispatcher() {
+        ThreadPoolExecutor dispatcher = NotificationEvent.dispatcher;
+        if (dispatcher == null) {
+            return;
+        }
+        NotificationEvent.dispatcher = null;
+        dispatcher.shutdown();
+        try {
+            if (!dispatcher.awaitTermination(DISPATCHER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                play.Logger.warn("Notification events are dropped: "
+                        + dispatcher.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            dispatcher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static void deleteBy(Resource resource) {
         for (NotificationEvent event : NotificationEvent.find.where().where().eq("resourceType",
                 resource.getType()).eq("resourceId", resource.getId()).findList()) {
@@ -853,7 +1060,7 @@ public class NotificationEvent extends Model implements INotificationEvent {
         NotificationEvent.add(notiEvent);
     }
 
-    public static void afterNewCommits(List<RevCommit> commits, List<String> refNames, Project project, User sender, String title, Set<User> watchers) {
+    public static void afterNewCommits(List<PushEvent.PushedCommit> commits, List<String> refNames, Project project, User sender, String title, Set<User> watchers) {
         NotificationEvent notiEvent = createFrom(sender, project);
         notiEvent.title = title;
         notiEvent.receivers = watchers;
@@ -889,17 +1096,16 @@ public class NotificationEvent extends Model implements INotificationEvent {
         return notiEvent;
     }
 
-    private static String newCommitsMessage(List<RevCommit> commits, List<String> refNames, Project project) {
+    private static String newCommitsMessage(List<PushEvent.PushedCommit> commits, List<String> refNames, Project project) {
         StringBuilder result = new StringBuilder();
 
         if(commits.size() > 0) {
             result.append("### " + Messages.get("notification.pushed.newcommits") + "\n");
             result.append("```\n");
-            for(RevCommit commit : commits) {
-                GitCommit gitCommit = new GitCommit(commit);
-                result.append(gitCommit.getShortId());
+            for(PushEvent.PushedCommit commit : commits) {
+                result.append(commit.getShortId());
                 result.append(" ");
-                result.append(gitCommit.getShortMessage());
+                result.append(commit.getShortMessage());
                 result.append("\n");
             }
             result.append("```\n\n");
@@ -1139,10 +1345,11 @@ public class NotificationEvent extends Model implements INotificationEvent {
                     public void run() {
                         Date threshold = DateTime.now()
                                 .minusDays(EventConstants.KEEP_TIME_IN_DAYS).toDate();
-                        List<NotificationEvent> olds = find.where().lt("created", threshold).findList();
-
-                        for (NotificationEvent old : olds) {
-                            old.delete();
+                        try {
+                            int deleted = deleteOlderThan(threshold);
+                            play.Logger.info("Old notifications are deleted: " + deleted);
+                        } catch (Exception e) {
+                            play.Logger.warn("Failed to delete old notifications", e);
                         }
                     }
                 },
@@ -1151,44 +1358,103 @@ public class NotificationEvent extends Model implements INotificationEvent {
         }
     }
 
+    /**
+     * Deletes the notifications created before the given time, with their
+     * receivers and mails, in chunks.
+     *
+     * @param threshold
+     * @return the number of notifications deleted
+     * @see models.support.ChunkedPurge
+     */
+    public static int deleteOlderThan(final Date threshold) {
+        int deleted = new ChunkedPurge("notification") {
+            @Override
+            protected List<Long> nextIds(Long afterId, int size) {
+                ExpressionList<NotificationEvent> el = find.where().lt("created", threshold);
+                if (afterId != null) {
+                    el.gt("id", afterId);
+                }
+                return toLongs(el.orderBy("id asc").setMaxRows(size).findIds());
+            }
+
+            @Override
+            protected int delete(List<Long> ids) {
+                String chunk = "select id from notification_event"
+                        + " where id between :from and :to and created < :threshold";
+                deleteChunk("delete from notification_event_n4user"
+                        + " where notification_event_id in (" + chunk + ")", ids, threshold);
+                deleteChunk("delete from notification_mail"
+                        + " where notification_event_id in (" + chunk + ")", ids, threshold);
+                return deleteChunk("delete from notification_event"
+                        + " where id between :from and :to and created < :threshold", ids, threshold);
+            }
+        }.run();
+
+        return deleted;
+    }
+
+    private static int deleteChunk(String sql, List<Long> ids, Date threshold) {
+        return Ebean.createSqlUpdate(sql)
+                .setParameter("from", ids.get(0))
+                .setParameter("to", ids.get(ids.size() - 1))
+                .setParameter("threshold", threshold)
+                .execute();
+    }
+
     public static void onStart() {
         scheduleDeleteOldNotifications();
+        startDispatcher();
+    }
+
+    public static void onStop() {
+        stopDispatcher();
     }
 
     /**
-     * Finds NotificationEvents that are supposed to be shown to the {@code user}.
-     * Paginates it with {@code from} and {@code size}.
+     * Finds NotificationEvents that are supposed to be shown to the {@code user},
+     * which are older than the given one, newest first.
+     *
+     * A page starts after the last event of the previous page instead of at
+     * an offset, so the newer events do not have to be skipped and every page
+     * takes about the same time.
      *
      * @param user
-     * @param from
+     * @param before  the time when the last event of the previous page was
+     *                created in milliseconds, or null for the first page
+     * @param beforeId  the id of the last event of the previous page, or null
+     *                  for the first page
      * @param size
      * @return
      */
-    public static List<NotificationEvent> findByReceiver(User user, int from, int size) {
+    public static List<NotificationEvent> findByReceiver(User user, Long before, Long beforeId, int size) {
         String sql = "select t1.id, t1.title, t1.sender_id, t1.created, t1.resource_type, t1.resource_id, t1.event_type, " +
                 "t1.old_value, t1.new_value " +
-                "from n4user t0 " +
-                "left outer join notification_event_n4user t1z_ on t1z_.n4user_id = t0.id " +
-                "left outer join notification_event t1 on t1.id = t1z_.notification_event_id " +
-                "left outer join notification_mail t2 on t2.notification_event_id = t1.id " +
-                "where t0.id = " + user.id + " and t1.id IS NOT NULL " +
-                "order by t1.created DESC";
+                "from notification_event t1 " +
+                "join notification_event_n4user t1z_ on t1z_.notification_event_id = t1.id " +
+                "where t1z_.n4user_id = " + user.id;
+
+        ExpressionList<NotificationEvent> el = find.setRawSql(RawSqlBuilder.parse(sql).create()).where();
+        if (before != null && beforeId != null) {
+            Date created = new Date(before);
+            el.or(Expr.lt("created", created),
+                    Expr.and(Expr.eq("created", created), Expr.lt("id", beforeId)));
+        }
 
-        return find.setRawSql(RawSqlBuilder.parse(sql).create())
-                .setFirstRow(from)
-                .setMaxRows(size)
-                .findList();
+        return el.orderBy("created desc, id desc").setMaxRows(size).findList();
     }
 
+    /**
+     * Returns the number of notifications the {@code user} has received.
+     *
+     * @param user
+     * @return
+     */
     public static int getNotificationsCount(User user) {
-        String sql = "select t1.id " +
-                "from n4user t0 " +
-                "left outer join notification_event_n4user t1z_ on t1z_.n4user_id = t0.id " +
-                "left outer join notification_event t1 on t1.id = t1z_.notification_event_id " +
-                "left outer join notification_mail t2 on t2.notification_event_id = t1.id " +
-                "where t0.id = " + user.id + " and t1.id IS NOT NULL ";
-
-        return find.setRawSql(RawSqlBuilder.parse(sql).create()).findList().size();
+        SqlRow row = Ebean.createSqlQuery(
+                "select count(*) as cnt from notification_event_n4user where n4user_id = :userId")
+                .setParameter("userId", user.id)
+                .findUnique();
+        return row.getInteger("cnt");
     }
 
     public static void afterCommentUpdated(Comment comment) {
@@ -20,8 +20,8 @@
  */
 package models;
 
+import com.avaje.ebean.Ebean;
 import com.google.common.collect.Lists;
-import info.schleichardt.play2.mailplugin.Mailer;
 import notification.INotificationEvent;
 import mailbox.EmailAddressWithDetail;
 import models.enumeration.EventType;
@@ -29,6 +29,7 @@ import models.enumeration.ResourceType;
 import models.enumeration.UserState;
 import models.resource.Resource;
 import notification.MergedNotificationEvent;
+import notification.NotificationMailSender;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang3.ObjectUtils;
@@ -52,7 +53,6 @@ import utils.Url;
 import javax.annotation.Nullable;
 import javax.mail.MessagingException;
 import javax.mail.Session;
-import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -60,6 +60,8 @@ import javax.persistence.OneToOne;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static models.enumeration.EventType.*;
@@ -68,6 +70,7 @@ import static models.enumeration.EventType.*;
 public class NotificationMail extends Model {
     private static final long serialVersionUID = 1L;
     private static final int RECIPIENT_NO_LIMIT = 0;
+    private static final int DEFAULT_BATCH_SIZE = 500;
     static boolean hideAddress = true;
     private static int recipientLimit = RECIPIENT_NO_LIMIT;
 
@@ -88,6 +91,7 @@ public class NotificationMail extends Model {
                 "application.notification.bymail.recipientLimit", RECIPIENT_NO_LIMIT);
 
         if (notificationEnabled()) {
+            NotificationMailSender.onStart();
             NotificationMail.startSchedule();
         }
     }
@@ -113,6 +117,8 @@ public class NotificationMail extends Model {
                 .getMilliseconds("application.notification.bymail.interval", 60 * 1000L);
         final int MAIL_NOTIFICATION_DELAY_IN_MILLIS = Configuration.root()
                 .getMilliseconds("application.notification.bymail.delay", 180 * 1000L).intValue();
+        final int MAIL_NOTIFICATION_BATCH_SIZE = Configuration.root()
+                .getInt("application.notification.bymail.batchSize", DEFAULT_BATCH_SIZE);
 
         Akka.system().scheduler().schedule(
             Duration.create(MAIL_NOTIFICATION_INITDELAY_IN_MILLIS, TimeUnit.MILLISECONDS),
@@ -138,65 +144,106 @@ public class NotificationMail extends Model {
                  *
                  * Every mail will be deleted regardless of whether it is sent
                  * or not.
+                 *
+                 * The mails are taken at most
+                 * {@code application.notification.bymail.batchSize} at a time,
+                 * and the next batch is taken after the mails of the previous
+                 * batch are sent.
                  */
                 private void sendMail() {
                     Date createdUntil = DateTime.now().minusMillis
                             (MAIL_NOTIFICATION_DELAY_IN_MILLIS).toDate();
-                    List<NotificationMail> mails = find.where()
-                                    .lt("notificationEvent.created", createdUntil)
-                                    .orderBy("notificationEvent.created ASC").findList();
 
-                    List<? extends INotificationEvent> events = extractEventsAndDelete(mails);
+                    while (true) {
+                        List<? extends INotificationEvent> events =
+                                claim(createdUntil, MAIL_NOTIFICATION_BATCH_SIZE);
+                        if (events == null) {
+                            return;
+                        }
+
+                        send(events);
+
+                        if (events.size() < MAIL_NOTIFICATION_BATCH_SIZE) {
+                            return;
+                        }
+                    }
+                }
 
+                private void send(List<? extends INotificationEvent> events) {
                     try {
                         events = mergeEvents(events);
                     } catch (Exception e) {
                         play.Logger.warn("Failed to group events", e);
                     }
 
+                    List<Future<?>> sending = new ArrayList<>();
                     for (INotificationEvent event : events) {
                         try {
                             if (event.resourceExists()) {
-                                sendNotification(event);
+                                sending.addAll(sendNotification(event));
                             }
                         } catch (Exception e) {
                             play.Logger.warn("Error occurred while sending a notification mail", e);
                         }
                     }
-                }
 
-                /**
-                 * Extracts events from the given mails and delete the mails.
-                 *
-                 * Collects {@link models.NotificationMail#notificationEvent}
-                 * field of the given mails, delete the mails and return the
-                 * events.
-                 *
-                 * If an exception occurs while deleting a mail, the event from
-                 * the email is not collected and the exception is logged with
-                 * a warning message.
-                 *
-                 * @param mails
-                 * @return a list of events
-                 */
-                private List<INotificationEvent> extractEventsAndDelete(List<NotificationMail> mails) {
-                    List<INotificationEvent> events = new ArrayList<>();
-                    for (NotificationMail mail : mails) {
+                    for (Future<?> future : sending) {
                         try {
-                            INotificationEvent event = mail.notificationEvent;
-                            mail.delete();
-                            events.add(event);
-                        } catch (Exception e) {
-                            Logger.warn("Error occurred while collecting notification events", e);
+                            future.get();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (ExecutionException e) {
+                            // NotificationMailSender has logged it.
                         }
                     }
-                    return events;
                 }
             },
             Akka.system().dispatcher()
         );
     }
 
+    /**
+     * Claims the oldest mails for the events created before the given date.
+     *
+     * Takes at most {@code batchSize} mails, delete them with a single
+     * statement and return their {@link models.NotificationMail#notificationEvent}
+     * fields in the order the events were created.
+     *
+     * If an exception occurs while deleting the mails, no event is returned
+     * and the exception is logged with a warning message.
+     *
+     * @param createdUntil
+     * @param batchSize
+     * @return a list of events, or null if the mails could not be deleted or
+     *         there is no mail
+     */
+    static List<INotificationEvent> claim(Date createdUntil, int batchSize) {
+        List<NotificationMail> mails = find.fetch("notificationEvent").where()
+                .lt("notificationEvent.created", createdUntil)
+                .orderBy("notificationEvent.created ASC, id ASC")
+                .setMaxRows(batchSize).findList();
+
+        if (mails.isEmpty()) {
+            return null;
+        }
+
+        List<INotificationEvent> events = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (NotificationMail mail : mails) {
+            events.add(mail.notificationEvent);
+            ids.add(mail.id);
+        }
+
+        try {
+            Ebean.delete(NotificationMail.class, ids);
+        } catch (Exception e) {
+            Logger.warn("Error occurred while collecting notification events", e);
+            return null;
+        }
+        return events;
+    }
+
 
     /**
      * Groups events by resource, sender and receivers
@@ -381,7 +428,8 @@ public class NotificationMail extends Model {
      * @param event
      * @see <a href="https://github.com/nforge/yobi/blob/master/docs/technical/watch.md>watch.md</a>
      */
-    private static void sendNotification(INotificationEvent event) {
+    private static List<Future<?>> sendNotification(INotificationEvent event) {
+        List<Future<?>> sending = new ArrayList<>();
         Set<User> receivers = event.findReceivers();
 
         // Remove inactive users.
@@ -396,13 +444,13 @@ public class NotificationMail extends Model {
         receivers.remove(User.anonymous);
 
         if(receivers.isEmpty()) {
-            return;
+            return sending;
         }
 
         final int partialRecipientSize = getPartialRecipientSize(receivers);
 
         if (partialRecipientSize <= 0) {
-            return;
+            return sending;
         }
 
         HashMap<String, List<User>> usersByLang = new HashMap<>();
@@ -418,14 +466,70 @@ public class NotificationMail extends Model {
         }
 
         for (String langCode : usersByLang.keySet()) {
+            Content content;
+            try {
+                content = Content.of(event, Lang.apply(langCode));
+            } catch (Exception e) {
+                Logger.warn("Failed to render a notification", e);
+                continue;
+            }
+
+            if (content == null) {
+                continue;
+            }
+
             List<List<User>> subLists = Lists.partition(usersByLang.get(langCode), partialRecipientSize);
 
             for (List<User> list : subLists) {
                 Set<MailRecipient> toList = getToList(list);
                 Set<MailRecipient> bccList = getBccList(list);
-                sendMail(event, toList, bccList, langCode);
+                Future<?> future = sendMail(event, content, toList, bccList);
+                if (future != null) {
+                    sending.add(future);
+                }
             }
         }
+
+        return sending;
+    }
+
+    /**
+     * The content of the mails for an event in a language, which is rendered
+     * once for all the receivers of the language.
+     */
+    private static class Content {
+        String replyTo;
+        String subject;
+        String htmlMessage;
+        String textMessage;
+
+        /**
+         * @return the content, or null if there is no message for the event
+         */
+        @Nullable
+        static Content of(INotificationEvent event, Lang lang) {
+            String message = event.getMessage(lang);
+
+            if (message == null) {
+                return null;
+            }
+
+            Content content = new Content();
+            content.replyTo = getReplyTo(event.getResource());
+            boolean acceptsReply = content.replyTo != null;
+
+            String urlToView = event.getUrlToView();
+
+            content.subject = event.getTitle();
+            Resource resource = event.getResource();
+            if (resource.getType() == ResourceType.ISSUE_COMMENT) {
+                IssueComment issueComment = IssueComment.find.byId(Long.valueOf(resource.getId()));
+                resource = issueComment.issue.asResource();
+            }
+            content.htmlMessage = getHtmlMessage(lang, message, urlToView, resource, acceptsReply);
+            content.textMessage = getPlainMessage(lang, message, Url.create(urlToView), acceptsReply);
+            return content;
+        }
     }
 
     private static int getPartialRecipientSize(Set<User> receivers) {
@@ -462,9 +566,11 @@ public class NotificationMail extends Model {
         return list;
     }
 
-    private static void sendMail(INotificationEvent event, Set<MailRecipient> toList, Set<MailRecipient> bccList, String langCode) {
+    @Nullable
+    private static Future<?> sendMail(INotificationEvent event, Content content,
+                                      Set<MailRecipient> toList, Set<MailRecipient> bccList) {
         if (toList.isEmpty()) {
-            return;
+            return null;
         }
 
         final EventEmail email = new EventEmail(event);
@@ -472,11 +578,8 @@ public class NotificationMail extends Model {
         try {
             email.setFrom(Config.getEmailFromSmtp(), event.getSender().name);
 
-            String replyTo = getReplyTo(event.getResource());
-            boolean acceptsReply = false;
-            if (replyTo != null) {
-                email.addReplyTo(replyTo);
-                acceptsReply = true;
+            if (content.replyTo != null) {
+                email.addReplyTo(content.replyTo);
             }
 
             for (MailRecipient recipient : toList) {
@@ -489,39 +592,19 @@ public class NotificationMail extends Model {
 
             // FIXME: gmail은 From과 To에 같은 주소가 있으면 reply-to를 무시한다.
 
-            Lang lang = Lang.apply(langCode);
-
-            String message = event.getMessage(lang);
-
-            if (message == null) {
-                return;
-            }
-
-            String urlToView = event.getUrlToView();
-
-            email.setSubject(event.getTitle());
-            Resource resource = event.getResource();
-            if (resource.getType() == ResourceType.ISSUE_COMMENT) {
-                IssueComment issueComment = IssueComment.find.byId(Long.valueOf(resource.getId()));
-                resource = issueComment.issue.asResource();
-            }
-            email.setHtmlMsg(getHtmlMessage(lang, message, urlToView, resource, acceptsReply));
-            email.setTextMsg(getPlainMessage(lang, message, Url.create(urlToView), acceptsReply));
+            email.setSubject(content.subject);
+            email.setHtmlMsg(content.htmlMessage);
+            email.setTextMsg(content.textMessage);
             email.setCharset("utf-8");
             email.addReferences();
             email.setSentDate(event.getCreatedDate());
-            Mailer.send(email);
-            String escapedTitle = email.getSubject().replace("\"", "\\\"");
-            Set<InternetAddress> recipients = new HashSet<>();
-            recipients.addAll(email.getToAddresses());
-            recipients.addAll(email.getCcAddresses());
-            recipients.addAll(email.getBccAddresses());
-            String logEntry = String.format("\"%s\" %s", escapedTitle, recipients);
-            play.Logger.of("mail.out").info(logEntry);
         } catch (Exception e) {
             Logger.warn("Failed to send a notification: "
                     + email + "\n" + ExceptionUtils.getStackTrace(e));
+            return null;
         }
+
+        return NotificationMailSender.send(email);
     }
 
     @Nullable
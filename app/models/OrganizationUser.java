@@ -26,7 +26,10 @@ import play.db.ebean.Model;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @Entity
 public class OrganizationUser extends Model {
@@ -79,6 +82,28 @@ public class OrganizationUser extends Model {
         return contains(organizationId, userId, RoleType.ORG_MEMBER);
     }
 
+    /**
+     * Returns the ids of the given users who are members of the given
+     * organization.
+     *
+     * @param organizationId
+     * @param userIds
+     * @return the ids
+     */
+    public static Set<Long> findMemberIds(Long organizationId, Collection<Long> userIds) {
+        Set<Long> ids = new HashSet<>();
+        if (userIds.isEmpty()) {
+            return ids;
+        }
+        for (OrganizationUser organizationUser : find.where()
+                .eq("organization.id", organizationId)
+                .eq("role.id", Role.findByRoleType(RoleType.ORG_MEMBER).id)
+                .in("user.id", userIds).findList()) {
+            ids.add(organizationUser.user.id);
+        }
+        return ids;
+    }
+
     public static String roleTypeOf(User user, Organization organization) {
         if(user == null) {
             return RoleType.ANONYMOUS.name();
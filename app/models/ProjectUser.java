@@ -26,9 +26,7 @@ import play.db.ebean.Model;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 @Entity
 public class ProjectUser extends Model {
@@ -112,6 +110,25 @@ public class ProjectUser extends Model {
         return (findRowCount != 0);
     }
 
+    /**
+     * Returns the ids of the given users who are members of the given project.
+     *
+     * @param projectId
+     * @param userIds
+     * @return the ids
+     */
+    public static Set<Long> findMemberIds(Long projectId, Collection<Long> userIds) {
+        Set<Long> ids = new HashSet<>();
+        if (userIds.isEmpty()) {
+            return ids;
+        }
+        for (ProjectUser projectUser : find.where().eq("project.id", projectId)
+                .in("user.id", userIds).findList()) {
+            ids.add(projectUser.user.id);
+        }
+        return ids;
+    }
+
     public static boolean isMember(Long userId, Long projectId) {
         if (userId == null) {
             return false;
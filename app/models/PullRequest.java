@@ -20,8 +20,7 @@
  */
 package models;
 
-import actors.RelatedPullRequestMergingActor;
-import akka.actor.Props;
+import actors.PullRequestMergeScheduler;
 import com.avaje.ebean.*;
 import controllers.PullRequestApp.SearchCondition;
 import controllers.UserApp;
@@ -52,10 +51,12 @@ import play.data.validation.Constraints;
 import play.db.ebean.Model;
 import play.db.ebean.Transactional;
 import play.i18n.Messages;
-import play.libs.Akka;
+import playRepository.AdvertisementCache;
 import playRepository.FileDiff;
+import playRepository.FileDiffSummary;
 import playRepository.GitCommit;
 import playRepository.GitRepository;
+import playRepository.MergeCheck;
 import utils.Constants;
 import utils.JodaDateUtil;
 
@@ -529,6 +530,7 @@ public class PullRequest extends Model implements ResourceConvertible {
                     case NEW:
                     case FAST_FORWARD:
                     case FORCED:
+                        AdvertisementCache.invalidate(getRepository());
                         return;
                     case REJECTED:
                     case LOCK_FAILURE:
@@ -562,7 +564,8 @@ public class PullRequest extends Model implements ResourceConvertible {
             NotificationEvent.afterPullRequestUpdated(sender, this, State.OPEN, State.MERGED);
             PullRequestEvent.addStateEvent(sender, this, State.MERGED);
 
-            Akka.system().actorOf(Props.create(RelatedPullRequestMergingActor.class)).tell(message, null);
+            PullRequestMergeScheduler.scheduleRelated(new PullRequestEventMessage(
+                    sender, message.getRequest(), toProject, toBranch));
         }
     }
 
@@ -863,13 +866,15 @@ public class PullRequest extends Model implements ResourceConvertible {
 
     private FetchResult fetchSourceBranchTo(String destination) throws IOException,
             GitAPIException {
-        return new Git(getRepository()).fetch()
+        FetchResult result = new Git(getRepository()).fetch()
                 .setRemote(GitRepository.getGitDirectoryURL(fromProject))
                 .setRefSpecs(new RefSpec()
                         .setSource(fromBranch)
                         .setDestination(destination)
                         .setForceUpdate(true))
                 .call();
+        AdvertisementCache.invalidate(getRepository());
+        return result;
     }
 
     public PullRequestMergeResult updateMerge() throws IOException, GitAPIException, PullRequestException {
@@ -921,8 +926,34 @@ public class PullRequest extends Model implements ResourceConvertible {
         return tempBranchToCheckConflict;
     }
 
-    // locking this repository is required because of fetch and update
+    /**
+     * Checks whether this pull request can be merged.
+     *
+     * The merge is simulated in memory by {@link MergeCheck}, which neither
+     * fetches the source branch nor writes any object. If it cannot, because
+     * the branches have more than one merge base, the source branch is
+     * fetched and merged as before.
+     */
     public PullRequestMergeResult attemptMerge() throws IOException, GitAPIException {
+        MergeCheck check = MergeCheck.check(fromProject, fromBranch, toProject, toBranch);
+        if (check == null) {
+            return attemptMergeByFetching();
+        }
+
+        PullRequestMergeResult pullRequestMergeResult = new PullRequestMergeResult();
+        pullRequestMergeResult.setPullRequest(this);
+        if (check.conflicts()) {
+            pullRequestMergeResult.setConflictStateOfPullRequest();
+        } else {
+            pullRequestMergeResult.setResolvedStateOfPullRequest();
+        }
+        pullRequestMergeResult.setGitCommits(check.getCommits());
+
+        return pullRequestMergeResult;
+    }
+
+    // locking this repository is required because of fetch and update
+    private PullRequestMergeResult attemptMergeByFetching() throws IOException, GitAPIException {
         // fetch the branch to merge
         String tempBranchToCheckConflict = fetchSourceTemporarilly();
 
@@ -947,6 +978,7 @@ public class PullRequest extends Model implements ResourceConvertible {
         RefUpdate refUpdate = getRepository().updateRef(tempBranchToCheckConflict);
         refUpdate.setForceUpdate(true);
         refUpdate.delete();
+        AdvertisementCache.invalidate(getRepository());
 
         return pullRequestMergeResult;
     }
@@ -1066,14 +1098,47 @@ public class PullRequest extends Model implements ResourceConvertible {
 
     public List<CodeCommentThread> getCodeCommentThreadsForChanges(String commitId) throws
             IOException, GitAPIException {
-        List<CodeCommentThread> result = new ArrayList<>();
+        List<CodeCommentThread> codeCommentThreads = new ArrayList<>();
         for(CommentThread commentThread : commentThreads) {
             // Include CodeCommentThread only
-            if (!(commentThread instanceof CodeCommentThread)) {
-                continue;
+            if (commentThread instanceof CodeCommentThread) {
+                codeCommentThreads.add((CodeCommentThread) commentThread);
             }
+        }
+        return getCodeCommentThreadsForChanges(commitId, codeCommentThreads);
+    }
+
+    /**
+     * Returns the code comment threads on the given file difference, which
+     * are queried by its paths so the threads on the other files are not
+     * checked for changes.
+     *
+     * @param commitId  the commit, or null for the changes of the pull request
+     * @param fileDiff
+     * @return the threads
+     */
+    public List<CodeCommentThread> getCodeCommentThreadsForChanges(String commitId,
+            FileDiff fileDiff) throws IOException, GitAPIException {
+        Set<String> paths = new HashSet<>();
+        if (fileDiff.pathA != null) {
+            paths.add(fileDiff.pathA);
+        }
+        if (fileDiff.pathB != null) {
+            paths.add(fileDiff.pathB);
+        }
+        if (paths.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return getCodeCommentThreadsForChanges(commitId, CodeCommentThread.find.where()
+                .eq("pullRequest.id", id)
+                .in("codeRange.path", paths)
+                .findList());
+    }
 
-            CodeCommentThread codeCommentThread = (CodeCommentThread) commentThread;
+    private List<CodeCommentThread> getCodeCommentThreadsForChanges(String commitId,
+            List<CodeCommentThread> codeCommentThreads) throws IOException, GitAPIException {
+        List<CodeCommentThread> result = new ArrayList<>();
+        for (CodeCommentThread codeCommentThread : codeCommentThreads) {
 
             if (commitId != null) {
                 if (codeCommentThread.commitId.equals(commitId)) {
@@ -1137,6 +1202,46 @@ public class PullRequest extends Model implements ResourceConvertible {
         return GitRepository.getDiff(getRepository(), commitId);
     }
 
+    /**
+     * Returns the summary of the changes, or of the commit if the given
+     * commit id is not null.
+     *
+     * @param commitId
+     * @return the summary of each file, or null if there is no such commit
+     * @throws IOException
+     * @see GitRepository#getDiffSummary(Repository, ObjectId, Repository, ObjectId)
+     */
+    public List<FileDiffSummary> getDiffSummary(String commitId) throws IOException {
+        if (commitId == null) {
+            if (mergedCommitIdFrom == null || mergedCommitIdTo == null) {
+                throw new IllegalStateException("No mergedCommitIdFrom or mergedCommitIdTo");
+            }
+            return GitRepository.getDiffSummary(getRepository(), mergedCommitIdFrom,
+                    mergedCommitIdTo);
+        }
+        return GitRepository.getDiffSummary(getRepository(), commitId);
+    }
+
+    /**
+     * Returns the difference of a file in the changes, or in the commit if
+     * the given commit id is not null.
+     *
+     * @param commitId
+     * @param path  the old or new path of the file
+     * @return the difference, or null if the file has not been changed
+     * @throws IOException
+     */
+    public FileDiff getFileDiff(String commitId, String path) throws IOException {
+        if (commitId == null) {
+            if (mergedCommitIdFrom == null || mergedCommitIdTo == null) {
+                throw new IllegalStateException("No mergedCommitIdFrom or mergedCommitIdTo");
+            }
+            return GitRepository.getFileDiff(getRepository(), mergedCommitIdFrom,
+                    mergedCommitIdTo, path);
+        }
+        return GitRepository.getFileDiff(getRepository(), commitId, path);
+    }
+
     public void removeCommentThread(CommentThread commentThread) {
         this.commentThreads.remove(commentThread);
         commentThread.pullRequest = null;
@@ -26,11 +26,16 @@ import com.avaje.ebean.Junction;
 import com.avaje.ebean.Page;
 import models.enumeration.Operation;
 import models.enumeration.ProjectScope;
+import models.enumeration.ResourceType;
 import models.enumeration.UserState;
+import models.support.SearchIndex;
+import models.support.VisibleProjects;
 import utils.AccessControl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 public class Search {
 
@@ -118,6 +123,7 @@ public class Search {
      */
     private static ExpressionList<Issue> issuesEL(String keyword, User user) {
         ExpressionList<Issue> el = Issue.finder.where();
+        inIndexedIds(el, ResourceType.ISSUE_POST, keyword, null);
         Junction<Issue> junction = el.disjunction();
         inProjectsTemplate(keyword, user, junction, DEFAULT_PATH_TO_PROJECT, containsKeywordInIssue);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInIssue);
@@ -161,6 +167,7 @@ public class Search {
 
     private static ExpressionList<Issue> issuesEL(String keyword, User user, Project project) {
         ExpressionList<Issue> el = Issue.finder.where().eq("project", project);
+        inIndexedIds(el, ResourceType.ISSUE_POST, keyword, project);
         if(!AccessControl.isAllowed(user, project.asResource(), Operation.READ)) {
             Junction<Issue> junction = el.disjunction();
             junction.add(Expr.eq("authorId", user.id));
@@ -206,6 +213,7 @@ public class Search {
     private static ExpressionList<Issue> issuesEL(String keyword, User user, Organization organization) {
         ExpressionList<Issue> el = Issue.finder.where()
                 .eq("project.organization", organization);
+        inIndexedIds(el, ResourceType.ISSUE_POST, keyword, null);
         Junction<Issue> junction = el.disjunction();
         inProjectsTemplate(keyword, user, organization, junction, DEFAULT_PATH_TO_PROJECT, containsKeywordInIssue);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInIssue);
@@ -245,6 +253,7 @@ public class Search {
 
     private static ExpressionList<Posting> postsEL(String keyword, User user) {
         ExpressionList<Posting> el = Posting.finder.where();
+        inIndexedIds(el, ResourceType.BOARD_POST, keyword, null);
         Junction<Posting> junction = el.disjunction();
         inProjectsTemplate(keyword, user, junction, DEFAULT_PATH_TO_PROJECT, containsKeywordInPosting);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInPosting);
@@ -286,6 +295,7 @@ public class Search {
     private static ExpressionList<Posting> postsEL(String keyword, User user, Project project) {
         ExpressionList<Posting> el = Posting.finder.where()
                 .eq("project", project);
+        inIndexedIds(el, ResourceType.BOARD_POST, keyword, project);
         if(!AccessControl.isAllowed(user, project.asResource(), Operation.READ)) {
             el.eq("authorId", user.id);
         }
@@ -328,6 +338,7 @@ public class Search {
     private static ExpressionList<Posting> postsEL(String keyword, User user, Organization organization) {
         ExpressionList<Posting> el = Posting.finder.where()
                 .eq("project.organization", organization);
+        inIndexedIds(el, ResourceType.BOARD_POST, keyword, null);
         Junction<Posting> junction = el.disjunction();
         inProjectsTemplate(keyword, user, organization, junction, DEFAULT_PATH_TO_PROJECT, containsKeywordInPosting);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInPosting);
@@ -503,20 +514,11 @@ public class Search {
                 .icontains("name", keyword)
             .endJunction();
         } else {
-            Junction<Project> junction = el.conjunction();
-            Junction<Project> pj = junction.disjunction();
-            pj.add(Expr.eq("projectScope", ProjectScope.PUBLIC)); // public
-            List<Organization> orgs = Organization.findOrganizationsByUserLoginId(user.loginId); // protected
-            if(!orgs.isEmpty()) {
-                pj.and(Expr.in("organization", orgs), Expr.eq("projectScope", ProjectScope.PROTECTED));
-            }
-            pj.add(Expr.eq("projectUser.user.id", user.id)); // private
-            pj.endJunction();
-            junction.disjunction()
+            inVisibleProjects(user, el, null);
+            el.disjunction()
                 .icontains("overview", keyword)
                 .icontains("name", keyword)
             .endJunction();
-            junction.endJunction();
         }
         el.orderBy().asc("name");
         return el;
@@ -591,6 +593,7 @@ public class Search {
 
     private static ExpressionList<IssueComment> issueCommentsEL(String keyword, User user) {
         ExpressionList<IssueComment> el = IssueComment.find.where();
+        inIndexedIds(el, ResourceType.ISSUE_COMMENT, keyword, null);
         Junction<IssueComment> junction = el.disjunction();
         inProjectsTemplate(keyword, user, junction, "issue.project", containsKeywordInIssueComment);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInIssueComment);
@@ -610,6 +613,7 @@ public class Search {
     private static ExpressionList<IssueComment> issueCommentsEL(String keyword, User user, Project project) {
         ExpressionList<IssueComment> el = IssueComment.find.where()
                 .eq("issue.project", project);
+        inIndexedIds(el, ResourceType.ISSUE_COMMENT, keyword, project);
         if(!AccessControl.isAllowed(user, project.asResource(), Operation.READ)) {
             el.eq("authorId", user.id);
         }
@@ -629,6 +633,7 @@ public class Search {
     private static ExpressionList<IssueComment> issueCommentsEL(String keyword, User user, Organization organization) {
         ExpressionList<IssueComment> el = IssueComment.find.where()
                 .eq("issue.project.organization", organization);
+        inIndexedIds(el, ResourceType.ISSUE_COMMENT, keyword, null);
         Junction<IssueComment> junction = el.disjunction();
         inProjectsTemplate(keyword, user, organization, junction, "issue.project", containsKeywordInIssueComment);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInIssueComment);
@@ -647,6 +652,7 @@ public class Search {
 
     private static ExpressionList<PostingComment> postCommentsEL(String keyword, User user) {
         ExpressionList<PostingComment> el = PostingComment.find.where();
+        inIndexedIds(el, ResourceType.NONISSUE_COMMENT, keyword, null);
         Junction<PostingComment> junction = el.disjunction();
         inProjectsTemplate(keyword, user, junction, "posting.project", containsKeywordInPostComment);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInPostComment);
@@ -666,6 +672,7 @@ public class Search {
     private static ExpressionList<PostingComment> postCommentsEL(String keyword, User user, Project project) {
         ExpressionList<PostingComment> el = PostingComment.find.where()
                 .eq("posting.project", project);
+        inIndexedIds(el, ResourceType.NONISSUE_COMMENT, keyword, project);
 
         if(!AccessControl.isAllowed(user, project.asResource(), Operation.READ)) {
             el.eq("authorId", user.id);
@@ -686,6 +693,7 @@ public class Search {
     private static ExpressionList<PostingComment> postCommentsEL(String keyword, User user, Organization organization) {
         ExpressionList<PostingComment> el = PostingComment.find.where()
                 .eq("posting.project.organization", organization);
+        inIndexedIds(el, ResourceType.NONISSUE_COMMENT, keyword, null);
         Junction<PostingComment> junction = el.disjunction();
         inProjectsTemplate(keyword, user, organization, junction, "posting.project", containsKeywordInPostComment);
         equalsUserTemplate(keyword, user, junction, DEFAULT_PATH_TO_AUTHOR, containsKeywordInPostComment);
@@ -704,6 +712,7 @@ public class Search {
 
     private static ExpressionList<ReviewComment> reviewsEL(String keyword, User user) {
         ExpressionList<ReviewComment> el = ReviewComment.find.where();
+        inIndexedIds(el, ResourceType.REVIEW_COMMENT, keyword, null);
         Junction<ReviewComment> junction = el.disjunction();
         inProjectsTemplate(keyword, user, junction, "thread.project", containsKeywordInReviewComment);
         equalsUserTemplate(keyword, user, junction, "author.id", containsKeywordInReviewComment);
@@ -723,6 +732,7 @@ public class Search {
     private static ExpressionList<ReviewComment> reviewsEL(String keyword, User user, Project project) {
         ExpressionList<ReviewComment> el = ReviewComment.find.where()
                 .eq("thread.project", project);
+        inIndexedIds(el, ResourceType.REVIEW_COMMENT, keyword, project);
         if(!AccessControl.isAllowed(user, project.asResource(), Operation.READ)) {
             el.eq("author.id", user.id);
         }
@@ -742,6 +752,7 @@ public class Search {
     private static ExpressionList<ReviewComment> reviewsEL(String keyword, User user, Organization organization) {
         ExpressionList<ReviewComment> el = ReviewComment.find.where()
                 .eq("thread.project.organization", organization);
+        inIndexedIds(el, ResourceType.REVIEW_COMMENT, keyword, null);
         Junction<ReviewComment> junction = el.disjunction();
         inProjectsTemplate(keyword, user, organization, junction, "thread.project", containsKeywordInReviewComment);
         equalsUserTemplate(keyword, user, junction, "author.id", containsKeywordInReviewComment);
@@ -754,6 +765,29 @@ public class Search {
         void withJunction(String keyword, Junction<T> junction);
     }
 
+    /**
+     * Restricts the query to the candidates found by {@link SearchIndex}, so
+     * the keyword is matched against only them. Does nothing if the index
+     * cannot narrow down the candidates.
+     *
+     * @param el
+     * @param type
+     * @param keyword
+     * @param project  the project to search in, or null for every project
+     */
+    private static <T> void inIndexedIds(ExpressionList<T> el, ResourceType type, String keyword, Project project) {
+        Set<Long> ids = SearchIndex.findIds(type, keyword, project != null ? project.id : null);
+        if (ids == null) {
+            return;
+        }
+        if (ids.isEmpty()) {
+            // No need to progress because the query matches nothing.
+            el.idIn(Collections.singletonList(-1L));
+        } else {
+            el.idIn(new ArrayList<>(ids));
+        }
+    }
+
     private static <T> void containsKeywordIn(String keyword, Junction<T> junction, String[] fields) {
         Junction<T> byKeyword = junction.disjunction();
         for(String field : fields) {
@@ -771,21 +805,9 @@ public class Search {
         if(user.isAnonymous()) {
             projectAndKeyword.eq(pathToProject + ".projectScope", ProjectScope.PUBLIC);
         } else {
-            ExpressionList<Project> pel = Project.find.where()
-                    .eq("organization", organization)
-                    .disjunction()
-                    .add(Expr.eq("projectUser.user.id", user.id));
-            if(OrganizationUser.exist(organization.id, user.id)) {
-                pel.add(Expr.in("projectScope", new ProjectScope[]{ProjectScope.PUBLIC, ProjectScope.PROTECTED}));
-            } else {
-                pel.add(Expr.eq("projectScope", ProjectScope.PUBLIC));
-            }
-            pel.endJunction();
-
-            List<Project> projects = pel.findList();
-            if(!projects.isEmpty()) {
-                projectAndKeyword.in(pathToProject, projects);
-            }
+            // The query is already restricted to the organization, so the
+            // visible projects out of it don't matter.
+            inVisibleProjects(user, projectAndKeyword, pathToProject);
         }
         junctionOperation.withJunction(keyword, projectAndKeyword);
         projectAndKeyword.endJunction();
@@ -801,25 +823,25 @@ public class Search {
         if(user.isAnonymous()) {
             projectAndKeyword.eq(pathToProject + ".projectScope", ProjectScope.PUBLIC);
         } else {
-            ExpressionList<Project> pel = Project.find.where().disjunction()
-                    .add(Expr.eq("projectScope", ProjectScope.PUBLIC))
-                    .add(Expr.eq("projectUser.user.id", user.id));
-
-            List<Organization> orgs = Organization.findOrganizationsByUserLoginId(user.loginId);
-            if(!orgs.isEmpty()) {
-                pel.and(Expr.in("organization", orgs), Expr.ne("projectScope", ProjectScope.PRIVATE));
-            }
-            pel.endJunction();
-
-            List<Project> projects = pel.findList();
-            if(!projects.isEmpty()) {
-                projectAndKeyword.in(pathToProject, projects);
-            }
+            inVisibleProjects(user, projectAndKeyword, pathToProject);
         }
         junctionOperation.withJunction(keyword, projectAndKeyword);
         projectAndKeyword.endJunction();
     }
 
+    /**
+     * Restricts the query to the projects the {@code user} can see.
+     *
+     * @param user
+     * @param el
+     * @param pathToProject  the path to the project, or null if the query is
+     *                       of projects
+     * @see VisibleProjects#restrict(ExpressionList, User, String)
+     */
+    private static <T> void inVisibleProjects(User user, ExpressionList<T> el, String pathToProject) {
+        VisibleProjects.restrict(el, user, pathToProject);
+    }
+
     private static <T> void equalsUserTemplate(String keyword, User user, Junction<T> junction, String pathToUserId, JunctionOperation<T> junctionOperation) {
         if(!user.isAnonymous()) {
             if(pathToUserId == null) {
@@ -267,6 +267,42 @@ public class User extends Model implements ResourceConvertible {
         return anonymous;
     }
 
+    /**
+     * Finds users by email accounts, in the same way as
+     * {@link #findByEmail(String)} but with a single query for the primary
+     * accounts and another for the sub email accounts.
+     *
+     * @param emails
+     * @return a map from each email account to its user; an email account
+     *         which matches up with no user is not included
+     */
+    public static Map<String, User> findByEmails(Collection<String> emails) {
+        Map<String, User> users = new HashMap<>();
+        if (emails.isEmpty()) {
+            return users;
+        }
+
+        for (User user : find.where().in("email", emails).findList()) {
+            users.put(user.email, user);
+        }
+
+        Set<String> rest = new HashSet<>(emails);
+        rest.removeAll(users.keySet());
+        if (rest.isEmpty()) {
+            return users;
+        }
+
+        List<Email> subEmails = Email.find.fetch("user").where()
+                .in("email", rest)
+                .eq("valid", true)
+                .findList();
+        for (Email subEmail : subEmails) {
+            users.put(subEmail.email, subEmail.user);
+        }
+
+        return users;
+    }
+
     public static User findByLoginKey(String loginIdOrEmail) {
         User user = find.where().ieq("loginId", loginIdOrEmail).findUnique();
 
@@ -24,7 +24,10 @@ import models.enumeration.ResourceType;
 import play.db.ebean.Model;
 
 import javax.persistence.*;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @MappedSuperclass
 abstract public class UserAction extends Model {
@@ -62,6 +65,25 @@ abstract public class UserAction extends Model {
                 .eq("resourceType", resourceType).findList();
     }
 
+    /**
+     * Returns the ids of the given users who have done the action on the
+     * given resource.
+     */
+    public static <T extends UserAction> Set<Long> findUserIdsBy(Finder<Long, T> finder,
+            ResourceType resourceType, String resourceId, Collection<Long> userIds) {
+        Set<Long> ids = new HashSet<>();
+        if (userIds.isEmpty()) {
+            return ids;
+        }
+        for (T action : finder.where()
+                .eq("resourceType", resourceType)
+                .eq("resourceId", resourceId)
+                .in("user.id", userIds).findList()) {
+            ids.add(action.user.id);
+        }
+        return ids;
+    }
+
     public static <T extends UserAction> int countBy(Finder<Long, T> finder,
                                                         ResourceType resourceType, String resourceId) {
         return finder.where()
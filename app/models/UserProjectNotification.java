@@ -24,9 +24,7 @@ import models.enumeration.EventType;
 import play.db.ebean.Model;
 
 import javax.persistence.*;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * User this class when someone want to know whether a user is receiving notification alarm from the project or not
@@ -118,6 +116,32 @@ public class UserProjectNotification extends Model {
         newOne.save();
     }
 
+    /**
+     * Returns the ids of the given users who have turned off the notification
+     * of the given type from the given project.
+     *
+     * @param project
+     * @param eventType
+     * @param userIds
+     * @return the ids
+     * @see #isEnabledNotiType(User, Project, EventType)
+     */
+    public static Set<Long> findDisabledUserIds(Project project, EventType eventType,
+                                                Collection<Long> userIds) {
+        Set<Long> ids = new HashSet<>();
+        if (userIds.isEmpty()) {
+            return ids;
+        }
+        for (UserProjectNotification notification : find.where()
+                .eq("project.id", project.id)
+                .eq("notificationType", eventType)
+                .eq("allowed", false)
+                .in("user.id", userIds).findList()) {
+            ids.add(notification.user.id);
+        }
+        return ids;
+    }
+
     /**
      *
      * Basically, if there is no information about {@code project}' {@code notiType}
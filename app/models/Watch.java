@@ -22,19 +22,13 @@ package models;
 
 import com.avaje.ebean.annotation.Transactional;
 import controllers.UserApp;
-import models.enumeration.Operation;
 import models.enumeration.ResourceType;
 import models.resource.GlobalResource;
 import models.resource.Resource;
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.Predicate;
 import utils.AccessControl;
 
 import javax.persistence.Entity;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 @Entity
 public class Watch extends UserAction {
@@ -153,6 +147,24 @@ public class Watch extends UserAction {
         return isWatching(user, resource.getType(), resource.getId());
     }
 
+    /**
+     * Returns the ids of the given users who watch the given resource.
+     *
+     * This is equivalent to {@link #isWatching(User, Resource)} for each
+     * user, with two queries for all the users.
+     *
+     * @param resource
+     * @param userIds
+     * @return the ids
+     */
+    public static Set<Long> findWatchingUserIds(Resource resource, Collection<Long> userIds) {
+        Set<Long> ids = findUserIdsBy(find, resource.getType(), resource.getId(), userIds);
+        if (!ids.isEmpty()) {
+            ids.removeAll(findUserIdsBy(Unwatch.find, resource.getType(), resource.getId(), ids));
+        }
+        return ids;
+    }
+
     public static boolean isWatching(Resource resource) {
         return isWatching(UserApp.currentUser(), resource.getType(), resource.getId());
     }
@@ -172,12 +184,7 @@ public class Watch extends UserAction {
         actualWatchers.removeAll(findUnwatchers(resource));
 
         // Filter the watchers who has no permission to read this resource.
-        CollectionUtils.filter(actualWatchers, new Predicate() {
-            @Override
-            public boolean evaluate(Object watcher) {
-                return AccessControl.isAllowed((User) watcher, resource, Operation.READ);
-            }
-        });
+        AccessControl.retainAllowedToRead(actualWatchers, resource);
         return actualWatchers;
     }
 
@@ -0,0 +1,149 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.google.common.util.concurrent.Striped;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores the contents of attachments by their SHA1 hash.
+ *
+ * A file is stored only once however many attachments refer it, under a
+ * directory named by the first two pairs of the hash:
+ *
+ *   {root}/ab/cd/abcdef0123...
+ *
+ * so no directory holds too many files. Files stored directly in the root
+ * directory by the older versions are still found.
+ *
+ * The number of attachments which refer a file is its reference count, which
+ * is counted by {@link models.Attachment#exists(String)}. Adding a reference
+ * and deleting an unreferenced file must be done while holding
+ * {@link #lock(String)} for the hash, so a file is not deleted while a new
+ * attachment is referring it.
+ */
+public class AttachmentStorage {
+    private static final Striped<Lock> locks = Striped.lock(64);
+
+    private final File root;
+
+    public AttachmentStorage(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the lock for the file of the given hash.
+     *
+     * @param hash
+     * @return the lock
+     */
+    public static Lock lock(String hash) {
+        return locks.get(hash);
+    }
+
+    /**
+     * Returns the file of the given hash, which may not exist.
+     *
+     * @param hash
+     * @return the file
+     */
+    public File get(String hash) {
+        File file = shardedFile(hash);
+        if (!file.isFile()) {
+            File legacy = new File(root, hash);
+            if (legacy.isFile()) {
+                return legacy;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @param hash
+     * @return true if the file of the given hash exists
+     */
+    public boolean exists(String hash) {
+        return get(hash).isFile();
+    }
+
+    /**
+     * Moves the given file into the storage as the file of the given hash.
+     *
+     * If the storage has the file already, the given file is deleted instead.
+     *
+     * @param file  a file whose SHA1 hash is {@code hash}
+     * @param hash
+     * @return the stored file
+     * @throws IOException
+     */
+    public File put(File file, String hash) throws IOException {
+        File stored = get(hash);
+        if (stored.isFile()) {
+            Files.deleteIfExists(file.toPath());
+            return stored;
+        }
+
+        File directory = stored.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Failed to create a directory: " + directory);
+        }
+
+        try {
+            Files.move(file.toPath(), stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // The file is on another file system. Copy it next to the stored
+            // file first, so that a partial file is never seen by the hash.
+            File temp = File.createTempFile(hash, ".tmp", directory);
+            try {
+                Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp.toPath(), stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+            Files.deleteIfExists(file.toPath());
+        }
+
+        return stored;
+    }
+
+    /**
+     * Deletes the file of the given hash.
+     *
+     * @param hash
+     * @throws IOException
+     */
+    public void delete(String hash) throws IOException {
+        Files.deleteIfExists(shardedFile(hash).toPath());
+        Files.deleteIfExists(new File(root, hash).toPath());
+    }
+
+    private File shardedFile(String hash) {
+        if (hash.length() < 4) {
+            return new File(root, hash);
+        }
+        File directory = new File(new File(root, hash.substring(0, 2)), hash.substring(2, 4));
+        return new File(directory, hash);
+    }
+}
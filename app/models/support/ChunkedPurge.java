@@ -0,0 +1,150 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.Ebean;
+import com.google.common.util.concurrent.RateLimiter;
+import play.Configuration;
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deletes a large number of rows in chunks, instead of loading every row and
+ * deleting them one by one.
+ *
+ * The rows are visited in ascending order of id. Each chunk is deleted with a
+ * few set-based statements in its own transaction, so the database is never
+ * locked for long, and the rate of deletion can be limited not to disturb the
+ * other requests.
+ *
+ * Metrics:
+ *   purge.{name}.deleted: the number of rows deleted
+ *   purge.{name}.chunks: the number of chunks deleted
+ *
+ * Configuration:
+ *   application.purge.chunkSize: the maximum number of rows deleted in a
+ *       transaction (default: 1000)
+ *   application.purge.rate: the maximum number of rows deleted per second, or
+ *       0 for no limit (default: 0)
+ */
+public abstract class ChunkedPurge {
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final String name;
+    private final Metrics.Meter deleted;
+    private final Metrics.Counter chunks;
+
+    protected ChunkedPurge(String name) {
+        this.name = name;
+        this.deleted = Metrics.meter("purge." + name + ".deleted");
+        this.chunks = Metrics.counter("purge." + name + ".chunks");
+    }
+
+    /**
+     * Returns the ids of the next rows to be deleted.
+     *
+     * @param afterId  the last id of the previous chunk, or null for the first
+     *                 chunk
+     * @param size     the maximum number of ids
+     * @return the ids greater than {@code afterId}, in ascending order
+     */
+    protected abstract List<Long> nextIds(Long afterId, int size);
+
+    /**
+     * Deletes the rows of the given ids and every row which refers to them.
+     *
+     * This method is called in a transaction. Rows which no longer satisfy
+     * the condition of the purge must not be deleted.
+     *
+     * @param ids  the ids returned by {@link #nextIds(Long, int)}
+     * @return the number of rows deleted
+     */
+    protected abstract int delete(List<Long> ids);
+
+    /**
+     * Called after the deletion of a chunk is committed, for example to
+     * delete files or invalidate caches.
+     *
+     * @param ids  the ids of the chunk
+     */
+    protected void afterDelete(List<Long> ids) {
+    }
+
+    /**
+     * Deletes every row to be purged.
+     *
+     * @return the number of rows deleted
+     */
+    public int run() {
+        Configuration config = Configuration.root();
+        int chunkSize = Math.max(
+                config.getInt("application.purge.chunkSize", DEFAULT_CHUNK_SIZE), 1);
+        double rate = config.getDouble("application.purge.rate", 0.0);
+        RateLimiter rateLimiter = (rate > 0) ? RateLimiter.create(rate) : null;
+
+        int total = 0;
+        Long lastId = null;
+
+        while (true) {
+            List<Long> ids = nextIds(lastId, chunkSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            if (rateLimiter != null) {
+                rateLimiter.acquire(ids.size());
+            }
+
+            int count;
+            Ebean.beginTransaction();
+            try {
+                count = delete(ids);
+                Ebean.commitTransaction();
+            } finally {
+                Ebean.endTransaction();
+            }
+            afterDelete(ids);
+
+            total += count;
+            deleted.mark(count);
+            chunks.inc();
+            play.Logger.debug(String.format("Purging %s: %d rows deleted", name, total));
+
+            if (ids.size() < chunkSize) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+
+        return total;
+    }
+
+    /**
+     * Converts the result of {@code findIds()} to a list of Long.
+     */
+    protected static List<Long> toLongs(List<Object> ids) {
+        List<Long> result = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            result.add(((Number) id).longValue());
+        }
+        return result;
+    }
+}
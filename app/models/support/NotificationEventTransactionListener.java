@@ -0,0 +1,49 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.event.TransactionEventListener;
+import models.NotificationEvent;
+
+/**
+ * Queues the notification events added in a transaction once it is committed.
+ *
+ * @see NotificationEvent#add(NotificationEvent)
+ * @see com.avaje.ebean.event.TransactionEventListener
+ */
+public class NotificationEventTransactionListener implements TransactionEventListener {
+    /**
+     * @see com.avaje.ebean.event.TransactionEventListener#postTransactionCommit(Transaction)
+     */
+    @Override
+    public void postTransactionCommit(Transaction transaction) {
+        NotificationEvent.onCommit(transaction);
+    }
+
+    /**
+     * The events added in a transaction which has been rolled back are
+     * dropped with it.
+     *
+     * @see com.avaje.ebean.event.TransactionEventListener#postTransactionRollback(Transaction, Throwable)
+     */
+    @Override
+    public void postTransactionRollback(Transaction transaction, Throwable cause) {
+    }
+}
@@ -178,15 +178,7 @@ public class SearchCondition extends AbstractPostingApp.SearchCondition implemen
         }
 
         if (StringUtils.isNotBlank(filter)) {
-            Junction<Issue> junction = el.disjunction();
-            junction.icontains("title", filter)
-                    .icontains("body", filter);
-            List<Object> ids = Issue.finder.where()
-                    .icontains("comments.contents", filter).findIds();
-            if (!ids.isEmpty()) {
-                junction.idIn(ids);
-            }
-            junction.endJunction();
+            containsFilter(el, null);
         }
 
         if (commentedCheck) {
@@ -214,6 +206,51 @@ public class SearchCondition extends AbstractPostingApp.SearchCondition implemen
         return el;
     }
 
+    /**
+     * Restricts the query to the issues which contain {@code filter} in the
+     * title, the body or the comments.
+     *
+     * If {@link SearchIndex} can find the candidates, only they are matched
+     * against the filter.
+     *
+     * @param el
+     * @param project  the project of the issues, or null for every project
+     */
+    private void containsFilter(ExpressionList<Issue> el, Project project) {
+        Long projectId = (project != null) ? project.id : null;
+        Set<Long> issueIds = SearchIndex.findIds(ISSUE_POST, filter, projectId);
+        Set<Long> commentedIssueIds = SearchIndex.findContainerIds(ISSUE_COMMENT, filter, projectId);
+
+        ExpressionList<Issue> commented = Issue.finder.where();
+        if (projectId != null) {
+            commented.eq("project.id", projectId);
+        }
+
+        if (issueIds != null && commentedIssueIds != null) {
+            Set<Long> candidates = new HashSet<>(issueIds);
+            candidates.addAll(commentedIssueIds);
+            if (candidates.isEmpty()) {
+                // No need to progress because the query matches nothing.
+                candidates.add(-1l);
+            }
+            el.idIn(new ArrayList<>(candidates));
+
+            if (commentedIssueIds.isEmpty()) {
+                commentedIssueIds.add(-1l);
+            }
+            commented.idIn(new ArrayList<>(commentedIssueIds));
+        }
+
+        Junction<Issue> junction = el.disjunction();
+        junction.icontains("title", filter)
+                .icontains("body", filter);
+        List<Object> ids = commented.icontains("comments.contents", filter).findIds();
+        if (!ids.isEmpty()) {
+            junction.idIn(ids);
+        }
+        junction.endJunction();
+    }
+
     private List<Long> getMentioningIssueIds(User mentionUser) {
         Set<Long> ids = new HashSet<>();
         Set<Long> commentIds = new HashSet<>();
@@ -253,22 +290,7 @@ public class SearchCondition extends AbstractPostingApp.SearchCondition implemen
             el.eq("project.id", project.id);
         }
         if (StringUtils.isNotBlank(filter)) {
-            Junction<Issue> junction = el.disjunction();
-            junction.icontains("title", filter)
-            .icontains("body", filter);
-            List<Object> ids;
-            if( project == null){
-                ids = Issue.finder.where()
-                        .icontains("comments.contents", filter).findIds();
-            } else {
-                ids = Issue.finder.where()
-                        .eq("project.id", project.id)
-                        .icontains("comments.contents", filter).findIds();
-            }
-            if (!ids.isEmpty()) {
-                junction.idIn(ids);
-            }
-            junction.endJunction();
+            containsFilter(el, project);
         }
 
         if (authorId != null) {
@@ -0,0 +1,740 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import models.*;
+import models.enumeration.ResourceType;
+import play.Configuration;
+import play.libs.Akka;
+import scala.concurrent.duration.Duration;
+import utils.Metrics;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index of the texts of issues, posts, comments and
+ * reviews, which narrows down the rows to be searched.
+ *
+ * Each text is split into words, and the distinct trigrams, the runs of three
+ * characters, of every word are indexed. A keyword matches a document if the
+ * document has every trigram of the words of the keyword. So the documents
+ * found are always a superset of those which contain the keyword as a whole,
+ * as the database would find them. The index only finds candidates; the
+ * caller still matches the keyword against the database.
+ *
+ * A document holds each of its trigrams once, so the index grows with the
+ * vocabulary of the documents rather than with the length of their texts.
+ * A document which has a word longer than {@link #MAX_TERM_LENGTH} is not
+ * split, and it is found by every keyword. A keyword whose words are all
+ * shorter than three characters has no trigram and would match almost every
+ * document, so it is not searched in the index.
+ *
+ * The index is built in the background when the application starts, and
+ * then kept up to date by {@link SearchIndexPersistAdapter}. It can be
+ * rebuilt at any time by {@link #rebuild()}. Until it has been built, or if a
+ * keyword is too short or matches too many documents,
+ * {@link #findIds(ResourceType, String, Long)} returns null and the caller
+ * should search the database as before.
+ *
+ * Configuration:
+ *   application.search.index.enabled: whether to use the index
+ *       (default: true)
+ *   application.search.index.maxCandidates: the maximum number of candidates
+ *       found by the index (default: 5000)
+ *
+ * @see models.Search
+ * @see SearchCondition
+ */
+public class SearchIndex {
+    static final int MAX_TERM_LENGTH = 64;
+    static final int GRAM_LENGTH = 3;
+    private static final int DEFAULT_MAX_CANDIDATES = 5000;
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    private static final Metrics.Counter HITS = Metrics.counter("search.index.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("search.index.misses");
+
+    /**
+     * The index which has been built, or null if there is none.
+     */
+    private static volatile SearchIndex current;
+
+    /**
+     * The index being built, or null if there is none.
+     */
+    private static volatile SearchIndex building;
+
+    private static volatile int maxCandidates = DEFAULT_MAX_CANDIDATES;
+
+    /**
+     * Incremented whenever the application stops, so an index built for the
+     * stopped application is discarded.
+     */
+    private static volatile int generation = 0;
+
+    static {
+        Metrics.gauge("search.index.documents", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                SearchIndex index = current;
+                return (index != null) ? index.size() : 0;
+            }
+        });
+    }
+
+    private final Map<ResourceType, Segment> segments = new EnumMap<>(ResourceType.class);
+
+    SearchIndex() {
+        for (ResourceType type : new ResourceType[]{ResourceType.ISSUE_POST,
+                ResourceType.BOARD_POST, ResourceType.ISSUE_COMMENT,
+                ResourceType.NONISSUE_COMMENT, ResourceType.REVIEW_COMMENT}) {
+            segments.put(type, new Segment());
+        }
+    }
+
+    public static void onStart() {
+        Configuration config = Configuration.root();
+
+        if (!config.getBoolean("application.search.index.enabled", true)) {
+            return;
+        }
+
+        maxCandidates = config.getInt("application.search.index.maxCandidates",
+                DEFAULT_MAX_CANDIDATES);
+        rebuildInBackground();
+    }
+
+    public static void onStop() {
+        generation++;
+        current = null;
+        building = null;
+    }
+
+    /**
+     * Rebuilds the index in the background.
+     *
+     * @see #rebuild()
+     */
+    public static void rebuildInBackground() {
+        Akka.system().scheduler().scheduleOnce(Duration.Zero(), new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        }, Akka.system().dispatcher());
+    }
+
+    /**
+     * Builds a new index from every issue, post, comment and review in the
+     * database, and then replaces the current index with it.
+     *
+     * The current index, if any, is still used while the new one is being
+     * built. Changes made meanwhile are applied to both.
+     */
+    public static synchronized void rebuild() {
+        SearchIndex index = new SearchIndex();
+        int startGeneration = generation;
+        long start = System.currentTimeMillis();
+
+        for (Segment segment : index.segments.values()) {
+            segment.startLoading();
+        }
+        building = index;
+
+        try {
+            for (ResourceType type : index.segments.keySet()) {
+                index.load(type);
+            }
+            for (Segment segment : index.segments.values()) {
+                segment.finishLoading();
+            }
+            if (startGeneration != generation) {
+                return;
+            }
+            current = index;
+            play.Logger.info("Built the search index of " + index.size() + " documents in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (RuntimeException e) {
+            play.Logger.error("Failed to build the search index", e);
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * Finds the ids of the documents which match the given keyword.
+     *
+     * @param type  one of ISSUE_POST, BOARD_POST, ISSUE_COMMENT,
+     *              NONISSUE_COMMENT and REVIEW_COMMENT
+     * @param keyword
+     * @param projectId  the project of the documents, or null for every
+     *                   project
+     * @return the ids, or null if the index cannot narrow down the documents
+     */
+    public static Set<Long> findIds(ResourceType type, String keyword, Long projectId) {
+        Map<Long, Long> found = search(type, keyword, projectId);
+        return (found != null) ? found.keySet() : null;
+    }
+
+    /**
+     * Finds the ids of the issues, posts or threads which contain the
+     * comments matching the given keyword.
+     *
+     * @param type  one of ISSUE_COMMENT, NONISSUE_COMMENT and REVIEW_COMMENT
+     * @param keyword
+     * @param projectId  the project of the comments, or null for every
+     *                   project
+     * @return the ids, or null if the index cannot narrow down the comments
+     */
+    public static Set<Long> findContainerIds(ResourceType type, String keyword, Long projectId) {
+        Map<Long, Long> found = search(type, keyword, projectId);
+        if (found == null) {
+            return null;
+        }
+
+        Set<Long> ids = new HashSet<>();
+        for (Long containerId : found.values()) {
+            if (containerId != null) {
+                ids.add(containerId);
+            }
+        }
+        return ids;
+    }
+
+    private static Map<Long, Long> search(ResourceType type, String keyword, Long projectId) {
+        SearchIndex index = current;
+        if (index == null) {
+            return null;
+        }
+
+        Map<Long, Long> found = index.search(type, keyword, projectId, maxCandidates);
+        if (found == null) {
+            MISSES.inc();
+        } else {
+            HITS.inc();
+        }
+        return found;
+    }
+
+    /**
+     * Adds or updates the given issue, post, comment or review.
+     *
+     * @param bean
+     */
+    public static void index(Object bean) {
+        SearchIndex index = current;
+        SearchIndex next = building;
+
+        if (index != null) {
+            index.put(bean, false);
+        }
+        if (next != null && next != index) {
+            next.put(bean, false);
+        }
+    }
+
+    /**
+     * Removes the given issue, post, comment or review.
+     *
+     * @param bean
+     */
+    public static void unindex(Object bean) {
+        SearchIndex index = current;
+        SearchIndex next = building;
+
+        if (index != null) {
+            index.remove(bean);
+        }
+        if (next != null && next != index) {
+            next.remove(bean);
+        }
+    }
+
+    /**
+     * @param cls
+     * @return true if the instances of the given class are indexed
+     */
+    public static boolean isIndexed(Class<?> cls) {
+        return AbstractPosting.class.isAssignableFrom(cls)
+                || IssueComment.class.isAssignableFrom(cls)
+                || PostingComment.class.isAssignableFrom(cls)
+                || ReviewComment.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * Splits the given texts into distinct lower-cased words.
+     *
+     * @param texts
+     * @return the words
+     */
+    static String[] tokenize(String... texts) {
+        Set<String> terms = new LinkedHashSet<>();
+
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+
+            String lowerCased = text.toLowerCase(Locale.ROOT);
+            int start = -1;
+            for (int i = 0; i <= lowerCased.length(); i++) {
+                boolean inWord = i < lowerCased.length()
+                        && Character.isLetterOrDigit(lowerCased.charAt(i));
+                if (inWord && start < 0) {
+                    start = i;
+                } else if (!inWord && start >= 0) {
+                    terms.add(lowerCased.substring(start, i));
+                    start = -1;
+                }
+            }
+        }
+
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * Returns the distinct trigrams of the given words, each of which is
+     * packed into a long.
+     *
+     * @param words
+     * @param maxLength  the maximum length of a word, or 0 for no limit
+     * @return the trigrams, or null if a word is longer than {@code maxLength}
+     */
+    static long[] grams(String[] words, int maxLength) {
+        Set<Long> grams = new LinkedHashSet<>();
+
+        for (String word : words) {
+            if (maxLength > 0 && word.length() > maxLength) {
+                return null;
+            }
+            for (int i = 0; i + GRAM_LENGTH <= word.length(); i++) {
+                grams.add(((long) word.charAt(i) << 32) | ((long) word.charAt(i + 1) << 16)
+                        | word.charAt(i + 2));
+            }
+        }
+
+        long[] result = new long[grams.size()];
+        int i = 0;
+        for (Long gram : grams) {
+            result[i++] = gram;
+        }
+        return result;
+    }
+
+    /**
+     * @param type
+     * @param keyword
+     * @param projectId  the project of the documents, or null for every
+     *                   project
+     * @param limit  the maximum number of documents to be found
+     * @return the ids of the found documents mapped to the ids of their
+     *         containers, or null if the keyword has no trigram or more than
+     *         {@code limit} documents are found
+     */
+    Map<Long, Long> search(ResourceType type, String keyword, Long projectId, int limit) {
+        Segment segment = segments.get(type);
+        long[] grams = grams(tokenize(keyword), 0);
+
+        if (segment == null || grams.length == 0) {
+            return null;
+        }
+
+        return segment.search(grams, projectId, limit);
+    }
+
+    void put(Object bean, boolean loading) {
+        Long id = idOf(bean);
+        Segment segment = segments.get(typeOf(bean));
+
+        if (id == null || segment == null) {
+            return;
+        }
+
+        Long projectId = null;
+        Long containerId = null;
+        String[] terms;
+
+        if (bean instanceof AbstractPosting) {
+            AbstractPosting posting = (AbstractPosting) bean;
+            projectId = (posting.project != null) ? posting.project.id : null;
+            terms = tokenize(posting.title, posting.body);
+        } else if (bean instanceof IssueComment) {
+            IssueComment comment = (IssueComment) bean;
+            if (comment.issue != null) {
+                containerId = comment.issue.id;
+                projectId = (comment.issue.project != null) ? comment.issue.project.id : null;
+            }
+            terms = tokenize(comment.contents);
+        } else if (bean instanceof PostingComment) {
+            PostingComment comment = (PostingComment) bean;
+            if (comment.posting != null) {
+                containerId = comment.posting.id;
+                projectId = (comment.posting.project != null) ? comment.posting.project.id : null;
+            }
+            terms = tokenize(comment.contents);
+        } else {
+            ReviewComment comment = (ReviewComment) bean;
+            if (comment.thread != null) {
+                containerId = comment.thread.id;
+                projectId = (comment.thread.project != null) ? comment.thread.project.id : null;
+            }
+            terms = tokenize(comment.getContents());
+        }
+
+        segment.put(id, new Entry(projectId, containerId, grams(terms, MAX_TERM_LENGTH)),
+                loading);
+    }
+
+    void remove(Object bean) {
+        Long id = idOf(bean);
+        Segment segment = segments.get(typeOf(bean));
+
+        if (id != null && segment != null) {
+            segment.remove(id);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments.values()) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private void load(ResourceType type) {
+        long lastId = 0;
+
+        while (true) {
+            List<?> beans = findBatch(type, lastId);
+
+            for (Object bean : beans) {
+                put(bean, true);
+                lastId = Math.max(lastId, idOf(bean));
+            }
+
+            if (beans.size() < REBUILD_BATCH_SIZE) {
+                break;
+            }
+        }
+    }
+
+    private static List<?> findBatch(ResourceType type, long lastId) {
+        switch (type) {
+            case ISSUE_POST:
+                return Issue.finder.select("id, title, body").fetch("project", "id")
+                        .where().gt("id", lastId).orderBy("id")
+                        .setMaxRows(REBUILD_BATCH_SIZE).findList();
+            case BOARD_POST:
+                return Posting.finder.select("id, title, body").fetch("project", "id")
+                        .where().gt("id", lastId).orderBy("id")
+                        .setMaxRows(REBUILD_BATCH_SIZE).findList();
+            case ISSUE_COMMENT:
+                return IssueComment.find.select("id, contents").fetch("issue", "project")
+                        .where().gt("id", lastId).orderBy("id")
+                        .setMaxRows(REBUILD_BATCH_SIZE).findList();
+            case NONISSUE_COMMENT:
+                return PostingComment.find.select("id, contents").fetch("posting", "project")
+                        .where().gt("id", lastId).orderBy("id")
+                        .setMaxRows(REBUILD_BATCH_SIZE).findList();
+            case REVIEW_COMMENT:
+                return ReviewComment.find.select("id, contents").fetch("thread", "project")
+                        .where().gt("id", lastId).orderBy("id")
+                        .setMaxRows(REBUILD_BATCH_SIZE).findList();
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    private static ResourceType typeOf(Object bean) {
+        if (bean instanceof Issue) {
+            return ResourceType.ISSUE_POST;
+        } else if (bean instanceof Posting) {
+            return ResourceType.BOARD_POST;
+        } else if (bean instanceof IssueComment) {
+            return ResourceType.ISSUE_COMMENT;
+        } else if (bean instanceof PostingComment) {
+            return ResourceType.NONISSUE_COMMENT;
+        } else if (bean instanceof ReviewComment) {
+            return ResourceType.REVIEW_COMMENT;
+        } else {
+            return null;
+        }
+    }
+
+    private static Long idOf(Object bean) {
+        if (bean instanceof AbstractPosting) {
+            return ((AbstractPosting) bean).id;
+        } else if (bean instanceof Comment) {
+            return ((Comment) bean).id;
+        } else if (bean instanceof ReviewComment) {
+            return ((ReviewComment) bean).id;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * An indexed document.
+     */
+    private static class Entry {
+        final Long projectId;
+        final Long containerId;
+
+        /**
+         * The indexed trigrams, or null if the document matches every keyword.
+         */
+        final long[] grams;
+
+        Entry(Long projectId, Long containerId, long[] grams) {
+            this.projectId = projectId;
+            this.containerId = containerId;
+            this.grams = grams;
+        }
+    }
+
+    /**
+     * The index of the documents of a type.
+     */
+    private static class Segment {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, Postings> postings = new HashMap<>();
+        private final Map<Long, Entry> entries = new HashMap<>();
+
+        /**
+         * The documents which match every keyword.
+         */
+        private final Postings unsplit = new Postings();
+
+        /**
+         * The ids of the documents changed while the segment is being loaded,
+         * which must not be overwritten by the loader, or null if the segment
+         * is not being loaded.
+         */
+        private Set<Long> changed;
+
+        void startLoading() {
+            lock.writeLock().lock();
+            try {
+                changed = new HashSet<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void finishLoading() {
+            lock.writeLock().lock();
+            try {
+                changed = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void put(long id, Entry entry, boolean loading) {
+            lock.writeLock().lock();
+            try {
+                if (changed != null) {
+                    if (loading && changed.contains(id)) {
+                        return;
+                    }
+                    if (!loading) {
+                        changed.add(id);
+                    }
+                }
+
+                removeEntry(id);
+                entries.put(id, entry);
+
+                if (entry.grams == null) {
+                    unsplit.add(id);
+                    return;
+                }
+
+                for (long gram : entry.grams) {
+                    Postings ids = postings.get(gram);
+                    if (ids == null) {
+                        ids = new Postings();
+                        postings.put(gram, ids);
+                    }
+                    ids.add(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long id) {
+            lock.writeLock().lock();
+            try {
+                if (changed != null) {
+                    changed.add(id);
+                }
+                removeEntry(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void removeEntry(long id) {
+            Entry entry = entries.remove(id);
+            if (entry == null) {
+                return;
+            }
+
+            if (entry.grams == null) {
+                unsplit.remove(id);
+                return;
+            }
+
+            for (long gram : entry.grams) {
+                Postings ids = postings.get(gram);
+                if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+
+        /**
+         * Intersects the postings of the given trigrams, starting from the
+         * shortest one, and stops as soon as more than {@code limit}
+         * documents are found.
+         */
+        Map<Long, Long> search(long[] grams, Long projectId, int limit) {
+            lock.readLock().lock();
+            try {
+                Map<Long, Long> result = new HashMap<>();
+
+                for (int i = 0; i < unsplit.size(); i++) {
+                    if (!addTo(result, unsplit.get(i), projectId, limit)) {
+                        return null;
+                    }
+                }
+
+                Postings[] lists = new Postings[grams.length];
+                for (int i = 0; i < grams.length; i++) {
+                    lists[i] = postings.get(grams[i]);
+                    if (lists[i] == null) {
+                        return result;
+                    }
+                }
+                Arrays.sort(lists, new Comparator<Postings>() {
+                    @Override
+                    public int compare(Postings a, Postings b) {
+                        return Integer.compare(a.size(), b.size());
+                    }
+                });
+
+                Postings shortest = lists[0];
+                nextId:
+                for (int i = 0; i < shortest.size(); i++) {
+                    long id = shortest.get(i);
+                    for (int j = 1; j < lists.length; j++) {
+                        if (!lists[j].contains(id)) {
+                            continue nextId;
+                        }
+                    }
+                    if (!addTo(result, id, projectId, limit)) {
+                        return null;
+                    }
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return false if the document should be added but {@code limit}
+         *         documents have already been found
+         */
+        private boolean addTo(Map<Long, Long> result, long id, Long projectId, int limit) {
+            Entry entry = entries.get(id);
+            if (projectId != null && !projectId.equals(entry.projectId)) {
+                return true;
+            }
+            if (result.size() >= limit) {
+                return false;
+            }
+            result.put(id, entry.containerId);
+            return true;
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * A sorted set of ids.
+     */
+    private static class Postings {
+        private long[] ids = new long[2];
+        private int size = 0;
+
+        void add(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        boolean remove(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        long get(int index) {
+            return ids[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistRequest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps {@link SearchIndex} up to date when an issue, a post, a comment or a
+ * review is saved, updated or deleted.
+ *
+ * @see com.avaje.ebean.event.BeanPersistController
+ * @see com.avaje.ebean.event.BeanPersistAdapter
+ */
+public class SearchIndexPersistAdapter extends BeanPersistAdapter {
+    /**
+     * The properties whose change affects the index.
+     */
+    private static final List<String> INDEXED_PROPERTIES =
+            Arrays.asList("title", "body", "contents", "project");
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#isRegisterFor(Class)
+     */
+    @Override
+    public boolean isRegisterFor(Class<?> cls) {
+        return SearchIndex.isIndexed(cls);
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postInsert(BeanPersistRequest)
+     */
+    @Override
+    public void postInsert(BeanPersistRequest<?> request) {
+        SearchIndex.index(request.getBean());
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postUpdate(BeanPersistRequest)
+     */
+    @Override
+    public void postUpdate(BeanPersistRequest<?> request) {
+        Set<String> updated = request.getUpdatedProperties();
+        if (updated == null || !Collections.disjoint(updated, INDEXED_PROPERTIES)) {
+            SearchIndex.index(request.getBean());
+        }
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postDelete(BeanPersistRequest)
+     */
+    @Override
+    public void postDelete(BeanPersistRequest<?> request) {
+        SearchIndex.unindex(request.getBean());
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.bean.EntityBean;
+import com.avaje.ebean.bean.EntityBeanIntercept;
+import com.avaje.ebeaninternal.api.SpiEbeanServer;
+import com.avaje.ebeaninternal.server.deploy.BeanPropertyAssocMany;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import models.User;
+import play.Configuration;
+import utils.Metrics;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the users who have signed in, by their ids, for a short time.
+ *
+ * The cached user is never handed out. Every request gets its own copy, which
+ * it may modify and save like a user found by {@link User#find}. An entry is
+ * invalidated by {@link UserCachePersistAdapter} when the user is updated or
+ * deleted.
+ *
+ * Configuration:
+ *   application.user.cache.maxSize: the maximum number of users cached
+ *       (default: 10000)
+ *   application.user.cache.expireAfterWrite: the time after which a user is
+ *       loaded again (default: 10 seconds)
+ *
+ * @see controllers.UserApp#currentUser()
+ */
+public class UserCache {
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static final long DEFAULT_EXPIRE_AFTER_WRITE = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Metrics.Counter HITS = Metrics.counter("user.cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("user.cache.misses");
+
+    /**
+     * The number of invalidations, to tell whether a user loaded from the
+     * database may have been updated before it is cached.
+     */
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Holds the cache, which is created when it is used first, because the
+     * configuration is not available until the application starts.
+     */
+    private static class Holder {
+        static final Cache<Long, User> cache = CacheBuilder.newBuilder()
+                .maximumSize(Configuration.root().getInt(
+                        "application.user.cache.maxSize", DEFAULT_MAX_SIZE))
+                .expireAfterWrite(Configuration.root().getMilliseconds(
+                        "application.user.cache.expireAfterWrite",
+                        DEFAULT_EXPIRE_AFTER_WRITE), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static void onStop() {
+        invalidateAll();
+    }
+
+    /**
+     * Returns the user of the given id.
+     *
+     * @param id
+     * @return a copy of the user owned by the caller, or null if there is no
+     *         such user
+     */
+    public static User get(Long id) {
+        User cached = Holder.cache.getIfPresent(id);
+        if (cached != null) {
+            HITS.inc();
+            return copy(cached);
+        }
+
+        MISSES.inc();
+        long generation = invalidations.get();
+        User user = User.find.byId(id);
+        if (user != null) {
+            Holder.cache.put(id, copy(user));
+            if (invalidations.get() != generation) {
+                // The user may have been loaded before an update which has
+                // already invalidated the cache.
+                Holder.cache.invalidate(id);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Returns a copy of the given user which shares no mutable state with it.
+     *
+     * The copy has the same loaded properties as the given user, and loads
+     * the others, including its collections, by itself.
+     */
+    private static User copy(User user) {
+        EntityBean bean = (EntityBean) user;
+        EntityBean copy = (EntityBean) bean._ebean_createCopy();
+
+        EntityBeanIntercept intercept = copy._ebean_getIntercept();
+        bean._ebean_getIntercept().copyStateTo(intercept);
+        Set<String> loadedProps = intercept.getLoadedProps();
+        if (loadedProps != null) {
+            intercept.setLoadedProps(new HashSet<>(loadedProps));
+        }
+
+        SpiEbeanServer server = (SpiEbeanServer) Ebean.getServer(null);
+        for (BeanPropertyAssocMany<?> many :
+                server.getBeanDescriptor(User.class).propertiesMany()) {
+            many.createReference(copy);
+        }
+
+        return (User) copy;
+    }
+
+    /**
+     * Forgets the user of the given id.
+     *
+     * @param id
+     */
+    public static void invalidate(Long id) {
+        if (id != null) {
+            invalidations.incrementAndGet();
+            Holder.cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Forgets every user.
+     */
+    public static void invalidateAll() {
+        invalidations.incrementAndGet();
+        Holder.cache.invalidateAll();
+    }
+}
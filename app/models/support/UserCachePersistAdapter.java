@@ -0,0 +1,113 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistListener;
+import com.avaje.ebean.event.BeanPersistRequest;
+import models.User;
+
+import java.util.Set;
+
+/**
+ * Invalidates {@link UserCache} when a user is updated or deleted.
+ *
+ * The user is invalidated once as soon as it is updated, and once again after
+ * the transaction is committed, because a request may load the old user
+ * between the two.
+ *
+ * @see com.avaje.ebean.event.BeanPersistController
+ * @see com.avaje.ebean.event.BeanPersistAdapter
+ * @see com.avaje.ebean.event.BeanPersistListener
+ */
+public class UserCachePersistAdapter extends BeanPersistAdapter
+        implements BeanPersistListener<User> {
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#isRegisterFor(Class)
+     */
+    @Override
+    public boolean isRegisterFor(Class<?> cls) {
+        return User.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postUpdate(BeanPersistRequest)
+     */
+    @Override
+    public void postUpdate(BeanPersistRequest<?> request) {
+        UserCache.invalidate(((User) request.getBean()).id);
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postDelete(BeanPersistRequest)
+     */
+    @Override
+    public void postDelete(BeanPersistRequest<?> request) {
+        UserCache.invalidate(((User) request.getBean()).id);
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#inserted(Object)
+     */
+    @Override
+    public boolean inserted(User user) {
+        return false;
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#updated(Object, java.util.Set)
+     */
+    @Override
+    public boolean updated(User user, Set<String> updatedProperties) {
+        UserCache.invalidate(user.id);
+        return false;
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#deleted(Object)
+     */
+    @Override
+    public boolean deleted(User user) {
+        UserCache.invalidate(user.id);
+        return false;
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#remoteInsert(Object)
+     */
+    @Override
+    public void remoteInsert(Object id) {
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#remoteUpdate(Object)
+     */
+    @Override
+    public void remoteUpdate(Object id) {
+        UserCache.invalidate((Long) id);
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#remoteDelete(Object)
+     */
+    @Override
+    public void remoteDelete(Object id) {
+        UserCache.invalidate((Long) id);
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.ExpressionList;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import models.OrganizationUser;
+import models.Project;
+import models.User;
+import models.enumeration.ProjectScope;
+import play.Configuration;
+import utils.Metrics;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the ids of the projects which each user can see in search results
+ * and project lists, although they are not public:
+ *   - projects the user is a member of
+ *   - protected projects of the organizations the user belongs to
+ *
+ * Public projects are not cached, because there can be too many of them;
+ * {@link #restrict(ExpressionList, User, String)} matches them by their
+ * scope in the query instead.
+ *
+ * An entry is invalidated by {@link VisibleProjectsPersistAdapter} when the
+ * user joins or leaves a project or an organization, and every entry is
+ * invalidated when a project is created, deleted, or its scope or
+ * organization is changed. Entries also expire after
+ * {@code application.search.visibleProjects.cache.expireAfterWrite}
+ * (default: 10 minutes), in case a change has been made by SQL directly.
+ *
+ * Configuration:
+ *   application.search.visibleProjects.cache.maxSize: the maximum number of
+ *       users cached (default: 10000)
+ *   application.search.visibleProjects.cache.expireAfterWrite: see above
+ *
+ * @see models.Search
+ */
+public class VisibleProjects {
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static final long DEFAULT_EXPIRE_AFTER_WRITE = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Metrics.Counter HITS = Metrics.counter("search.visibleProjects.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("search.visibleProjects.misses");
+
+    /**
+     * Holds the cache, which is created when it is used first, because the
+     * configuration is not available until the application starts.
+     */
+    private static class Holder {
+        static final Cache<Long, Set<Long>> cache = CacheBuilder.newBuilder()
+                .maximumSize(Configuration.root().getInt(
+                        "application.search.visibleProjects.cache.maxSize", DEFAULT_MAX_SIZE))
+                .expireAfterWrite(Configuration.root().getMilliseconds(
+                        "application.search.visibleProjects.cache.expireAfterWrite",
+                        DEFAULT_EXPIRE_AFTER_WRITE), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static void onStop() {
+        invalidateAll();
+    }
+
+    /**
+     * Restricts the given query to the projects the given user can see: the
+     * public projects and those returned by {@link #idsOf(User)}.
+     *
+     * @param el
+     * @param user  a user who has signed in
+     * @param pathToProject  the path to the project, or null if the query is
+     *                       of projects
+     */
+    public static <T> void restrict(ExpressionList<T> el, User user, String pathToProject) {
+        String prefix = (pathToProject != null) ? pathToProject + "." : "";
+        Set<Long> ids = idsOf(user);
+
+        if (ids.isEmpty()) {
+            el.eq(prefix + "projectScope", ProjectScope.PUBLIC);
+        } else {
+            el.disjunction()
+                    .eq(prefix + "projectScope", ProjectScope.PUBLIC)
+                    .in(prefix + "id", ids)
+                    .endJunction();
+        }
+    }
+
+    /**
+     * Returns the ids of the projects the given user can see, except the
+     * public ones.
+     *
+     * @param user  a user who has signed in
+     * @return the ids; must not be modified
+     */
+    public static Set<Long> idsOf(final User user) {
+        final boolean[] loaded = {false};
+
+        try {
+            Set<Long> ids = Holder.cache.get(user.id, new Callable<Set<Long>>() {
+                @Override
+                public Set<Long> call() throws Exception {
+                    loaded[0] = true;
+                    return Collections.unmodifiableSet(find(user.id));
+                }
+            });
+            if (loaded[0]) {
+                MISSES.inc();
+            } else {
+                HITS.inc();
+            }
+            return ids;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Forgets the projects the given user can see.
+     *
+     * @param userId
+     */
+    public static void invalidate(Long userId) {
+        if (userId != null) {
+            Holder.cache.invalidate(userId);
+        }
+    }
+
+    /**
+     * Forgets the projects every user can see.
+     */
+    public static void invalidateAll() {
+        Holder.cache.invalidateAll();
+    }
+
+    private static Set<Long> find(Long userId) {
+        Set<Long> ids = new HashSet<>();
+
+        addIds(ids, Project.find.where()
+                .eq("projectUser.user.id", userId)
+                .ne("projectScope", ProjectScope.PUBLIC)
+                .findIds());
+
+        List<Object> organizationIds = findOrganizationIds(userId);
+        if (!organizationIds.isEmpty()) {
+            addIds(ids, Project.find.where()
+                    .in("organization.id", organizationIds)
+                    .eq("projectScope", ProjectScope.PROTECTED)
+                    .findIds());
+        }
+
+        return ids;
+    }
+
+    private static List<Object> findOrganizationIds(Long userId) {
+        List<Object> ids = new ArrayList<>();
+        for (OrganizationUser organizationUser : OrganizationUser.find.where()
+                .eq("user.id", userId).findList()) {
+            if (organizationUser.organization != null) {
+                ids.add(organizationUser.organization.id);
+            }
+        }
+        return ids;
+    }
+
+    private static void addIds(Set<Long> ids, List<Object> found) {
+        for (Object id : found) {
+            ids.add((Long) id);
+        }
+    }
+}
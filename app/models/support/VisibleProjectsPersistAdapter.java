@@ -0,0 +1,154 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistListener;
+import com.avaje.ebean.event.BeanPersistRequest;
+import models.OrganizationUser;
+import models.Project;
+import models.ProjectUser;
+
+import java.util.Set;
+
+/**
+ * Invalidates {@link VisibleProjects} when a membership or a project changes.
+ *
+ * Like {@link UserCachePersistAdapter}, it invalidates once as soon as the
+ * change is made, and once again after the transaction is committed, because
+ * a search may cache the old memberships between the two.
+ *
+ * @see com.avaje.ebean.event.BeanPersistController
+ * @see com.avaje.ebean.event.BeanPersistAdapter
+ * @see com.avaje.ebean.event.BeanPersistListener
+ */
+public class VisibleProjectsPersistAdapter extends BeanPersistAdapter
+        implements BeanPersistListener<Object> {
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#isRegisterFor(Class)
+     * @see com.avaje.ebean.event.BeanPersistListener#isRegisterFor(Class)
+     */
+    @Override
+    public boolean isRegisterFor(Class<?> cls) {
+        return Project.class.isAssignableFrom(cls)
+                || ProjectUser.class.isAssignableFrom(cls)
+                || OrganizationUser.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postInsert(BeanPersistRequest)
+     */
+    @Override
+    public void postInsert(BeanPersistRequest<?> request) {
+        invalidate(request.getBean());
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postUpdate(BeanPersistRequest)
+     */
+    @Override
+    public void postUpdate(BeanPersistRequest<?> request) {
+        if (isVisibilityChanged(request.getBean(), request.getUpdatedProperties())) {
+            invalidate(request.getBean());
+        }
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistAdapter#postDelete(BeanPersistRequest)
+     */
+    @Override
+    public void postDelete(BeanPersistRequest<?> request) {
+        invalidate(request.getBean());
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#inserted(Object)
+     */
+    @Override
+    public boolean inserted(Object bean) {
+        invalidate(bean);
+        return false;
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#updated(Object, java.util.Set)
+     */
+    @Override
+    public boolean updated(Object bean, Set<String> updatedProperties) {
+        if (isVisibilityChanged(bean, updatedProperties)) {
+            invalidate(bean);
+        }
+        return false;
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#deleted(Object)
+     */
+    @Override
+    public boolean deleted(Object bean) {
+        invalidate(bean);
+        return false;
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#remoteInsert(Object)
+     */
+    @Override
+    public void remoteInsert(Object id) {
+        VisibleProjects.invalidateAll();
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#remoteUpdate(Object)
+     */
+    @Override
+    public void remoteUpdate(Object id) {
+        VisibleProjects.invalidateAll();
+    }
+
+    /**
+     * @see com.avaje.ebean.event.BeanPersistListener#remoteDelete(Object)
+     */
+    @Override
+    public void remoteDelete(Object id) {
+        VisibleProjects.invalidateAll();
+    }
+
+    private static boolean isVisibilityChanged(Object bean, Set<String> updatedProperties) {
+        return !(bean instanceof Project) || updatedProperties == null
+                || updatedProperties.contains("projectScope")
+                || updatedProperties.contains("organization");
+    }
+
+    private void invalidate(Object bean) {
+        if (bean instanceof ProjectUser) {
+            ProjectUser projectUser = (ProjectUser) bean;
+            if (projectUser.user != null) {
+                VisibleProjects.invalidate(projectUser.user.id);
+            }
+        } else if (bean instanceof OrganizationUser) {
+            OrganizationUser organizationUser = (OrganizationUser) bean;
+            if (organizationUser.user != null) {
+                VisibleProjects.invalidate(organizationUser.user.id);
+            }
+        } else {
+            VisibleProjects.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package notification;
+
+import com.google.common.util.concurrent.RateLimiter;
+import info.schleichardt.play2.mailplugin.Mailer;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.mail.Email;
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.HtmlEmail;
+import play.Configuration;
+import utils.Metrics;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends notification mails on a pool of workers.
+ *
+ * Each worker keeps its own SMTP connection open and sends every mail
+ * through it, instead of connecting to the SMTP server for each mail. The
+ * connection is opened again if it has been closed by the server, and a mail
+ * is sent again only if its connection was lost while sending it.
+ *
+ * If {@code smtp.mock} is true, or the sender has not been started, mails are
+ * sent by the mail plugin instead. To measure the throughput without a real
+ * mail server, set {@code smtp.mock} to false and point {@code smtp.host} and
+ * {@code smtp.port} to a local fake SMTP server.
+ *
+ * Configuration:
+ *   application.notification.bymail.threads: the number of workers, which is
+ *       the number of SMTP connections (default: 4)
+ *   application.notification.bymail.rate: the maximum number of mails sent
+ *       per second, or 0 for no limit (default: 0)
+ */
+public class NotificationMailSender {
+    private static final int DEFAULT_THREADS = 4;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final Metrics.Meter SENT = Metrics.meter("notification.mail.sent");
+    private static final Metrics.Counter FAILED = Metrics.counter("notification.mail.failed");
+
+    /**
+     * The SMTP connection of the current worker.
+     */
+    private static final ThreadLocal<Transport> transport = new ThreadLocal<>();
+
+    private static final Set<Transport> transports =
+            Collections.newSetFromMap(new ConcurrentHashMap<Transport, Boolean>());
+
+    private static volatile ExecutorService executor;
+    private static volatile RateLimiter rateLimiter;
+    private static volatile Session session;
+
+    public static void onStart() {
+        Configuration config = Configuration.root();
+        int threads = config.getInt("application.notification.bymail.threads", DEFAULT_THREADS);
+        double rate = config.getDouble("application.notification.bymail.rate", 0.0);
+
+        session = config.getBoolean("smtp.mock", false) ? null : createSession(config);
+        rateLimiter = (rate > 0) ? RateLimiter.create(rate) : null;
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "notification-mail-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stops the sender after sending the queued mails.
+     *
+     * The queued mails have already been claimed from the database, so they
+     * would be lost if they were not sent here.
+     */
+    public static void onStop() {
+        ExecutorService executor = NotificationMailSender.executor;
+        NotificationMailSender.executor = null;
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    play.Logger.warn("Notification mails are dropped: "
+                            + executor.shutdownNow().size());
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        session = null;
+        for (Transport each : transports) {
+            close(each);
+        }
+        transports.clear();
+    }
+
+    /**
+     * Sends the given mail on a worker.
+     *
+     * If the sender has not been started, the mail is sent at once.
+     *
+     * @param email
+     * @return the future which is done when the mail is sent or fails
+     */
+    public static Future<?> send(final HtmlEmail email) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire();
+                    }
+                    sendNow(email);
+                    SENT.mark();
+                    log(email);
+                } catch (Exception e) {
+                    FAILED.inc();
+                    play.Logger.warn("Failed to send a notification: "
+                            + email + "\n" + ExceptionUtils.getStackTrace(e));
+                }
+            }
+        };
+
+        ExecutorService executor = NotificationMailSender.executor;
+        if (executor != null) {
+            try {
+                return executor.submit(task);
+            } catch (RejectedExecutionException e) {
+                // The sender is being stopped.
+            }
+        }
+
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        future.run();
+        return future;
+    }
+
+    private static void sendNow(Email email) throws EmailException, MessagingException {
+        Session session = NotificationMailSender.session;
+        if (session == null) {
+            // Mocked, or not started.
+            Mailer.send(email);
+            return;
+        }
+
+        Transport transport = getTransport(session);
+        email.setMailSession(session);
+        email.buildMimeMessage();
+        MimeMessage message = email.getMimeMessage();
+        message.saveChanges();
+
+        try {
+            transport.sendMessage(message, message.getAllRecipients());
+        } catch (MessagingException e) {
+            if (!isConnectionLost(transport, e)) {
+                // The server has refused the mail. Sending it again would
+                // give the same result, or deliver it twice.
+                throw e;
+            }
+            // The connection has been closed by the server. Try again with a
+            // new connection.
+            discardTransport();
+            transport = getTransport(session);
+            transport.sendMessage(message, message.getAllRecipients());
+        }
+    }
+
+    /**
+     * Returns whether the given exception was thrown because the connection
+     * of the given transport was lost, rather than because the server
+     * rejected the mail.
+     */
+    private static boolean isConnectionLost(Transport transport, MessagingException e) {
+        return !transport.isConnected()
+                || ExceptionUtils.indexOfType(e, IOException.class) != -1;
+    }
+
+    /**
+     * Returns the connected transport of the current worker.
+     */
+    private static Transport getTransport(Session session) throws MessagingException {
+        Transport current = transport.get();
+        if (current != null && current.isConnected()) {
+            return current;
+        }
+        discardTransport();
+
+        Configuration config = Configuration.root();
+        Transport created = session.getTransport("smtp");
+        created.connect(
+                config.getString("smtp.host"),
+                config.getInt("smtp.port", -1),
+                config.getString("smtp.user"),
+                config.getString("smtp.password"));
+        transport.set(created);
+        transports.add(created);
+        return created;
+    }
+
+    private static void discardTransport() {
+        Transport current = transport.get();
+        if (current != null) {
+            transport.remove();
+            transports.remove(current);
+            close(current);
+        }
+    }
+
+    private static void close(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            // The connection is being discarded anyway.
+        }
+    }
+
+    /**
+     * Creates the mail session configured with the SMTP settings, which is
+     * shared by every mail and connection.
+     */
+    private static Session createSession(Configuration config) {
+        HtmlEmail email = new HtmlEmail();
+        email.setHostName(config.getString("smtp.host"));
+        int port = config.getInt("smtp.port", 25);
+        email.setSmtpPort(port);
+        email.setSslSmtpPort(String.valueOf(port));
+        email.setSSL(config.getBoolean("smtp.ssl", false));
+        email.setTLS(config.getBoolean("smtp.tls", false));
+        String user = config.getString("smtp.user");
+        if (user != null) {
+            email.setAuthentication(user, config.getString("smtp.password"));
+        }
+        try {
+            return email.getMailSession();
+        } catch (EmailException e) {
+            throw new IllegalStateException("Invalid SMTP settings", e);
+        }
+    }
+
+    private static void log(Email email) {
+        String escapedTitle = email.getSubject().replace("\"", "\\\"");
+        Set<InternetAddress> recipients = new HashSet<>();
+        recipients.addAll(email.getToAddresses());
+        recipients.addAll(email.getCcAddresses());
+        recipients.addAll(email.getBccAddresses());
+        String logEntry = String.format("\"%s\" %s", escapedTitle, recipients);
+        play.Logger.of("mail.out").info(logEntry);
+    }
+}
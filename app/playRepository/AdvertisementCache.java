@@ -0,0 +1,194 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.eclipse.jgit.lib.Repository;
+import play.Configuration;
+import utils.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the ref advertisements of git-upload-pack and git-receive-pack,
+ * which are sent for every {@code GET info/refs}.
+ *
+ * An advertisement is keyed by the repository and the service, and is valid
+ * only for the snapshot of the ref database it was made from. The snapshot
+ * consists of a generation, which is increased whenever Yobi updates refs of
+ * the repository, and the timestamp of {@code packed-refs}. In case someone
+ * updates refs behind Yobi, an advertisement also expires after
+ * {@code application.git.advertisement.cache.maxAge} (default: 5 minutes).
+ *
+ * The total size of the cache is bounded by
+ * {@code application.git.advertisement.cache.maxSize} bytes (default: 32MB).
+ *
+ * @see RepositoryService#gitAdvertise(models.Project, String, play.mvc.Http.Response)
+ * @see playRepository.hooks.ClearAdvertisementCache
+ */
+public class AdvertisementCache {
+    private static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+    private static final Metrics.Counter HITS = Metrics.counter("git.advertisement.cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("git.advertisement.cache.misses");
+
+    private static final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /**
+     * Holds the cache, which is created when it is used first, because the
+     * configuration is not available until the application starts.
+     */
+    private static class Holder {
+        static final Cache<String, Advertisement> cache = CacheBuilder.newBuilder()
+                .maximumWeight(Configuration.root().getBytes(
+                        "application.git.advertisement.cache.maxSize", DEFAULT_MAX_SIZE))
+                .weigher(new Weigher<String, Advertisement>() {
+                    @Override
+                    public int weigh(String key, Advertisement advertisement) {
+                        return advertisement.bytes.length;
+                    }
+                })
+                .expireAfterWrite(Configuration.root().getMilliseconds(
+                        "application.git.advertisement.cache.maxAge", DEFAULT_MAX_AGE),
+                        TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the advertisement of the service for the given repository.
+     *
+     * @param gitDirectory  the directory of the repository
+     * @param service  "git-upload-pack" or "git-receive-pack"
+     * @param loader  makes the advertisement if it is not cached
+     * @return the advertisement
+     * @throws IOException
+     */
+    public static byte[] get(File gitDirectory, String service, Callable<byte[]> loader)
+            throws IOException {
+        String repositoryKey = keyOf(gitDirectory);
+        String key = repositoryKey + "\n" + service;
+        Snapshot snapshot = new Snapshot(getGeneration(repositoryKey), gitDirectory);
+
+        Advertisement advertisement = Holder.cache.getIfPresent(key);
+        if (advertisement != null && advertisement.snapshot.equals(snapshot)) {
+            HITS.inc();
+            return advertisement.bytes;
+        }
+
+        MISSES.inc();
+
+        byte[] bytes;
+        try {
+            bytes = loader.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        Holder.cache.put(key, new Advertisement(snapshot, bytes));
+
+        return bytes;
+    }
+
+    /**
+     * Invalidates the advertisements of the given repository.
+     *
+     * This must be called whenever refs of the repository are updated.
+     *
+     * @param repository
+     */
+    public static void invalidate(Repository repository) {
+        invalidate(repository.getDirectory());
+    }
+
+    public static void invalidate(File gitDirectory) {
+        getGeneration(keyOf(gitDirectory)).incrementAndGet();
+    }
+
+    private static AtomicLong getGeneration(String repositoryKey) {
+        AtomicLong generation = generations.get(repositoryKey);
+        if (generation == null) {
+            AtomicLong newGeneration = new AtomicLong();
+            generation = generations.putIfAbsent(repositoryKey, newGeneration);
+            if (generation == null) {
+                generation = newGeneration;
+            }
+        }
+        return generation;
+    }
+
+    private static String keyOf(File gitDirectory) {
+        return gitDirectory.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private static class Snapshot {
+        private final long generation;
+        private final long packedRefsLastModified;
+        private final long packedRefsLength;
+
+        Snapshot(AtomicLong generation, File gitDirectory) {
+            File packedRefs = new File(gitDirectory, "packed-refs");
+            this.generation = generation.get();
+            this.packedRefsLastModified = packedRefs.lastModified();
+            this.packedRefsLength = packedRefs.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot that = (Snapshot) o;
+            return generation == that.generation
+                    && packedRefsLastModified == that.packedRefsLastModified
+                    && packedRefsLength == that.packedRefsLength;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (generation ^ (generation >>> 32));
+            result = 31 * result + (int) (packedRefsLastModified ^ (packedRefsLastModified >>> 32));
+            result = 31 * result + (int) (packedRefsLength ^ (packedRefsLength >>> 32));
+            return result;
+        }
+    }
+
+    private static class Advertisement {
+        private final Snapshot snapshot;
+        private final byte[] bytes;
+
+        Advertisement(Snapshot snapshot, byte[] bytes) {
+            this.snapshot = snapshot;
+            this.bytes = bytes;
+        }
+    }
+}
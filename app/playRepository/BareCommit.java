@@ -190,6 +190,7 @@ public class BareCommit {
         }
         ru.setRefLogMessage(getCommitMessage(), false);
         ru.update();
+        AdvertisementCache.invalidate(this.repository);
     }
 
     private boolean hasOldCommit(String refName) throws IOException {
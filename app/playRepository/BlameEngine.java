@@ -0,0 +1,341 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.util.io.NullOutputStream;
+import play.Configuration;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the authors of the lines modified or removed by changes.
+ *
+ * Each file is blamed on a bounded pool, in parallel with the other files,
+ * and only for the ranges of lines which have been edited. A blame stops
+ * between ranges once the caller has given up, so a slow blame does not keep
+ * holding a worker after its deadline. If the pool is too busy, the caller
+ * blames by itself. The author
+ * of each blamed line is cached per (blob, start commit), so a file blamed
+ * before is not blamed again for the same lines.
+ *
+ * Configuration:
+ *   application.git.blame.threads: the number of files blamed at once
+ *       (default: the number of processors)
+ *   application.git.blame.queueSize: the number of files which can wait for
+ *       a worker (default: 256)
+ *   application.git.blame.maxFiles: the maximum number of changed files
+ *       (default: 100)
+ *   application.git.blame.timeout: how long to wait for the blames of a
+ *       change (default: 60 seconds)
+ *   application.git.blame.cache.maxSize: the maximum number of blamed files
+ *       cached (default: 1000)
+ *
+ * @see GitRepository#getRelatedAuthors(Repository, String, String)
+ */
+public class BlameEngine {
+    private static final int DEFAULT_MAX_FILES = 100;
+    private static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    private static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * Holds the pool and the cache, which are created when they are used
+     * first, because the configuration is not available until the
+     * application starts.
+     */
+    private static class Holder {
+        static final ThreadPoolExecutor pool = createPool();
+
+        static final Cache<String, String[]> cache = CacheBuilder.newBuilder()
+                .maximumSize(Configuration.root().getInt(
+                        "application.git.blame.cache.maxSize", DEFAULT_CACHE_MAX_SIZE))
+                .build();
+    }
+
+    private static ThreadPoolExecutor createPool() {
+        Configuration config = Configuration.root();
+        int threads = Math.max(config.getInt("application.git.blame.threads",
+                Runtime.getRuntime().availableProcessors()), 1);
+        int queueSize = Math.max(config.getInt("application.git.blame.queueSize",
+                DEFAULT_QUEUE_SIZE), 1);
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "git-blame-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private final Repository repository;
+    private final ObjectId startCommitId;
+
+    /**
+     * @param repository
+     * @param start  the oldest commit to be considered
+     */
+    public BlameEngine(Repository repository, AnyObjectId start) {
+        this.repository = repository;
+        this.startCommitId = start.copy();
+    }
+
+    /**
+     * @return the maximum number of changed files whose authors can be found
+     */
+    public static int getMaxFiles() {
+        return Configuration.root().getInt("application.git.blame.maxFiles", DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Finds the email addresses of the authors who last modified the lines
+     * modified or removed by the given changes, and the authors who created
+     * the renamed files.
+     *
+     * A file which cannot be blamed in time is skipped.
+     *
+     * @param diffs  the changes made since the start commit
+     * @return the email addresses of the authors
+     * @throws IOException
+     */
+    public Set<String> findAuthorEmails(List<DiffEntry> diffs) throws IOException {
+        long timeout = Configuration.root().getMilliseconds("application.git.blame.timeout",
+                DEFAULT_TIMEOUT);
+        final long deadline = System.currentTimeMillis() + timeout;
+        List<Callable<Set<String>>> tasks = new ArrayList<>();
+
+        for (final DiffEntry diff : diffs) {
+            switch (diff.getChangeType()) {
+                case MODIFY:
+                case DELETE:
+                    tasks.add(new Callable<Set<String>>() {
+                        @Override
+                        public Set<String> call() throws Exception {
+                            return findAuthorEmailsOfEdits(diff, deadline);
+                        }
+                    });
+                    break;
+                case RENAME:
+                    tasks.add(new Callable<Set<String>>() {
+                        @Override
+                        public Set<String> call() throws Exception {
+                            checkDeadline(deadline);
+                            return findAuthorEmailOfFirstCommit(diff.getOldPath());
+                        }
+                    });
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Set<String> emails = new HashSet<>();
+        if (tasks.isEmpty()) {
+            return emails;
+        }
+
+        List<Future<Set<String>>> futures;
+        try {
+            futures = Holder.pool.invokeAll(tasks, timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        for (Future<Set<String>> future : futures) {
+            try {
+                emails.addAll(future.get());
+            } catch (CancellationException e) {
+                play.Logger.warn("Timed out while blaming a file of " + repository.getDirectory());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedIOException) {
+                    play.Logger.warn("Timed out while blaming a file of " + repository.getDirectory());
+                    continue;
+                }
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+
+        return emails;
+    }
+
+    private Set<String> findAuthorEmailsOfEdits(DiffEntry diff, long deadline)
+            throws IOException {
+        checkDeadline(deadline);
+
+        EditList edits;
+        DiffFormatter diffFormatter = new DiffFormatter(NullOutputStream.INSTANCE);
+        try {
+            diffFormatter.setRepository(repository);
+            edits = diffFormatter.toFileHeader(diff).toEditList();
+        } finally {
+            diffFormatter.release();
+        }
+
+        String key = startCommitId.getName() + ":" + diff.getOldId().name() + ":" + diff.getOldPath();
+        String[] authors = Holder.cache.getIfPresent(key);
+        if (authors == null) {
+            authors = new String[0];
+        }
+
+        List<Edit> unblamed = new ArrayList<>();
+        for (Edit edit : edits) {
+            if (isRemoval(edit) && !isBlamed(authors, edit)) {
+                unblamed.add(edit);
+            }
+        }
+
+        if (!unblamed.isEmpty()) {
+            authors = blame(diff.getOldPath(), unblamed, authors, deadline);
+            Holder.cache.put(key, authors);
+        }
+
+        Set<String> emails = new HashSet<>();
+        for (Edit edit : edits) {
+            if (isRemoval(edit)) {
+                for (int i = edit.getBeginA(); i < edit.getEndA() && i < authors.length; i++) {
+                    if (authors[i] != null && !authors[i].isEmpty()) {
+                        emails.add(authors[i]);
+                    }
+                }
+            }
+        }
+        return emails;
+    }
+
+    /**
+     * Blames the given ranges of lines.
+     *
+     * @param path
+     * @param edits  the edits whose old lines are blamed
+     * @param blamed  the authors of the lines blamed before
+     * @param deadline  the time after which the blame stops between ranges
+     * @return the authors of the lines blamed so far, indexed by line; null
+     *         for a line which has not been blamed, and an empty string for a
+     *         line whose author is unknown
+     * @throws IOException
+     * @throws InterruptedIOException if the deadline has passed or the
+     *         thread has been interrupted
+     */
+    private String[] blame(String path, List<Edit> edits, String[] blamed, long deadline)
+            throws IOException {
+        BlameGenerator generator = new BlameGenerator(repository, path);
+        try {
+            generator.setFollowFileRenames(true);
+            generator.push(null, startCommitId);
+            BlameResult result = BlameResult.create(generator);
+            if (result == null) {
+                return blamed;
+            }
+
+            int lines = result.getResultContents().size();
+            String[] authors = Arrays.copyOf(blamed, Math.max(blamed.length, lines));
+            for (Edit edit : edits) {
+                checkDeadline(deadline);
+                int end = Math.min(edit.getEndA(), lines);
+                if (edit.getBeginA() >= end) {
+                    continue;
+                }
+                result.computeRange(edit.getBeginA(), end);
+                for (int i = edit.getBeginA(); i < end; i++) {
+                    PersonIdent author = result.getSourceAuthor(i);
+                    authors[i] = (author != null) ? author.getEmailAddress() : "";
+                }
+            }
+            return authors;
+        } finally {
+            generator.release();
+        }
+    }
+
+    private Set<String> findAuthorEmailOfFirstCommit(String path) throws IOException {
+        Set<String> emails = new HashSet<>();
+        RevWalk revWalk = new RevWalk(repository);
+        try {
+            revWalk.markStart(revWalk.parseCommit(startCommitId));
+            revWalk.setTreeFilter(PathFilter.create(path));
+            revWalk.sort(RevSort.REVERSE);
+            RevCommit commit = revWalk.next();
+            if (commit != null && commit.getAuthorIdent() != null) {
+                emails.add(commit.getAuthorIdent().getEmailAddress());
+            }
+            return emails;
+        } finally {
+            revWalk.dispose();
+        }
+    }
+
+    /**
+     * @throws InterruptedIOException if the deadline has passed or the
+     *         current thread has been interrupted, because the caller has
+     *         given up
+     */
+    private static void checkDeadline(long deadline) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted() || System.currentTimeMillis() > deadline) {
+            throw new InterruptedIOException("Gave up blaming");
+        }
+    }
+
+    private static boolean isRemoval(Edit edit) {
+        return edit.getType() == Edit.Type.REPLACE || edit.getType() == Edit.Type.DELETE;
+    }
+
+    private static boolean isBlamed(String[] authors, Edit edit) {
+        for (int i = edit.getBeginA(); i < edit.getEndA(); i++) {
+            if (i >= authors.length || authors[i] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import utils.FileUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The storage of an on-disk index whose entries are keyed by a commit and a
+ * string, such as {@link LastCommitIndex} and {@link HistoryIndex}.
+ *
+ * Each entry is a file at {@code $GIT_DIR/<index path>/<commit>/<sha1 of key>}
+ * and is written into a temporary file first and then moved, so a reader
+ * never sees a partially written entry.
+ *
+ * An entry never becomes stale because a commit is immutable, but the
+ * entries of a commit become useless once no ref can reach the commit, and
+ * entries are written for any commit someone browses. {@link #prune} removes
+ * them once there are too many.
+ */
+public class CommitIndexStore {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Writes the content of an entry.
+     */
+    public interface Writer {
+        void writeTo(OutputStream output) throws IOException;
+    }
+
+    private final Repository repository;
+    private final File indexDirectory;
+    private final String name;
+
+    /**
+     * @param repository
+     * @param indexPath  the path of the index in {@code $GIT_DIR}
+     * @param name  the name of the index, used for logging
+     */
+    public CommitIndexStore(Repository repository, String indexPath, String name) {
+        this.repository = repository;
+        this.indexDirectory = new File(repository.getDirectory(), indexPath);
+        this.name = name;
+    }
+
+    /**
+     * @param commitId
+     * @param key
+     * @return the file of the entry, which may not exist
+     */
+    public File getEntryFile(AnyObjectId commitId, String key) {
+        return new File(getCommitDirectory(commitId), ObjectId.fromRaw(
+                Constants.newMessageDigest().digest(Constants.encode(key))).getName());
+    }
+
+    /**
+     * Writes the entry of the given commit and key.
+     *
+     * @param commitId
+     * @param key
+     * @param writer
+     */
+    public void write(AnyObjectId commitId, String key, Writer writer) {
+        File file = getEntryFile(commitId, key);
+        File tempFile = null;
+
+        try {
+            File directory = file.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Failed to create a directory: " + directory);
+            }
+            tempFile = File.createTempFile("entry", TEMP_SUFFIX, directory);
+
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                writer.writeTo(output);
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            play.Logger.warn("Failed to write the " + name + ": " + file, e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @param commitId
+     * @return the files of every entry of the given commit
+     */
+    public List<File> getEntryFiles(AnyObjectId commitId) {
+        List<File> entries = new ArrayList<>();
+        File[] files = getCommitDirectory(commitId).listFiles();
+
+        if (files == null) {
+            return entries;
+        }
+
+        for (File file : files) {
+            if (!file.getName().endsWith(TEMP_SUFFIX)) {
+                entries.add(file);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Removes every entry of the given commit.
+     *
+     * @param commitId
+     */
+    public void remove(AnyObjectId commitId) {
+        File directory = getCommitDirectory(commitId);
+
+        if (!directory.exists()) {
+            return;
+        }
+
+        try {
+            FileUtil.rm_rf(directory);
+        } catch (Exception e) {
+            play.Logger.warn("Failed to remove the " + name + ": " + directory, e);
+        }
+    }
+
+    /**
+     * Does nothing unless more than {@code maxCommits} commits are indexed.
+     * Otherwise, removes the entries of every commit which no ref can reach,
+     * and then those of the least recently indexed commits, except the
+     * commits refs point to, until at most three quarters of
+     * {@code maxCommits} commits are indexed.
+     *
+     * Finding the unreachable commits may walk the whole history, so it is
+     * not done on every push but only once the index has grown by a quarter.
+     *
+     * @param maxCommits
+     * @throws IOException
+     */
+    public void prune(int maxCommits) throws IOException {
+        Map<ObjectId, File> indexed = new HashMap<>();
+        File[] directories = indexDirectory.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (ObjectId.isId(directory.getName())) {
+                indexed.put(ObjectId.fromString(directory.getName()), directory);
+            }
+        }
+        if (indexed.size() <= maxCommits) {
+            return;
+        }
+        int targetCommits = maxCommits / 4 * 3;
+
+        Set<ObjectId> heads = new HashSet<>();
+        Set<ObjectId> unreachable = new HashSet<>(indexed.keySet());
+        RevWalk revWalk = new RevWalk(repository);
+        try {
+            revWalk.setRetainBody(false);
+            for (Ref ref : repository.getAllRefs().values()) {
+                if (ref.getObjectId() == null) {
+                    continue;
+                }
+                try {
+                    RevObject object = revWalk.peel(revWalk.parseAny(ref.getObjectId()));
+                    if (object instanceof RevCommit) {
+                        heads.add(object.copy());
+                        revWalk.markStart((RevCommit) object);
+                    }
+                } catch (MissingObjectException e) {
+                    // A broken ref reaches nothing.
+                }
+            }
+            unreachable.removeAll(heads);
+
+            // Stop walking as soon as every indexed commit has been reached.
+            RevCommit commit;
+            while (!unreachable.isEmpty() && (commit = revWalk.next()) != null) {
+                unreachable.remove(commit);
+            }
+        } finally {
+            revWalk.dispose();
+        }
+
+        for (ObjectId commitId : unreachable) {
+            remove(commitId);
+            indexed.remove(commitId);
+        }
+
+        if (indexed.size() <= targetCommits) {
+            return;
+        }
+
+        List<Map.Entry<ObjectId, File>> entries = new ArrayList<>();
+        for (Map.Entry<ObjectId, File> entry : indexed.entrySet()) {
+            if (!heads.contains(entry.getKey())) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<ObjectId, File>>() {
+            @Override
+            public int compare(Map.Entry<ObjectId, File> a, Map.Entry<ObjectId, File> b) {
+                return Long.compare(a.getValue().lastModified(), b.getValue().lastModified());
+            }
+        });
+        for (int i = 0; i < entries.size() && indexed.size() > targetCommits; i++) {
+            remove(entries.get(i).getKey());
+            indexed.remove(entries.get(i).getKey());
+        }
+    }
+
+    private File getCommitDirectory(AnyObjectId commitId) {
+        return new File(indexDirectory, commitId.getName());
+    }
+}
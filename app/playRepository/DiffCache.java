@@ -0,0 +1,151 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.eclipse.jgit.lib.AnyObjectId;
+import play.Configuration;
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the differences between two commits.
+ *
+ * A difference is keyed by the ids of the two commits and the settings used
+ * to compute it. Because commits are immutable, a cached difference never
+ * becomes stale; it is evicted only to keep the total size of the raw texts
+ * held by the cache under {@code application.git.diff.cache.maxSize} bytes
+ * (default: 64MB), or when it has not been used for
+ * {@code application.git.diff.cache.maxIdle} (default: 30 minutes).
+ *
+ * A {@link FileDiff} is mutable, so the cache holds its own copies and
+ * returns new copies.
+ *
+ * @see GitRepository#getDiff(org.eclipse.jgit.lib.Repository, String, org.eclipse.jgit.lib.Repository, String)
+ */
+public class DiffCache {
+    private static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+    private static final long DEFAULT_MAX_IDLE = TimeUnit.MINUTES.toMillis(30);
+
+    private static final Metrics.Counter HITS = Metrics.counter("git.diff.cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("git.diff.cache.misses");
+
+    private static volatile Cache<String, Entry> cache;
+
+    public static void onStart() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(Configuration.root().getBytes(
+                        "application.git.diff.cache.maxSize", DEFAULT_MAX_SIZE))
+                .weigher(new Weigher<String, Entry>() {
+                    @Override
+                    public int weigh(String key, Entry entry) {
+                        // An empty diff still takes a slot.
+                        return Math.max(entry.weight, 1);
+                    }
+                })
+                .expireAfterAccess(Configuration.root().getMilliseconds(
+                        "application.git.diff.cache.maxIdle", DEFAULT_MAX_IDLE),
+                        TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static void onStop() {
+        cache = null;
+    }
+
+    /**
+     * Makes the key of the difference between the given commits.
+     *
+     * @param commitA  the old commit, or null for an empty tree
+     * @param commitB  the new commit, or null for an empty tree
+     * @param settings  everything else which affects the result, such as the
+     *                  diff algorithm
+     * @return the key
+     */
+    public static String keyOf(AnyObjectId commitA, AnyObjectId commitB, Object... settings) {
+        StringBuilder key = new StringBuilder();
+        key.append(commitA != null ? commitA.name() : "-");
+        key.append(' ').append(commitB != null ? commitB.name() : "-");
+        for (Object setting : settings) {
+            key.append(' ').append(setting);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns copies of the cached difference.
+     *
+     * @param key
+     * @return the difference, or null if it is not cached
+     */
+    public static List<FileDiff> get(String key) {
+        Cache<String, Entry> cache = DiffCache.cache;
+        if (cache == null) {
+            return null;
+        }
+
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            MISSES.inc();
+            return null;
+        }
+
+        HITS.inc();
+        return copyOf(entry.fileDiffs);
+    }
+
+    /**
+     * Caches copies of the given difference.
+     *
+     * @param key
+     * @param fileDiffs
+     * @param size  the approximate size of the difference in bytes
+     */
+    public static void put(String key, List<FileDiff> fileDiffs, long size) {
+        Cache<String, Entry> cache = DiffCache.cache;
+        if (cache == null) {
+            return;
+        }
+
+        cache.put(key, new Entry(copyOf(fileDiffs), (int) Math.min(size, Integer.MAX_VALUE)));
+    }
+
+    private static List<FileDiff> copyOf(List<FileDiff> fileDiffs) {
+        List<FileDiff> copies = new ArrayList<>(fileDiffs.size());
+        for (FileDiff fileDiff : fileDiffs) {
+            copies.add(fileDiff.copy());
+        }
+        return copies;
+    }
+
+    private static class Entry {
+        private final List<FileDiff> fileDiffs;
+        private final int weight;
+
+        Entry(List<FileDiff> fileDiffs, int weight) {
+            this.fileDiffs = fileDiffs;
+            this.weight = weight;
+        }
+    }
+}
@@ -85,6 +85,35 @@ public class FileDiff {
         private static final long serialVersionUID = 3089104397758709369L;
     }
 
+    /**
+     * Returns a copy of this difference.
+     *
+     * The raw texts and the edit list are shared with the copy, because they
+     * are never modified in place.
+     *
+     * @return the copy
+     */
+    public FileDiff copy() {
+        FileDiff copy = new FileDiff();
+        copy.errors.addAll(errors);
+        copy.a = a;
+        copy.b = b;
+        copy.editList = editList;
+        copy.commitA = commitA;
+        copy.commitB = commitB;
+        copy.pathA = pathA;
+        copy.pathB = pathB;
+        copy.context = context;
+        copy.isBinaryA = isBinaryA;
+        copy.isBinaryB = isBinaryB;
+        copy.changeType = changeType;
+        copy.interestLine = interestLine;
+        copy.interestSide = interestSide;
+        copy.oldMode = oldMode;
+        copy.newMode = newMode;
+        return copy;
+    }
+
     public static boolean isRawTextSizeExceeds(RawText rawText) {
         return getRawTextSize(rawText) > SIZE_LIMIT || rawText.size() > LINE_LIMIT;
     }
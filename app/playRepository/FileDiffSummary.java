@@ -0,0 +1,95 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+
+/**
+ * The summary of the difference of a file, which does not hold the contents.
+ *
+ * @see GitRepository#getDiffSummary(org.eclipse.jgit.lib.Repository, org.eclipse.jgit.lib.ObjectId, org.eclipse.jgit.lib.Repository, org.eclipse.jgit.lib.ObjectId)
+ */
+public class FileDiffSummary {
+    public String pathA;
+    public String pathB;
+    public DiffEntry.ChangeType changeType;
+    public boolean isBinary = false;
+
+    /**
+     * The number of added lines, or null if it is unknown because the file
+     * is binary or too large.
+     */
+    public Integer addedLines;
+
+    /**
+     * The number of removed lines, or null if it is unknown because the file
+     * is binary or too large.
+     */
+    public Integer removedLines;
+
+    public FileDiffSummary(DiffEntry diff) {
+        changeType = diff.getChangeType();
+        if (changeType != DiffEntry.ChangeType.ADD) {
+            pathA = diff.getOldPath();
+        }
+        if (changeType != DiffEntry.ChangeType.DELETE) {
+            pathB = diff.getNewPath();
+        }
+    }
+
+    /**
+     * Counts the added and removed lines of the given difference.
+     *
+     * @param fileDiff  the difference whose contents have been loaded
+     * @param hasEditList  whether the edit list has been computed
+     */
+    void countLines(FileDiff fileDiff, boolean hasEditList) {
+        isBinary = fileDiff.isBinaryA || fileDiff.isBinaryB;
+
+        if (hasEditList) {
+            int added = 0;
+            int removed = 0;
+            for (Edit edit : fileDiff.editList) {
+                added += edit.getLengthB();
+                removed += edit.getLengthA();
+            }
+            addedLines = added;
+            removedLines = removed;
+            return;
+        }
+
+        switch (changeType) {
+            case ADD:
+                if (fileDiff.b != null) {
+                    addedLines = fileDiff.b.size();
+                    removedLines = 0;
+                }
+                break;
+            case DELETE:
+                if (fileDiff.a != null) {
+                    addedLines = 0;
+                    removedLines = fileDiff.a.size();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,580 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import akka.actor.Cancellable;
+import com.google.common.util.concurrent.Striped;
+import models.Project;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.transport.*;
+import play.Configuration;
+import play.libs.Akka;
+import scala.concurrent.duration.Duration;
+import utils.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The object store shared by a project and its forks.
+ *
+ * A fork network is a bare repository which has the objects of every
+ * repository in it. A forked repository has no objects of its own when it is
+ * created; it reads them from the network through
+ * {@code objects/info/alternates}, so forking a project costs only writing
+ * its refs, and the objects of a project forked many times are stored once.
+ * Objects pushed to a fork are stored in the fork.
+ *
+ * The refs of every member of a network are fetched into the network as
+ * {@code refs/forks/<project id>/*}. The network is never allowed to lose an
+ * object, because a fork may need it: the refs of a member are kept even
+ * after the member or its branch is deleted, and a commit which a member has
+ * force-pushed away is kept as {@code refs/retained/<id>}.
+ *
+ * A fork finds the network through a path relative to its own objects
+ * directory, so the repositories can be moved together.
+ *
+ * A push to a fork is told only the refs of the fork and the heads of its
+ * original project in the network, see {@link #newAdvertiseRefsHook}.
+ *
+ * A network is named by the id of the root project, the one which is not a
+ * fork, and is stored at {@code .network/<id>.git} in the directory of Git
+ * repositories, which cannot be taken by a user or an organization.
+ *
+ * The networks are collected in the background from time to time: the refs
+ * of the members are fetched again, the network is repacked, and every pack
+ * of a fork whose objects are all in the network is removed.
+ *
+ * Metrics:
+ *   git.forkNetwork.reclaimed: the size of the packs removed from forks, in
+ *       bytes
+ *
+ * Configuration:
+ *   application.git.forkNetwork.gcInterval: how often the networks are
+ *       collected, or 0 not to collect them (default: 1 day)
+ */
+public class ForkNetwork {
+    private static final long DEFAULT_GC_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_ADDITIONAL_HAVES = 256;
+
+    private static final String NETWORK_DIRECTORY = ".network";
+    private static final String OBJECTS = "objects";
+    private static final String ALTERNATES = "objects/info/alternates";
+    private static final String R_FORKS = Constants.R_REFS + "forks/";
+    private static final String R_RETAINED = Constants.R_REFS + "retained/";
+
+    private static final Metrics.Meter RECLAIMED = Metrics.meter("git.forkNetwork.reclaimed");
+
+    /**
+     * Serializes the updates of a network, by the id of the network.
+     */
+    private static final Striped<Lock> locks = Striped.lock(64);
+
+    private static Cancellable gcSchedule;
+
+    public static void onStart() {
+        long interval = Configuration.root().getMilliseconds(
+                "application.git.forkNetwork.gcInterval", DEFAULT_GC_INTERVAL);
+        if (interval <= 0) {
+            return;
+        }
+
+        gcSchedule = Akka.system().scheduler().schedule(
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        gcAll();
+                    }
+                },
+                Akka.system().dispatcher()
+        );
+    }
+
+    public static void onStop() {
+        if (gcSchedule != null) {
+            gcSchedule.cancel();
+            gcSchedule = null;
+        }
+    }
+
+    /**
+     * Creates the repository of {@code forkProject} which shares the objects
+     * of {@code originalProject} through their fork network.
+     *
+     * The network is created if it does not exist. The refs of the fork are
+     * copied from the current refs of the original, which are read before
+     * they are fetched into the network, so every object they need is in the
+     * network. The refs the network keeps for deleted branches and
+     * force-pushed commits are not copied.
+     *
+     * If it fails after the repository of the fork is created, the repository
+     * is deleted.
+     *
+     * @param originalProject
+     * @param forkProject
+     * @param monitor
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public static void fork(Project originalProject, Project forkProject,
+                            ProgressMonitor monitor) throws IOException, GitAPIException {
+        Project root = findRoot(originalProject);
+        Long networkId = root.id;
+        File networkDirectory = getNetworkDirectory(networkId);
+
+        Map<String, ObjectId> refs = new LinkedHashMap<>();
+        Ref head;
+        Lock lock = locks.get(networkId);
+        lock.lock();
+        try {
+            Repository network = openOrCreate(networkDirectory, root, monitor);
+            Repository origin = GitRepository.buildGitRepository(originalProject, false);
+            try {
+                Map<String, Ref> current = origin.getRefDatabase().getRefs(Constants.R_REFS);
+                head = origin.getRef(Constants.HEAD);
+                fetch(network, originalProject, monitor);
+                for (Map.Entry<String, Ref> entry : current.entrySet()) {
+                    ObjectId id = entry.getValue().getObjectId();
+                    // A commit force-pushed away after the refs were read
+                    // may not have been fetched.
+                    if (id != null && network.hasObject(id)) {
+                        refs.put(Constants.R_REFS + entry.getKey(), id);
+                    }
+                }
+            } finally {
+                origin.close();
+                network.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        File forkDirectory = GitRepository.getGitDirectory(forkProject);
+        boolean created = false;
+        try {
+            Repository forked = new RepositoryBuilder().setGitDir(forkDirectory).setBare().build();
+            try {
+                forked.create(true);
+            } finally {
+                forked.close();
+            }
+            created = true;
+
+            // A relative path keeps working when the repositories are moved.
+            Path forkObjects = new File(forkDirectory, OBJECTS).getCanonicalFile().toPath();
+            Path networkObjects = new File(networkDirectory, OBJECTS).getCanonicalFile().toPath();
+            File alternates = new File(forkDirectory, ALTERNATES);
+            Files.write(alternates.toPath(),
+                    (forkObjects.relativize(networkObjects).toString()
+                            .replace(File.separatorChar, '/') + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+
+            forked = new RepositoryBuilder().setGitDir(forkDirectory).setBare().build();
+            try {
+                monitor.beginTask("Writing refs", refs.size());
+                for (Map.Entry<String, ObjectId> entry : refs.entrySet()) {
+                    RefUpdate update = forked.updateRef(entry.getKey());
+                    update.setNewObjectId(entry.getValue());
+                    update.update();
+                    monitor.update(1);
+                }
+                monitor.endTask();
+
+                if (head != null && head.isSymbolic()) {
+                    forked.updateRef(Constants.HEAD).link(head.getTarget().getName());
+                }
+            } finally {
+                forked.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (created) {
+                FileUtils.deleteQuietly(forkDirectory);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Collects every fork network.
+     */
+    public static void gcAll() {
+        File[] directories = getNetworksDirectory().listFiles();
+        if (directories == null) {
+            return;
+        }
+
+        for (File directory : directories) {
+            String name = directory.getName();
+            if (!name.matches("[0-9]+\\" + Constants.DOT_GIT_EXT)) {
+                continue;
+            }
+            Long networkId = Long.valueOf(name.substring(0,
+                    name.length() - Constants.DOT_GIT_EXT.length()));
+            try {
+                gc(networkId);
+            } catch (Exception e) {
+                play.Logger.error("Failed to collect the fork network " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Collects the fork network of the given id.
+     *
+     * The refs of every member are fetched into the network and the network
+     * is repacked. Then every pack of a fork whose objects are all in the
+     * network is removed from the fork.
+     *
+     * The repositories of the members are not repacked, because GC of JGit
+     * does not know alternates and would copy the objects of the network into
+     * them.
+     *
+     * @param networkId  the id of the root project of the network
+     * @throws Exception
+     */
+    public static void gc(Long networkId) throws Exception {
+        File networkDirectory = getNetworkDirectory(networkId);
+        if (!new File(networkDirectory, OBJECTS).isDirectory()) {
+            return;
+        }
+
+        Lock lock = locks.get(networkId);
+        lock.lock();
+        try {
+            FileRepository network = (FileRepository) new RepositoryBuilder()
+                    .setGitDir(networkDirectory).setMustExist(true).build();
+            try {
+                List<Project> members = findMembers(network, networkId);
+                for (Project member : members) {
+                    fetch(network, member, NullProgressMonitor.INSTANCE);
+                }
+
+                new GC(network).gc();
+
+                String networkObjects = new File(networkDirectory, OBJECTS)
+                        .getCanonicalPath();
+                for (Project member : members) {
+                    reclaim(network, member, networkObjects);
+                }
+            } finally {
+                network.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the hook which advertises to a push to the given project the
+     * refs of its repository and, as objects the server already has, the
+     * heads of its original project in the fork network.
+     *
+     * By default, JGit advertises every ref of the repositories whose objects
+     * a repository reads. For a fork, that is every ref of the network,
+     * including those of every member and the retained commits, which grow
+     * without bound. At most {@link #MAX_ADDITIONAL_HAVES} heads are
+     * advertised instead.
+     *
+     * @param project
+     * @return the hook
+     */
+    public static AdvertiseRefsHook newAdvertiseRefsHook(final Project project) {
+        return new AdvertiseRefsHook() {
+            @Override
+            public void advertiseRefs(UploadPack uploadPack) {
+            }
+
+            @Override
+            public void advertiseRefs(BaseReceivePack receivePack) {
+                receivePack.setAdvertisedRefs(receivePack.getRepository().getAllRefs(),
+                        findAdditionalHaves(project));
+            }
+        };
+    }
+
+    private static Set<ObjectId> findAdditionalHaves(Project project) {
+        Set<ObjectId> haves = new HashSet<>();
+        if (project.originalProject == null) {
+            return haves;
+        }
+
+        File networkDirectory = getNetworkDirectory(project);
+        if (!new File(networkDirectory, OBJECTS).isDirectory()) {
+            return haves;
+        }
+
+        try {
+            Repository network = new RepositoryBuilder()
+                    .setGitDir(networkDirectory).setMustExist(true).build();
+            try {
+                String prefix = R_FORKS + project.originalProject.id + "/"
+                        + Constants.R_HEADS.substring(Constants.R_REFS.length());
+                for (Ref ref : network.getRefDatabase().getRefs(prefix).values()) {
+                    if (haves.size() >= MAX_ADDITIONAL_HAVES) {
+                        break;
+                    }
+                    if (ref.getObjectId() != null) {
+                        haves.add(ref.getObjectId());
+                    }
+                }
+            } finally {
+                network.close();
+            }
+        } catch (IOException e) {
+            play.Logger.warn("Failed to read the fork network of " + project, e);
+        }
+        return haves;
+    }
+
+    /**
+     * @return the directory of the network of the project
+     */
+    public static File getNetworkDirectory(Project project) {
+        return getNetworkDirectory(findRoot(project).id);
+    }
+
+    private static File getNetworkDirectory(Long networkId) {
+        return new File(getNetworksDirectory(), networkId + Constants.DOT_GIT_EXT);
+    }
+
+    private static File getNetworksDirectory() {
+        return new File(GitRepository.getRootDirectory(), NETWORK_DIRECTORY);
+    }
+
+    private static Project findRoot(Project project) {
+        Set<Long> visited = new HashSet<>();
+        Project root = project;
+        while (root.originalProject != null && visited.add(root.id)) {
+            root = root.originalProject;
+        }
+        return root;
+    }
+
+    /**
+     * Opens the network, or creates it with the objects of the root project.
+     *
+     * The objects of the root are hardlinked if possible. Otherwise, they are
+     * copied when the refs of the root are fetched.
+     */
+    private static Repository openOrCreate(File networkDirectory, Project root,
+                                           ProgressMonitor monitor) throws IOException {
+        Repository network = new RepositoryBuilder().setGitDir(networkDirectory).setBare().build();
+        if (new File(networkDirectory, OBJECTS).isDirectory()) {
+            return network;
+        }
+
+        network.create(true);
+        try {
+            linkObjects(new File(GitRepository.getGitDirectory(root), OBJECTS),
+                    new File(networkDirectory, OBJECTS), monitor);
+        } catch (IOException e) {
+            play.Logger.warn("Failed to hardlink the objects of " + root
+                    + " into its fork network. They will be copied.", e);
+        }
+        return network;
+    }
+
+    private static void linkObjects(File from, File to, final ProgressMonitor monitor)
+            throws IOException {
+        final Path source = from.toPath().toAbsolutePath();
+        final Path target = to.toPath().toAbsolutePath();
+
+        monitor.beginTask("Linking objects", ProgressMonitor.UNKNOWN);
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // The alternates of the root, if any, must not be shared.
+                return dir.equals(source.resolve("info"))
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Path link = target.resolve(source.relativize(file));
+                if (!Files.exists(link)) {
+                    Files.createDirectories(link.getParent());
+                    Files.createLink(link, file);
+                }
+                monitor.update(1);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        monitor.endTask();
+    }
+
+    /**
+     * Fetches every ref of the member into {@code refs/forks/<id>/}, and
+     * keeps the commits which the member has force-pushed away.
+     */
+    private static void fetch(Repository network, Project member, ProgressMonitor monitor)
+            throws IOException, GitAPIException {
+        FetchResult result = new Git(network).fetch()
+                .setRemote(GitRepository.getGitDirectoryURL(member))
+                .setRefSpecs(new RefSpec("+" + Constants.R_REFS + "*:"
+                        + R_FORKS + member.id + "/*"))
+                .setTagOpt(TagOpt.NO_TAGS)
+                .setProgressMonitor(monitor)
+                .call();
+
+        for (TrackingRefUpdate update : result.getTrackingRefUpdates()) {
+            if (update.getResult() == RefUpdate.Result.FORCED) {
+                ObjectId oldId = update.getOldObjectId();
+                RefUpdate retain = network.updateRef(R_RETAINED + oldId.name());
+                retain.setNewObjectId(oldId);
+                retain.update();
+            }
+        }
+    }
+
+    /**
+     * Finds the existing members of the network: the projects whose refs
+     * have been fetched into it, and the root and its forks.
+     */
+    private static List<Project> findMembers(Repository network, Long networkId)
+            throws IOException {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (String name : network.getRefDatabase().getRefs(R_FORKS).keySet()) {
+            try {
+                ids.add(Long.valueOf(name.substring(0, name.indexOf('/'))));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                play.Logger.warn("Unexpected ref in the fork network " + network + ": " + name);
+            }
+        }
+
+        Project root = Project.find.byId(networkId);
+        if (root != null) {
+            addForks(root, ids);
+        }
+
+        List<Project> members = new ArrayList<>();
+        for (Long id : ids) {
+            Project project = Project.find.byId(id);
+            if (project != null && GitRepository.getGitDirectory(project).isDirectory()) {
+                members.add(project);
+            }
+        }
+        return members;
+    }
+
+    private static void addForks(Project project, Set<Long> ids) {
+        ids.add(project.id);
+        for (Project fork : project.forkingProjects) {
+            if (!ids.contains(fork.id)) {
+                addForks(fork, ids);
+            }
+        }
+    }
+
+    /**
+     * @return true if the alternates of the repository, which may be
+     *         absolute or relative to its objects directory, have the given
+     *         object directory
+     */
+    private static boolean readsObjectsOf(File gitDirectory, String objectDirectory)
+            throws IOException {
+        File alternates = new File(gitDirectory, ALTERNATES);
+        if (!alternates.isFile()) {
+            return false;
+        }
+        File objects = new File(gitDirectory, OBJECTS);
+        for (String line : FileUtils.readLines(alternates, StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            File alternate = new File(line.trim());
+            if (!alternate.isAbsolute()) {
+                alternate = new File(objects, line.trim());
+            }
+            if (alternate.getCanonicalPath().equals(objectDirectory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes every pack of the member whose objects are all in the network,
+     * if the member reads the objects of the network.
+     */
+    private static void reclaim(Repository network, Project member, String networkObjects)
+            throws IOException {
+        File memberDirectory = GitRepository.getGitDirectory(member);
+        if (!readsObjectsOf(memberDirectory, networkObjects)) {
+            return;
+        }
+
+        List<File> removable = new ArrayList<>();
+        FileRepository repository = (FileRepository) new RepositoryBuilder()
+                .setGitDir(memberDirectory).setMustExist(true).build();
+        try {
+            ObjectDatabase networkObjectDatabase = network.getObjectDatabase();
+            for (PackFile pack : repository.getObjectDatabase().getPacks()) {
+                if (pack.shouldBeKept()) {
+                    continue;
+                }
+                boolean shared = true;
+                for (PackIndex.MutableEntry entry : pack) {
+                    if (!networkObjectDatabase.has(entry.toObjectId())) {
+                        shared = false;
+                        break;
+                    }
+                }
+                if (shared) {
+                    removable.add(pack.getPackFile());
+                }
+            }
+        } finally {
+            repository.close();
+        }
+
+        if (removable.isEmpty()) {
+            return;
+        }
+
+        RepositoryRegistry.evict(memberDirectory);
+        for (File pack : removable) {
+            String base = pack.getPath().substring(0, pack.getPath().length() - ".pack".length());
+            long size = pack.length();
+            // Remove the pack first; an index without its pack is ignored.
+            if (pack.delete()) {
+                new File(base + ".idx").delete();
+                new File(base + ".bitmap").delete();
+                RECLAIMED.mark(size);
+            }
+        }
+        RepositoryRegistry.resetWindowCache();
+    }
+}
@@ -29,7 +29,6 @@ import models.enumeration.ResourceType;
 import models.resource.Resource;
 import models.support.ModelLock;
 import org.apache.commons.collections.IteratorUtils;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.tika.Tika;
 import org.apache.tika.metadata.Metadata;
@@ -38,23 +37,22 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.blame.BlameResult;
 import org.eclipse.jgit.diff.*;
-import org.eclipse.jgit.diff.Edit.Type;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.lib.RefUpdate.Result;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.FileUtils;
 import org.eclipse.jgit.util.io.NullOutputStream;
 import org.tmatesoft.svn.core.SVNException;
@@ -81,7 +79,12 @@ public class GitRepository implements PlayRepository {
     public static final int DIFF_LINE_LIMIT = 3 * FileDiff.LINE_LIMIT;
     public static final int DIFF_FILE_LIMIT = 2000;
     public static final int COMMIT_HISTORY_LIMIT = 1000 * 1000;
-    public static final int BLAME_FILE_LIMIT = 10;
+
+    /**
+     * The history index is filled in units of this number of commits, so
+     * paging through the history does not walk it again for every page.
+     */
+    private static final int HISTORY_INDEX_CHUNK_SIZE = 500;
 
     /**
      * The base directory of Git repository
@@ -129,18 +132,29 @@ public class GitRepository implements PlayRepository {
         this(project.owner, project.name, true);
     }
 
+    /**
+     * Opens the repository of the project through {@link RepositoryRegistry}.
+     *
+     * The returned repository may be shared with others, so it must not be
+     * used after it is closed.
+     *
+     * @param ownerName
+     * @param projectName
+     * @param alternatesMergeRepo  whether to use the objects of the repository
+     *                             for merging as alternates
+     * @return the repository
+     */
     public static Repository buildGitRepository(String ownerName, String projectName,
                                                 boolean alternatesMergeRepo) {
         try {
-            RepositoryBuilder repo = new RepositoryBuilder()
-                    .setGitDir(getGitDirectory(ownerName, projectName));
+            File alternateObjectDirectory = null;
 
             if (alternatesMergeRepo) {
-                repo.addAlternateObjectDirectory(getDirectoryForMergingObjects(ownerName,
-                        projectName));
+                alternateObjectDirectory = getDirectoryForMergingObjects(ownerName, projectName);
             }
 
-            return repo.build();
+            return RepositoryRegistry.open(getGitDirectory(ownerName, projectName),
+                    alternateObjectDirectory);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -163,13 +177,53 @@ public class GitRepository implements PlayRepository {
 
     public static void cloneLocalRepository(Project originalProject, Project forkProject)
             throws Exception {
+        cloneLocalRepository(originalProject, forkProject, NullProgressMonitor.INSTANCE);
+    }
+
+    /**
+     * Clones the repository of {@code originalProject} for {@code forkProject}.
+     *
+     * The clone shares the objects of the original through their
+     * {@link ForkNetwork}. If it fails, the objects are hardlinked, and if it
+     * fails too, they are copied. Each way deletes the repository it has
+     * created if it fails, so a repository which already exists is never
+     * deleted.
+     *
+     * @param originalProject
+     * @param forkProject
+     * @param monitor  the monitor which is told the progress
+     * @throws Exception
+     */
+    public static void cloneLocalRepository(Project originalProject, Project forkProject,
+                                            ProgressMonitor monitor) throws Exception {
+        File directory = getGitDirectory(forkProject);
+        if (directory.exists()) {
+            throw new IllegalStateException("Repository already exists: " + directory);
+        }
+
+        try {
+            ForkNetwork.fork(originalProject, forkProject, monitor);
+            return;
+        } catch (Exception e) {
+            play.Logger.warn(
+                    "Failed to clone a repository over its fork network. Fall back to hardlink", e);
+        }
+
         try {
             cloneHardLinkedRepository(originalProject, forkProject);
+            return;
         } catch (Exception e) {
-            new GitRepository(forkProject).delete();
             play.Logger.warn(
                     "Failed to clone a repository using hardlink. Fall back to straight copy", e);
+        }
+
+        try {
             cloneRepository(getGitDirectoryURL(originalProject), forkProject);
+        } catch (Exception e) {
+            // The directory did not exist before, so it is created by the
+            // clone.
+            FileUtil.rm_rf(directory);
+            throw e;
         }
     }
 
@@ -382,30 +436,162 @@ public class GitRepository implements PlayRepository {
         return (listData.size() == 0) ? null : result;
     }
 
+    /**
+     * Updates the last commit index for the new commit, pushed on top of the
+     * old one.
+     *
+     * Only the directories which have been indexed as of {@code oldCommitId}
+     * are updated, and only the commits made since then are walked for them.
+     *
+     * @param oldCommitId  the previous head, which must be an ancestor of
+     *                     {@code newCommitId}
+     * @param newCommitId  the new head
+     * @throws IOException
+     * @throws GitAPIException
+     * @see LastCommitIndex
+     */
+    public void updateLastCommitIndex(AnyObjectId oldCommitId, AnyObjectId newCommitId)
+            throws IOException, GitAPIException {
+        LastCommitIndex index = new LastCommitIndex(repository);
+        RevWalk revWalk = new RevWalk(repository);
+
+        try {
+            RevCommit oldCommit = revWalk.parseCommit(oldCommitId);
+            RevCommit newCommit = revWalk.parseCommit(newCommitId);
+
+            for (String path : index.getIndexedPaths(oldCommit)) {
+                TreeWalk treeWalk;
+                if (path.isEmpty()) {
+                    treeWalk = new TreeWalk(repository);
+                    treeWalk.addTree(newCommit.getTree());
+                } else {
+                    treeWalk = TreeWalk.forPath(repository, path, newCommit.getTree());
+                    if (treeWalk == null || !treeWalk.isSubtree()) {
+                        // The directory has been removed.
+                        continue;
+                    }
+                    treeWalk.enterSubtree();
+                }
+
+                new ObjectFinder(path, treeWalk, newCommit, oldCommit).findLastCommits();
+            }
+        } finally {
+            revWalk.dispose();
+        }
+    }
+
+    /**
+     * Removes the last commit index of the given commit.
+     *
+     * @param commitId
+     */
+    public void removeLastCommitIndex(AnyObjectId commitId) {
+        new LastCommitIndex(repository).remove(commitId);
+    }
+
+    /**
+     * Prunes the last commit index.
+     *
+     * @param maxCommits  the maximum number of commits to be kept indexed
+     * @throws IOException
+     * @see CommitIndexStore#prune(int)
+     */
+    public void pruneLastCommitIndex(int maxCommits) throws IOException {
+        new LastCommitIndex(repository).prune(maxCommits);
+    }
+
+    /**
+     * Finds the last commit of each child of a directory.
+     *
+     * The result is read from {@link LastCommitIndex} if it has been indexed.
+     * Otherwise, this walks the history from {@code untilCommitId} and stores
+     * the result into the index. If {@code sinceCommitId}, which must be an
+     * ancestor already indexed, is given, only the commits made after it are
+     * walked and the rest is taken from the index.
+     */
     public class ObjectFinder {
         private SortedMap<String, JsonNode> found = new TreeMap<>();
+        private Map<String, JsonNode> objects = new HashMap<>();
         private Map<String, JsonNode> targets = new HashMap<>();
+        private Map<String, RevCommit> lastCommits = new HashMap<>();
         private String basePath;
         private Iterator<RevCommit> commitIterator;
         private AnyObjectId untilCommitId;
+        private AnyObjectId sinceCommitId;
+        private LastCommitIndex index = new LastCommitIndex(repository);
 
         public ObjectFinder(String basePath, TreeWalk treeWalk, AnyObjectId untilCommitId) throws IOException, GitAPIException {
+            this(basePath, treeWalk, untilCommitId, null);
+        }
+
+        public ObjectFinder(String basePath, TreeWalk treeWalk, AnyObjectId untilCommitId,
+                            AnyObjectId sinceCommitId) throws IOException, GitAPIException {
             while (treeWalk.next()) {
                 String path = treeWalk.getNameString();
                 ObjectNode object = Json.newObject();
                 object.put("type", treeWalk.isSubtree() ? "folder" : "file");
                 targets.put(path, object);
             }
+            this.objects.putAll(targets);
             this.basePath = basePath;
             this.untilCommitId = untilCommitId;
-            this.commitIterator = getCommitIterator(untilCommitId);
+            this.sinceCommitId = sinceCommitId;
+        }
+
+        public SortedMap<String, JsonNode> find() throws IOException, GitAPIException {
+            for (Map.Entry<String, RevCommit> entry : findLastCommits().entrySet()) {
+                putLatestCommit(entry.getValue(), entry.getKey());
+            }
+
+            return found;
+        }
+
+        /**
+         * Returns the last commit of each child, without any lookup of users.
+         */
+        public Map<String, RevCommit> findLastCommits() throws IOException, GitAPIException {
+            Map<String, ObjectId> indexed = index.get(untilCommitId, basePath);
+
+            if (indexed != null && indexed.keySet().containsAll(targets.keySet())) {
+                setLatestCommits(indexed);
+                return lastCommits;
+            }
+
+            walk();
+
+            if (lastCommits.keySet().containsAll(objects.keySet())) {
+                index.put(untilCommitId, basePath, lastCommits);
+            }
+
+            return lastCommits;
+        }
+
+        /*
+         * Sets the latest commits of the remaining targets found in the given
+         * index entry.
+         */
+        private void setLatestCommits(Map<String, ObjectId> indexed) throws IOException {
+            RevWalk revWalk = new RevWalk(repository);
+            try {
+                for (String path : new ArrayList<>(targets.keySet())) {
+                    ObjectId commitId = indexed.get(path);
+                    if (commitId != null) {
+                        setLatestCommit(revWalk.parseCommit(commitId), path);
+                        targets.remove(path);
+                    }
+                }
+            } finally {
+                revWalk.dispose();
+            }
         }
 
-        public SortedMap<String, JsonNode> find() throws IOException {
+        private void walk() throws IOException, GitAPIException {
             RevCommit prev = null;
             RevCommit curr = null;
             int i = 0;
 
+            commitIterator = getCommitIterator(untilCommitId);
+
             // Empty targets means we have found every interested objects and
             // no need to continue.
             for (; i < COMMIT_HISTORY_LIMIT; i++) {
@@ -415,6 +601,14 @@ public class GitRepository implements PlayRepository {
 
                 if (commitIterator.hasNext()) {
                     curr = commitIterator.next();
+                } else if (sinceCommitId != null) {
+                    // Every commit made since the indexed one has been
+                    // walked. The others remain as they were at that time.
+                    Map<String, ObjectId> indexed = index.get(sinceCommitId, basePath);
+                    if (indexed != null) {
+                        setLatestCommits(indexed);
+                    }
+                    break;
                 } else {
                     // ** Illegal state detected! (JGit bug?) **
                     //
@@ -461,8 +655,6 @@ public class GitRepository implements PlayRepository {
                     setLatestCommit(fixRevCommitNoParents(iterator.next()), path);
                 }
             }
-
-            return found;
         }
 
         /*
@@ -472,6 +664,9 @@ public class GitRepository implements PlayRepository {
                 IOException, GitAPIException {
             Git git = new Git(repository);
             LogCommand logCommand = git.log().add(untilCommitId);
+            if (sinceCommitId != null) {
+                logCommand.not(sinceCommitId);
+            }
             if (StringUtils.isNotEmpty(basePath)) {
                 logCommand.addPath(basePath);
              }
@@ -589,8 +784,12 @@ public class GitRepository implements PlayRepository {
         }
 
         private void setLatestCommit(RevCommit revCommit, String path) {
+            lastCommits.put(path, revCommit);
+        }
+
+        private void putLatestCommit(RevCommit revCommit, String path) {
             GitCommit commit = new GitCommit(revCommit);
-            ObjectNode data = (ObjectNode) targets.get(path);
+            ObjectNode data = (ObjectNode) objects.get(path);
             data.put("msg", commit.getShortMessage());
             String emailAddress = commit.getAuthorEmail();
             User user = User.findByEmail(emailAddress);
@@ -640,8 +839,9 @@ public class GitRepository implements PlayRepository {
     @Override
     public void delete() throws Exception {
         repository.close();
-        WindowCacheConfig config = new WindowCacheConfig();
-        config.install();
+        AdvertisementCache.invalidate(repository);
+        RepositoryRegistry.evict(repository.getDirectory());
+        RepositoryRegistry.resetWindowCache();
         FileUtil.rm_rf(repository.getDirectory());
     }
 
@@ -783,35 +983,177 @@ public class GitRepository implements PlayRepository {
     @Override
     public List<Commit> getHistory(int pageNumber, int pageSize, String untilRevName, String path)
             throws IOException, GitAPIException {
-        // Get the list of commits from HEAD to the given pageNumber.
-        LogCommand logCommand = new Git(repository).log();
-        if (path != null) {
-            logCommand.addPath(path);
-        }
-
         RevCommit start = getRevCommit(untilRevName);
         if (start == null) {
             return null;
         }
-        logCommand.add(start);
 
-        Iterable<RevCommit> iter = logCommand.setMaxCount(pageNumber * pageSize + pageSize).call();
-        List<RevCommit> list = new LinkedList<>();
-        for (RevCommit commit : iter) {
-            if (list.size() >= pageSize) {
-                list.remove(0);
-            }
-            list.add(commit);
+        if (path == null) {
+            path = "";
+        }
+
+        // Read the page from the history index, walking the history only if
+        // the page has not been indexed yet.
+        HistoryIndex index = new HistoryIndex(repository);
+        int offset = pageNumber * pageSize;
+        List<ObjectId> commitIds = index.get(start, path, offset, pageSize);
+
+        if (commitIds == null) {
+            HistoryIndex.Entry indexed = index.get(start, path);
+            int indexedSize = (indexed != null) ? indexed.getCommitIds().size() : 0;
+            int maxCount = Math.max(offset + pageSize, indexedSize * 2);
+            HistoryIndex.Entry entry = indexHistory(start, path,
+                    (maxCount + HISTORY_INDEX_CHUNK_SIZE - 1) / HISTORY_INDEX_CHUNK_SIZE
+                            * HISTORY_INDEX_CHUNK_SIZE);
+            List<ObjectId> all = entry.getCommitIds();
+            commitIds = all.subList(Math.min(offset, all.size()),
+                    Math.min(offset + pageSize, all.size()));
         }
 
         List<Commit> result = new ArrayList<>();
-        for (RevCommit commit : list) {
-            result.add(new GitCommit(commit));
+        RevWalk revWalk = new RevWalk(repository);
+        try {
+            for (ObjectId commitId : commitIds) {
+                result.add(new GitCommit(revWalk.parseCommit(commitId)));
+            }
+        } finally {
+            revWalk.dispose();
         }
 
         return result;
     }
 
+    /**
+     * Walks the history of the given path from the given commit, at most
+     * {@code maxCount} commits, and stores it into {@link HistoryIndex}.
+     *
+     * @param start
+     * @param path  the path; an empty string for the whole repository
+     * @param maxCount
+     * @return the indexed history
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    private HistoryIndex.Entry indexHistory(AnyObjectId start, String path, int maxCount)
+            throws IOException, GitAPIException {
+        LogCommand logCommand = new Git(repository).log();
+        if (!path.isEmpty()) {
+            logCommand.addPath(path);
+        }
+        logCommand.add(start);
+
+        List<ObjectId> commitIds = new ArrayList<>();
+        for (RevCommit commit : logCommand.setMaxCount(maxCount).call()) {
+            commitIds.add(commit.copy());
+        }
+
+        HistoryIndex.Entry entry = new HistoryIndex.Entry(commitIds, commitIds.size() < maxCount);
+        new HistoryIndex(repository).put(start, path, commitIds, entry.isComplete());
+        return entry;
+    }
+
+    /**
+     * Updates the history index for the new commit, pushed on top of the old
+     * one.
+     *
+     * If the new commit is a descendant of the old one through a linear
+     * chain of non-merge commits, the history as of the new commit is the
+     * chain followed by the history as of the old commit, so every path
+     * indexed as of the old commit is updated without walking the old
+     * history. Otherwise, only the newest part of the whole history is
+     * indexed.
+     *
+     * @param oldCommitId  the previous head, or null for a new branch
+     * @param newCommitId  the new head
+     * @throws IOException
+     * @throws GitAPIException
+     * @see HistoryIndex
+     */
+    public void updateHistoryIndex(AnyObjectId oldCommitId, AnyObjectId newCommitId)
+            throws IOException, GitAPIException {
+        HistoryIndex index = new HistoryIndex(repository);
+        RevWalk revWalk = new RevWalk(repository);
+
+        try {
+            RevCommit newCommit = revWalk.parseCommit(newCommitId);
+            List<RevCommit> chain = null;
+            Set<String> paths = new HashSet<>();
+
+            if (oldCommitId != null) {
+                RevCommit oldCommit = revWalk.parseCommit(oldCommitId);
+                chain = new ArrayList<>();
+                RevCommit commit = newCommit;
+                while (!commit.equals(oldCommit)) {
+                    if (commit.getParentCount() != 1 || chain.size() >= HISTORY_INDEX_CHUNK_SIZE) {
+                        chain = null;
+                        break;
+                    }
+                    chain.add(commit);
+                    commit = revWalk.parseCommit(commit.getParent(0));
+                }
+                paths.addAll(index.getIndexedPaths(oldCommit));
+            }
+
+            paths.add("");
+
+            for (String path : paths) {
+                HistoryIndex.Entry oldEntry = (chain != null) ? index.get(oldCommitId, path) : null;
+
+                if (oldEntry != null) {
+                    List<ObjectId> commitIds = new ArrayList<>();
+                    for (RevCommit commit : chain) {
+                        if (path.isEmpty() || isChanged(commit, commit.getParent(0), path)) {
+                            commitIds.add(commit.copy());
+                        }
+                    }
+                    commitIds.addAll(oldEntry.getCommitIds());
+                    index.put(newCommit, path, commitIds, oldEntry.isComplete());
+                } else if (path.isEmpty()) {
+                    indexHistory(newCommit, path, HISTORY_INDEX_CHUNK_SIZE);
+                }
+            }
+        } finally {
+            revWalk.dispose();
+        }
+    }
+
+    /**
+     * Checks whether the given path differs between the two commits, in the
+     * same way as {@code git log -- <path>} does for a non-merge commit.
+     */
+    private boolean isChanged(RevCommit commit, RevCommit parent, String path) throws IOException {
+        TreeFilter filter = PathFilterGroup.createFromStrings(Collections.singleton(path));
+        TreeWalk treeWalk = new TreeWalk(repository);
+        try {
+            treeWalk.setFilter(AndTreeFilter.create(filter, TreeFilter.ANY_DIFF));
+            treeWalk.setRecursive(filter.shouldBeRecursive());
+            treeWalk.reset(parent.getTree(), commit.getTree());
+            return treeWalk.next();
+        } finally {
+            treeWalk.release();
+        }
+    }
+
+    /**
+     * Removes the history index of the given commit.
+     *
+     * @param commitId
+     */
+    public void removeHistoryIndex(AnyObjectId commitId) {
+        new HistoryIndex(repository).remove(commitId);
+    }
+
+    /**
+     * Prunes the history index.
+     *
+     * @param maxCommits  the maximum number of commits to be kept indexed
+     * @throws IOException
+     * @see CommitIndexStore#prune(int)
+     */
+    public void pruneHistoryIndex(int maxCommits) throws IOException {
+        new HistoryIndex(repository).prune(maxCommits);
+    }
+
     @Override
     public Commit getCommit(String rev) throws IOException {
         ObjectId commitId = repository.resolve(rev);
@@ -954,7 +1296,7 @@ public class GitRepository implements PlayRepository {
         return new File(getRootDirectory(), ownerName + "/" + projectName + ".git");
     }
 
-    private static File getRootDirectory() {
+    static File getRootDirectory() {
         return new File(utils.Config.getYobiHome(), getRepoPrefix());
     }
 
@@ -1058,8 +1400,8 @@ public class GitRepository implements PlayRepository {
      */
     public static Set<User> getRelatedAuthors(Repository repository, String revA, String revB)
             throws IOException, GitAPIException, LimitExceededException {
-        Set<User> authors = new HashSet<>();
         RevWalk revWalk = null;
+        Set<String> emails;
 
         try {
             revWalk = new RevWalk(repository);
@@ -1067,30 +1409,23 @@ public class GitRepository implements PlayRepository {
             RevCommit commitB = revWalk.parseCommit(repository.resolve(revB));
             List<DiffEntry> diffs = getDiffEntries(repository, commitA, commitB);
 
-            if (diffs.size() > BLAME_FILE_LIMIT) {
+            int limit = BlameEngine.getMaxFiles();
+            if (diffs.size() > limit) {
                 String msg = String.format("Reject to get related authors " +
                         "from changes because of performance issue: The " +
                         "changes include %d files and it exceeds our limit " +
-                        "of '%d' files.", diffs.size(), BLAME_FILE_LIMIT);
+                        "of '%d' files.", diffs.size(), limit);
                 throw new LimitExceededException(msg);
             }
 
-            for (DiffEntry diff : diffs) {
-                if (isTypeMatching(diff.getChangeType(), MODIFY, DELETE)) {
-                    authors.addAll(getAuthorsFromDiffEntry(repository, diff, commitA));
-                }
-                if (isTypeMatching(diff.getChangeType(), RENAME)) {
-                    authors.add(getAuthorFromFirstCommit(repository, diff.getOldPath(), commitA));
-                }
-            }
+            emails = new BlameEngine(repository, commitA).findAuthorEmails(diffs);
         } finally {
             if (revWalk != null) {
                 revWalk.dispose();
             }
         }
 
-        authors.remove(User.anonymous);
-        return authors;
+        return new HashSet<>(User.findByEmails(emails).values());
     }
 
     /**
@@ -1114,106 +1449,6 @@ public class GitRepository implements PlayRepository {
         }
     }
 
-    /**
-     * Checks if {@code types} contain the given {@code type}.
-     *
-     * @param type
-     * @param types
-     * @return
-     */
-    private static boolean isTypeMatching(Object type, Object... types) {
-        return ArrayUtils.contains(types, type);
-    }
-
-    /**
-     * Finds authors who last modified or removed lines from the given edit
-     * list.
-     *
-     * @param repository
-     * @param diff   an edit list
-     * @param start  the oldest commit to be considered
-     * @return
-     * @throws GitAPIException
-     * @throws IOException
-     */
-    private static Set<User> getAuthorsFromDiffEntry(Repository repository, DiffEntry diff,
-            RevCommit start) throws GitAPIException, IOException {
-        DiffFormatter diffFormatter = new DiffFormatter(NullOutputStream.INSTANCE);
-        try {
-            diffFormatter.setRepository(repository);
-            EditList edits = diffFormatter.toFileHeader(diff).toEditList();
-            BlameResult blameResult = new Git(repository).blame()
-                    .setFilePath(diff.getOldPath())
-                    .setFollowFileRenames(true)
-                    .setStartCommit(start).call();
-            return getAuthorsFromBlameResult(edits, blameResult);
-        } finally {
-            diffFormatter.release();
-        }
-    }
-
-    /**
-     * Finds authors who modified or removed lines from the given edit list and
-     * the result of git blame.
-     *
-     * @param edits an edit list
-     * @param blameResult the result of blame
-     * @return a set of authors
-     */
-    private static Set<User> getAuthorsFromBlameResult(EditList edits, BlameResult blameResult) {
-        Set<User> authors = new HashSet<>();
-        for (Edit edit : edits) {
-            if (isTypeMatching(edit.getType(), Type.REPLACE, Type.DELETE)) {
-                for (int i = edit.getBeginA(); i < edit.getEndA(); i++) {
-                    authors.add(findAuthorByPersonIdent(blameResult.getSourceAuthor(i)));
-                }
-            }
-        }
-        return authors;
-    }
-
-    /**
-     * Finds the author of a file denoted by the given path.
-     *
-     * @param repository
-     * @param path
-     * @param start Considers only the commits made since {@code start}.
-     * @return
-     * @throws IOException
-     */
-    private static User getAuthorFromFirstCommit(Repository repository, String path, RevCommit start)
-            throws IOException {
-        RevWalk revWalk = null;
-        try {
-            revWalk = new RevWalk(repository);
-            revWalk.markStart(start);
-            revWalk.setTreeFilter(PathFilter.create(path));
-            revWalk.sort(RevSort.REVERSE);
-            RevCommit commit = revWalk.next();
-            if (commit == null) {
-                return User.anonymous;
-            }
-            return findAuthorByPersonIdent(commit.getAuthorIdent());
-        } finally {
-            if (revWalk != null) {
-                revWalk.dispose();
-            }
-        }
-    }
-
-    /**
-     * Finds a user who matches up with the {@code personIdent}.
-     *
-     * @param personIdent
-     * @return
-     */
-    private static User findAuthorByPersonIdent(PersonIdent personIdent) {
-        if (personIdent == null) {
-            return User.anonymous;
-        }
-        return User.findByEmail(personIdent.getEmailAddress());
-    }
-
     /**
      * Deletes a branch denoted by the given name.
      *
@@ -1226,6 +1461,7 @@ public class GitRepository implements PlayRepository {
                 .setBranchNames(branchName)
                 .setForce(true)
                 .call();
+        AdvertisementCache.invalidate(repository);
     }
 
     public static Repository buildMergingRepository(PullRequest pullRequest) {
@@ -1330,6 +1566,7 @@ public class GitRepository implements PlayRepository {
                     .setName(pullRequest.fromBranch.replaceAll("refs/heads/", ""))
                     .setStartPoint(pullRequest.lastCommitId)
                     .call();
+            AdvertisementCache.invalidate(repo);
         } catch (Exception e) {
             throw new RuntimeException(e);
         } finally {
@@ -1459,6 +1696,369 @@ public class GitRepository implements PlayRepository {
     }
 
     private static List<FileDiff> getFileDiffs(final Repository repositoryA, Repository repositoryB, ObjectId commitA, ObjectId commitB) throws IOException {
+        DiffAlgorithm.SupportedAlgorithm algorithm = getDiffAlgorithm(repositoryB);
+        String cacheKey = DiffCache.keyOf(commitA, commitB, algorithm);
+        List<FileDiff> cached = DiffCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        TreeDiff treeDiff = scanTrees(repositoryA, commitA, repositoryB, commitB);
+
+        List<FileDiff> result = new ArrayList<>();
+        int size = 0;
+        int lines = 0;
+        long weight = 0;
+
+        for (DiffEntry diff : treeDiff.entries) {
+            FileDiff fileDiff = newFileDiff(diff, commitA, commitB);
+
+            byte[] rawA = null;
+            if (treeDiff.treeA != null
+                    && Arrays.asList(DELETE, MODIFY, RENAME, COPY).contains(diff.getChangeType())) {
+                rawA = loadText(repositoryA, treeDiff.treeA, fileDiff, DiffEntry.Side.OLD,
+                        diff.getPath(DiffEntry.Side.OLD));
+                weight += (rawA != null) ? rawA.length : 0;
+            }
+
+            byte[] rawB = null;
+            if (treeDiff.treeB != null
+                    && Arrays.asList(ADD, MODIFY, RENAME, COPY).contains(diff.getChangeType())) {
+                rawB = loadText(repositoryB, treeDiff.treeB, fileDiff, DiffEntry.Side.NEW,
+                        diff.getPath(DiffEntry.Side.NEW));
+                weight += (rawB != null) ? rawB.length : 0;
+            }
+
+            if (size > DIFF_SIZE_LIMIT || lines > DIFF_LINE_LIMIT) {
+                fileDiff.addError(FileDiff.Error.OTHERS_SIZE_EXCEEDED);
+                result.add(fileDiff);
+                continue;
+            }
+
+            // Get diff if necessary
+            if (computeEditList(fileDiff, algorithm)) {
+                size += fileDiff.getHunks().size;
+                lines += fileDiff.getHunks().lines;
+            }
+
+            // update lines and sizes
+            if (fileDiff.b != null && !fileDiff.isBinaryB && diff.getChangeType().equals(ADD)) {
+                lines += fileDiff.b.size();
+                size += rawB.length;
+            }
+
+            // update lines and sizes
+            if (fileDiff.a != null && !fileDiff.isBinaryA && diff.getChangeType().equals(DELETE)) {
+                lines += fileDiff.a.size();
+                size += rawA.length;
+            }
+
+            // Stop if exceeds the limit for total number of files
+            if (result.size() > DIFF_FILE_LIMIT) {
+                break;
+            }
+
+            result.add(fileDiff);
+        }
+
+        DiffCache.put(cacheKey, result, weight);
+
+        return result;
+    }
+
+    /**
+     * Returns the summary of the difference between the given commits, which
+     * has the paths, the change type and the number of changed lines of each
+     * file but not the contents.
+     *
+     * The contents of only one file are held in memory at a time, so this
+     * can be used for a huge difference. The difference of each file can be
+     * obtained later by {@link #getFileDiff(Repository, ObjectId, Repository, ObjectId, String)}.
+     *
+     * Like {@link #getDiff(Repository, String, Repository, String)}, at
+     * most {@link #DIFF_FILE_LIMIT} files are summarized. The lines of a file
+     * larger than {@link FileDiff#SIZE_LIMIT} are not counted, nor are those
+     * of any file after {@link #DIFF_SIZE_LIMIT} bytes have been read.
+     *
+     * @param repositoryA
+     * @param commitA  the old commit, or null for an empty tree
+     * @param repositoryB
+     * @param commitB  the new commit
+     * @return the summary of each file
+     * @throws IOException
+     */
+    public static List<FileDiffSummary> getDiffSummary(Repository repositoryA, ObjectId commitA,
+            Repository repositoryB, ObjectId commitB) throws IOException {
+        DiffAlgorithm.SupportedAlgorithm algorithm = getDiffAlgorithm(repositoryB);
+        TreeDiff treeDiff = scanTrees(repositoryA, commitA, repositoryB, commitB);
+        List<FileDiffSummary> result = new ArrayList<>();
+        long size = 0;
+
+        for (DiffEntry diff : treeDiff.entries) {
+            if (result.size() >= DIFF_FILE_LIMIT) {
+                break;
+            }
+
+            FileDiffSummary summary = new FileDiffSummary(diff);
+            result.add(summary);
+
+            boolean hasA = treeDiff.treeA != null && diff.getChangeType() != ADD;
+            boolean hasB = treeDiff.treeB != null && diff.getChangeType() != DELETE;
+            long sizeA = hasA ? getBlobSize(repositoryA, treeDiff.treeA, diff.getOldPath()) : 0;
+            long sizeB = hasB ? getBlobSize(repositoryB, treeDiff.treeB, diff.getNewPath()) : 0;
+
+            if (size > DIFF_SIZE_LIMIT
+                    || sizeA > FileDiff.SIZE_LIMIT || sizeB > FileDiff.SIZE_LIMIT) {
+                continue;
+            }
+            size += sizeA + sizeB;
+
+            FileDiff fileDiff = newFileDiff(diff, commitA, commitB);
+            if (hasA) {
+                loadText(repositoryA, treeDiff.treeA, fileDiff, DiffEntry.Side.OLD,
+                        diff.getOldPath());
+            }
+            if (hasB) {
+                loadText(repositoryB, treeDiff.treeB, fileDiff, DiffEntry.Side.NEW,
+                        diff.getNewPath());
+            }
+
+            summary.countLines(fileDiff, computeEditList(fileDiff, algorithm));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the difference of a file between the given commits.
+     *
+     * @param repositoryA
+     * @param commitA  the old commit, or null for an empty tree
+     * @param repositoryB
+     * @param commitB  the new commit
+     * @param path  the old or new path of the file
+     * @return the difference, or null if the file has not been changed
+     * @throws IOException
+     */
+    public static FileDiff getFileDiff(Repository repositoryA, ObjectId commitA,
+            Repository repositoryB, ObjectId commitB, String path) throws IOException {
+        TreeDiff treeDiff = scanTrees(repositoryA, commitA, repositoryB, commitB);
+        DiffEntry found = null;
+
+        for (DiffEntry diff : treeDiff.entries) {
+            if (path.equals(diff.getNewPath())) {
+                found = diff;
+                break;
+            }
+            if (found == null && path.equals(diff.getOldPath())) {
+                found = diff;
+            }
+        }
+
+        if (found == null) {
+            return null;
+        }
+
+        FileDiff fileDiff = newFileDiff(found, commitA, commitB);
+        if (treeDiff.treeA != null && found.getChangeType() != ADD) {
+            loadText(repositoryA, treeDiff.treeA, fileDiff, DiffEntry.Side.OLD,
+                    found.getPath(DiffEntry.Side.OLD));
+        }
+        if (treeDiff.treeB != null && found.getChangeType() != DELETE) {
+            loadText(repositoryB, treeDiff.treeB, fileDiff, DiffEntry.Side.NEW,
+                    found.getPath(DiffEntry.Side.NEW));
+        }
+        computeEditList(fileDiff, getDiffAlgorithm(repositoryB));
+
+        return fileDiff;
+    }
+
+    /**
+     * Returns the summary of the difference made by the commit denoted by the
+     * given revision, compared with its first parent.
+     *
+     * @param rev the revision
+     * @return the summary of each file, or null if there is no such revision
+     * @throws IOException
+     * @see #getDiffSummary(Repository, ObjectId, Repository, ObjectId)
+     */
+    public List<FileDiffSummary> getDiffSummary(String rev) throws IOException {
+        return getDiffSummary(repository, rev);
+    }
+
+    public static List<FileDiffSummary> getDiffSummary(Repository repository, String rev)
+            throws IOException {
+        ObjectId commitId = repository.resolve(rev);
+        if (commitId == null) {
+            return null;
+        }
+        return getDiffSummary(repository, getFirstParentId(repository, commitId),
+                repository, commitId);
+    }
+
+    public List<FileDiffSummary> getDiffSummary(String revA, String revB) throws IOException {
+        return getDiffSummary(repository, revA, revB);
+    }
+
+    public static List<FileDiffSummary> getDiffSummary(Repository repository, String revA,
+            String revB) throws IOException {
+        ObjectId commitB = repository.resolve(revB);
+        if (commitB == null) {
+            return null;
+        }
+        return getDiffSummary(repository, repository.resolve(revA), repository, commitB);
+    }
+
+    /**
+     * Returns the difference of a file made by the commit denoted by the
+     * given revision, compared with its first parent.
+     *
+     * @param rev the revision
+     * @param path the old or new path of the file
+     * @return the difference, or null if there is no such revision or the
+     *         file has not been changed
+     * @throws IOException
+     */
+    public FileDiff getFileDiff(String rev, String path) throws IOException {
+        return getFileDiff(repository, rev, path);
+    }
+
+    public static FileDiff getFileDiff(Repository repository, String rev, String path)
+            throws IOException {
+        ObjectId commitId = repository.resolve(rev);
+        if (commitId == null) {
+            return null;
+        }
+        return getFileDiff(repository, getFirstParentId(repository, commitId),
+                repository, commitId, path);
+    }
+
+    public FileDiff getFileDiff(String revA, String revB, String path) throws IOException {
+        return getFileDiff(repository, revA, revB, path);
+    }
+
+    public static FileDiff getFileDiff(Repository repository, String revA, String revB,
+            String path) throws IOException {
+        ObjectId commitB = repository.resolve(revB);
+        if (commitB == null) {
+            return null;
+        }
+        return getFileDiff(repository, repository.resolve(revA), repository, commitB, path);
+    }
+
+    private static ObjectId getFirstParentId(Repository repository, ObjectId commitId)
+            throws IOException {
+        RevWalk revWalk = new RevWalk(repository);
+        try {
+            RevCommit commit = revWalk.parseCommit(commitId);
+            return (commit.getParentCount() > 0) ? commit.getParent(0).getId() : null;
+        } finally {
+            revWalk.dispose();
+        }
+    }
+
+    private static DiffAlgorithm.SupportedAlgorithm getDiffAlgorithm(Repository repository) {
+        return repository.getConfig().getEnum(
+                ConfigConstants.CONFIG_DIFF_SECTION, null,
+                ConfigConstants.CONFIG_KEY_ALGORITHM,
+                DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+    }
+
+    private static FileDiff newFileDiff(DiffEntry diff, ObjectId commitA, ObjectId commitB) {
+        FileDiff fileDiff = new FileDiff();
+        fileDiff.commitA = commitA != null ? commitA.getName() : null;
+        fileDiff.commitB = commitB != null ? commitB.getName() : null;
+
+        fileDiff.changeType = diff.getChangeType();
+
+        fileDiff.oldMode = diff.getOldMode();
+        fileDiff.newMode = diff.getNewMode();
+
+        return fileDiff;
+    }
+
+    /**
+     * Returns the size of the blob at the given path in the tree.
+     */
+    private static long getBlobSize(Repository repository, RevTree tree, String path)
+            throws IOException {
+        TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree);
+        return repository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).getSize();
+    }
+
+    /**
+     * Loads a side of the given file difference from the tree.
+     *
+     * @return the raw content, or null if it is too large to be loaded
+     */
+    private static byte[] loadText(Repository repository, RevTree tree, FileDiff fileDiff,
+            DiffEntry.Side side, String path) throws IOException {
+        TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree);
+        ObjectId blob = treeWalk.getObjectId(0);
+
+        try {
+            byte[] raw = repository.open(blob).getBytes();
+            boolean isBinary = RawText.isBinary(raw);
+            RawText text = isBinary ? null : new RawText(raw);
+            if (side == DiffEntry.Side.OLD) {
+                fileDiff.pathA = path;
+                fileDiff.isBinaryA = isBinary;
+                fileDiff.a = text;
+            } else {
+                fileDiff.pathB = path;
+                fileDiff.isBinaryB = isBinary;
+                fileDiff.b = text;
+            }
+            return raw;
+        } catch (org.eclipse.jgit.errors.LargeObjectException e) {
+            if (side == DiffEntry.Side.OLD) {
+                fileDiff.pathA = path;
+                fileDiff.addError(FileDiff.Error.A_SIZE_EXCEEDED);
+            } else {
+                fileDiff.pathB = path;
+                fileDiff.addError(FileDiff.Error.B_SIZE_EXCEEDED);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Computes the edit list of the given file difference if both sides are
+     * texts.
+     *
+     * @return true if the edit list has been computed
+     */
+    private static boolean computeEditList(FileDiff fileDiff,
+            DiffAlgorithm.SupportedAlgorithm algorithm) {
+        if (fileDiff.a != null
+                && fileDiff.b != null
+                && !(fileDiff.isBinaryA || fileDiff.isBinaryB)
+                && Arrays.asList(MODIFY, RENAME).contains(fileDiff.changeType)) {
+            fileDiff.editList = DiffAlgorithm.getAlgorithm(algorithm).diff(
+                    RawTextComparator.DEFAULT, fileDiff.a, fileDiff.b);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The result of comparing the root trees of two commits, which may
+     * belong to different repositories.
+     */
+    private static class TreeDiff {
+        private final RevTree treeA;
+        private final RevTree treeB;
+        private final List<DiffEntry> entries;
+
+        TreeDiff(RevTree treeA, RevTree treeB, List<DiffEntry> entries) {
+            this.treeA = treeA;
+            this.treeB = treeB;
+            this.entries = entries;
+        }
+    }
+
+    private static TreeDiff scanTrees(final Repository repositoryA, ObjectId commitA,
+            Repository repositoryB, ObjectId commitB) throws IOException {
         class MultipleRepositoryObjectReader extends ObjectReader {
             Collection<ObjectReader> readers = new HashSet<>();
 
@@ -1578,104 +2178,14 @@ public class GitRepository implements PlayRepository {
             treeParserB = new EmptyTreeIterator();
         }
 
-        List<FileDiff> result = new ArrayList<>();
-        int size = 0;
-        int lines = 0;
-
-        for (DiffEntry diff : formatter.scan(treeParserA, treeParserB)) {
-            FileDiff fileDiff = new FileDiff();
-            fileDiff.commitA = commitA != null ? commitA.getName() : null;
-            fileDiff.commitB = commitB != null ? commitB.getName() : null;
-
-            fileDiff.changeType = diff.getChangeType();
-
-            fileDiff.oldMode = diff.getOldMode();
-            fileDiff.newMode = diff.getNewMode();
-
-            String pathA = diff.getPath(DiffEntry.Side.OLD);
-            String pathB = diff.getPath(DiffEntry.Side.NEW);
-
-            byte[] rawA = null;
-            if (treeA != null
-                    && Arrays.asList(DELETE, MODIFY, RENAME, COPY).contains(diff.getChangeType())) {
-                TreeWalk t1 = TreeWalk.forPath(repositoryA, pathA, treeA);
-                ObjectId blobA = t1.getObjectId(0);
-                fileDiff.pathA = pathA;
-
-                try {
-                    rawA = repositoryA.open(blobA).getBytes();
-                    fileDiff.isBinaryA = RawText.isBinary(rawA);
-                    fileDiff.a = fileDiff.isBinaryA ? null : new RawText(rawA);
-                } catch (org.eclipse.jgit.errors.LargeObjectException e) {
-                    fileDiff.addError(FileDiff.Error.A_SIZE_EXCEEDED);
-                }
-            }
-
-            byte[] rawB = null;
-            if (treeB != null
-                    && Arrays.asList(ADD, MODIFY, RENAME, COPY).contains(diff.getChangeType())) {
-                TreeWalk t2 = TreeWalk.forPath(repositoryB, pathB, treeB);
-                ObjectId blobB = t2.getObjectId(0);
-                fileDiff.pathB = pathB;
-
-                try {
-                    rawB = repositoryB.open(blobB).getBytes();
-                    fileDiff.isBinaryB = RawText.isBinary(rawB);
-                    fileDiff.b = fileDiff.isBinaryB ? null : new RawText(rawB);
-                } catch (org.eclipse.jgit.errors.LargeObjectException e) {
-                    fileDiff.addError(FileDiff.Error.B_SIZE_EXCEEDED);
-                }
-            }
-
-            if (size > DIFF_SIZE_LIMIT || lines > DIFF_LINE_LIMIT) {
-                fileDiff.addError(FileDiff.Error.OTHERS_SIZE_EXCEEDED);
-                result.add(fileDiff);
-                continue;
-            }
-
-            // Get diff if necessary
-            if (fileDiff.a != null
-                    && fileDiff.b != null
-                    && !(fileDiff.isBinaryA || fileDiff.isBinaryB)
-                    && Arrays.asList(MODIFY, RENAME).contains(diff.getChangeType())) {
-                DiffAlgorithm diffAlgorithm = DiffAlgorithm.getAlgorithm(
-                        repositoryB.getConfig().getEnum(
-                                ConfigConstants.CONFIG_DIFF_SECTION, null,
-                                ConfigConstants.CONFIG_KEY_ALGORITHM,
-                                DiffAlgorithm.SupportedAlgorithm.HISTOGRAM));
-                fileDiff.editList = diffAlgorithm.diff(RawTextComparator.DEFAULT, fileDiff.a,
-                        fileDiff.b);
-                size += fileDiff.getHunks().size;
-                lines += fileDiff.getHunks().lines;
-            }
-
-            // update lines and sizes
-            if (fileDiff.b != null && !fileDiff.isBinaryB && diff.getChangeType().equals(ADD)) {
-                lines += fileDiff.b.size();
-                size += rawB.length;
-            }
-
-            // update lines and sizes
-            if (fileDiff.a != null && !fileDiff.isBinaryA && diff.getChangeType().equals(DELETE)) {
-                lines += fileDiff.a.size();
-                size += rawA.length;
-            }
-
-            // Stop if exceeds the limit for total number of files
-            if (result.size() > DIFF_FILE_LIMIT) {
-                break;
-            }
-
-            result.add(fileDiff);
-        }
-
-        return result;
+        return new TreeDiff(treeA, treeB, formatter.scan(treeParserA, treeParserB));
     }
 
     /**
      * Clones a local repository.
      *
      * This doesn't copy Git objects but hardlink them to save disk space.
+     * If it fails after the repository is created, the repository is deleted.
      *
      * @param originalProject
      * @param forkProject
@@ -1685,8 +2195,22 @@ public class GitRepository implements PlayRepository {
                                                     Project forkProject) throws IOException {
         Repository origin = GitRepository.buildGitRepository(originalProject);
         Repository forked = GitRepository.buildGitRepository(forkProject);
-        forked.create();
+        boolean created = false;
+        try {
+            forked.create();
+            created = true;
+            linkObjectsAndImportRefs(origin, forked);
+        } catch (IOException | RuntimeException e) {
+            if (created) {
+                RepositoryRegistry.evict(forked.getDirectory());
+                org.apache.commons.io.FileUtils.deleteQuietly(forked.getDirectory());
+            }
+            throw e;
+        }
+    }
 
+    private static void linkObjectsAndImportRefs(Repository origin, Repository forked)
+            throws IOException {
         final Path originObjectsPath =
                 Paths.get(new File(origin.getDirectory(), "objects").getAbsolutePath());
         final Path forkedObjectsPath =
@@ -1797,6 +2321,7 @@ public class GitRepository implements PlayRepository {
     @Override
     public void setDefaultBranch(String target) throws IOException {
         Result result = repository.updateRef(Constants.HEAD).link(target);
+        AdvertisementCache.invalidate(repository);
         switch (result) {
         case NEW:
         case FORCED:
@@ -1861,8 +2386,6 @@ public class GitRepository implements PlayRepository {
 
     public boolean move(String srcProjectOwner, String srcProjectName, String desrProjectOwner, String destProjectName) {
         repository.close();
-        WindowCacheConfig config = new WindowCacheConfig();
-        config.install();
 
         File srcGitDirectory = getGitDirectory(srcProjectOwner, srcProjectName);
         File destGitDirectory = getGitDirectory(desrProjectOwner, destProjectName);
@@ -1870,6 +2393,11 @@ public class GitRepository implements PlayRepository {
         File destGitDirectoryForMerging = getDirectoryForMerging(desrProjectOwner, destProjectName);
         srcGitDirectory.setWritable(true);
         srcGitDirectoryForMerging.setWritable(true);
+        AdvertisementCache.invalidate(srcGitDirectory);
+        AdvertisementCache.invalidate(destGitDirectory);
+        RepositoryRegistry.evict(srcGitDirectory);
+        RepositoryRegistry.evict(destGitDirectory);
+        RepositoryRegistry.resetWindowCache();
 
         try {
             if(srcGitDirectory.exists()) {
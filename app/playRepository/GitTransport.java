@@ -0,0 +1,382 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import models.Project;
+import play.Configuration;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs git-upload-pack and git-receive-pack for the smart HTTP transport.
+ *
+ * Every pack is processed on a bounded thread pool and written into a
+ * {@link Pipe}, which the response reads from. The number of concurrent
+ * upload-packs for a repository is also limited, so a clone storm on a
+ * single repository cannot take every worker.
+ *
+ * Configuration:
+ *   application.git.transport.threads: the number of workers (default: 32)
+ *   application.git.transport.queueSize: the number of packs which can wait
+ *       for a worker (default: 256)
+ *   application.git.transport.bufferSize: the size of a chunk passed from a
+ *       worker to the response in bytes (default: 64KB)
+ *   application.git.uploadPack.maxConcurrencyPerRepository: the number of
+ *       upload-packs which can run concurrently for a repository; 0 means
+ *       unlimited (default: 16)
+ *
+ * @see RepositoryService#gitRpc(models.Project, String, play.mvc.Http.Request, play.mvc.Http.Response)
+ */
+public class GitTransport {
+    private static final int DEFAULT_THREADS = 32;
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_UPLOAD_PACKS_PER_REPOSITORY = 16;
+
+    /**
+     * The number of chunks buffered in a pipe before the worker blocks.
+     */
+    private static final int PIPE_CAPACITY = 16;
+
+    /**
+     * How long a reader or a writer of a pipe waits for the other side.
+     */
+    private static final long PIPE_TIMEOUT_MINUTES = 10;
+
+    public static final Metrics.Meter UPLOAD_PACK_BYTES = Metrics.meter("git.uploadPack.bytes");
+    public static final Metrics.Meter RECEIVE_PACK_BYTES = Metrics.meter("git.receivePack.bytes");
+    private static final Metrics.Counter REJECTED = Metrics.counter("git.transport.rejected");
+
+    private static final ConcurrentMap<Long, Semaphore> uploadPackPermits = new ConcurrentHashMap<>();
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    static {
+        Metrics.gauge("git.transport.queue", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                return executor.getQueue().size();
+            }
+        });
+        Metrics.gauge("git.transport.active", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                return executor.getActiveCount();
+            }
+        });
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        int threads = getConfig("application.git.transport.threads", DEFAULT_THREADS);
+        int queueSize = getConfig("application.git.transport.queueSize", DEFAULT_QUEUE_SIZE);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "git-transport-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int getConfig(String key, int defaultValue) {
+        Integer value = Configuration.root().getInt(key);
+        return (value != null && value >= 0) ? value : defaultValue;
+    }
+
+    public static int getBufferSize() {
+        int size = getConfig("application.git.transport.bufferSize", DEFAULT_BUFFER_SIZE);
+        return size > 0 ? size : DEFAULT_BUFFER_SIZE;
+    }
+
+    /**
+     * Runs the given receive-pack on a worker.
+     *
+     * @param task
+     * @throws RejectedExecutionException if every worker is busy and the queue is full
+     */
+    public static void executeReceivePack(Runnable task) {
+        execute(task);
+    }
+
+    /**
+     * Runs the given upload-pack of the project on a worker.
+     *
+     * @param project
+     * @param task
+     * @throws RejectedExecutionException if too many upload-packs are running
+     *         for the project, or every worker is busy and the queue is full
+     */
+    public static void executeUploadPack(Project project, final Runnable task) {
+        int limit = getConfig("application.git.uploadPack.maxConcurrencyPerRepository",
+                DEFAULT_MAX_UPLOAD_PACKS_PER_REPOSITORY);
+
+        if (limit == 0) {
+            execute(task);
+            return;
+        }
+
+        final Semaphore permits = getUploadPackPermits(project, limit);
+
+        if (!permits.tryAcquire()) {
+            REJECTED.inc();
+            throw new RejectedExecutionException(
+                    "Too many concurrent upload-packs for " + project.owner + "/" + project.name);
+        }
+
+        try {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private static Semaphore getUploadPackPermits(Project project, int limit) {
+        Semaphore permits = uploadPackPermits.get(project.id);
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(limit);
+            permits = uploadPackPermits.putIfAbsent(project.id, newPermits);
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+
+    private static void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            REJECTED.inc();
+            throw e;
+        }
+    }
+
+    /**
+     * A bounded pipe which passes chunks of bytes from a worker to a reader.
+     *
+     * Unlike {@link java.io.PipedInputStream}, which passes bytes one by one
+     * through a 1KB buffer under a lock, this passes whole chunks through a
+     * blocking queue. The writer blocks if the reader is slow, so a pipe
+     * never holds more than {@code PIPE_CAPACITY} chunks.
+     */
+    public static class Pipe {
+        private static final byte[] EOF = new byte[0];
+
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(PIPE_CAPACITY);
+        private final int chunkSize;
+        private final Metrics.Meter meter;
+        private volatile boolean readerClosed = false;
+
+        private final InputStream inputStream = new InputStream() {
+            private byte[] chunk;
+            private int position;
+            private boolean eof = false;
+
+            @Override
+            public int read() throws IOException {
+                if (!fill()) {
+                    return -1;
+                }
+                return chunk[position++] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return chunk == null ? 0 : chunk.length - position;
+            }
+
+            @Override
+            public void close() {
+                readerClosed = true;
+                queue.clear();
+            }
+
+            private boolean fill() throws IOException {
+                if (eof) {
+                    return false;
+                }
+
+                if (chunk != null && position < chunk.length) {
+                    return true;
+                }
+
+                try {
+                    chunk = queue.poll(PIPE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+
+                if (chunk == null) {
+                    throw new IOException("Timed out while waiting for pack data");
+                }
+
+                position = 0;
+                eof = (chunk == EOF);
+                return !eof;
+            }
+        };
+
+        private final OutputStream outputStream = new OutputStream() {
+            private byte[] buffer;
+            private int count = 0;
+            private boolean closed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (buffer == null) {
+                    buffer = new byte[chunkSize];
+                }
+                buffer[count++] = (byte) b;
+                if (count == buffer.length) {
+                    flushBuffer();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (buffer == null) {
+                        buffer = new byte[chunkSize];
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    if (count == buffer.length) {
+                        flushBuffer();
+                    }
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                flushBuffer();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    flushBuffer();
+                } finally {
+                    if (!readerClosed) {
+                        put(EOF);
+                    }
+                }
+            }
+
+            private void flushBuffer() throws IOException {
+                if (count == 0) {
+                    return;
+                }
+                byte[] chunk = (count == buffer.length) ? buffer : Arrays.copyOf(buffer, count);
+                buffer = (chunk == buffer) ? null : buffer;
+                count = 0;
+                put(chunk);
+                meter.mark(chunk.length);
+            }
+        };
+
+        public Pipe(Metrics.Meter meter) {
+            this(getBufferSize(), meter);
+        }
+
+        public Pipe(int chunkSize, Metrics.Meter meter) {
+            this.chunkSize = chunkSize;
+            this.meter = meter;
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(PIPE_TIMEOUT_MINUTES);
+
+            try {
+                while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+                    if (readerClosed) {
+                        throw new IOException("The reader has closed the pipe");
+                    }
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IOException("Timed out while waiting for the reader");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         * @return the stream to be read by the response
+         */
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        /**
+         * @return the stream to be written by a worker
+         */
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+    }
+}
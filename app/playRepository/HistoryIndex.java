@@ -0,0 +1,233 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An on-disk index which maps a pair of (commit, path) to the history, the
+ * list of commits shown by {@code git log <commit> -- <path>} in order.
+ *
+ * Each entry is stored as a small binary file at
+ * {@code $GIT_DIR/yobi/history/<commit>/<sha1 of path>}, which consists of
+ * the path, whether the history is complete, the number of commits and the
+ * raw ids of the commits. An entry may hold only the newest part of the
+ * history; then it is not complete.
+ *
+ * Because every id has the same length, a page of the history is read by
+ * seeking to its offset, without walking the commits before it.
+ *
+ * Like {@link LastCommitIndex}, the index never becomes stale because a
+ * commit is immutable.
+ *
+ * @see CommitIndexStore
+ * @see GitRepository#getHistory(int, int, String, String)
+ * @see playRepository.hooks.UpdateHistoryIndex
+ */
+public class HistoryIndex {
+    private static final String INDEX_PATH = "yobi/history";
+
+    private final CommitIndexStore store;
+
+    public HistoryIndex(Repository repository) {
+        this.store = new CommitIndexStore(repository, INDEX_PATH, "history index");
+    }
+
+    /**
+     * An indexed history.
+     */
+    public static class Entry {
+        private final List<ObjectId> commitIds;
+        private final boolean complete;
+
+        public Entry(List<ObjectId> commitIds, boolean complete) {
+            this.commitIds = commitIds;
+            this.complete = complete;
+        }
+
+        /**
+         * @return the ids of the commits, from the newest
+         */
+        public List<ObjectId> getCommitIds() {
+            return commitIds;
+        }
+
+        /**
+         * @return true if the entry holds the whole history
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    /**
+     * Returns a page of the history of the given path as of the given commit.
+     *
+     * @param commitId
+     * @param path  the path; an empty string for the whole repository
+     * @param offset  the number of commits to skip
+     * @param count  the number of commits of the page
+     * @return the ids of the commits in the page, or null if the page has not
+     *         been indexed yet
+     */
+    public List<ObjectId> get(AnyObjectId commitId, String path, int offset, int count) {
+        File file = store.getEntryFile(commitId, path);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            if (!input.readUTF().equals(path)) {
+                return null;
+            }
+            boolean complete = input.readBoolean();
+            int size = input.readInt();
+
+            if (!complete && offset + count > size) {
+                return null;
+            }
+
+            List<ObjectId> commitIds = new ArrayList<>();
+            if (offset >= size) {
+                return commitIds;
+            }
+
+            int length = Math.min(count, size - offset);
+            byte[] raw = new byte[length * Constants.OBJECT_ID_LENGTH];
+            input.seek(input.getFilePointer() + (long) offset * Constants.OBJECT_ID_LENGTH);
+            input.readFully(raw);
+
+            for (int i = 0; i < length; i++) {
+                commitIds.add(ObjectId.fromRaw(raw, i * Constants.OBJECT_ID_LENGTH));
+            }
+            return commitIds;
+        } catch (IOException e) {
+            play.Logger.warn("Failed to read the history index: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the indexed history of the given path as of the given commit.
+     *
+     * @param commitId
+     * @param path  the path; an empty string for the whole repository
+     * @return the entry, or null if it has not been indexed yet
+     */
+    public Entry get(AnyObjectId commitId, String path) {
+        File file = store.getEntryFile(commitId, path);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (!input.readUTF().equals(path)) {
+                return null;
+            }
+            boolean complete = input.readBoolean();
+            int size = input.readInt();
+
+            List<ObjectId> commitIds = new ArrayList<>(size);
+            byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            for (int i = 0; i < size; i++) {
+                input.readFully(raw);
+                commitIds.add(ObjectId.fromRaw(raw));
+            }
+            return new Entry(commitIds, complete);
+        } catch (IOException e) {
+            play.Logger.warn("Failed to read the history index: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the history of the given path as of the given commit.
+     *
+     * The entry is written into a temporary file first and then moved, so
+     * a reader never sees a partially written entry.
+     *
+     * @param commitId
+     * @param path  the path; an empty string for the whole repository
+     * @param commitIds  the ids of the commits, from the newest
+     * @param complete  whether {@code commitIds} is the whole history
+     */
+    public void put(AnyObjectId commitId, final String path,
+                    final List<? extends AnyObjectId> commitIds, final boolean complete) {
+        store.write(commitId, path, new CommitIndexStore.Writer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                DataOutputStream output = new DataOutputStream(out);
+                output.writeUTF(path);
+                output.writeBoolean(complete);
+                output.writeInt(commitIds.size());
+                byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+                for (AnyObjectId id : commitIds) {
+                    id.copyRawTo(raw, 0);
+                    output.write(raw);
+                }
+                output.flush();
+            }
+        });
+    }
+
+    /**
+     * Returns every path indexed as of the given commit.
+     *
+     * @param commitId
+     * @return the indexed paths
+     */
+    public Set<String> getIndexedPaths(AnyObjectId commitId) {
+        Set<String> paths = new HashSet<>();
+
+        for (File file : store.getEntryFiles(commitId)) {
+            try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+                paths.add(input.readUTF());
+            } catch (IOException e) {
+                play.Logger.warn("Failed to read the history index: " + file, e);
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Removes every entry indexed as of the given commit.
+     *
+     * @param commitId
+     */
+    public void remove(AnyObjectId commitId) {
+        store.remove(commitId);
+    }
+
+    /**
+     * @see CommitIndexStore#prune(int)
+     */
+    public void prune(int maxCommits) throws IOException {
+        store.prune(maxCommits);
+    }
+}
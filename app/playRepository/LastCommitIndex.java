@@ -0,0 +1,170 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import utils.Config;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An on-disk index which maps a pair of (commit, directory) to the last commit
+ * that modified each child of the directory.
+ *
+ * Each entry is stored as a small text file at
+ * {@code $GIT_DIR/yobi/last-commits/<commit>/<sha1 of directory path>}.
+ * The first line of the file is the path of the directory, and each of the
+ * following lines is the id of the last commit and the name of a child,
+ * separated by a space.
+ *
+ * The index never becomes stale because a commit is immutable; an entry
+ * which is not found simply means that it has not been computed yet.
+ *
+ * @see CommitIndexStore
+ * @see GitRepository#getMetaDataFromPath(String, String)
+ * @see playRepository.hooks.UpdateLastCommitIndex
+ */
+public class LastCommitIndex {
+    private static final String INDEX_PATH = "yobi/last-commits";
+
+    private final CommitIndexStore store;
+
+    public LastCommitIndex(Repository repository) {
+        this.store = new CommitIndexStore(repository, INDEX_PATH, "last commit index");
+    }
+
+    /**
+     * Returns the last commits of the children of the given directory as of
+     * the given commit.
+     *
+     * @param commitId
+     * @param path  the path of the directory; an empty string for the root
+     * @return a map from the name of each child to its last commit, or null
+     *         if the entry has not been indexed yet
+     */
+    public Map<String, ObjectId> get(AnyObjectId commitId, String path) {
+        File file = store.getEntryFile(commitId, path);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), Config.getCharset()))) {
+            String indexedPath = reader.readLine();
+            if (indexedPath == null || !indexedPath.equals(path)) {
+                return null;
+            }
+
+            Map<String, ObjectId> lastCommits = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator != Constants.OBJECT_ID_STRING_LENGTH) {
+                    return null;
+                }
+                lastCommits.put(line.substring(separator + 1),
+                        ObjectId.fromString(line.substring(0, separator)));
+            }
+            return lastCommits;
+        } catch (IOException | IllegalArgumentException e) {
+            play.Logger.warn("Failed to read the last commit index: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the last commits of the children of the given directory as of
+     * the given commit.
+     *
+     * The entry is written into a temporary file first and then moved, so
+     * a reader never sees a partially written entry.
+     *
+     * @param commitId
+     * @param path  the path of the directory; an empty string for the root
+     * @param lastCommits  a map from the name of each child to its last commit
+     */
+    public void put(AnyObjectId commitId, String path, Map<String, ? extends AnyObjectId> lastCommits) {
+        if (path.contains("\n")) {
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder(path).append('\n');
+        for (Map.Entry<String, ? extends AnyObjectId> entry : lastCommits.entrySet()) {
+            if (entry.getKey().contains("\n")) {
+                // Such a name cannot be stored in our line-oriented format.
+                return;
+            }
+            builder.append(entry.getValue().getName()).append(' ')
+                    .append(entry.getKey()).append('\n');
+        }
+
+        final byte[] content = builder.toString().getBytes(Config.getCharset());
+        store.write(commitId, path, new CommitIndexStore.Writer() {
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(content);
+            }
+        });
+    }
+
+    /**
+     * Returns the paths of every directory indexed as of the given commit.
+     *
+     * @param commitId
+     * @return the paths of the indexed directories
+     */
+    public Set<String> getIndexedPaths(AnyObjectId commitId) {
+        Set<String> paths = new HashSet<>();
+
+        for (File file : store.getEntryFiles(commitId)) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), Config.getCharset()))) {
+                String path = reader.readLine();
+                if (path != null) {
+                    paths.add(path);
+                }
+            } catch (IOException e) {
+                play.Logger.warn("Failed to read the last commit index: " + file, e);
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Removes every entry indexed as of the given commit.
+     *
+     * @param commitId
+     */
+    public void remove(AnyObjectId commitId) {
+        store.remove(commitId);
+    }
+
+    /**
+     * @see CommitIndexStore#prune(int)
+     */
+    public void prune(int maxCommits) throws IOException {
+        store.prune(maxCommits);
+    }
+}
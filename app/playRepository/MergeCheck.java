@@ -0,0 +1,234 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import models.Project;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ThreeWayMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import play.Configuration;
+import utils.Metrics;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Checks whether a branch of a project can be merged into a branch of another
+ * project, without changing either repository.
+ *
+ * The objects of the source repository are read through the destination
+ * repository, which is opened with the object directory of the source as an
+ * alternate, so the source branch is not fetched and no temporary ref is
+ * created. The three-way merge runs in memory and the objects it makes are
+ * only hashed, not written.
+ *
+ * The verdict depends only on the merge base, the head of the source branch
+ * and the target of the destination branch, so it is cached by the ids of
+ * them and recomputing it for the same commits costs only resolving the
+ * branches.
+ *
+ * Configuration:
+ *   application.pullRequest.mergeCheck.cache.maxSize: the maximum number of
+ *       cached verdicts (default: 10000)
+ */
+public class MergeCheck {
+    private static final long DEFAULT_CACHE_MAX_SIZE = 10000;
+
+    private static final Metrics.Counter HITS = Metrics.counter("git.mergeCheck.cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("git.mergeCheck.cache.misses");
+
+    /**
+     * Holds the cache, which is created when it is used first, because the
+     * configuration is not available until the application starts.
+     */
+    private static class Holder {
+        static final Cache<String, Boolean> conflicts = CacheBuilder.newBuilder()
+                .maximumSize(Configuration.root().getLong(
+                        "application.pullRequest.mergeCheck.cache.maxSize",
+                        DEFAULT_CACHE_MAX_SIZE))
+                .build();
+    }
+
+    /**
+     * An inserter which computes the ids of objects without writing them,
+     * while reading objects from the repository.
+     */
+    private static class DiscardingInserter extends ObjectInserter.Formatter {
+        private final Repository repository;
+
+        DiscardingInserter(Repository repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            return repository.newObjectReader();
+        }
+    }
+
+    private final ObjectId targetId;
+    private final ObjectId headId;
+    private final boolean conflicts;
+    private final List<GitCommit> commits;
+
+    private MergeCheck(ObjectId targetId, ObjectId headId, boolean conflicts,
+                       List<GitCommit> commits) {
+        this.targetId = targetId;
+        this.headId = headId;
+        this.conflicts = conflicts;
+        this.commits = commits;
+    }
+
+    /**
+     * Checks whether {@code fromBranch} of {@code fromProject} can be merged
+     * into {@code toBranch} of {@code toProject}.
+     *
+     * @param fromProject
+     * @param fromBranch
+     * @param toProject
+     * @param toBranch
+     * @return the result, or null if the branches have more than one merge
+     *         base; the recursive merge has to write the virtual merge base
+     *         in that case.
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    @Nullable
+    public static MergeCheck check(Project fromProject, String fromBranch,
+                                   Project toProject, String toBranch)
+            throws IOException, GitAPIException {
+        ObjectId headId;
+        Repository fromRepository = GitRepository.buildGitRepository(fromProject, false);
+        try {
+            headId = resolve(fromRepository, fromBranch);
+        } finally {
+            fromRepository.close();
+        }
+
+        Repository repository = open(fromProject, toProject);
+        try {
+            ObjectId targetId = resolve(repository, toBranch);
+
+            Boolean conflicts = getCachedVerdict(repository, targetId, headId);
+            if (conflicts == null) {
+                return null;
+            }
+
+            return new MergeCheck(targetId, headId, conflicts,
+                    GitRepository.diffCommits(repository, targetId, headId));
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Opens the destination repository which can read the objects of the
+     * source repository as well.
+     */
+    private static Repository open(Project fromProject, Project toProject) throws IOException {
+        File toGitDirectory = GitRepository.getGitDirectory(toProject);
+        if (fromProject.id != null && fromProject.id.equals(toProject.id)) {
+            return RepositoryRegistry.open(toGitDirectory, null);
+        }
+        return RepositoryRegistry.open(toGitDirectory,
+                new File(GitRepository.getGitDirectory(fromProject), "objects"));
+    }
+
+    private static ObjectId resolve(Repository repository, String branch) throws IOException {
+        return Objects.requireNonNull(repository.resolve(branch),
+                String.format("Ref '%s' does not exist in Git repository '%s'",
+                        branch, repository));
+    }
+
+    /**
+     * @return whether the merge conflicts, or null if there is more than one
+     *         merge base.
+     */
+    @Nullable
+    private static Boolean getCachedVerdict(Repository repository, ObjectId targetId,
+                                            ObjectId headId) throws IOException {
+        RevCommit base;
+        RevWalk walk = new RevWalk(repository);
+        try {
+            walk.setRevFilter(RevFilter.MERGE_BASE);
+            walk.markStart(walk.parseCommit(targetId));
+            walk.markStart(walk.parseCommit(headId));
+            base = walk.next();
+            if (base != null && walk.next() != null) {
+                return null;
+            }
+        } finally {
+            walk.release();
+        }
+
+        String key = (base == null ? "" : base.name()) + ":" + headId.name() + ":"
+                + targetId.name();
+        Boolean conflicts = Holder.conflicts.getIfPresent(key);
+        if (conflicts != null) {
+            HITS.inc();
+            return conflicts;
+        }
+        MISSES.inc();
+
+        ThreeWayMerger merger = MergeStrategy.RECURSIVE.newMerger(repository, true);
+        merger.setObjectInserter(new DiscardingInserter(repository));
+        conflicts = !merger.merge(false, targetId, headId);
+
+        Holder.conflicts.put(key, conflicts);
+        return conflicts;
+    }
+
+    /**
+     * @return the commit of the destination branch
+     */
+    public ObjectId getTargetId() {
+        return targetId;
+    }
+
+    /**
+     * @return the commit of the source branch
+     */
+    public ObjectId getHeadId() {
+        return headId;
+    }
+
+    public boolean conflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return the commits of the source branch which are not in the
+     *         destination branch
+     */
+    public List<GitCommit> getCommits() {
+        return commits;
+    }
+}
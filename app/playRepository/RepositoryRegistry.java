@@ -0,0 +1,354 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import akka.actor.Cancellable;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import play.Configuration;
+import play.libs.Akka;
+import scala.concurrent.duration.Duration;
+import utils.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide registry of opened bare repositories.
+ *
+ * Opening a repository scans its pack directory and reads the index of every
+ * pack, so opening it for every request is expensive. The registry keeps a
+ * repository open and gives the same instance to everyone, so a hot
+ * repository keeps its pack indexes and its windows in the WindowCache warm.
+ *
+ * A repository given by the registry is shared; {@link Repository#close()}
+ * only returns it to the registry. The registry retires a repository which
+ * has not been used for a while, or the least recently used one if too many
+ * repositories are open. A retired repository is really closed when every
+ * user has closed it.
+ *
+ * The registry works only while the application is running. Otherwise, a new
+ * repository is opened for every call as before.
+ *
+ * Configuration:
+ *   application.git.repository.cache.maxOpen: the maximum number of
+ *       repositories kept open (default: 256)
+ *   application.git.repository.cache.idleTimeout: how long an unused
+ *       repository is kept open (default: 10 minutes)
+ *   application.git.windowCache.*: see {@link #getWindowCacheConfig()}
+ *
+ * @see GitRepository#buildGitRepository(String, String, boolean)
+ */
+public class RepositoryRegistry {
+    private static final int DEFAULT_MAX_OPEN = 256;
+    private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Metrics.Counter HITS = Metrics.counter("git.repository.cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("git.repository.cache.misses");
+
+    /**
+     * Opened repositories in access order, so the eldest is the least
+     * recently used one. Guarded by itself.
+     */
+    private static final LinkedHashMap<String, PooledRepository> repositories =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The number of calls of {@link #evict}. Guarded by {@link #repositories}.
+     */
+    private static long evictions = 0;
+
+    private static volatile boolean started = false;
+    private static int maxOpen = DEFAULT_MAX_OPEN;
+    private static long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private static WindowCacheConfig windowCacheConfig;
+    private static Cancellable evictionSchedule;
+
+    static {
+        Metrics.gauge("git.repository.cache.open", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                synchronized (repositories) {
+                    return repositories.size();
+                }
+            }
+        });
+    }
+
+    public static void onStart() {
+        Configuration config = Configuration.root();
+
+        maxOpen = config.getInt("application.git.repository.cache.maxOpen", DEFAULT_MAX_OPEN);
+        idleTimeout = config.getMilliseconds("application.git.repository.cache.idleTimeout",
+                DEFAULT_IDLE_TIMEOUT);
+        windowCacheConfig = getWindowCacheConfig();
+        windowCacheConfig.install();
+
+        long interval = Math.max(idleTimeout / 2, TimeUnit.SECONDS.toMillis(10));
+        evictionSchedule = Akka.system().scheduler().schedule(
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        evictIdle();
+                    }
+                },
+                Akka.system().dispatcher()
+        );
+
+        started = true;
+    }
+
+    public static void onStop() {
+        started = false;
+
+        if (evictionSchedule != null) {
+            evictionSchedule.cancel();
+            evictionSchedule = null;
+        }
+
+        synchronized (repositories) {
+            for (PooledRepository repository : repositories.values()) {
+                repository.retire();
+            }
+            repositories.clear();
+        }
+    }
+
+    /**
+     * Returns the configuration of JGit's WindowCache, which is shared by
+     * every repository.
+     *
+     * Each setting is read from {@code application.git.windowCache.*} and
+     * defaults to JGit's:
+     *   packedGitLimit: the total size of pack data cached (default: 10MB)
+     *   packedGitWindowSize: the size of a window read at once (default: 8KB)
+     *   packedGitOpenFiles: the number of pack files kept open (default: 128)
+     *   packedGitMMAP: whether to use mmap to read pack data (default: false)
+     *   deltaBaseCacheLimit: the size of the delta base cache (default: 10MB)
+     *   streamFileThreshold: objects larger than this are streamed rather
+     *       than loaded into memory (default: 50MB)
+     *
+     * @return the configuration
+     */
+    public static WindowCacheConfig getWindowCacheConfig() {
+        Configuration config = Configuration.root();
+        WindowCacheConfig cacheConfig = new WindowCacheConfig();
+
+        cacheConfig.setPackedGitLimit(config.getBytes(
+                "application.git.windowCache.packedGitLimit", cacheConfig.getPackedGitLimit()));
+        cacheConfig.setPackedGitWindowSize((int) (long) config.getBytes(
+                "application.git.windowCache.packedGitWindowSize",
+                (long) cacheConfig.getPackedGitWindowSize()));
+        cacheConfig.setPackedGitOpenFiles(config.getInt(
+                "application.git.windowCache.packedGitOpenFiles", cacheConfig.getPackedGitOpenFiles()));
+        cacheConfig.setPackedGitMMAP(config.getBoolean(
+                "application.git.windowCache.packedGitMMAP", cacheConfig.isPackedGitMMAP()));
+        cacheConfig.setDeltaBaseCacheLimit((int) (long) config.getBytes(
+                "application.git.windowCache.deltaBaseCacheLimit",
+                (long) cacheConfig.getDeltaBaseCacheLimit()));
+        cacheConfig.setStreamFileThreshold((int) (long) config.getBytes(
+                "application.git.windowCache.streamFileThreshold",
+                (long) cacheConfig.getStreamFileThreshold()));
+
+        return cacheConfig;
+    }
+
+    /**
+     * Reinstalls the WindowCache, which closes every pack file held by it.
+     *
+     * This is needed before a repository directory is removed or moved.
+     */
+    public static void resetWindowCache() {
+        WindowCacheConfig config = windowCacheConfig;
+        (config != null ? config : new WindowCacheConfig()).install();
+    }
+
+    /**
+     * Opens the bare repository at the given directory.
+     *
+     * The caller should close the returned repository when it is no longer
+     * needed, as with a repository opened by {@link RepositoryBuilder}.
+     *
+     * @param gitDirectory
+     * @param alternateObjectDirectory  an additional object directory, or null
+     * @return the repository
+     * @throws IOException
+     */
+    public static Repository open(File gitDirectory, File alternateObjectDirectory)
+            throws IOException {
+        if (!started || !new File(gitDirectory, "objects").isDirectory()) {
+            return newBuilder(gitDirectory, alternateObjectDirectory).build();
+        }
+
+        String key = keyOf(gitDirectory, alternateObjectDirectory);
+        long generation;
+
+        synchronized (repositories) {
+            PooledRepository repository = repositories.get(key);
+
+            if (repository != null) {
+                HITS.inc();
+                repository.acquire();
+                return repository;
+            }
+
+            MISSES.inc();
+            generation = evictions;
+        }
+
+        // Opening a repository may take long, so it is not done while the
+        // lock is held. If someone else has opened it meanwhile, theirs wins.
+        PooledRepository opened = new PooledRepository(
+                newBuilder(gitDirectory, alternateObjectDirectory).setup());
+
+        synchronized (repositories) {
+            PooledRepository repository = repositories.get(key);
+
+            if (repository != null) {
+                opened.retire();
+            } else {
+                repository = opened;
+                if (generation == evictions) {
+                    repositories.put(key, repository);
+                    evictEldest();
+                } else {
+                    // A directory may have been evicted while it was opened.
+                    // Do not keep it; it is closed when the caller closes it.
+                    repository.retired = true;
+                }
+            }
+
+            repository.acquire();
+            return repository;
+        }
+    }
+
+    /**
+     * Retires every repository opened at the given directory.
+     *
+     * This must be called before the directory is removed or moved.
+     *
+     * @param gitDirectory
+     */
+    public static void evict(File gitDirectory) {
+        String prefix = keyOf(gitDirectory, null);
+
+        synchronized (repositories) {
+            evictions++;
+            Iterator<Map.Entry<String, PooledRepository>> iterator =
+                    repositories.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, PooledRepository> entry = iterator.next();
+                if (entry.getKey().equals(prefix) || entry.getKey().startsWith(prefix + "\n")) {
+                    entry.getValue().retire();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    static void evictIdle() {
+        long threshold = System.currentTimeMillis() - idleTimeout;
+
+        synchronized (repositories) {
+            Iterator<PooledRepository> iterator = repositories.values().iterator();
+            while (iterator.hasNext()) {
+                PooledRepository repository = iterator.next();
+                if (repository.lastUsed < threshold) {
+                    repository.retire();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static void evictEldest() {
+        Iterator<PooledRepository> iterator = repositories.values().iterator();
+        while (repositories.size() > maxOpen && iterator.hasNext()) {
+            iterator.next().retire();
+            iterator.remove();
+        }
+    }
+
+    private static RepositoryBuilder newBuilder(File gitDirectory, File alternateObjectDirectory) {
+        RepositoryBuilder builder = new RepositoryBuilder().setGitDir(gitDirectory);
+        if (alternateObjectDirectory != null) {
+            builder.addAlternateObjectDirectory(alternateObjectDirectory);
+        }
+        return builder;
+    }
+
+    private static String keyOf(File gitDirectory, File alternateObjectDirectory) {
+        String key = gitDirectory.getAbsoluteFile().toPath().normalize().toString();
+        if (alternateObjectDirectory != null) {
+            key += "\n" + alternateObjectDirectory.getAbsoluteFile().toPath().normalize();
+        }
+        return key;
+    }
+
+    /**
+     * A repository shared through the registry.
+     *
+     * Every field is guarded by {@link #repositories}.
+     */
+    private static class PooledRepository extends FileRepository {
+        private int references = 0;
+        private long lastUsed = System.currentTimeMillis();
+        private boolean retired = false;
+        private boolean closed = false;
+
+        PooledRepository(RepositoryBuilder builder) throws IOException {
+            super(builder);
+        }
+
+        void acquire() {
+            references++;
+            lastUsed = System.currentTimeMillis();
+        }
+
+        void retire() {
+            retired = true;
+            closeIfUnused();
+        }
+
+        @Override
+        public void close() {
+            synchronized (repositories) {
+                if (references > 0) {
+                    references--;
+                }
+                lastUsed = System.currentTimeMillis();
+                closeIfUnused();
+            }
+        }
+
+        private void closeIfUnused() {
+            if (retired && references == 0 && !closed) {
+                closed = true;
+                super.close();
+            }
+        }
+    }
+}
@@ -43,6 +43,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 public class RepositoryService {
     public static final String VCS_SUBVERSION = "Subversion";
@@ -179,9 +180,19 @@ public class RepositoryService {
      * @see <a href="https://www.kernel.org/pub/software/scm/git/docs/git-upload-pack.html">git-upload-pack</a>
      * @see <a href="https://www.kernel.org/pub/software/scm/git/docs/git-receive-pack.html">git-receive-pack</a>
      */
-    public static byte[] gitAdvertise(Project project, String service, Response response) throws IOException {
+    public static byte[] gitAdvertise(final Project project, final String service, Response response) throws IOException {
         response.setContentType("application/x-" + service + "-advertisement");
 
+        return AdvertisementCache.get(GitRepository.getGitDirectory(project), service,
+                new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return makeAdvertisement(project, service);
+                    }
+                });
+    }
+
+    private static byte[] makeAdvertisement(Project project, String service) throws IOException {
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
         PacketLineOut packetLineOut = new PacketLineOut(byteArrayOutputStream);
         packetLineOut.writeString("# service=" + service + "\n");
@@ -196,6 +207,7 @@ public class RepositoryService {
         } else if (service.equals("git-receive-pack")) {
             Repository repository = GitRepository.buildGitRepository(project, false);
             ReceivePack receivePack = new ReceivePack(repository);
+            receivePack.setAdvertiseRefsHook(ForkNetwork.newAdvertiseRefsHook(project));
             receivePack.sendAdvertisedRefs(packetLineOutRefAdvertiser);
         }
 
@@ -205,15 +217,21 @@ public class RepositoryService {
     }
 
     /**
+     * Runs git-upload-pack or git-receive-pack on a worker of
+     * {@link GitTransport} and returns the stream of the result.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the transport
+     *         is too busy to run the service
      * @see <a href="https://www.kernel.org/pub/software/scm/git/docs/git-upload-pack.html">git-upload-pack</a>
      * @see <a href="https://www.kernel.org/pub/software/scm/git/docs/git-receive-pack.html">git-receive-pack</a>
      */
-    public static PipedInputStream gitRpc(final Project project, String service, Request request, Response response) {
+    public static InputStream gitRpc(final Project project, String service, Request request, Response response) {
         response.setContentType("application/x-" + service + "-result");
 
         RawBuffer raw = request.body().asRaw();
         byte[] buf = raw.asBytes();
         InputStream requestStream = null;
+        Repository repository = null;
 
         try {
             // If the content size is bigger than memoryThreshold,
@@ -222,37 +240,49 @@ public class RepositoryService {
             if (buf != null) {
                 requestStream = new ByteArrayInputStream(buf);
             } else {
-                requestStream = new FileInputStream(raw.asFile());
+                requestStream = new BufferedInputStream(new FileInputStream(raw.asFile()),
+                        GitTransport.getBufferSize());
             }
 
-            Repository repository;
-            PipedInputStream responseStream = new PipedInputStream();
+            GitTransport.Pipe pipe;
 
             switch (service) {
                 case "git-upload-pack":
                     repository = GitRepository.buildGitRepository(project);
-                    uploadPack(requestStream, repository, new PipedOutputStream(responseStream));
+                    pipe = new GitTransport.Pipe(GitTransport.UPLOAD_PACK_BYTES);
+                    uploadPack(project, requestStream, repository, pipe.getOutputStream());
+                    // The worker closes the repository.
+                    repository = null;
                     break;
                 case "git-receive-pack":
                     repository = GitRepository.buildGitRepository(project, false);
+                    pipe = new GitTransport.Pipe(GitTransport.RECEIVE_PACK_BYTES);
                     PreReceiveHook preReceiveHook = createPreReceiveHook();
                     PostReceiveHook postReceiveHook = createPostReceiveHook(UserApp.currentUser(), project, request);
-                    receivePack(requestStream, repository, new PipedOutputStream(responseStream),
+                    receivePack(project, requestStream, repository, pipe.getOutputStream(),
                             preReceiveHook, postReceiveHook);
+                    // The worker closes the repository.
+                    repository = null;
                     // receivePack.setEchoCommandFailures(true);
                     break;
                 default:
                     requestStream.close();
-                    break;
+                    return new ByteArrayInputStream(new byte[0]);
             }
 
-            return responseStream;
-        } catch (IOException e) {
+            return pipe.getInputStream();
+        } catch (IOException | RuntimeException e) {
+            if (repository != null) {
+                repository.close();
+            }
             if(requestStream != null) {
                 try { requestStream.close(); } catch (IOException e1) {
                     Logger.error("failed to close request stream", e1);
                 }
             }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
             throw new RuntimeException(e);
         }
     }
@@ -266,21 +296,26 @@ public class RepositoryService {
     private static PostReceiveHook createPostReceiveHook(
             final User currentUser, final Project project, final Request request) {
         List<PostReceiveHook> hooks = new ArrayList<>();
+        hooks.add(new ClearAdvertisementCache());
         hooks.add(new UpdateLastPushedDate(project));
-        hooks.add(new UpdateRecentlyPushedBranch(project));
-        hooks.add(new IssueReferredFromCommitEvent(project, currentUser));
-        hooks.add(new PullRequestCheck(currentUser, request, project));
-        hooks.add(new NotifyPushedCommits(project, currentUser));
+        hooks.add(new PushEventPipeline(project,
+                new UpdateLastCommitIndex(project),
+                new UpdateHistoryIndex(project),
+                new UpdateRecentlyPushedBranch(project),
+                new IssueReferredFromCommitEvent(project, currentUser),
+                new PullRequestCheck(currentUser, request, project),
+                new NotifyPushedCommits(project, currentUser)));
         return PostReceiveHookChain.newChain(hooks);
     }
 
-    private static void receivePack(final InputStream input, Repository repository,
-                                    final OutputStream output,
+    private static void receivePack(Project project, final InputStream input,
+                                    final Repository repository, final OutputStream output,
                                     final PreReceiveHook preReceiveHook,
                                     final PostReceiveHook postReceiveHook) {
         final ReceivePack receivePack = new ReceivePack(repository);
         receivePack.setBiDirectionalPipe(false);
-        new Thread() {
+        receivePack.setAdvertiseRefsHook(ForkNetwork.newAdvertiseRefsHook(project));
+        GitTransport.executeReceivePack(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -289,29 +324,33 @@ public class RepositoryService {
                     receivePack.receive(input, output, null);
                 } catch (IOException e) {
                     Logger.error("receivePack failed", e);
+                } finally {
+                    repository.close();
                 }
 
                 closeStreams("receivePack", input, output);
             }
-        }.start();
+        });
     }
 
-    private static void uploadPack(final InputStream input, Repository repository,
+    private static void uploadPack(Project project, final InputStream input, final Repository repository,
                                    final OutputStream output) {
         final UploadPack uploadPack = new UploadPack(repository);
         uploadPack.setBiDirectionalPipe(false);
-        new Thread() {
+        GitTransport.executeUploadPack(project, new Runnable() {
             @Override
             public void run() {
                 try {
                     uploadPack.upload(input, output, null);
                 } catch (IOException e) {
                     Logger.error("uploadPack failed", e);
+                } finally {
+                    repository.close();
                 }
 
                 closeStreams("uploadPack", input, output);
             }
-        }.start();
+        });
     }
 
     private static void closeStreams(String serviceName, InputStream input, OutputStream output) {
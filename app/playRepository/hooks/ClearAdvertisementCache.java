@@ -1,11 +1,9 @@
 /**
  * Yobi, Project Hosting SW
  *
- * Copyright 2013 NAVER Corp.
+ * Copyright 2015 NAVER Corp.
  * http://yobi.io
  *
- * @author Wansoon Park
- *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
@@ -18,28 +16,23 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package actors;
+package playRepository.hooks;
+
+import java.util.Collection;
 
-import models.PullRequest;
-import models.PullRequestEventMessage;
+import org.eclipse.jgit.transport.PostReceiveHook;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.ReceivePack;
+
+import playRepository.AdvertisementCache;
 
 /**
- * @author Wansoon Park
- *
+ * Invalidates the cached ref advertisements of the repository which has been
+ * pushed to.
  */
-public class PullRequestMergingActor extends PullRequestActor {
+public class ClearAdvertisementCache implements PostReceiveHook {
     @Override
-    public void onReceive(Object object) {
-        if (!(object instanceof PullRequestEventMessage)) {
-            return;
-        }
-
-        PullRequestEventMessage message = (PullRequestEventMessage) object;
-        PullRequest pullRequest = message.getPullRequest();
-
-        pullRequest.startMerge();
-        pullRequest.update();
-
-        processPullRequestMerging(message, pullRequest);
+    public void onPostReceive(ReceivePack receivePack, Collection<ReceiveCommand> commands) {
+        AdvertisementCache.invalidate(receivePack.getRepository());
     }
 }
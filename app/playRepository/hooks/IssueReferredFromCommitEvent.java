@@ -20,22 +20,27 @@
  */
 package playRepository.hooks;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import models.PostReceiveMessage;
+import models.Issue;
+import models.IssueEvent;
 import models.Project;
 import models.User;
+import models.enumeration.EventType;
 
-import org.eclipse.jgit.transport.PostReceiveHook;
-import org.eclipse.jgit.transport.ReceiveCommand;
-import org.eclipse.jgit.transport.ReceivePack;
-
-import actors.IssueReferredFromCommitEventActor;
-import akka.actor.Props;
-
-import play.libs.Akka;
-
-public class IssueReferredFromCommitEvent implements PostReceiveHook {
+/**
+ * Creates new events to tell that an issue is referred from a pushed commit.
+ *
+ * The issues referred by every pushed commit are found together, and the
+ * events are inserted in batches, so a push of a long history does not run
+ * queries for each reference.
+ */
+public class IssueReferredFromCommitEvent implements PushEventPipeline.Stage {
     private Project project;
     private User user;
 
@@ -45,8 +50,42 @@ public class IssueReferredFromCommitEvent implements PostReceiveHook {
     }
 
     @Override
-    public void onPostReceive(ReceivePack receivePack, Collection<ReceiveCommand> commands) {
-        PostReceiveMessage message = new PostReceiveMessage(commands, project, user);
-        Akka.system().actorOf(Props.create(IssueReferredFromCommitEventActor.class)).tell(message, null);
+    public void onPush(PushEvent event) {
+        Set<Long> numbers = new HashSet<>();
+        for (PushEvent.PushedCommit commit : event.getCommits()) {
+            numbers.addAll(commit.getIssueNumbers());
+        }
+        if (numbers.isEmpty()) {
+            return;
+        }
+
+        Map<Long, Issue> issues = Issue.findByNumbers(project, numbers);
+        if (issues.isEmpty()) {
+            return;
+        }
+
+        Date now = new Date();
+        List<IssueEvent> issueEvents = new ArrayList<>();
+        for (PushEvent.PushedCommit commit : event.getCommits()) {
+            for (Long number : commit.getIssueNumbers()) {
+                Issue issue = issues.get(number);
+                if (issue != null) {
+                    issueEvents.add(createIssueEvent(issue, commit, now));
+                }
+            }
+        }
+
+        IssueEvent.saveAll(issueEvents);
+    }
+
+    private IssueEvent createIssueEvent(Issue issue, PushEvent.PushedCommit commit, Date created) {
+        IssueEvent issueEvent = new IssueEvent();
+        issueEvent.issue = issue;
+        issueEvent.senderLoginId = user.loginId;
+        issueEvent.senderEmail = user.email;
+        issueEvent.newValue = commit.getId();
+        issueEvent.created = created;
+        issueEvent.eventType = EventType.ISSUE_REFERRED_FROM_COMMIT;
+        return issueEvent;
     }
 }
@@ -20,22 +20,20 @@
  */
 package playRepository.hooks;
 
-import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 
-import models.PostReceiveMessage;
+import models.NotificationEvent;
 import models.Project;
 import models.User;
+import models.Watch;
 
-import org.eclipse.jgit.transport.PostReceiveHook;
-import org.eclipse.jgit.transport.ReceiveCommand;
-import org.eclipse.jgit.transport.ReceivePack;
+import play.i18n.Messages;
 
-import actors.CommitsNotificationActor;
-import akka.actor.Props;
-
-import play.libs.Akka;
-
-public class NotifyPushedCommits implements PostReceiveHook {
+/**
+ * Creates new commit notifications.
+ */
+public class NotifyPushedCommits implements PushEventPipeline.Stage {
     private Project project;
     private User user;
 
@@ -45,8 +43,20 @@ public class NotifyPushedCommits implements PostReceiveHook {
     }
 
     @Override
-    public void onPostReceive(ReceivePack receivePack, Collection<ReceiveCommand> commands) {
-        PostReceiveMessage message = new PostReceiveMessage(commands, project, user);
-        Akka.system().actorOf(Props.create(CommitsNotificationActor.class)).tell(message, null);
+    public void onPush(PushEvent event) {
+        List<PushEvent.PushedCommit> commits = event.getCommits();
+        List<String> refNames = event.getRefNames();
+
+        String title;
+        if(refNames.size() == 1) {
+            title = Messages.get("notification.pushed.commits.to", project.name, commits.size(), refNames.get(0));
+        } else {
+            title = Messages.get("notification.pushed.commits", project.name, commits.size());
+        }
+
+        Set<User> watchers = Watch.findWatchers(project.asResource());
+        watchers.remove(user);
+
+        NotificationEvent.afterNewCommits(commits, refNames, project, user, title, watchers);
     }
 }
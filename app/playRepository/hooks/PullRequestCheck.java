@@ -20,7 +20,6 @@
  */
 package playRepository.hooks;
 
-import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -29,16 +28,12 @@ import models.PullRequest;
 import models.PullRequestEventMessage;
 import models.User;
 
-import org.eclipse.jgit.transport.PostReceiveHook;
 import org.eclipse.jgit.transport.ReceiveCommand;
-import org.eclipse.jgit.transport.ReceivePack;
 
-import play.libs.Akka;
 import play.mvc.Http.Request;
-import actors.RelatedPullRequestMergingActor;
-import akka.actor.Props;
+import actors.PullRequestMergeScheduler;
 
-public class PullRequestCheck implements PostReceiveHook {
+public class PullRequestCheck implements PushEventPipeline.Stage {
     private User user;
     private Request request;
     private Project project;
@@ -50,11 +45,12 @@ public class PullRequestCheck implements PostReceiveHook {
     }
 
     @Override
-    public void onPostReceive(ReceivePack receivePack, Collection<ReceiveCommand> commands) {
+    public void onPush(PushEvent event) {
+        List<ReceiveCommand> commands = event.getCommands();
         Set<String> branches = ReceiveCommandUtil.getUpdatedBranches(commands);
         for (String branch : branches) {
             PullRequestEventMessage message = new PullRequestEventMessage(user, request, project, branch);
-            Akka.system().actorOf(Props.create(RelatedPullRequestMergingActor.class)).tell(message, null);
+            PullRequestMergeScheduler.scheduleRelated(message);
         }
 
         Set<String> deletedBranches = ReceiveCommandUtil.getDeletedBranches(commands);
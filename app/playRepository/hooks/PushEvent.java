@@ -0,0 +1,180 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository.hooks;
+
+import models.IssueEvent;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import playRepository.GitCommit;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * What has been pushed: the commands, the pushed refs and the new commits.
+ *
+ * The new commits are found by a single walk over every created or updated
+ * ref, and only what the post-receive hooks need is kept for each commit, not
+ * the commit itself, so a push of many commits does not hold their bodies in
+ * the heap while the hooks run.
+ *
+ * A push event is immutable and shared by every hook.
+ *
+ * @see PushEventPipeline
+ */
+public class PushEvent {
+    private final List<ReceiveCommand> commands;
+    private final List<String> refNames;
+    private final List<PushedCommit> commits;
+
+    /**
+     * A pushed commit.
+     */
+    public static class PushedCommit {
+        private final String id;
+        private final String shortId;
+        private final String shortMessage;
+        private final Set<Long> issueNumbers;
+
+        PushedCommit(RevCommit revCommit) {
+            GitCommit commit = new GitCommit(revCommit);
+            this.id = commit.getId();
+            this.shortId = commit.getShortId();
+            this.shortMessage = commit.getShortMessage();
+            this.issueNumbers = parseIssueNumbers(commit.getMessage());
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getShortId() {
+            return shortId;
+        }
+
+        public String getShortMessage() {
+            return shortMessage;
+        }
+
+        /**
+         * @return the numbers of the issues referred by the message, such as
+         *         {@code #12}
+         */
+        public Set<Long> getIssueNumbers() {
+            return issueNumbers;
+        }
+    }
+
+    private PushEvent(List<ReceiveCommand> commands, List<String> refNames,
+                      List<PushedCommit> commits) {
+        this.commands = Collections.unmodifiableList(commands);
+        this.refNames = Collections.unmodifiableList(refNames);
+        this.commits = Collections.unmodifiableList(commits);
+    }
+
+    /**
+     * Finds the commits pushed by the given commands.
+     *
+     * The commits between the old and the new id of an updated ref are new.
+     * Only the commit a created ref points to is new, because the ref may be
+     * a tag or an orphan branch. A commit pushed to more than one ref is
+     * included once.
+     *
+     * @param repository
+     * @param commands
+     * @return the push event
+     * @throws IOException
+     */
+    public static PushEvent walk(Repository repository, Collection<ReceiveCommand> commands)
+            throws IOException {
+        List<ReceiveCommand> pushed = new ArrayList<>();
+        List<String> refNames = new ArrayList<>();
+        for (ReceiveCommand command : commands) {
+            if (ReceiveCommandUtil.isTypeMatching(command, ReceiveCommand.Type.CREATE,
+                    ReceiveCommand.Type.UPDATE, ReceiveCommand.Type.UPDATE_NONFASTFORWARD)) {
+                pushed.add(command);
+                refNames.add(command.getRefName());
+            }
+        }
+
+        Map<ObjectId, PushedCommit> commits = new LinkedHashMap<>();
+        RevWalk walk = new RevWalk(repository);
+        try {
+            boolean updated = false;
+            for (ReceiveCommand command : pushed) {
+                if (command.getType() != ReceiveCommand.Type.CREATE) {
+                    walk.markStart(walk.parseCommit(command.getNewId()));
+                    walk.markUninteresting(walk.parseCommit(command.getOldId()));
+                    updated = true;
+                }
+            }
+
+            if (updated) {
+                for (RevCommit commit : walk) {
+                    commits.put(commit.copy(), new PushedCommit(commit));
+                }
+            }
+
+            for (ReceiveCommand command : pushed) {
+                if (command.getType() == ReceiveCommand.Type.CREATE) {
+                    RevCommit commit = walk.parseCommit(command.getNewId());
+                    if (!commits.containsKey(commit)) {
+                        commits.put(commit.copy(), new PushedCommit(commit));
+                    }
+                }
+            }
+        } finally {
+            walk.release();
+        }
+
+        return new PushEvent(new ArrayList<>(commands), refNames,
+                new ArrayList<>(commits.values()));
+    }
+
+    private static Set<Long> parseIssueNumbers(String message) {
+        Set<Long> numbers = IssueEvent.findReferredIssueNumbers(message);
+        return numbers.isEmpty()
+                ? Collections.<Long>emptySet()
+                : Collections.unmodifiableSet(numbers);
+    }
+
+    /**
+     * @return every command of the push
+     */
+    public List<ReceiveCommand> getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return the names of the created or updated refs
+     */
+    public List<String> getRefNames() {
+        return refNames;
+    }
+
+    /**
+     * @return the new commits
+     */
+    public List<PushedCommit> getCommits() {
+        return commits;
+    }
+}
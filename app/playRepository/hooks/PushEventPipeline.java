@@ -0,0 +1,169 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository.hooks;
+
+import models.Project;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PostReceiveHook;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.ReceivePack;
+import play.Configuration;
+import playRepository.GitRepository;
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A post-receive hook which walks the pushed commits once, and passes the
+ * {@link PushEvent} to every stage.
+ *
+ * The walk and the stages run in the background on a bounded pool, and the
+ * stages of a push run in parallel. If the pool is too busy, the pushing
+ * thread runs them by itself, so a flood of pushes slows down the pushers
+ * instead of piling up push events in the heap.
+ *
+ * Metrics:
+ *   git.push.queue: the number of walks and stages waiting for a worker
+ *   git.push.commits: the number of pushed commits
+ *
+ * Configuration:
+ *   application.git.push.threads: the number of workers (default: 4)
+ *   application.git.push.queueSize: the number of walks and stages which can
+ *       wait for a worker (default: 64)
+ */
+public class PushEventPipeline implements PostReceiveHook {
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private static final Metrics.Meter COMMITS = Metrics.meter("git.push.commits");
+
+    /**
+     * Something to be done after a push.
+     */
+    public interface Stage {
+        void onPush(PushEvent event);
+    }
+
+    /**
+     * Holds the pool, which is created when it is used first, because the
+     * configuration is not available until the application starts.
+     */
+    private static class Holder {
+        static final ThreadPoolExecutor executor = createExecutor();
+
+        static {
+            Metrics.gauge("git.push.queue", new Metrics.Gauge() {
+                @Override
+                public long getLong() {
+                    return executor.getQueue().size();
+                }
+            });
+        }
+    }
+
+    private final Project project;
+    private final List<Stage> stages;
+
+    public PushEventPipeline(Project project, Stage... stages) {
+        this.project = project;
+        this.stages = Arrays.asList(stages);
+    }
+
+    @Override
+    public void onPostReceive(ReceivePack receivePack, Collection<ReceiveCommand> commands) {
+        final List<ReceiveCommand> received = new ArrayList<>(commands);
+        Holder.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PushEvent event = walk(received);
+                if (event != null) {
+                    COMMITS.mark(event.getCommits().size());
+                    runStages(event);
+                }
+            }
+        });
+    }
+
+    private PushEvent walk(List<ReceiveCommand> commands) {
+        Repository repository = GitRepository.buildGitRepository(project, false);
+        try {
+            return PushEvent.walk(repository, commands);
+        } catch (Exception e) {
+            play.Logger.error("Failed to find the commits pushed to " + project, e);
+            return null;
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Runs the stages in parallel; the last one runs on the current thread.
+     */
+    private void runStages(final PushEvent event) {
+        for (int i = 0; i < stages.size(); i++) {
+            final Stage stage = stages.get(i);
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stage.onPush(event);
+                    } catch (Exception e) {
+                        play.Logger.error("Failed to run " + stage.getClass().getSimpleName()
+                                + " for the push to " + project, e);
+                    }
+                }
+            };
+
+            if (i < stages.size() - 1) {
+                Holder.executor.execute(task);
+            } else {
+                task.run();
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        Configuration config = Configuration.root();
+        int threads = config.getInt("application.git.push.threads", DEFAULT_THREADS);
+        int queueSize = config.getInt("application.git.push.queueSize", DEFAULT_QUEUE_SIZE);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(threads, 1),
+                Math.max(threads, 1), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "git-push-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                // Back-pressure: the caller runs the task if the queue is full.
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
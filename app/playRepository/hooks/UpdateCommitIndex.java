@@ -0,0 +1,97 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository.hooks;
+
+import models.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import play.Configuration;
+import playRepository.GitRepository;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Updates a per-commit index of the pushed branches.
+ *
+ * After the index is updated for every pushed command, the index of an old
+ * head is removed if no ref points to it anymore. Once the index has more
+ * than the maximum number of commits, it is pruned so it does not keep
+ * commits no ref can reach or grow without bound.
+ *
+ * Configuration:
+ *   application.git.commitIndex.maxCommits: the number of commits in each
+ *       index above which the index is pruned (default: 1000)
+ *
+ * @see playRepository.CommitIndexStore
+ */
+public abstract class UpdateCommitIndex implements PushEventPipeline.Stage {
+    private static final int DEFAULT_MAX_COMMITS = 1000;
+
+    private Project project;
+
+    protected UpdateCommitIndex(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public void onPush(PushEvent event) {
+        GitRepository repository = new GitRepository(project.owner, project.name, false);
+
+        try {
+            for (ReceiveCommand command : event.getCommands()) {
+                update(repository, command);
+            }
+
+            Set<ObjectId> heads = new HashSet<>();
+            for (Ref ref : repository.getRepository().getAllRefs().values()) {
+                heads.add(ref.getObjectId());
+            }
+
+            for (ReceiveCommand command : event.getCommands()) {
+                ObjectId oldId = command.getOldId();
+                if (!oldId.equals(ObjectId.zeroId()) && !heads.contains(oldId)) {
+                    remove(repository, oldId);
+                }
+            }
+
+            prune(repository, Configuration.root().getInt(
+                    "application.git.commitIndex.maxCommits", DEFAULT_MAX_COMMITS));
+        } catch (Exception e) {
+            play.Logger.warn("Failed to update the " + getIndexName() + " of " + project, e);
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Updates the index for the given command.
+     */
+    abstract void update(GitRepository repository, ReceiveCommand command) throws Exception;
+
+    /**
+     * Removes the index of the given commit.
+     */
+    abstract void remove(GitRepository repository, ObjectId commitId);
+
+    abstract void prune(GitRepository repository, int maxCommits) throws Exception;
+
+    abstract String getIndexName();
+}
@@ -0,0 +1,68 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository.hooks;
+
+import models.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import playRepository.GitRepository;
+
+/**
+ * Updates the history index of the pushed branches.
+ *
+ * The history as of the new head is indexed right after a push, so the first
+ * pages of the history are read from the index.
+ *
+ * @see playRepository.HistoryIndex
+ */
+public class UpdateHistoryIndex extends UpdateCommitIndex {
+    public UpdateHistoryIndex(Project project) {
+        super(project);
+    }
+
+    @Override
+    void update(GitRepository repository, ReceiveCommand command) throws Exception {
+        switch (command.getType()) {
+            case CREATE:
+            case UPDATE_NONFASTFORWARD:
+                repository.updateHistoryIndex(null, command.getNewId());
+                break;
+            case UPDATE:
+                repository.updateHistoryIndex(command.getOldId(), command.getNewId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    void remove(GitRepository repository, ObjectId commitId) {
+        repository.removeHistoryIndex(commitId);
+    }
+
+    @Override
+    void prune(GitRepository repository, int maxCommits) throws Exception {
+        repository.pruneHistoryIndex(maxCommits);
+    }
+
+    @Override
+    String getIndexName() {
+        return "history index";
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository.hooks;
+
+import models.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import playRepository.GitRepository;
+
+/**
+ * Updates the last commit index of the pushed branches.
+ *
+ * The directories indexed as of the old head are indexed as of the new head,
+ * so the code browser can answer from the index right after a push.
+ *
+ * @see playRepository.LastCommitIndex
+ */
+public class UpdateLastCommitIndex extends UpdateCommitIndex {
+    public UpdateLastCommitIndex(Project project) {
+        super(project);
+    }
+
+    @Override
+    void update(GitRepository repository, ReceiveCommand command) throws Exception {
+        if (command.getType() == ReceiveCommand.Type.UPDATE) {
+            repository.updateLastCommitIndex(command.getOldId(), command.getNewId());
+        }
+    }
+
+    @Override
+    void remove(GitRepository repository, ObjectId commitId) {
+        repository.removeLastCommitIndex(commitId);
+    }
+
+    @Override
+    void prune(GitRepository repository, int maxCommits) throws Exception {
+        repository.pruneLastCommitIndex(maxCommits);
+    }
+
+    @Override
+    String getIndexName() {
+        return "last commit index";
+    }
+}
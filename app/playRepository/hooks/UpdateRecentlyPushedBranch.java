@@ -20,7 +20,6 @@
  */
 package playRepository.hooks;
 
-import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -28,13 +27,11 @@ import models.Project;
 import models.PullRequest;
 import models.PushedBranch;
 
-import org.eclipse.jgit.transport.PostReceiveHook;
 import org.eclipse.jgit.transport.ReceiveCommand;
-import org.eclipse.jgit.transport.ReceivePack;
 
 import utils.JodaDateUtil;
 
-public class UpdateRecentlyPushedBranch implements PostReceiveHook {
+public class UpdateRecentlyPushedBranch implements PushEventPipeline.Stage {
     private Project project;
 
     public UpdateRecentlyPushedBranch(Project project) {
@@ -42,7 +39,8 @@ public class UpdateRecentlyPushedBranch implements PostReceiveHook {
     }
 
     @Override
-    public void onPostReceive(ReceivePack receivePack, Collection<ReceiveCommand> commands) {
+    public void onPush(PushEvent event) {
+        List<ReceiveCommand> commands = event.getCommands();
         removeOldPushedBranches();
         saveRecentlyPushedBranch(ReceiveCommandUtil.getPushedBranches(commands));
         deletePushedBranch(ReceiveCommandUtil.getDeletedBranches(commands));
@@ -27,6 +27,8 @@ import models.resource.GlobalResource;
 import models.resource.Resource;
 import org.apache.commons.lang.BooleanUtils;
 
+import java.util.*;
+
 import static models.OrganizationUser.isAdmin;
 import static models.OrganizationUser.isMember;
 
@@ -343,6 +345,75 @@ public class AccessControl {
         }
     }
 
+    /**
+     * Removes the users who are not allowed to read the given resource.
+     *
+     * This is equivalent to {@link #isAllowed(User, Resource, Operation)}
+     * with {@link Operation#READ} for each user, but the members and the
+     * group members of the project, or every user if the project is public,
+     * are allowed with a query or two for all the users; only the others are
+     * checked one by one.
+     *
+     * @param users
+     * @param resource
+     */
+    public static void retainAllowedToRead(Collection<User> users, Resource resource) {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        Set<Long> allowedIds = findUserIdsAllowedToRead(users, resource);
+
+        Iterator<User> iterator = users.iterator();
+        while (iterator.hasNext()) {
+            User user = iterator.next();
+            if (isAnonymousNotAllowed() && user.isAnonymous()) {
+                iterator.remove();
+            } else if (!allowedIds.contains(user.id)
+                    && !isAllowed(user, resource, Operation.READ)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static Set<Long> findUserIdsAllowedToRead(Collection<User> users, Resource resource) {
+        if (resource instanceof GlobalResource) {
+            return Collections.emptySet();
+        }
+
+        // The permissions to these resources depend on more than their project.
+        switch (resource.getType()) {
+            case PROJECT_TRANSFER:
+            case ISSUE_STATE:
+            case ISSUE_ASSIGNEE:
+            case ISSUE_MILESTONE:
+            case ATTACHMENT:
+                return Collections.emptySet();
+        }
+
+        Project project = resource.getProject();
+        if (project == null) {
+            return Collections.emptySet();
+        }
+
+        Set<Long> userIds = new HashSet<>();
+        for (User user : users) {
+            if (user.id != null) {
+                userIds.add(user.id);
+            }
+        }
+
+        if (project.isPublic()) {
+            return userIds;
+        }
+
+        Set<Long> allowedIds = ProjectUser.findMemberIds(project.id, userIds);
+        if (project.hasGroup() && project.isProtected()) {
+            allowedIds.addAll(OrganizationUser.findMemberIds(project.organization.id, userIds));
+        }
+        return allowedIds;
+    }
+
     public static void onStart() {
         allowsAnonymousAccess = BooleanUtils.toBoolean(
                 play.Configuration.root().getBoolean("application.allowsAnonymousAccess", true));
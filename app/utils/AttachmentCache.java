@@ -1,98 +1,173 @@
 package utils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import models.Attachment;
 import models.enumeration.ResourceType;
 import models.resource.Resource;
-import play.cache.Cache;
+import play.Configuration;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility for caching attachments in a container {@link models.resource.Resource}.
  *
- * The key is made by the name of the type of the Resource and Resource's id.
- * i.e) resource.getType().name() + resource.getId()
+ * The key is made by the type of the Resource and Resource's id. The value is
+ * an unmodifiable list of attachments. A container which has no attachment,
+ * such as most of comments, is cached as an empty list so that it is not
+ * queried again.
  *
- * The value is a collection of attachments.
+ * The cache is bounded by the number of cached attachments and containers.
+ *
+ * Configuration:
+ *   application.attachment.cache.maxWeight: the maximum number of cached
+ *       attachments and containers (default: 100000)
+ *   application.attachment.cache.expireAfterWrite: the time after which an
+ *       entry expires (default: 1 day)
  *
  * @author Keeun Baik
  */
 public class AttachmentCache {
+    private static final long DEFAULT_MAX_WEIGHT = 100000;
+    private static final long DEFAULT_EXPIRE_AFTER_WRITE = TimeUnit.DAYS.toMillis(1);
+
+    private static final Metrics.Counter HITS = Metrics.counter("attachment.cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("attachment.cache.misses");
 
     /**
-     * Play's Cache API allows expiration time in seconds.
-     *
-     * @see {@link play.cache.Cache#set(String, Object, int)}
+     * Holds the cache, which is created when it is used first, because the
+     * configuration is not available until the application starts.
      */
-    private static final int ONE_DAY = 60 * 60 * 24;
+    private static class Holder {
+        static final Cache<Key, List<Attachment>> cache = CacheBuilder.newBuilder()
+                .maximumWeight(Configuration.root().getLong(
+                        "application.attachment.cache.maxWeight", DEFAULT_MAX_WEIGHT))
+                .weigher(new Weigher<Key, List<Attachment>>() {
+                    @Override
+                    public int weigh(Key key, List<Attachment> attachments) {
+                        return 1 + attachments.size();
+                    }
+                })
+                .expireAfterWrite(Configuration.root().getMilliseconds(
+                        "application.attachment.cache.expireAfterWrite",
+                        DEFAULT_EXPIRE_AFTER_WRITE), TimeUnit.MILLISECONDS)
+                .build();
+    }
 
     /**
-     * Find cached attachments with the key is generated by
-     * combining {@code containerType} and {@code containerId}.
+     * The key made by the type and the id of a container.
+     */
+    private static class Key {
+        private final ResourceType containerType;
+        private final String containerId;
+
+        Key(ResourceType containerType, String containerId) {
+            this.containerType = containerType;
+            this.containerId = containerId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return containerType == key.containerType && containerId.equals(key.containerId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * containerType.hashCode() + containerId.hashCode();
+        }
+    }
+
+    public static void onStop() {
+        Holder.cache.invalidateAll();
+    }
+
+    /**
+     * Find cached attachments of the container of {@code containerType} and
+     * {@code containerId}.
      *
      * @param containerType
      * @param containerId
      * @return found cached data or null if there is no cached data.
      */
     public static List<Attachment> get(ResourceType containerType, String containerId) {
-        String cacheKey = containerType.name() + containerId;
-        @SuppressWarnings("unchecked")
-        List<Attachment> cachedData = (List<Attachment>)Cache.get(cacheKey);
+        List<Attachment> cachedData = Holder.cache.getIfPresent(new Key(containerType, containerId));
         if (cachedData != null) {
-            return cachedData;
+            HITS.inc();
         } else {
-            return null;
+            MISSES.inc();
         }
+        return cachedData;
     }
 
     /**
-     * Cache attachments with the key
+     * Find cached attachments of the {@code container}
      *
-     * @param key The key should be generated by combining {@code containerType} and {@code containerId}.
-     * @param list
+     * @param container
+     * @return found cached data or null if there is no cached data.
      */
-    public static void set(String key, List<Attachment> list) {
-        Cache.set(key, list, ONE_DAY);
+    public static List<Attachment> get(Resource container) {
+        return get(container.getType(), container.getId());
     }
 
     /**
-     * Cache attachments with the key is generated by {@code container}
+     * Cache attachments of the container of {@code containerType} and
+     * {@code containerId}.
      *
-     * @param container
+     * @param containerType
+     * @param containerId
      * @param list
+     * @return the cached list, which is unmodifiable
      */
-    public static void set(Resource container, List<Attachment> list) {
-        Cache.set(cacheKey(container), list, ONE_DAY);
+    public static List<Attachment> set(ResourceType containerType, String containerId,
+                                       List<Attachment> list) {
+        List<Attachment> cachedData = list.isEmpty()
+                ? Collections.<Attachment>emptyList()
+                : Collections.unmodifiableList(list);
+        Holder.cache.put(new Key(containerType, containerId), cachedData);
+        return cachedData;
     }
 
     /**
-     * Find cached attachments with the key is generated by {@code container}
+     * Cache attachments of the {@code container}
      *
      * @param container
-     * @return
+     * @param list
+     * @return the cached list, which is unmodifiable
      */
-    public static List<Attachment> get(Resource container) {
-        String cacheKey = cacheKey(container);
-        @SuppressWarnings("unchecked")
-        List<Attachment> cachedData = (List<Attachment>)Cache.get(cacheKey);
-        if (cachedData != null) {
-            return cachedData;
-        } else {
-            return null;
-        }
-    }
-
-    private static String cacheKey(Resource container) {
-        return container.getType().name() + container.getId();
+    public static List<Attachment> set(Resource container, List<Attachment> list) {
+        return set(container.getType(), container.getId(), list);
     }
 
     /**
-     * Remove cached attachments with the key is generated by {@code container}
+     * Remove cached attachments of the {@code container}
      *
      * @param container
      */
     public static void remove(Resource container) {
-        Cache.remove(cacheKey(container));
+        remove(container.getType(), container.getId());
+    }
+
+    /**
+     * Remove cached attachments of the container of {@code containerType} and
+     * {@code containerId}.
+     *
+     * @param containerType
+     * @param containerId
+     */
+    public static void remove(ResourceType containerType, String containerId) {
+        if (containerType != null && containerId != null) {
+            Holder.cache.invalidate(new Key(containerType, containerId));
+        }
     }
 
     /**
@@ -101,6 +176,6 @@ public class AttachmentCache {
      * @param attachment
      */
     public static void remove(Attachment attachment) {
-        Cache.remove(attachment.containerType.name() + attachment.containerId);
+        remove(attachment.containerType, attachment.containerId);
     }
 }
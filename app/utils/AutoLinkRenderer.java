@@ -20,6 +20,10 @@
  */
 package utils;
 
+import com.avaje.ebean.Expr;
+import com.avaje.ebean.ExpressionList;
+import com.avaje.ebean.Junction;
+import com.google.common.collect.Iterables;
 import controllers.UserApp;
 import models.Issue;
 import models.Organization;
@@ -40,7 +44,8 @@ import playRepository.RepositoryService;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
-import java.util.List;
+import java.util.*;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -116,103 +121,189 @@ public class AutoLinkRenderer {
         public Link toLink(Matcher matcher);
     }
 
+    /**
+     * The maximum number of references looked up in a query.
+     */
+    private static final int BATCH_SIZE = 100;
+
     public String body;
     public Project project;
 
+    /**
+     * The document parsed from the body, or null if it has not been parsed.
+     */
+    private Document doc;
+
+    /*
+     * The entities referenced, keyed in lower case as they are found case
+     * insensitively. A null value means that it does not exist.
+     */
+    private final Map<String, Project> projects = new HashMap<>();
+    private final Map<String, Issue> issues = new HashMap<>();
+    private final Map<String, User> users = new HashMap<>();
+    private final Map<String, Organization> organizations = new HashMap<>();
+    private final Map<String, Commit> commits = new HashMap<>();
+
+    private final Pattern[] patterns = {
+            PATH_WITH_ISSUE_PATTERN,
+            ISSUE_PATTERN,
+            PATH_WITH_SHA_PATTERN,
+            SHA_PATTERN,
+            LOGIN_ID_PATTERN_ALLOW_FORWARD_SLASH_PATTERN
+    };
+
+    private final ToLink[] toLinks = {
+            new ToLink() {
+                @Override
+                public Link toLink(Matcher matcher) {
+                    String path = matcher.group(1);
+                    String issueNumber = matcher.group(2);
+
+                    Project project = getProjectFromPath(path);
+                    return toValidIssueLink(path, project, issueNumber);
+                }
+            },
+            new ToLink() {
+                @Override
+                public Link toLink(Matcher matcher) {
+                    return toValidIssueLink(project, matcher.group(1));
+                }
+            },
+            new ToLink() {
+                @Override
+                public Link toLink(Matcher matcher) {
+                    String path = matcher.group(1);
+                    String SHA = matcher.group(2);
+
+                    Project project = getProjectFromPath(path);
+                    return toValidSHALink(path, project, SHA);
+                }
+            },
+            new ToLink() {
+                @Override
+                public Link toLink(Matcher matcher) {
+                    return toValidSHALink(project, matcher.group(1));
+                }
+            },
+            new ToLink() {
+                @Override
+                public Link toLink(Matcher matcher) {
+                    String path = matcher.group(1);
+
+                    int slashIndex = path.indexOf("/");
+
+                    if (slashIndex > -1) {
+                        return toValidProjectLink(path.substring(0, slashIndex), path.substring(slashIndex + 1));
+                    } else {
+                        return toValidUserLink(path);
+                    }
+                }
+            }
+    };
+
     public AutoLinkRenderer(String body, Project project) {
         this.body = body;
         this.project = project;
     }
 
-    public String render() {
-        return this
-                .parse(PATH_WITH_ISSUE_PATTERN, new ToLink() {
-                    @Override
-                    public Link toLink(Matcher matcher) {
-                        String path = matcher.group(1);
-                        String issueNumber = matcher.group(2);
-
-                        Project project = getProjectFromPath(path);
-                        return toValidIssueLink(path, project, issueNumber);
-                    }
-                })
-                .parse(ISSUE_PATTERN, new ToLink() {
-                    @Override
-                    public Link toLink(Matcher matcher) {
-                        return toValidIssueLink(project, matcher.group(1));
-                    }
-                })
-                .parse(PATH_WITH_SHA_PATTERN, new ToLink() {
-                    @Override
-                    public Link toLink(Matcher matcher) {
-                        String path = matcher.group(1);
-                        String SHA = matcher.group(2);
-
-                        Project project = getProjectFromPath(path);
-                        return toValidSHALink(path, project, SHA);
-                    }
-                })
-                .parse(SHA_PATTERN, new ToLink() {
-                    @Override
-                    public Link toLink(Matcher matcher) {
-                        return toValidSHALink(project, matcher.group(1));
-                    }
-                })
-                .parse(LOGIN_ID_PATTERN_ALLOW_FORWARD_SLASH_PATTERN, new ToLink() {
-                    @Override
-                    public Link toLink(Matcher matcher) {
-                        String path = matcher.group(1);
-
-                        int slashIndex = path.indexOf("/");
-
-                        if (slashIndex > -1) {
-                            return toValidProjectLink(path.substring(0, slashIndex), path.substring(slashIndex + 1));
-                        } else {
-                            return toValidUserLink(path);
-                        }
-                    }
-                })
-
-                .body;
+    /**
+     * @param doc  the document which has been parsed already
+     * @param project
+     */
+    public AutoLinkRenderer(Document doc, Project project) {
+        this.doc = doc;
+        this.project = project;
     }
 
-    private AutoLinkRenderer parse(Pattern pattern, ToLink toLink) {
-        Document doc = Jsoup.parse(body);
+    public String render() {
+        Document doc = (this.doc != null) ? this.doc : Jsoup.parse(body);
 
         Document.OutputSettings settings = doc.outputSettings();
         settings.prettyPrint(false);
 
-        Elements elements = doc.getElementsMatchingOwnText(pattern);
-
-        for (Element el : elements) {
-            if (isIgnoreElement(el)) {
-                continue;
+        List<TextNode> textNodes = new ArrayList<>();
+        for (Element el : doc.getAllElements()) {
+            if (!isIgnoreElement(el)) {
+                textNodes.addAll(el.textNodes());
             }
+        }
 
-            List<TextNode> textNodeList = el.textNodes();
+        // Resolve every reference at once, before making any link.
+        List<String> texts = new ArrayList<>(textNodes.size());
+        for (TextNode node : textNodes) {
+            texts.add(node.getWholeText());
+        }
+        new References(texts).resolve();
 
-            for (TextNode node : textNodeList) {
-                String result = convertLink(node.text(), pattern, toLink);
-                node.text(StringUtils.EMPTY);
+        for (int i = 0; i < textNodes.size(); i++) {
+            String result = convertLinks(texts.get(i));
+            if (result != null) {
+                TextNode node = textNodes.get(i);
                 node.after(result);
+                node.remove();
             }
         }
 
         this.body = doc.body().html();
-        return this;
+        return this.body;
+    }
+
+    /**
+     * Converts every reference in the given text into a link.
+     *
+     * The patterns are applied in order, and a pattern is applied only to the
+     * parts of the text which have not been converted by the patterns before,
+     * so that, for example, "#123" in "nforge/yobi#123" is not converted again.
+     *
+     * @param text
+     * @return the HTML, or null if there is no reference
+     */
+    private String convertLinks(String text) {
+        List<Object> segments = new ArrayList<>();
+        segments.add(text);
+
+        boolean converted = false;
+        for (int i = 0; i < patterns.length; i++) {
+            List<Object> result = new ArrayList<>();
+            for (Object segment : segments) {
+                if (segment instanceof String) {
+                    converted |= convertLink((String) segment, patterns[i], toLinks[i], result);
+                } else {
+                    result.add(segment);
+                }
+            }
+            segments = result;
+        }
+
+        if (!converted) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                sb.append(StringEscapeUtils.escapeHtml4((String) segment));
+            } else {
+                sb.append(segment);
+            }
+        }
+        return sb.toString();
     }
 
     /**
      * Using patterns, certain reference into auto-link, using pattern
      *
+     * @param text
      * @param pattern
      * @param toLink
-     * @return
+     * @param segments  the texts and the links are added to
+     * @return whether any reference is converted
      */
-    private String convertLink(String text, Pattern pattern, ToLink toLink) {
+    private boolean convertLink(String text, Pattern pattern, ToLink toLink, List<Object> segments) {
         Matcher matcher = pattern.matcher(text);
 
-        StringBuffer sb = new StringBuffer();
+        boolean converted = false;
+        int last = 0;
 
         while (matcher.find()) {
             if (isWrappedNonCharacter(text, matcher)) {
@@ -221,12 +312,161 @@ public class AutoLinkRenderer {
             Link link = toLink.toLink(matcher);
 
             if (link.isValid()) {
-                matcher.appendReplacement(sb, link.toString());
+                if (matcher.start() > last) {
+                    segments.add(text.substring(last, matcher.start()));
+                }
+                segments.add(link);
+                last = matcher.end();
+                converted = true;
             }
         }
 
-        matcher.appendTail(sb);
-        return sb.toString();
+        if (last < text.length()) {
+            segments.add(text.substring(last));
+        }
+        return converted;
+    }
+
+    /**
+     * Collects the references in texts and loads the projects, issues, users
+     * and organizations referenced, with one query for each type.
+     *
+     * A reference which is not collected here, because it is found only after
+     * another reference around it turns out to be invalid, is looked up when
+     * it is converted.
+     */
+    private class References {
+        private final Set<String> projectPaths = new LinkedHashSet<>();
+        private final Set<String> issueReferences = new LinkedHashSet<>();
+        private final Set<String> loginIds = new LinkedHashSet<>();
+
+        References(List<String> texts) {
+            if (project != null) {
+                projects.put(toProjectPath(project.owner + "/" + project.name), project);
+            }
+
+            for (String text : texts) {
+                for (MatchResult match : matches(PATH_WITH_ISSUE_PATTERN, text)) {
+                    String path = toProjectPath(match.group(1));
+                    addProjectPath(path);
+                    issueReferences.add(path + "#" + match.group(2));
+                }
+                if (project != null) {
+                    for (MatchResult match : matches(ISSUE_PATTERN, text)) {
+                        issueReferences.add(
+                                toProjectPath(project.owner + "/" + project.name) + "#" + match.group(1));
+                    }
+                }
+                for (MatchResult match : matches(PATH_WITH_SHA_PATTERN, text)) {
+                    addProjectPath(toProjectPath(match.group(1)));
+                }
+                for (MatchResult match : matches(LOGIN_ID_PATTERN_ALLOW_FORWARD_SLASH_PATTERN, text)) {
+                    String path = match.group(1);
+                    if (path.contains("/")) {
+                        addProjectPath(path.toLowerCase());
+                    } else {
+                        loginIds.add(path.toLowerCase());
+                    }
+                }
+            }
+        }
+
+        private List<MatchResult> matches(Pattern pattern, String text) {
+            List<MatchResult> matches = new ArrayList<>();
+            Matcher matcher = pattern.matcher(text);
+            while (matcher.find()) {
+                if (!isWrappedNonCharacter(text, matcher)) {
+                    matches.add(matcher.toMatchResult());
+                }
+            }
+            return matches;
+        }
+
+        private void addProjectPath(String path) {
+            if (path.contains("/")) {
+                projectPaths.add(path);
+            }
+        }
+
+        private String toProjectPath(String path) {
+            if (path.contains("/") || project == null) {
+                return path.toLowerCase();
+            }
+            return (path + "/" + project.name).toLowerCase();
+        }
+
+        void resolve() {
+            resolveProjects();
+            resolveIssues();
+            resolveUsersAndOrganizations();
+        }
+
+        private void resolveProjects() {
+            for (List<String> paths : Iterables.partition(projectPaths, BATCH_SIZE)) {
+                ExpressionList<Project> el = Project.find.where();
+                Junction<Project> junction = el.disjunction();
+                for (String path : paths) {
+                    int slashIndex = path.indexOf("/");
+                    junction.add(Expr.and(
+                            Expr.ieq("owner", path.substring(0, slashIndex)),
+                            Expr.ieq("name", path.substring(slashIndex + 1))));
+                    projects.put(path, null);
+                }
+                junction.endJunction();
+
+                for (Project found : el.findList()) {
+                    projects.put((found.owner + "/" + found.name).toLowerCase(), found);
+                }
+            }
+        }
+
+        private void resolveIssues() {
+            Map<Project, Set<Long>> numbersByProject = new HashMap<>();
+            for (String reference : issueReferences) {
+                int sharpIndex = reference.lastIndexOf("#");
+                Project project = projects.get(reference.substring(0, sharpIndex));
+                if (project != null) {
+                    Set<Long> numbers = numbersByProject.get(project);
+                    if (numbers == null) {
+                        numbers = new HashSet<>();
+                        numbersByProject.put(project, numbers);
+                    }
+                    numbers.add(Long.parseLong(reference.substring(sharpIndex + 1)));
+                }
+            }
+
+            for (Map.Entry<Project, Set<Long>> entry : numbersByProject.entrySet()) {
+                Long projectId = entry.getKey().id;
+                Map<Long, Issue> found = Issue.findByNumbers(entry.getKey(), entry.getValue());
+                for (Long number : entry.getValue()) {
+                    issues.put(projectId + "#" + number, found.get(number));
+                }
+            }
+        }
+
+        private void resolveUsersAndOrganizations() {
+            for (List<String> ids : Iterables.partition(loginIds, BATCH_SIZE)) {
+                ExpressionList<User> userEl = User.find.where();
+                Junction<User> userJunction = userEl.disjunction();
+                ExpressionList<Organization> orgEl = Organization.find.where();
+                Junction<Organization> orgJunction = orgEl.disjunction();
+                for (String id : ids) {
+                    userJunction.ieq("loginId", id);
+                    orgJunction.ieq("name", id);
+                    users.put(id, null);
+                    organizations.put(id, null);
+                }
+                userJunction.endJunction();
+                orgJunction.endJunction();
+
+                for (User user : userEl.findList()) {
+                    users.put(user.loginId.toLowerCase(), user);
+                }
+                for (Organization org : orgEl.findList()) {
+                    organizations.put(org.name.toLowerCase(), org);
+                }
+            }
+        }
     }
 
     /**
@@ -243,11 +483,43 @@ public class AutoLinkRenderer {
          * See https://help.github.com/articles/writing-on-github/#references
          */
         if (slashIndex > -1) {
-            return Project.findByOwnerAndProjectName(path.substring(0, slashIndex), path.substring(slashIndex + 1));
+            return getProject(path.substring(0, slashIndex), path.substring(slashIndex + 1));
         } else {
+            return getProject(path, project.name);
+        }
+    }
+
+    private Project getProject(String owner, String projectName) {
+        String key = (owner + "/" + projectName).toLowerCase();
+        if (!projects.containsKey(key)) {
+            projects.put(key, Project.findByOwnerAndProjectName(owner, projectName));
+        }
+        return projects.get(key);
+    }
+
+    private Issue getIssue(Project project, Long number) {
+        String key = project.id + "#" + number;
+        if (!issues.containsKey(key)) {
+            issues.put(key, Issue.findByNumber(project, number));
+        }
+        return issues.get(key);
+    }
 
-            return Project.findByOwnerAndProjectName(path, project.name);
+    private User getUser(String loginId) {
+        String key = loginId.toLowerCase();
+        if (!users.containsKey(key)) {
+            User user = User.findByLoginId(loginId);
+            users.put(key, user.isAnonymous() ? null : user);
         }
+        return users.get(key);
+    }
+
+    private Organization getOrganization(String name) {
+        String key = name.toLowerCase();
+        if (!organizations.containsKey(key)) {
+            organizations.put(key, Organization.findByName(name));
+        }
+        return organizations.get(key);
     }
 
     private Link toValidIssueLink(Project project, String issueNumber) {
@@ -256,17 +528,20 @@ public class AutoLinkRenderer {
 
     private Link toValidIssueLink(String prefix, Project project, String issueNumber) {
         if (project != null) {
-            Issue issue = Issue.findByNumber(project, Long.parseLong(issueNumber));
+            Issue issue = getIssue(project, Long.parseLong(issueNumber));
 
             if (issue != null) {
+                String url = controllers.routes.IssueApp.issue(
+                        project.owner, project.name, issue.getNumber()).url();
+
                 /**
                  * CSS class name of a link to specific issue is 'issueLink'.
                  * CSS class name can enable to show the quick view of issue.
                  */
                 if (StringUtils.isEmpty(prefix)) {
-                    return new Link(RouteUtil.getUrl(issue), "issueLink", "#" + issueNumber);
+                    return new Link(url, "issueLink", "#" + issueNumber);
                 } else {
-                    return new Link(RouteUtil.getUrl(issue), "issueLink", prefix + "#" + issueNumber);
+                    return new Link(url, "issueLink", prefix + "#" + issueNumber);
                 }
             }
         }
@@ -285,17 +560,18 @@ public class AutoLinkRenderer {
                     return Link.EMPTY_LINK;
                 }
 
-                PlayRepository repository = RepositoryService.getRepository(project);
-
-                if (repository != null) {
-                    Commit commit = repository.getCommit(sha);
+                String key = project.id + "@" + sha;
+                if (!commits.containsKey(key)) {
+                    PlayRepository repository = RepositoryService.getRepository(project);
+                    commits.put(key, repository != null ? repository.getCommit(sha) : null);
+                }
+                Commit commit = commits.get(key);
 
-                    if (commit != null) {
-                        if (StringUtils.isEmpty(prefix)) {
-                            return new Link(RouteUtil.getUrl(commit, project), commit.getShortId());
-                        } else {
-                            return new Link(RouteUtil.getUrl(commit, project), prefix + "@" + commit.getShortId());
-                        }
+                if (commit != null) {
+                    if (StringUtils.isEmpty(prefix)) {
+                        return new Link(RouteUtil.getUrl(commit, project), commit.getShortId());
+                    } else {
+                        return new Link(RouteUtil.getUrl(commit, project), prefix + "@" + commit.getShortId());
                     }
                 }
             } catch (SVNException svnException) {
@@ -310,15 +586,17 @@ public class AutoLinkRenderer {
         return Link.EMPTY_LINK;
     }
 
-    private static Link toValidUserLink(String userId) {
-        User user = User.findByLoginId(userId);
-        Organization org = Organization.findByName(userId);
+    private Link toValidUserLink(String userId) {
+        Organization org = getOrganization(userId);
 
         if(org != null) {
-            return new Link(RouteUtil.getUrl(org), "@" + org.name);
+            return new Link(controllers.routes.OrganizationApp.organization(org.name).url(),
+                    "@" + org.name);
         }
 
-        if (user.isAnonymous() ) {
+        User user = getUser(userId);
+
+        if (user == null) {
             return Link.EMPTY_LINK;
         } else {
             String avatarImage;
@@ -327,15 +605,22 @@ public class AutoLinkRenderer {
             } else {
                 avatarImage = "<img src='" + user.avatarUrl() + "' class='avatar-wrap smaller no-margin-no-padding vertical-top' alt='@" + user.loginId + "'> ";
             }
-            return new Link(RouteUtil.getUrl(user), "no-text-decoration", "<span data-toggle='popover' data-placement='top' data-trigger='hover' data-html='true' data-content=\"" + StringEscapeUtils.escapeHtml4(avatarImage + user.name) + "\">@" + user.loginId + "</span>");
+            String url = controllers.routes.UserApp.userInfo(
+                    user.loginId,
+                    controllers.routes.UserApp.userInfo$default$2(),
+                    controllers.routes.UserApp.userInfo$default$3(),
+                    controllers.routes.UserApp.userInfo$default$4()
+            ).url();
+            return new Link(url, "no-text-decoration", "<span data-toggle='popover' data-placement='top' data-trigger='hover' data-html='true' data-content=\"" + StringEscapeUtils.escapeHtml4(avatarImage + user.name) + "\">@" + user.loginId + "</span>");
         }
     }
 
-    private static Link toValidProjectLink(String ownerName, String projectName) {
-        Project project = Project.findByOwnerAndProjectName(ownerName, projectName);
+    private Link toValidProjectLink(String ownerName, String projectName) {
+        Project project = getProject(ownerName, projectName);
 
         if (project != null) {
-            return new Link(RouteUtil.getUrl(project), "@" + project.toString());
+            return new Link(controllers.routes.ProjectApp.project(project.owner, project.name).url(),
+                    "@" + project.toString());
         } else {
             return Link.EMPTY_LINK;
         }
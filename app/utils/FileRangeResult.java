@@ -0,0 +1,205 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import play.Configuration;
+import play.api.libs.iteratee.Enumerator;
+import play.api.libs.iteratee.Enumerator$;
+import play.api.mvc.HttpConnection$;
+import play.api.mvc.ResponseHeader;
+import play.api.mvc.ResponseHeader$;
+import play.mvc.Result;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.ExecutionContext$;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A result which sends a part of a file with its Content-Length.
+ *
+ * The file is read through a {@link FileChannel} positioned at the start of
+ * the part, chunk by chunk, on a small pool of threads for file I/O. Neither
+ * the whole file is loaded into the heap nor a thread for requests is
+ * blocked while the file is sent.
+ *
+ * Configuration:
+ *   application.attachment.io.threads: the number of threads reading files
+ *       (default: 4)
+ */
+public class FileRangeResult implements Result {
+    private static final int DEFAULT_THREADS = 4;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final Pattern BYTE_RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    /**
+     * Returned by {@link #parseRange(String, long)} if the range is not
+     * satisfiable.
+     */
+    public static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * Holds the pool, which is created when it is used first, because the
+     * configuration is not available until the application starts.
+     */
+    private static class Holder {
+        static final ExecutionContext context = ExecutionContext$.MODULE$.fromExecutorService(
+                createExecutor(), ExecutionContext$.MODULE$.defaultReporter());
+    }
+
+    private final int status;
+    private final File file;
+    private final long start;
+    private final long length;
+    private play.api.mvc.Result result;
+
+    /**
+     * @param status  the status code
+     * @param file
+     * @param start   the offset of the first byte to be sent
+     * @param length  the number of bytes to be sent
+     */
+    public FileRangeResult(int status, File file, long start, long length) {
+        this.status = status;
+        this.file = file;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Sends the whole file.
+     */
+    public FileRangeResult(int status, File file) {
+        this(status, file, 0, file.length());
+    }
+
+    /**
+     * Opens the file when the result is converted first, because this method
+     * may be called more than once.
+     */
+    @Override
+    public synchronized play.api.mvc.Result toScala() {
+        if (result == null) {
+            Enumerator<byte[]> body;
+            try {
+                body = Enumerator$.MODULE$.fromStream(open(), CHUNK_SIZE, Holder.context);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            List<Tuple2<String, String>> headers = Collections.singletonList(
+                    new Tuple2<>("Content-Length", String.valueOf(length)));
+            result = new play.api.mvc.Result(
+                    new ResponseHeader(status, ResponseHeader$.MODULE$.apply$default$2()),
+                    body, HttpConnection$.MODULE$.KeepAlive())
+                    .withHeaders(JavaConversions.asScalaBuffer(headers));
+        }
+        return result;
+    }
+
+    private InputStream open() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(start);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    /**
+     * Parses the value of a Range header for a file of the given length.
+     *
+     * Only a single byte range is supported; the whole file should be sent
+     * for the others, as RFC 7233 allows.
+     *
+     * @param range   the value of the Range header
+     * @param length  the length of the file
+     * @return the first and the last byte positions; null if the whole file
+     *         should be sent; {@link #UNSATISFIABLE} if no byte of the file
+     *         is in the range.
+     */
+    public static long[] parseRange(String range, long length) {
+        if (range == null) {
+            return null;
+        }
+
+        Matcher matcher = BYTE_RANGE.matcher(range.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        String first = matcher.group(1);
+        String last = matcher.group(2);
+        try {
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix == 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(length - suffix, 0), length - 1};
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (!last.isEmpty() && Long.parseLong(last) < start) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            // Too large
+            return null;
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        int threads = Configuration.root().getInt("application.attachment.io.threads", DEFAULT_THREADS);
+        return Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "file-io-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -20,12 +20,18 @@
  */
 package utils;
 
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
 import models.Project;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import play.Configuration;
 
 import javax.annotation.Nonnull;
 import javax.script.Invocable;
@@ -36,13 +42,272 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Renders Markdown with Marked, highlight.js and xss.js.
+ *
+ * A script engine is not thread-safe and takes a while to load the scripts,
+ * so every worker of a bounded pool owns a pre-warmed engine, and a rendering
+ * is run on a worker. If a rendering does not finish in
+ * {@code application.markdown.timeout} (default: 5 seconds), or every worker
+ * is busy and the queue is full, the escaped source is returned instead.
+ * A script cannot be stopped safely, so a worker whose rendering timed out
+ * is retired: another worker with a new engine takes its place at once, and
+ * the retired one exits, with its engine, when the script finishes. At most
+ * {@code application.markdown.maxRetiredWorkers} (default: the number of
+ * processors) retired workers are replaced; beyond that, the pool runs short
+ * of workers until some of them finish.
+ *
+ * The results are cached by the hash of the source and the options, so an
+ * issue or a comment which has not been changed is not rendered again. Links
+ * to issues, users and commits are resolved by {@link AutoLinkRenderer} after
+ * the cache, because they depend on the state of the database. The links are
+ * checked on the same parsed document, so a rendering parses the HTML only
+ * once.
+ *
+ * Configuration:
+ *   application.markdown.threads: the number of workers, which is the number
+ *       of script engines (default: the number of processors)
+ *   application.markdown.queueSize: the number of renderings which can wait
+ *       for a worker (default: 1000)
+ *   application.markdown.timeout: see above
+ *   application.markdown.maxRetiredWorkers: see above
+ *   application.markdown.cache.maxSize: the maximum total size of the cached
+ *       results (default: 16MB)
+ */
 public class Markdown {
 
     private static final String XSS_JS_FILE = "public/javascripts/lib/xss.js";
     private static final String MARKED_JS_FILE = "public/javascripts/lib/marked.js";
     private static final String HIGHLIGHT_JS_FILE = "public/javascripts/lib/highlight/highlight.pack.js";
-    private static ScriptEngine engine = buildEngine();
+
+    private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+    private static final long DEFAULT_CACHE_MAX_SIZE = 16 * 1024 * 1024;
+
+    private static final Metrics.Counter HITS = Metrics.counter("markdown.cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("markdown.cache.misses");
+    private static final Metrics.Counter TIMEOUTS = Metrics.counter("markdown.timeouts");
+    private static final Metrics.Counter REJECTED = Metrics.counter("markdown.rejected");
+    private static final Metrics.Counter RETIRED = Metrics.counter("markdown.retired");
+
+    /**
+     * The engine owned by the current worker.
+     */
+    private static final ThreadLocal<Engine> engine = new ThreadLocal<Engine>() {
+        @Override
+        protected Engine initialValue() {
+            return new Engine();
+        }
+    };
+
+    private static volatile ThreadPoolExecutor executor;
+    private static volatile long timeout = DEFAULT_TIMEOUT;
+    private static volatile int maxRetiredWorkers = DEFAULT_THREADS;
+    private static volatile Cache<String, String> cache;
+
+    /**
+     * The workers which have been replaced because their renderings timed
+     * out, and which exit when the renderings finish.
+     */
+    private static final Set<Thread> retired =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    private enum Mode {
+        PLAIN, HIGHLIGHT, HIGHLIGHT_WITH_BREAKS
+    }
+
+    /**
+     * A script engine with the scripts loaded and the objects used for every
+     * rendering.
+     */
+    private static class Engine {
+        final ScriptEngine scriptEngine;
+        final Object filter;
+        final Object plainOptions;
+        final Object highlightOptions;
+        final Object highlightWithBreaksOptions;
+
+        Engine() {
+            scriptEngine = buildEngine();
+            try {
+                filter = scriptEngine.eval("new Filter();");
+                plainOptions = scriptEngine.eval("new Object({gfm: true, tables: true, breaks: true, " +
+                        "pedantic: false, sanitize: false, smartLists: true});");
+                highlightOptions = highlightOptions(false);
+                highlightWithBreaksOptions = highlightOptions(true);
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private Object highlightOptions(boolean breaks) throws Exception {
+            return scriptEngine.eval("new Object({gfm: true, tables: true, breaks: " + breaks + ", " +
+                    "pedantic: false, sanitize: false, smartLists: true," +
+                    "highlight : function(sCode, sLang) { " +
+                    "if(sLang) { try { return hljs.highlight(sLang.toLowerCase(), sCode).value;" +
+                    " } catch(oException) { return sCode; } } }});");
+        }
+
+        Object optionsOf(Mode mode) {
+            switch (mode) {
+                case HIGHLIGHT:
+                    return highlightOptions;
+                case HIGHLIGHT_WITH_BREAKS:
+                    return highlightWithBreaksOptions;
+                default:
+                    return plainOptions;
+            }
+        }
+    }
+
+    public static void onStart() {
+        Configuration config = Configuration.root();
+        int threads = config.getInt("application.markdown.threads", DEFAULT_THREADS);
+        int queueSize = config.getInt("application.markdown.queueSize", DEFAULT_QUEUE_SIZE);
+
+        timeout = config.getMilliseconds("application.markdown.timeout", DEFAULT_TIMEOUT);
+        maxRetiredWorkers = config.getInt("application.markdown.maxRetiredWorkers",
+                DEFAULT_THREADS);
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(config.getBytes(
+                        "application.markdown.cache.maxSize", DEFAULT_CACHE_MAX_SIZE))
+                .weigher(new Weigher<String, String>() {
+                    @Override
+                    public int weigh(String key, String html) {
+                        return (key.length() + html.length()) * 2;
+                    }
+                })
+                .build();
+
+        ThreadPoolExecutor executor = createExecutor(Math.max(threads, 1), Math.max(queueSize, 1));
+        executor.prestartAllCoreThreads();
+        replaceExecutor(executor);
+
+        Metrics.gauge("markdown.queue", new Metrics.Gauge() {
+            @Override
+            public long getLong() {
+                ThreadPoolExecutor executor = Markdown.executor;
+                return executor != null ? executor.getQueue().size() : 0;
+            }
+        });
+    }
+
+    public static void onStop() {
+        replaceExecutor(null);
+        cache = null;
+        timeout = DEFAULT_TIMEOUT;
+        maxRetiredWorkers = DEFAULT_THREADS;
+    }
+
+    private static synchronized void replaceExecutor(ThreadPoolExecutor newExecutor) {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        executor = newExecutor;
+    }
+
+    /**
+     * Returns the executor, which is created with the default settings if
+     * the application has not been started, e.g. in unit tests.
+     */
+    private static ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor executor = Markdown.executor;
+        if (executor == null) {
+            synchronized (Markdown.class) {
+                if (Markdown.executor == null) {
+                    Markdown.executor = createExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+                }
+                executor = Markdown.executor;
+            }
+        }
+        return executor;
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                // Load the scripts before taking any rendering.
+                                engine.get();
+                                try {
+                                    runnable.run();
+                                } catch (WorkerRetiredException e) {
+                                    // The engine is dropped with this thread.
+                                }
+                            }
+                        }, "markdown-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }) {
+            @Override
+            protected void afterExecute(Runnable runnable, Throwable throwable) {
+                if (retired.remove(Thread.currentThread())) {
+                    resize(this, -1);
+                    // Make the pool drop this worker.
+                    throw new WorkerRetiredException();
+                }
+            }
+        };
+    }
+
+    /**
+     * Thrown by a retired worker to exit after its rendering has finished.
+     */
+    private static class WorkerRetiredException extends RuntimeException {
+    }
+
+    private static synchronized void resize(ThreadPoolExecutor executor, int delta) {
+        if (delta > 0) {
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() + delta);
+            executor.setCorePoolSize(executor.getCorePoolSize() + delta);
+        } else {
+            executor.setCorePoolSize(executor.getCorePoolSize() + delta);
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() + delta);
+        }
+    }
+
+    /**
+     * Retires the worker which is running the given rendering, if any, and
+     * starts another worker in its place.
+     *
+     * @param rendering  a rendering which has timed out
+     */
+    private static void retire(Rendering rendering) {
+        Thread worker = rendering.getWorker();
+
+        if (worker == null) {
+            return;
+        }
+
+        ThreadPoolExecutor executor = rendering.executor;
+        synchronized (Markdown.class) {
+            if (retired.size() >= maxRetiredWorkers) {
+                play.Logger.warn("[Markdown] " + retired.size() + " workers have been retired "
+                        + "and are still running. " + worker.getName() + " is not replaced.");
+                return;
+            }
+            if (executor.isShutdown() || !retired.add(worker)) {
+                return;
+            }
+            resize(executor, 1);
+        }
+        executor.prestartCoreThread();
+        RETIRED.inc();
+    }
 
     private static ScriptEngine buildEngine() {
         ScriptEngineManager manager = new ScriptEngineManager(null);
@@ -76,8 +341,15 @@ public class Markdown {
         return _engine;
     }
 
-    private static String removeJavascriptInHref(String source) {
-        Document doc = Jsoup.parse(source);
+    /**
+     * Replaces javascript: links with "#", and marks links to other hosts
+     * with rel="noreferrer" if {@code application.noreferrer} is true.
+     *
+     * @param doc  the document to be changed
+     */
+    private static void checkLinks(Document doc) {
+        Boolean noReferrer = play.Configuration.root().getBoolean("application.noreferrer", false);
+        String hostname = noReferrer ? Config.getHostname() : null;
 
         Elements elements = doc.getElementsByAttribute("href");
 
@@ -86,27 +358,12 @@ public class Markdown {
 
             if (href.startsWith("javascript:")) {
                 el.attr("href", "#");
+                continue;
             }
-        }
-
-        return doc.body().html();
-    }
-
-    private static String checkReferrer(String source) {
-        Boolean noReferrer = play.Configuration.root().getBoolean("application.noreferrer", false);
-
-        if (noReferrer) {
-            String hostname = Config.getHostname();
-
-            Document doc = Jsoup.parse(source);
-
-            Elements elements = doc.getElementsByAttribute("href");
-
-            for (Element el : elements) {
-                String href = el.attr("href");
 
+            if (noReferrer) {
                 try {
-                    URI uri = new URI(href);
+                    URI uri = new URI(el.attr("href"));
 
                     if (uri.getHost() != null && !uri.getHost().startsWith(hostname)) {
                         el.attr("rel", el.attr("rel") + " noreferrer");
@@ -115,87 +372,143 @@ public class Markdown {
                     // Just skip the wrong link.
                 }
             }
-
-            return doc.body().html();
         }
-        return source;
     }
 
-    private static String sanitize(String source) {
-        try {
-            Object filter = engine.eval("new Filter();");
-            return (String) ((Invocable) engine).invokeMethod(filter, "defence", source);
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
+    private static String sanitize(Engine engine, String source) throws Exception {
+        return (String) ((Invocable) engine.scriptEngine).invokeMethod(
+                engine.filter, "defence", source);
     }
 
-    private static String renderWithHighlight(String source, boolean breaks) {
-        try {
-            Object options = engine.eval("new Object({gfm: true, tables: true, breaks: " + breaks + ", " +
-                    "pedantic: false, sanitize: false, smartLists: true," +
-                    "highlight : function(sCode, sLang) { " +
-                    "if(sLang) { try { return hljs.highlight(sLang.toLowerCase(), sCode).value;" +
-                    " } catch(oException) { return sCode; } } }});");
-            String rendered = renderByMarked(source, options);
-            rendered = removeJavascriptInHref(rendered);
-            rendered = checkReferrer(rendered);
-            return sanitize(rendered);
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+    /**
+     * Renders the source on the engine of the current worker.
+     */
+    private static String renderOnWorker(String source, Mode mode) throws Exception {
+        Engine engine = Markdown.engine.get();
+        String rendered = (String) ((Invocable) engine.scriptEngine).invokeFunction(
+                "marked", source, engine.optionsOf(mode));
+
+        return sanitize(engine, rendered);
+    }
+
+    /**
+     * A rendering which knows the worker running it.
+     */
+    private static class Rendering implements Callable<String> {
+        final ThreadPoolExecutor executor;
+        final String source;
+        final Mode mode;
+        private Thread worker;
+
+        Rendering(ThreadPoolExecutor executor, String source, Mode mode) {
+            this.executor = executor;
+            this.source = source;
+            this.mode = mode;
+        }
+
+        @Override
+        public String call() throws Exception {
+            synchronized (this) {
+                worker = Thread.currentThread();
+            }
+            try {
+                return renderOnWorker(source, mode);
+            } finally {
+                synchronized (this) {
+                    worker = null;
+                }
+            }
+        }
+
+        /**
+         * @return the worker running this rendering, or null if it has not
+         *         started or has finished
+         */
+        synchronized Thread getWorker() {
+            return worker;
         }
     }
 
     /**
-     * Renders the source with Marked.
+     * Renders the source on a worker and waits at most {@link #timeout}.
      *
      * @param source
-     * @param options
-     * @return the rendered result or the source if timeout occurs
+     * @param mode
+     * @return the rendered result, or the escaped source if it takes too long
+     *         or every worker is busy
      */
-    private static String renderByMarked(@Nonnull final String source, final Object options) throws InterruptedException {
+    private static String renderByMarked(@Nonnull final String source, final Mode mode) {
         if (source.isEmpty()) {
             return source;
         }
 
-        // Try to render and wait at most 5 seconds.
-        final String[] rendered = new String[1];
-        @SuppressWarnings("deprecation")
-        Thread marked = new Thread() {
-            @Override
-            public void run() {
-                try {
-                    rendered[0] = (String) ((Invocable) engine).invokeFunction(
-                            "marked", source, options);
-                } catch (Exception e) {
-                    play.Logger.error("[Markdown] Failed to render: " + source, e);
-                }
+        Cache<String, String> cache = Markdown.cache;
+        String key = null;
+        if (cache != null) {
+            key = keyOf(source, mode);
+            String cached = cache.getIfPresent(key);
+            if (cached != null) {
+                HITS.inc();
+                return cached;
             }
-        };
-        marked.start();
-        marked.join(5000);
+            MISSES.inc();
+        }
 
-        if (rendered[0] == null) {
-            // This is the only way to stop the script engine. Thread.interrupt does not work.
-            marked.stop();
-            return "<pre>" + StringEscapeUtils.escapeHtml(source) + "</pre>";
-        } else {
-            return rendered[0];
+        ThreadPoolExecutor executor = getExecutor();
+        Rendering rendering = new Rendering(executor, source, mode);
+        Future<String> future;
+        try {
+            future = executor.submit(rendering);
+        } catch (RejectedExecutionException e) {
+            REJECTED.inc();
+            play.Logger.warn("[Markdown] Every worker is busy. Failed to render: " + source);
+            return escape(source);
         }
-    }
 
-    public static String render(@Nonnull String source) {
+        String rendered;
         try {
-            Object options = engine.eval("new Object({gfm: true, tables: true, breaks: true, " +
-                    "pedantic: false, sanitize: false, smartLists: true});");
-            return sanitize(renderByMarked(source, options));
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+            rendered = future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The script does not respond to the interruption, but the
+            // rendering is dropped if it has not started yet.
+            future.cancel(true);
+            retire(rendering);
+            TIMEOUTS.inc();
+            play.Logger.warn("[Markdown] Timed out. Failed to render: " + source);
+            return escape(source);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return escape(source);
+        } catch (ExecutionException e) {
+            play.Logger.error("[Markdown] Failed to render: " + source, e.getCause());
+            return escape(source);
+        }
+
+        if (cache != null) {
+            cache.put(key, rendered);
         }
+
+        return rendered;
+    }
+
+    private static String keyOf(String source, Mode mode) {
+        return mode.name() + ":" + Hashing.sha1().hashString(source, Charsets.UTF_8);
+    }
+
+    private static String escape(String source) {
+        return "<pre>" + StringEscapeUtils.escapeHtml(source) + "</pre>";
+    }
+
+    public static String render(@Nonnull String source) {
+        return renderByMarked(source, Mode.PLAIN);
     }
 
     public static String render(@Nonnull String source, Project project, boolean breaks) {
-        AutoLinkRenderer autoLinkRenderer = new AutoLinkRenderer(renderWithHighlight(source, breaks), project);
+        String rendered = renderByMarked(source, breaks ? Mode.HIGHLIGHT_WITH_BREAKS : Mode.HIGHLIGHT);
+        Document doc = Jsoup.parse(rendered);
+        checkLinks(doc);
+        AutoLinkRenderer autoLinkRenderer = new AutoLinkRenderer(doc, project);
         return autoLinkRenderer.render();
     }
 
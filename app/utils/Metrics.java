@@ -0,0 +1,195 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of simple runtime metrics.
+ *
+ * Registered metrics are shown in Site Management > Metrics page as json.
+ *
+ * @see controllers.SiteApp#metrics()
+ */
+public class Metrics {
+    private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter of the given name, registering it if necessary.
+     *
+     * @param name
+     * @return the counter
+     */
+    public static Counter counter(@Nonnull String name) {
+        return (Counter) register(name, new Counter());
+    }
+
+    /**
+     * Returns the meter of the given name, registering it if necessary.
+     *
+     * @param name
+     * @return the meter
+     */
+    public static Meter meter(@Nonnull String name) {
+        return (Meter) register(name, new Meter());
+    }
+
+    /**
+     * Registers the gauge under the given name. A gauge registered before
+     * with the same name is replaced.
+     *
+     * @param name
+     * @param gauge
+     */
+    public static void gauge(@Nonnull String name, @Nonnull Gauge gauge) {
+        metrics.put(name, gauge);
+    }
+
+    private static Metric register(String name, Metric metric) {
+        Metric previous = metrics.putIfAbsent(name, metric);
+        return previous != null ? previous : metric;
+    }
+
+    /**
+     * @return the current values of all registered metrics, sorted by name
+     */
+    @Nonnull
+    public static SortedMap<String, Object> snapshot() {
+        SortedMap<String, Object> values = new TreeMap<>();
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return values;
+    }
+
+    public interface Metric {
+        Object getValue();
+    }
+
+    /**
+     * A metric whose value is read when a snapshot is taken, such as the
+     * length of a queue.
+     */
+    abstract public static class Gauge implements Metric {
+        @Override
+        public Object getValue() {
+            return getLong();
+        }
+
+        abstract public long getLong();
+    }
+
+    /**
+     * A value which is incremented or decremented.
+     */
+    public static class Counter implements Metric {
+        private final AtomicLong count = new AtomicLong();
+
+        public void inc() {
+            count.incrementAndGet();
+        }
+
+        public void inc(long n) {
+            count.addAndGet(n);
+        }
+
+        public void dec() {
+            count.decrementAndGet();
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public Object getValue() {
+            return getCount();
+        }
+    }
+
+    /**
+     * Measures the total number of events and the mean rate per second over
+     * the last minute.
+     *
+     * The rate is approximate; an event may be lost in a bucket which is
+     * being reset concurrently, which is fine for monitoring.
+     */
+    public static class Meter implements Metric {
+        private static final int WINDOW_SECONDS = 60;
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(WINDOW_SECONDS);
+        private final AtomicLongArray bucketSeconds = new AtomicLongArray(WINDOW_SECONDS);
+
+        public void mark() {
+            mark(1);
+        }
+
+        public void mark(long n) {
+            count.addAndGet(n);
+
+            long now = currentSecond();
+            int index = (int) (now % WINDOW_SECONDS);
+            long second = bucketSeconds.get(index);
+            if (second != now && bucketSeconds.compareAndSet(index, second, now)) {
+                buckets.set(index, 0);
+            }
+            buckets.addAndGet(index, n);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return the mean number of events per second over the last minute
+         */
+        public double getRate() {
+            long now = currentSecond();
+            long sum = 0;
+
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (now - bucketSeconds.get(i) < WINDOW_SECONDS) {
+                    sum += buckets.get(i);
+                }
+            }
+
+            return (double) sum / WINDOW_SECONDS;
+        }
+
+        @Override
+        public Object getValue() {
+            Map<String, Object> value = new TreeMap<>();
+            value.put("count", getCount());
+            value.put("rate", getRate());
+            return value;
+        }
+
+        private static long currentSecond() {
+            return System.currentTimeMillis() / 1000;
+        }
+    }
+}
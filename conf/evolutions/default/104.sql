@@ -0,0 +1,9 @@
+# --- !Ups
+
+create index ix_notification_event_n4user_n4user_1 on notification_event_n4user (n4user_id, notification_event_id);
+create index ix_notification_event_created_2 on notification_event (created, id);
+
+# --- !Downs
+
+drop index if exists ix_notification_event_n4user_n4user_1;
+drop index if exists ix_notification_event_created_2;
@@ -0,0 +1,7 @@
+# --- !Ups
+
+create index ix_attachment_hash_1 on attachment (hash);
+
+# --- !Downs
+
+drop index if exists ix_attachment_hash_1;
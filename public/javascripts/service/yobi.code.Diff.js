@@ -39,9 +39,10 @@
             _initToggleCommentsButton();
             _initCodeComment();
             _initMiniMap();
-            _scrollToHash();
+            _initDiffPartials(htElement.welDiffWrap);
             _setReviewListHeight();
             _setAllBtnThreadHerePosition();
+            _loadFileDiffs();
         }
 
         /**
@@ -72,7 +73,6 @@
             // 변경내역
             htElement.welDiffWrap = htElement.welContainer.find("div.diffs-wrap");
             htElement.welDiffBody = htElement.welDiffWrap.find(".diff-body");
-            htElement.waDiffContainers = htElement.welDiffWrap.find(".diff-container");
 
             // 리뷰영역
             htElement.welCommentWrap = htElement.welContainer.find("div.board-comment-wrap");
@@ -123,15 +123,6 @@
             // 리뷰카드 링크 클릭시
             htElement.welReviewWrap.on("click", "a.review-card", _onClickReviewCardLink);
 
-            // Diff 영역에서 스크롤시
-            // .comment-thread-wrap 의 좌우 위치를 맞춰준다
-            $(".diff-partial-code").on("scroll", function(){
-                var welPartial = $(this);
-                var sHashCode = $(this).data("hashcode");
-                htVar.htThreadWrap[sHashCode] = htVar.htThreadWrap[sHashCode] || welPartial.find(".comment-thread-wrap");
-                htVar.htThreadWrap[sHashCode].css("margin-left", welPartial.scrollLeft() + "px");
-            });
-
             $(window).on("hashchange", _onHashChange);
 
             if(htElement.welBtnAccept.length > 0 && htElement.welBtnAccept.data("requestAs")){
@@ -332,7 +323,7 @@
          */
         function _initToggleCommentsButton(){
             $('#toggle-comments').on('click', function(){
-                htElement.waDiffContainers.toggleClass('show-comments');
+                htElement.welDiffWrap.find(".diff-container").toggleClass('show-comments');
                 htElement.welMiniMap.toggle();
             });
         }
@@ -348,19 +339,69 @@
                 $('div.diff-body[data-outdated!="true"]').on("click", "tr[data-line] .linenum", _onClickLineNumA);
 
                 htElement.welDiffWrap.on("click", "button.btn-thread", _onClickBtnReplyOnThread);
-            } else {
-                htElement.welDiffBody.find(".linenum > .yobicon-comments").hide();
             }
 
             htElement.welDiffBody.on("click", ".btn-thread-minimize", _onClickBtnFoldThread);
+        }
+
+        /**
+         * Attach event handlers which can't be delegated to the diffs
+         * in the given element
+         *
+         * @param welScope
+         * @private
+         */
+        function _initDiffPartials(welScope){
+            // Diff 영역에서 스크롤시
+            // .comment-thread-wrap 의 좌우 위치를 맞춰준다
+            welScope.find(".diff-partial-code").on("scroll", function(){
+                var welPartial = $(this);
+                var sHashCode = $(this).data("hashcode");
+                htVar.htThreadWrap[sHashCode] = htVar.htThreadWrap[sHashCode] || welPartial.find(".comment-thread-wrap");
+                htVar.htThreadWrap[sHashCode].css("margin-left", welPartial.scrollLeft() + "px");
+            });
+
+            if(!htVar.bCommentable){
+                welScope.find(".linenum > .yobicon-comments").hide();
+            }
 
             // block/unblock with thread range with mouseenter/leave event
-            $('div[data-toggle="CodeCommentThread"]').on({
+            welScope.find('div[data-toggle="CodeCommentThread"]').on({
                 "mouseenter": _onMouseOverCodeCommentThread,
                 "mouseleave": _onMouseLeaveCodeCommentThread
             });
         }
 
+        /**
+         * Load the diff of each file one by one, in place of its summary
+         * rendered by partial_diff_summary, and scroll to the hash when all
+         * of them have been loaded.
+         *
+         * @private
+         */
+        function _loadFileDiffs(){
+            var welSummary = $(".diff-partial-lazy").first();
+
+            if(welSummary.length === 0){
+                _scrollToHash();
+                return;
+            }
+
+            $.get(welSummary.data("url")).done(function(sHTML){
+                var welFileDiff = $(sHTML);
+
+                welSummary.replaceWith(welFileDiff);
+                _initDiffPartials(welFileDiff);
+                welFileDiff.find(".btn-thread-here").each(function(i, el){
+                    _setBtnThreadHerePosition($(el));
+                });
+                _initMiniMap();
+            }).fail(function(){
+                welSummary.removeClass("diff-partial-lazy")
+                    .find(".patch-header").text(Messages("code.unknownError"));
+            }).always(_loadFileDiffs);
+        }
+
         /**
          * @private
          */
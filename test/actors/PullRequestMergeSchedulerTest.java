@@ -0,0 +1,175 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package actors;
+
+import models.ModelTest;
+import models.Project;
+import models.PullRequest;
+import models.PullRequestEventMessage;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PullRequestMergeSchedulerTest extends ModelTest<PullRequest> {
+    private static final PullRequestEventMessage MESSAGE =
+            new PullRequestEventMessage(null, null, null, "refs/heads/master");
+
+    @After
+    public void after() {
+        PullRequestMergeScheduler.onStop();
+    }
+
+    @Test
+    public void scheduleCoalescesQueuedPullRequests() throws Exception {
+        // Given
+        RecordingMerger merger = new RecordingMerger(2);
+        PullRequestMergeScheduler.start(1, merger);
+        schedule(false, pullRequest(1L, 1L));
+        merger.awaitStarted();
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            schedule(false, pullRequest(2L, 1L));
+        }
+        merger.release();
+
+        // Then
+        merger.awaitMerged();
+        assertThat(merger.merged).containsExactly(1L, 2L);
+    }
+
+    @Test
+    public void scheduleMergesUrgentPullRequestsFirst() throws Exception {
+        // Given
+        RecordingMerger merger = new RecordingMerger(4);
+        PullRequestMergeScheduler.start(1, merger);
+        schedule(false, pullRequest(1L, 1L));
+        merger.awaitStarted();
+
+        // When
+        schedule(false, pullRequest(2L, 1L), pullRequest(3L, 1L));
+        schedule(true, pullRequest(4L, 1L));
+        schedule(true, pullRequest(3L, 1L));
+        merger.release();
+
+        // Then
+        merger.awaitMerged();
+        assertThat(merger.merged).containsExactly(1L, 4L, 3L, 2L);
+    }
+
+    @Test
+    public void scheduleMergesPullRequestsOfProjectOneByOne() throws Exception {
+        // Given
+        final Map<Long, AtomicInteger> running = new ConcurrentHashMap<>();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch merged = new CountDownLatch(10);
+        running.put(1L, new AtomicInteger());
+        running.put(2L, new AtomicInteger());
+        PullRequestMergeScheduler.start(4, new PullRequestMergeScheduler.Merger() {
+            @Override
+            public void merge(Long pullRequestId, PullRequestEventMessage message) {
+                AtomicInteger count = running.get(projectOf(pullRequestId));
+                int current = count.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                count.decrementAndGet();
+                merged.countDown();
+            }
+        });
+
+        // When
+        List<PullRequest> pullRequests = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) {
+            pullRequests.add(pullRequest(id, projectOf(id)));
+        }
+        schedule(false, pullRequests.toArray(new PullRequest[pullRequests.size()]));
+
+        // Then
+        assertThat(merged.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(1);
+    }
+
+    private static long projectOf(long pullRequestId) {
+        return pullRequestId <= 5 ? 1L : 2L;
+    }
+
+    private static void schedule(boolean urgent, PullRequest... pullRequests) {
+        PullRequestMergeScheduler.schedule(Arrays.asList(pullRequests), MESSAGE, urgent);
+    }
+
+    private static PullRequest pullRequest(Long id, Long projectId) {
+        PullRequest pullRequest = new PullRequest();
+        pullRequest.id = id;
+        pullRequest.toProject = new Project();
+        pullRequest.toProject.id = projectId;
+        return pullRequest;
+    }
+
+    /**
+     * Records the merged pull requests, and blocks the first merge until it
+     * is released.
+     */
+    private static class RecordingMerger implements PullRequestMergeScheduler.Merger {
+        private final List<Long> merged = Collections.synchronizedList(new ArrayList<Long>());
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final CountDownLatch done;
+
+        RecordingMerger(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        @Override
+        public void merge(Long pullRequestId, PullRequestEventMessage message) {
+            started.countDown();
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            merged.add(pullRequestId);
+            done.countDown();
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        void awaitMerged() throws InterruptedException {
+            assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+}
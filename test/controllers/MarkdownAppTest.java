@@ -173,6 +173,27 @@ public class MarkdownAppTest extends ContextTest {
         assertThat(contentAsString(result)).doesNotContain(RouteUtil.getUrl(notMatchIssue));
     }
 
+    @Test
+    public void test_escapedTextAroundLink() {
+        // Given
+        String notMatchBody = "nforge#12345 nforge/yobi#12345 #12345";
+        Issue notMatchIssue = createIssue(testOwner, testProject, "hello", notMatchBody);
+
+        // When
+        String body = "#" + notMatchIssue.getNumber() + " &lt;b&gt;bold&lt;/b&gt;";
+        Issue issue = createIssue(testOwner, testProject, "hello", body);
+
+        Result result = callAction(
+                controllers.routes.ref.MarkdownApp.render(testProject.owner, testProject.name),
+                makeFakeRequest(issue.getBody())
+        );
+
+        // Then
+        assertThat(status(result)).isEqualTo(OK);
+        assertThat(contentAsString(result)).contains(RouteUtil.getUrl(notMatchIssue));
+        assertThat(contentAsString(result)).contains("&lt;b&gt;bold&lt;/b&gt;");
+    }
+
     @Test
     public void test_WrappedPattern() {
         // Given
@@ -28,6 +28,7 @@ import org.junit.*;
 import java.util.*;
 
 import org.junit.rules.TestWatcher;
+import play.libs.Crypto;
 import play.mvc.*;
 import play.mvc.Http.*;
 import play.test.FakeApplication;
@@ -405,6 +406,24 @@ public class UserAppTest extends ContextTest {
                 entry(UserApp.SESSION_USERNAME, user.name));
     }
 
+    @Test
+    public void currentUserSignedToken() {
+        // Given
+        User expected = User.findByLoginId("kjkmadness");
+        String token = expected.id + UserApp.TOKEN_SEPARATOR
+                + Crypto.sign(expected.id + UserApp.TOKEN_SEPARATOR + expected.password);
+        Context context = context().withCookie(UserApp.TOKEN, token);
+
+        // When
+        User user = UserApp.currentUser();
+
+        // Then
+        assertThat(user.id).isEqualTo(expected.id);
+        assertThat(UserApp.currentUser()).isSameAs(user);
+        assertThat(context.session()).includes(
+                entry(UserApp.SESSION_USERID, String.valueOf(user.id)));
+    }
+
     @Test
     public void currentUserTokenInvalidLength() {
         // Given
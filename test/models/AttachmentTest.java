@@ -26,7 +26,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+
+import models.resource.Resource;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -59,6 +64,60 @@ public class AttachmentTest extends ModelTest<Attachment> {
         assertThat(new String(b, 0, length)).isEqualTo(new String("Hello"));
     }
 
+    @Test
+    public void storeOnceForSameContents() throws Exception {
+        // Given
+        File foo = createFileWithContents("foo.txt", "Same".getBytes());
+        File bar = createFileWithContents("bar.txt", "Same".getBytes());
+        User user = User.findByLoginId("doortts");
+        Issue issue = Issue.finder.byId(1L);
+
+        // When
+        Attachment first = new Attachment();
+        Attachment second = new Attachment();
+        first.store(foo, "foo.txt", user.asResource());
+        second.store(bar, "bar.txt", issue.asResource());
+
+        // Then
+        File file = first.getFile();
+        assertThat(file).isEqualTo(second.getFile());
+        assertThat(file.getParentFile().getName()).isEqualTo(first.hash.substring(2, 4));
+
+        // When
+        first.delete();
+
+        // Then
+        assertThat(Attachment.fileExists(second.hash)).isTrue();
+
+        // When
+        second.delete();
+
+        // Then
+        assertThat(Attachment.fileExists(second.hash)).isFalse();
+    }
+
+    @Test
+    public void findByContainers() throws Exception {
+        // Given
+        Issue issue = Issue.finder.byId(1L);
+        Issue another = Issue.finder.byId(2L);
+        Attachment attachment = new Attachment();
+        attachment.store(createFileWithContents("foo.txt", "Hello".getBytes()), "foo.txt",
+                issue.asResource());
+
+        // When
+        Map<Resource, List<Attachment>> found = Attachment.findByContainers(
+                Arrays.asList(issue.asResource(), another.asResource()));
+
+        // Then
+        assertThat(found).hasSize(2);
+        List<List<Attachment>> lists = new ArrayList<>(found.values());
+        assertThat(lists.get(0)).hasSize(1);
+        assertThat(lists.get(0).get(0).id).isEqualTo(attachment.id);
+        assertThat(lists.get(1)).isEmpty();
+        assertThat(Attachment.findByContainer(another.asResource())).isEmpty();
+    }
+
     @Test
     public void testMoveOnlySelected() throws Exception {
         // Given
@@ -24,7 +24,10 @@ import static org.fest.assertions.Assertions.assertThat;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -263,4 +266,32 @@ public class IssueTest extends ModelTest<Issue> {
         issue.setTitle("b");
         issue.save();
     }
+
+    @Test
+    public void findByNumbers() {
+        // Given
+        Issue other = new Issue();
+        other.project = project;
+        other.title = "other";
+        other.setAuthor(author);
+        other.save();
+
+        // When
+        Map<Long, Issue> issues = Issue.findByNumbers(project,
+                Arrays.asList(issue.getNumber(), other.getNumber(), issue.getNumber(), 99999L));
+
+        // Then
+        assertThat(issues).hasSize(2);
+        assertThat(issues.get(issue.getNumber()).id).isEqualTo(issue.id);
+        assertThat(issues.get(other.getNumber()).id).isEqualTo(other.id);
+    }
+
+    @Test
+    public void findReferredIssueNumbers() {
+        // When
+        Set<Long> numbers = IssueEvent.findReferredIssueNumbers("Fix #12, #3 and #12 (#99999999999999999999)");
+
+        // Then
+        assertThat(new ArrayList<>(numbers)).containsExactly(12L, 3L);
+    }
 }
@@ -20,12 +20,17 @@
  */
 package models;
 
+import com.avaje.ebean.Ebean;
 import models.enumeration.EventType;
 import models.enumeration.ResourceType;
+import org.joda.time.DateTime;
 import org.junit.Test;
 
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -138,4 +143,113 @@ public class NotificationEventTest extends ModelTest<NotificationEvent> {
         assertThat(newMentionedUsers.contains(newMentionedUser)).isTrue();
     }
 
+
+    @Test
+    public void findByReceiverAndCount() {
+        // Given
+        User user = User.findByLoginId("yobi");
+        int count = NotificationEvent.getNotificationsCount(user);
+        for (String resourceId : new String[]{"1", "2", "3"}) {
+            NotificationEvent event = getNotificationEvent();
+            event.resourceId = resourceId;
+            event.senderId = 1L;
+            event.eventType = EventType.NEW_ISSUE;
+            event.created = new Date();
+            NotificationEvent.add(event);
+        }
+
+        // When
+        List<NotificationEvent> firstPage = NotificationEvent.findByReceiver(user, null, null, 2);
+        NotificationEvent last = firstPage.get(firstPage.size() - 1);
+        List<NotificationEvent> secondPage = NotificationEvent.findByReceiver(
+                user, last.created.getTime(), last.id, 2);
+
+        // Then
+        assertThat(NotificationEvent.getNotificationsCount(user)).isEqualTo(count + 3);
+        assertThat(firstPage).hasSize(2);
+        List<Long> ids = new ArrayList<>();
+        for (NotificationEvent event : firstPage) {
+            ids.add(event.id);
+        }
+        for (NotificationEvent event : secondPage) {
+            assertThat(ids).excludes(event.id);
+        }
+    }
+
+    @Test
+    public void deleteOlderThan() {
+        // Given
+        NotificationEvent old = getNotificationEvent();
+        old.created = new DateTime().minusDays(10).toDate();
+        NotificationEvent.add(old);
+        NotificationEvent recent = getNotificationEvent();
+        recent.resourceId = "2";
+        recent.created = new Date();
+        NotificationEvent.add(recent);
+
+        // When
+        int deleted = NotificationEvent.deleteOlderThan(new DateTime().minusDays(1).toDate());
+
+        // Then
+        assertThat(deleted).isEqualTo(1);
+        assertThat(NotificationEvent.find.byId(old.id)).isNull();
+        assertThat(NotificationMail.find.where().eq("notificationEvent.id", old.id).findRowCount())
+                .isEqualTo(0);
+        assertThat(NotificationEvent.find.byId(recent.id)).isNotNull();
+    }
+
+    @Test
+    public void addInTransactionAfterCommit() {
+        // Given
+        NotificationEvent event = getNotificationEvent();
+        event.title = "added in a committed transaction";
+        NotificationEvent.onStart();
+
+        // When
+        try {
+            Ebean.beginTransaction();
+            try {
+                NotificationEvent.add(event);
+
+                // Then: it is not added before the commit
+                assertThat(countByTitle(event.title)).isEqualTo(0);
+                Ebean.commitTransaction();
+            } finally {
+                Ebean.endTransaction();
+            }
+        } finally {
+            // Stopping the dispatcher adds the queued events.
+            NotificationEvent.onStop();
+        }
+
+        // Then
+        assertThat(countByTitle(event.title)).isEqualTo(1);
+    }
+
+    @Test
+    public void addInTransactionRolledBack() {
+        // Given
+        NotificationEvent event = getNotificationEvent();
+        event.title = "added in a rolled back transaction";
+        NotificationEvent.onStart();
+
+        // When
+        try {
+            Ebean.beginTransaction();
+            try {
+                NotificationEvent.add(event);
+            } finally {
+                Ebean.endTransaction();
+            }
+        } finally {
+            NotificationEvent.onStop();
+        }
+
+        // Then
+        assertThat(countByTitle(event.title)).isEqualTo(0);
+    }
+
+    private static int countByTitle(String title) {
+        return NotificationEvent.find.where().eq("title", title).findRowCount();
+    }
 }
@@ -21,8 +21,16 @@
 
 package models;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
+import models.enumeration.EventType;
+import models.enumeration.ResourceType;
+import notification.INotificationEvent;
+import org.joda.time.DateTime;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -90,4 +98,67 @@ public class NotificationMailTest {
             .isEqualTo(" noreferrer");
 
     }
+
+    @Test
+    public void claimTakesOldestMailsInBatches() {
+        // Given
+        DateTime base = new DateTime(2000, 1, 1, 0, 0);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 4; i >= 0; i--) {
+            expected.add(0, createMail(base.plusMinutes(i)).notificationEvent.id);
+        }
+        Date createdUntil = base.plusMinutes(10).toDate();
+
+        // When
+        List<INotificationEvent> first = NotificationMail.claim(createdUntil, 3);
+        List<INotificationEvent> second = NotificationMail.claim(createdUntil, 3);
+        List<INotificationEvent> third = NotificationMail.claim(createdUntil, 3);
+
+        // Then
+        assertThat(idsOf(first)).isEqualTo(expected.subList(0, 3));
+        assertThat(idsOf(second)).isEqualTo(expected.subList(3, 5));
+        assertThat(third).isNull();
+        for (Long id : expected) {
+            assertThat(NotificationMail.find.where().eq("notificationEvent.id", id).findRowCount())
+                .describedAs("the number of mails of the claimed event " + id)
+                .isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void claimLeavesMailsCreatedLater() {
+        // Given
+        DateTime base = new DateTime(2001, 1, 1, 0, 0);
+        NotificationMail old = createMail(base);
+        NotificationMail recent = createMail(base.plusDays(2));
+
+        // When
+        List<INotificationEvent> claimed = NotificationMail.claim(base.plusDays(1).toDate(), 10);
+
+        // Then
+        assertThat(idsOf(claimed)).containsOnly(old.notificationEvent.id);
+        assertThat(NotificationMail.find.byId(old.id)).isNull();
+        assertThat(NotificationMail.find.byId(recent.id)).isNotNull();
+    }
+
+    private static NotificationMail createMail(DateTime created) {
+        NotificationEvent event = new NotificationEvent();
+        event.resourceType = ResourceType.ISSUE_POST;
+        event.resourceId = "1";
+        event.eventType = EventType.NEW_ISSUE;
+        event.created = created.toDate();
+        event.receivers = new HashSet<>();
+        event.notificationMail = new NotificationMail();
+        event.notificationMail.notificationEvent = event;
+        event.save();
+        return event.notificationMail;
+    }
+
+    private static List<Long> idsOf(List<INotificationEvent> events) {
+        List<Long> ids = new ArrayList<>();
+        for (INotificationEvent event : events) {
+            ids.add(((NotificationEvent) event).id);
+        }
+        return ids;
+    }
 }
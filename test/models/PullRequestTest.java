@@ -20,6 +20,7 @@
  */
 package models;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -27,8 +28,12 @@ import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.ReceivePack;
 import org.eclipse.jgit.transport.RefSpec;
 import org.junit.After;
 import org.junit.Before;
@@ -36,6 +41,7 @@ import org.junit.Test;
 import org.tmatesoft.svn.core.SVNException;
 import play.test.Helpers;
 import playRepository.FileDiff;
+import playRepository.ForkNetwork;
 import playRepository.GitRepository;
 import playRepository.PlayRepository;
 import playRepository.RepositoryService;
@@ -43,6 +49,7 @@ import playRepository.RepositoryService;
 import javax.servlet.ServletException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
@@ -51,6 +58,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static utils.FileUtil.rm_rf;
 
 public class PullRequestTest extends ModelTest<PullRequest> {
@@ -303,4 +311,125 @@ public class PullRequestTest extends ModelTest<PullRequest> {
         // then
         assertThat(diff).isEqualTo(expected);
     }
+
+    @Test
+    public void attemptMergeInMemory() throws Exception {
+        // given
+        Repository repository = GitRepository.buildGitRepository(pullRequest.toProject);
+        ObjectId masterBefore = repository.resolve("refs/heads/master");
+
+        // when
+        PullRequestMergeResult result = pullRequest.attemptMerge();
+
+        // then
+        assertThat(result.conflicts()).isFalse();
+        assertThat(result.getGitCommits()).hasSize(2);
+        assertThat(repository.getRefDatabase().getRefs("refs/yobi/pull-check/")).isEmpty();
+        assertThat(repository.resolve("refs/heads/master")).isEqualTo(masterBefore);
+
+        // when
+        Git git = Git.open(new File(LOCAL_REPO_PREFIX + pullRequest.toProject.name));
+        support.Git.commit(git.getRepository(), "test.txt", "apple\nbanana\ndog\n", "commit 2");
+        git.push().setRefSpecs(new RefSpec("+refs/heads/master:refs/heads/master")).call();
+
+        // then
+        assertThat(pullRequest.attemptMerge().conflicts()).isTrue();
+        repository.close();
+    }
+
+    @Test
+    public void forkSharesObjectsThroughNetwork() throws Exception {
+        // given
+        File forkDirectory = GitRepository.getGitDirectory(forkedProject);
+        File networkDirectory = ForkNetwork.getNetworkDirectory(forkedProject);
+
+        // then
+        File alternates = new File(forkDirectory, "objects/info/alternates");
+        assertThat(alternates.isFile()).isTrue();
+        assertThat(FileUtils.readFileToString(alternates, StandardCharsets.UTF_8))
+                .startsWith("..");
+        assertThat(new File(networkDirectory, "objects").isDirectory()).isTrue();
+
+        // when
+        ForkNetwork.gc(pullRequest.toProject.id);
+
+        // then
+        Repository network = new RepositoryBuilder().setGitDir(networkDirectory).build();
+        assertThat(network.resolve("refs/forks/" + forkedProject.id + "/heads/fix/1"))
+                .isEqualTo(secondCommit.getId());
+        network.close();
+
+        File[] packs = new File(forkDirectory, "objects/pack").listFiles();
+        for (File pack : packs) {
+            assertThat(pack.getName()).doesNotMatch(".*\\.pack");
+        }
+
+        Repository forked = new RepositoryBuilder().setGitDir(forkDirectory).build();
+        assertThat(forked.resolve("refs/heads/fix/1")).isEqualTo(secondCommit.getId());
+        assertThat(forked.hasObject(firstCommit)).isTrue();
+        assertThat(forked.hasObject(baseCommit)).isTrue();
+        forked.close();
+    }
+
+    @Test
+    public void pushToForkAdvertisesOnlyHeadsOfOriginalProject() throws Exception {
+        // given
+        ForkNetwork.gc(pullRequest.toProject.id);
+        Repository repository = GitRepository.buildGitRepository(forkedProject);
+        RefUpdate delete = repository.updateRef("refs/heads/fix/1");
+        delete.setForceUpdate(true);
+        delete.delete();
+
+        // when
+        ReceivePack receivePack = new ReceivePack(repository);
+        ForkNetwork.newAdvertiseRefsHook(forkedProject).advertiseRefs(receivePack);
+
+        // then
+        Set<ObjectId> advertised = receivePack.getAdvertisedObjects();
+        assertThat(advertised).contains(baseCommit.getId());
+        assertThat(advertised).excludes(secondCommit.getId());
+        repository.close();
+    }
+
+    @Test
+    public void forkCopiesOnlyCurrentRefs() throws Exception {
+        // given
+        ForkNetwork.gc(pullRequest.toProject.id);
+        Repository repository = GitRepository.buildGitRepository(forkedProject);
+        RefUpdate delete = repository.updateRef("refs/heads/fix/1");
+        delete.setForceUpdate(true);
+        delete.delete();
+        repository.close();
+
+        Project forkOfFork = new Project();
+        forkOfFork.owner = "yobi";
+        forkOfFork.name = "projectYobi-2";
+        forkOfFork.originalProject = forkedProject;
+
+        // when
+        GitRepository.cloneLocalRepository(forkedProject, forkOfFork);
+
+        // then
+        Repository forked = new RepositoryBuilder()
+                .setGitDir(GitRepository.getGitDirectory(forkOfFork)).build();
+        assertThat(forked.resolve("refs/heads/master")).isEqualTo(baseCommit.getId());
+        assertThat(forked.resolve("refs/heads/fix/1")).isNull();
+        forked.close();
+    }
+
+    @Test
+    public void cloneDoesNotDeleteExistingRepository() throws Exception {
+        // when
+        try {
+            GitRepository.cloneLocalRepository(pullRequest.toProject, forkedProject);
+            fail("cloneLocalRepository must not clone into an existing repository");
+        } catch (IllegalStateException expected) {
+        }
+
+        // then
+        Repository forked = new RepositoryBuilder()
+                .setGitDir(GitRepository.getGitDirectory(forkedProject)).build();
+        assertThat(forked.resolve("refs/heads/fix/1")).isEqualTo(secondCommit.getId());
+        forked.close();
+    }
 }
@@ -22,6 +22,7 @@ package models;
 
 import static org.fest.assertions.Assertions.assertThat;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -201,4 +202,17 @@ public class UserTest extends ModelTest<User> {
         // To keep data clean after this test.
         user.delete();
     }
+
+    @Test
+    public void findByEmails() throws Exception {
+        // When
+        Map<String, User> users = User.findByEmails(
+                Arrays.asList("yobi@yobi.io", "laziel@naver.com", "nobody@yobi.io"));
+
+        // Then
+        assertThat(users.size()).isEqualTo(2);
+        assertThat(users.get("yobi@yobi.io").loginId).isEqualTo("yobi");
+        assertThat(users.get("laziel@naver.com").loginId).isEqualTo("laziel");
+        assertThat(users.containsKey("nobody@yobi.io")).isFalse();
+    }
 }
@@ -27,6 +27,7 @@ import org.junit.Before;
 import org.junit.Test;
 import play.test.FakeApplication;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -108,6 +109,24 @@ public class WatchTest extends ModelTest<Watch> {
         assertThat(unwachers).containsOnly(unwatcher1, unwatcher2);
     }
 
+    @Test
+    public void findWatchingUserIds() {
+        // Given
+        Resource resource = Issue.finder.byId(1L).asResource();
+        User watcher = User.find.byId(2L);
+        User unwatcher = User.find.byId(3L);
+        User other = User.find.byId(4L);
+        Watch.watch(watcher, resource);
+        Watch.unwatch(unwatcher, resource);
+
+        // When
+        Set<Long> ids = Watch.findWatchingUserIds(resource,
+                Arrays.asList(watcher.id, unwatcher.id, other.id));
+
+        // Then
+        assertThat(ids).containsOnly(watcher.id);
+    }
+
     @Test
     public void findWatchedResourceIds() {
         // Given
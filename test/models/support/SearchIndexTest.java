@@ -0,0 +1,164 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import models.Issue;
+import models.IssueComment;
+import models.Project;
+import models.User;
+import models.enumeration.ResourceType;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SearchIndexTest {
+    private SearchIndex index;
+    private Project project;
+
+    @Before
+    public void before() {
+        index = new SearchIndex();
+        project = new Project();
+        project.id = 1L;
+    }
+
+    @Test
+    public void tokenize() {
+        assertThat(SearchIndex.tokenize("Hello, World! hello", null, "검색 기능을"))
+                .containsOnly("hello", "world", "검색", "기능을");
+    }
+
+    @Test
+    public void search() {
+        // Given
+        index.put(issue(1L, "Search is slow", "Searching takes seconds"), false);
+        index.put(issue(2L, "Fix typo", "in README"), false);
+
+        // Then
+        assertThat(index.search(ResourceType.ISSUE_POST, "search", null, 10).keySet())
+                .containsOnly(1L);
+        assertThat(index.search(ResourceType.ISSUE_POST, "SEARCH SECOND", null, 10).keySet())
+                .containsOnly(1L);
+        assertThat(index.search(ResourceType.ISSUE_POST, "readme", 1L, 10).keySet())
+                .containsOnly(2L);
+        assertThat(index.search(ResourceType.ISSUE_POST, "readme", 2L, 10)).isEmpty();
+        assertThat(index.search(ResourceType.ISSUE_POST, "arch", null, 10).keySet())
+                .containsOnly(1L);
+        assertThat(index.search(ResourceType.ISSUE_POST, "ix typ", null, 10).keySet())
+                .containsOnly(2L);
+        assertThat(index.search(ResourceType.ISSUE_POST, "slowly", null, 10)).isEmpty();
+        assertThat(index.search(ResourceType.ISSUE_POST, "!!", null, 10)).isNull();
+        assertThat(index.search(ResourceType.ISSUE_POST, "i", null, 1)).isNull();
+    }
+
+    @Test
+    public void searchShortKeyword() {
+        // Given
+        index.put(issue(1L, "Fix typo", "in README"), false);
+
+        // Then: a keyword without a trigram is left to the database
+        assertThat(index.search(ResourceType.ISSUE_POST, "in", null, 10)).isNull();
+        assertThat(index.search(ResourceType.ISSUE_POST, "in fix", null, 10).keySet())
+                .containsOnly(1L);
+    }
+
+    @Test
+    public void searchTooManyDocuments() {
+        // Given
+        for (long id = 1; id <= 10; id++) {
+            index.put(issue(id, "Search is slow", null), false);
+        }
+
+        // Then
+        assertThat(index.search(ResourceType.ISSUE_POST, "slow", null, 10)).hasSize(10);
+        assertThat(index.search(ResourceType.ISSUE_POST, "slow", null, 9)).isNull();
+        assertThat(index.search(ResourceType.ISSUE_POST, "slow", 2L, 9)).isEmpty();
+    }
+
+    @Test
+    public void searchLongWord() {
+        // Given
+        String longWord = org.apache.commons.lang3.StringUtils.repeat("ab",
+                SearchIndex.MAX_TERM_LENGTH) + "xyz";
+        index.put(issue(1L, longWord, null), false);
+        index.put(issue(2L, "Fix typo", null), false);
+
+        // Then
+        assertThat(index.search(ResourceType.ISSUE_POST, "bxyz", null, 10).keySet())
+                .containsOnly(1L);
+        assertThat(index.search(ResourceType.ISSUE_POST, "typo", null, 10).keySet())
+                .containsOnly(1L, 2L);
+        assertThat(index.search(ResourceType.ISSUE_POST, longWord, null, 10).keySet())
+                .containsOnly(1L);
+
+        // When
+        index.put(issue(1L, "short", null), false);
+
+        // Then
+        assertThat(index.search(ResourceType.ISSUE_POST, "typo", null, 10).keySet())
+                .containsOnly(2L);
+    }
+
+    @Test
+    public void update() {
+        // Given
+        Issue issue = issue(1L, "Search is slow", null);
+        index.put(issue, false);
+
+        // When
+        issue.title = "Search is fast";
+        index.put(issue, false);
+
+        // Then
+        assertThat(index.search(ResourceType.ISSUE_POST, "slow", null, 10)).isEmpty();
+        assertThat(index.search(ResourceType.ISSUE_POST, "fast", null, 10).keySet())
+                .containsOnly(1L);
+
+        // When
+        index.remove(issue);
+
+        // Then
+        assertThat(index.search(ResourceType.ISSUE_POST, "search", null, 10)).isEmpty();
+        assertThat(index.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void searchComments() {
+        // Given
+        IssueComment comment = new IssueComment(issue(1L, "title", null), new User(),
+                "It works for me");
+        comment.id = 10L;
+        index.put(comment, false);
+
+        // Then
+        assertThat(index.search(ResourceType.ISSUE_COMMENT, "works", 1L, 10))
+                .includes(org.fest.assertions.MapAssert.entry(10L, 1L));
+        assertThat(index.search(ResourceType.ISSUE_POST, "works", null, 10)).isEmpty();
+    }
+
+    private Issue issue(Long id, String title, String body) {
+        Issue issue = new Issue();
+        issue.id = id;
+        issue.project = project;
+        issue.title = title;
+        issue.body = body;
+        return issue;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import models.ModelTest;
+import models.User;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class UserCacheTest extends ModelTest<UserCache> {
+    @Test
+    public void getReturnsCopies() {
+        // Given
+        User first = UserCache.get(2l);
+        User second = UserCache.get(2l);
+        String name = second.name;
+
+        // When
+        first.name = "changed but not saved";
+
+        // Then
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.name).isEqualTo(name);
+        assertThat(UserCache.get(2l).name).isEqualTo(name);
+    }
+
+    @Test
+    public void copyLoadsCollections() {
+        // Given
+        UserCache.get(2l);
+
+        // When
+        User user = UserCache.get(2l);
+
+        // Then
+        assertThat(user.projectUser).hasSize(User.find.byId(2l).projectUser.size());
+        assertThat(user.projectUser).isNotSameAs(UserCache.get(2l).projectUser);
+    }
+
+    @Test
+    public void invalidatedWhenUpdated() {
+        // Given
+        User user = UserCache.get(3l);
+
+        // When
+        user.name = "renamed";
+        user.update();
+
+        // Then
+        assertThat(UserCache.get(3l).name).isEqualTo("renamed");
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.support;
+
+import com.avaje.ebean.ExpressionList;
+import models.ModelTest;
+import models.Project;
+import models.ProjectUser;
+import models.User;
+import models.enumeration.ProjectScope;
+import models.enumeration.RoleType;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class VisibleProjectsTest extends ModelTest<VisibleProjects> {
+    @Test
+    public void idsOf() {
+        // Given
+        User user = User.find.byId(2l);
+
+        // Then
+        assertThat(VisibleProjects.idsOf(user)).excludes(1l, 2l, 4l, 7l);
+    }
+
+    @Test
+    public void restrict() {
+        // Given
+        User user = User.find.byId(2l);
+        ProjectUser.assignRole(user.id, 4l, RoleType.MEMBER);
+
+        // When
+        ExpressionList<Project> el = Project.find.where();
+        VisibleProjects.restrict(el, user, null);
+        List<Object> ids = el.findIds();
+
+        // Then
+        assertThat(ids).contains(1l, 2l, 4l, 7l).excludes(3l, 5l, 6l);
+    }
+
+    @Test
+    public void invalidatedWhenMembershipChanges() {
+        // Given
+        User user = User.find.byId(2l);
+        assertThat(VisibleProjects.idsOf(user)).excludes(4l);
+
+        // When
+        ProjectUser.assignRole(user.id, 4l, RoleType.MEMBER);
+
+        // Then
+        assertThat(VisibleProjects.idsOf(user)).contains(4l);
+    }
+
+    @Test
+    public void invalidatedWhenScopeChanges() {
+        // Given
+        User user = User.find.byId(2l);
+        assertThat(VisibleProjects.idsOf(user)).excludes(1l);
+
+        // When
+        Project project = Project.find.byId(1l);
+        project.projectScope = ProjectScope.PRIVATE;
+        project.update();
+
+        // Then
+        assertThat(VisibleProjects.idsOf(user)).contains(1l);
+
+        project.projectScope = ProjectScope.PUBLIC;
+        project.update();
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package notification;
+
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.HtmlEmail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.test.FakeApplication;
+import play.test.Helpers;
+import support.FakeSmtpServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class NotificationMailSenderTest {
+    private static final int THREADS = 4;
+
+    protected static FakeApplication app;
+    private FakeSmtpServer server;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeSmtpServer();
+        server.start();
+
+        Map<String, String> config = support.Helpers.makeTestConfig();
+        config.remove("smtp.user");
+        config.put("smtp.mock", "false");
+        config.put("smtp.host", server.getHost());
+        config.put("smtp.port", String.valueOf(server.getPort()));
+        config.put("application.notification.bymail.threads", String.valueOf(THREADS));
+        app = support.Helpers.makeTestApplication(config);
+        Helpers.start(app);
+
+        NotificationMailSender.onStart();
+    }
+
+    @After
+    public void after() {
+        NotificationMailSender.onStop();
+        Helpers.stop(app);
+        server.stop();
+    }
+
+    @Test
+    public void sendReusesConnections() throws Exception {
+        // Given
+        int count = 1000;
+
+        // When
+        long start = System.nanoTime();
+        sendAll(count);
+        long elapsed = System.nanoTime() - start;
+
+        // Then
+        play.Logger.info(String.format("Sent %d notification mails in %d ms (%.1f mails/s)",
+                count, elapsed / 1000000, count * 1e9 / elapsed));
+        assertThat(server.getMessages()).isEqualTo(count);
+        assertThat(server.getTransactions()).isEqualTo(count);
+        assertThat(server.getConnections()).isLessThanOrEqualTo(THREADS);
+    }
+
+    @Test
+    public void sendReconnectsWhenServerClosedConnection() throws Exception {
+        // Given
+        server.setMessagesPerConnection(10);
+
+        // When
+        sendAll(100);
+
+        // Then
+        assertThat(server.getMessages()).isEqualTo(100);
+        assertThat(server.getTransactions()).isEqualTo(100);
+        assertThat(server.getConnections()).isGreaterThanOrEqualTo(10);
+    }
+
+    @Test
+    public void sendResendsWhenConnectionIsLost() throws Exception {
+        // Given
+        server.dropConnections(1);
+
+        // When
+        sendAll(1);
+
+        // Then
+        assertThat(server.getMessages()).isEqualTo(1);
+        assertThat(server.getTransactions()).isEqualTo(2);
+        assertThat(server.getConnections()).isEqualTo(2);
+    }
+
+    @Test
+    public void sendDoesNotResendRejectedMail() throws Exception {
+        // Given
+        server.setRejectRecipients(true);
+
+        // When
+        sendAll(1);
+
+        // Then
+        assertThat(server.getMessages()).isEqualTo(0);
+        assertThat(server.getTransactions()).isEqualTo(1);
+        assertThat(server.getConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void stopSendsQueuedMails() throws Exception {
+        // Given
+        for (int i = 0; i < 100; i++) {
+            NotificationMailSender.send(createMail(i));
+        }
+
+        // When
+        NotificationMailSender.onStop();
+
+        // Then
+        assertThat(server.getMessages()).isEqualTo(100);
+    }
+
+    private static void sendAll(int count) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(NotificationMailSender.send(createMail(i)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static HtmlEmail createMail(int i) throws EmailException {
+        HtmlEmail email = new HtmlEmail();
+        email.setFrom("yobi@localhost");
+        email.addTo("user" + i + "@localhost");
+        email.setSubject("Notification " + i);
+        email.setHtmlMsg("<p>Notification " + i + "</p>");
+        email.setCharset("utf-8");
+        return email;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.test.FakeApplication;
+import play.test.Helpers;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AdvertisementCacheTest {
+    private FakeApplication app;
+    private File gitDirectory;
+    private AtomicInteger loaded;
+    private Callable<byte[]> loader;
+
+    @Before
+    public void before() {
+        app = support.Helpers.makeTestApplication();
+        Helpers.start(app);
+        gitDirectory = new File("resources/test/repo/git/yobi/advertisement-" + System.nanoTime() + ".git");
+        loaded = new AtomicInteger();
+        loader = new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return new byte[]{(byte) loaded.incrementAndGet()};
+            }
+        };
+    }
+
+    @After
+    public void after() {
+        Helpers.stop(app);
+    }
+
+    @Test
+    public void get() throws Exception {
+        // When
+        byte[] first = AdvertisementCache.get(gitDirectory, "git-upload-pack", loader);
+        byte[] second = AdvertisementCache.get(gitDirectory, "git-upload-pack", loader);
+        byte[] other = AdvertisementCache.get(gitDirectory, "git-receive-pack", loader);
+
+        // Then
+        assertThat(second).isEqualTo(first);
+        assertThat(other).isNotEqualTo(first);
+        assertThat(loaded.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        // Given
+        byte[] before = AdvertisementCache.get(gitDirectory, "git-upload-pack", loader);
+
+        // When
+        AdvertisementCache.invalidate(gitDirectory);
+        byte[] after = AdvertisementCache.get(gitDirectory, "git-upload-pack", loader);
+
+        // Then
+        assertThat(after).isNotEqualTo(before);
+        assertThat(loaded.get()).isEqualTo(2);
+    }
+}
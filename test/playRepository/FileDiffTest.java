@@ -73,6 +73,24 @@ public class FileDiffTest {
         assertThat(diff.isFileModeChanged()).isTrue();
     }
 
+    @Test
+    public void copy() {
+        // Given
+        initFileMode(FileMode.REGULAR_FILE, FileMode.EXECUTABLE_FILE);
+        diff.pathA = "README.md";
+        diff.addError(FileDiff.Error.A_SIZE_EXCEEDED);
+
+        // When
+        FileDiff copy = diff.copy();
+        copy.addError(FileDiff.Error.B_SIZE_EXCEEDED);
+
+        // Then
+        assertThat(copy).isEqualTo(diff);
+        assertThat(copy.isFileModeChanged()).isTrue();
+        assertThat(copy.hasError(FileDiff.Error.A_SIZE_EXCEEDED)).isTrue();
+        assertThat(diff.hasError(FileDiff.Error.B_SIZE_EXCEEDED)).isFalse();
+    }
+
     /*
      * FileDiff.fileModeChanged 테스트를 위한 초기화
      */
@@ -24,11 +24,15 @@ import models.Project;
 import models.PullRequest;
 import models.User;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryBuilder;
@@ -51,7 +55,9 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -275,6 +281,214 @@ public class GitRepositoryTest {
         });
     }
 
+    @Test
+    public void updateLastCommitIndex() throws Exception {
+        // Given
+        String userName = "yobi";
+        String projectName = "mytest";
+        String wcPath = GitRepository.getRepoPrefix() + userName + "/" + projectName;
+
+        Repository repository = GitRepository.buildGitRepository(userName, projectName + "/");
+        repository.create();
+        Git git = new Git(repository);
+        FileUtils.touch(new File(wcPath + "/hello"));
+        FileUtils.touch(new File(wcPath + "/dir/world"));
+        git.add().addFilepattern("hello").call();
+        git.add().addFilepattern("dir").call();
+        RevCommit first = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("first").call();
+        FileUtils.write(new File(wcPath + "/hello"), "hello");
+        git.add().addFilepattern("hello").call();
+        RevCommit second = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("second").call();
+
+        LastCommitIndex index = new LastCommitIndex(repository);
+        Map<String, ObjectId> indexed = new HashMap<>();
+        indexed.put("hello", first.getId());
+        indexed.put("dir", first.getId());
+        index.put(first, "", indexed);
+
+        // When
+        GitRepository gitRepository = new GitRepository(userName, projectName + "/");
+        gitRepository.updateLastCommitIndex(first, second);
+        gitRepository.close();
+
+        // Then
+        Map<String, ObjectId> updated = index.get(second, "");
+        assertThat(index.getIndexedPaths(first)).containsOnly("");
+        assertThat(updated.get("hello")).isEqualTo(second.getId());
+        assertThat(updated.get("dir")).isEqualTo(first.getId());
+        assertThat(index.get(second, "dir")).isNull();
+
+        index.remove(first);
+        assertThat(index.get(first, "")).isNull();
+        repository.close();
+    }
+
+    @Test
+    public void updateHistoryIndex() throws Exception {
+        // Given
+        String userName = "yobi";
+        String projectName = "mytest";
+        String wcPath = GitRepository.getRepoPrefix() + userName + "/" + projectName;
+
+        Repository repository = GitRepository.buildGitRepository(userName, projectName + "/");
+        repository.create();
+        Git git = new Git(repository);
+        FileUtils.touch(new File(wcPath + "/hello"));
+        FileUtils.touch(new File(wcPath + "/world"));
+        git.add().addFilepattern("hello").addFilepattern("world").call();
+        RevCommit first = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("first").call();
+        FileUtils.write(new File(wcPath + "/hello"), "hello");
+        git.add().addFilepattern("hello").call();
+        RevCommit second = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("second").call();
+        FileUtils.write(new File(wcPath + "/world"), "world");
+        git.add().addFilepattern("world").call();
+        RevCommit third = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("third").call();
+
+        GitRepository gitRepository = new GitRepository(userName, projectName + "/");
+        List<Commit> hellos = gitRepository.getHistory(0, 10, second.getName(), "hello");
+
+        // When
+        gitRepository.updateHistoryIndex(second, third);
+
+        // Then
+        HistoryIndex index = new HistoryIndex(repository);
+        assertThat(hellos.size()).isEqualTo(2);
+        assertThat(index.getIndexedPaths(second)).containsOnly("hello");
+        assertThat(index.get(third, "hello").getCommitIds())
+                .containsExactly(second.getId(), first.getId());
+        assertThat(index.get(third, "").getCommitIds())
+                .containsExactly(third.getId(), second.getId(), first.getId());
+        assertThat(index.get(third, "", 1, 1)).containsExactly(second.getId());
+        assertThat(gitRepository.getHistory(1, 2, third.getName(), null).get(0).getId())
+                .isEqualTo(first.getName());
+
+        gitRepository.close();
+        repository.close();
+    }
+
+    @Test
+    public void pruneCommitIndex() throws Exception {
+        // Given
+        String userName = "yobi";
+        String projectName = "mytest";
+        String wcPath = GitRepository.getRepoPrefix() + userName + "/" + projectName;
+
+        Repository repository = GitRepository.buildGitRepository(userName, projectName + "/");
+        repository.create();
+        Git git = new Git(repository);
+        FileUtils.touch(new File(wcPath + "/hello"));
+        git.add().addFilepattern("hello").call();
+        RevCommit first = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("first").call();
+        FileUtils.write(new File(wcPath + "/hello"), "hello");
+        git.add().addFilepattern("hello").call();
+        RevCommit second = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("second").call();
+        FileUtils.write(new File(wcPath + "/hello"), "hello, world");
+        git.add().addFilepattern("hello").call();
+        RevCommit third = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("third").call();
+
+        // The third commit is no longer reachable.
+        RefUpdate updateRef = repository.updateRef("refs/heads/master");
+        updateRef.setNewObjectId(second);
+        updateRef.forceUpdate();
+
+        LastCommitIndex index = new LastCommitIndex(repository);
+        Map<String, ObjectId> indexed = new HashMap<>();
+        indexed.put("hello", first.getId());
+        index.put(first, "", indexed);
+        index.put(second, "", indexed);
+        index.put(third, "", indexed);
+
+        // When
+        index.prune(10);
+
+        // Then: nothing is removed while the index is small
+        assertThat(index.get(first, "")).isNotNull();
+        assertThat(index.get(second, "")).isNotNull();
+        assertThat(index.get(third, "")).isNotNull();
+
+        // When
+        index.prune(2);
+
+        // Then: the unreachable commit goes first, and the head is kept anyway
+        assertThat(index.get(first, "")).isNull();
+        assertThat(index.get(second, "")).isNotNull();
+        assertThat(index.get(third, "")).isNull();
+        repository.close();
+    }
+
+    @Test
+    public void getDiffSummary() throws Exception {
+        // Given
+        String userName = "yobi";
+        String projectName = "mytest";
+        String wcPath = GitRepository.getRepoPrefix() + userName + "/" + projectName;
+
+        Repository repository = GitRepository.buildGitRepository(userName, projectName + "/");
+        repository.create();
+        Git git = new Git(repository);
+        FileUtils.write(new File(wcPath + "/hello"), "a\nb\nc\n");
+        FileUtils.write(new File(wcPath + "/world"), "world\n");
+        git.add().addFilepattern("hello").addFilepattern("world").call();
+        git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("first").call();
+        FileUtils.write(new File(wcPath + "/hello"), "a\nB\nc\nd\n");
+        git.add().addFilepattern("hello").call();
+        RevCommit second = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("second").call();
+
+        GitRepository gitRepository = new GitRepository(userName, projectName + "/");
+
+        // When
+        List<FileDiffSummary> summaries = gitRepository.getDiffSummary(second.getName());
+        FileDiff fileDiff = gitRepository.getFileDiff(second.getName(), "hello");
+
+        // Then
+        assertThat(summaries.size()).isEqualTo(1);
+        assertThat(summaries.get(0).pathB).isEqualTo("hello");
+        assertThat(summaries.get(0).changeType).isEqualTo(DiffEntry.ChangeType.MODIFY);
+        assertThat(summaries.get(0).addedLines).isEqualTo(2);
+        assertThat(summaries.get(0).removedLines).isEqualTo(1);
+        assertThat(fileDiff.b.getString(3)).isEqualTo("d");
+        assertThat(fileDiff.getHunks().size()).isEqualTo(1);
+        assertThat(gitRepository.getFileDiff(second.getName(), "world")).isNull();
+
+        gitRepository.close();
+        repository.close();
+    }
+
+    @Test
+    public void getDiffSummary_doesNotCountLinesOfTooLargeFile() throws Exception {
+        // Given
+        String userName = "yobi";
+        String projectName = "mytest";
+        String wcPath = GitRepository.getRepoPrefix() + userName + "/" + projectName;
+
+        Repository repository = GitRepository.buildGitRepository(userName, projectName + "/");
+        repository.create();
+        Git git = new Git(repository);
+        FileUtils.write(new File(wcPath + "/small"), "a\n");
+        FileUtils.write(new File(wcPath + "/large"),
+                StringUtils.repeat("a\n", FileDiff.SIZE_LIMIT));
+        git.add().addFilepattern("small").addFilepattern("large").call();
+        RevCommit first = git.commit().setAuthor("yobi", "yobi@yobi.io").setMessage("first").call();
+
+        GitRepository gitRepository = new GitRepository(userName, projectName + "/");
+
+        // When
+        List<FileDiffSummary> summaries = gitRepository.getDiffSummary(first.getName());
+
+        // Then
+        assertThat(summaries.size()).isEqualTo(2);
+        for (FileDiffSummary summary : summaries) {
+            if (summary.pathB.equals("large")) {
+                assertThat(summary.addedLines).isNull();
+            } else {
+                assertThat(summary.addedLines).isEqualTo(1);
+            }
+        }
+
+        gitRepository.close();
+        repository.close();
+    }
+
     @Test
     public void deleteBranch() throws IOException, GitAPIException {
         // given
@@ -0,0 +1,94 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.test.FakeApplication;
+import play.test.Helpers;
+import utils.FileUtil;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class RepositoryRegistryTest {
+    private static final String REPO_PREFIX = "resources/test/repo/registry/";
+
+    private FakeApplication app;
+    private File gitDirectory;
+
+    @Before
+    public void before() throws Exception {
+        app = support.Helpers.makeTestApplication();
+        Helpers.start(app);
+        gitDirectory = new File(REPO_PREFIX + "project.git");
+        new RepositoryBuilder().setGitDir(gitDirectory).build().create(true);
+    }
+
+    @After
+    public void after() throws Exception {
+        Helpers.stop(app);
+        FileUtil.rm_rf(new File(REPO_PREFIX));
+    }
+
+    @Test
+    public void open() throws Exception {
+        // When
+        Repository first = RepositoryRegistry.open(gitDirectory, null);
+        first.close();
+        Repository second = RepositoryRegistry.open(gitDirectory, null);
+        Repository withAlternates = RepositoryRegistry.open(gitDirectory,
+                new File(REPO_PREFIX + "merging/.git/objects"));
+
+        // Then
+        assertThat(second).isSameAs(first);
+        assertThat(withAlternates).isNotSameAs(first);
+    }
+
+    @Test
+    public void openNonexistentRepository() throws Exception {
+        // Given
+        File nonexistent = new File(REPO_PREFIX + "nonexistent.git");
+
+        // When
+        Repository first = RepositoryRegistry.open(nonexistent, null);
+        Repository second = RepositoryRegistry.open(nonexistent, null);
+
+        // Then
+        assertThat(second).isNotSameAs(first);
+    }
+
+    @Test
+    public void evict() throws Exception {
+        // Given
+        Repository first = RepositoryRegistry.open(gitDirectory, null);
+
+        // When
+        RepositoryRegistry.evict(gitDirectory);
+        Repository second = RepositoryRegistry.open(gitDirectory, null);
+
+        // Then
+        assertThat(second).isNotSameAs(first);
+        assertThat(first.getRef("HEAD")).isNotNull();
+    }
+}
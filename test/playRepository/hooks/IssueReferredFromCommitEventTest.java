@@ -0,0 +1,109 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository.hooks;
+
+import models.Issue;
+import models.IssueEvent;
+import models.ModelTest;
+import models.Project;
+import models.User;
+import models.enumeration.EventType;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playRepository.GitRepository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static utils.FileUtil.rm_rf;
+
+public class IssueReferredFromCommitEventTest extends ModelTest<IssueReferredFromCommitEvent> {
+    private static final String REPO_PREFIX = "resources/test/repo/git/";
+
+    private Repository repository;
+
+    @Before
+    public void before() throws Exception {
+        GitRepository.setRepoPrefix(REPO_PREFIX);
+        repository = support.Git.createRepository("yobi", "issueReferredFromCommit", false);
+    }
+
+    @After
+    public void after() throws Exception {
+        repository.close();
+        rm_rf(new File(REPO_PREFIX));
+    }
+
+    @Test
+    public void onPushSavesAnEventForEveryReference() throws Exception {
+        // Given
+        Project project = getTestProject();
+        User user = getTestUser();
+        List<Issue> issues = Issue.finder.where().eq("project.id", project.id)
+                .orderBy("number asc").setMaxRows(2).findList();
+        Issue issue = issues.get(0);
+        Issue other = issues.get(1);
+
+        // An event which IssueEvent.add would merge with the new ones.
+        IssueEvent earlier = new IssueEvent();
+        earlier.issue = issue;
+        earlier.senderLoginId = user.loginId;
+        earlier.newValue = "earlier";
+        earlier.created = new Date();
+        earlier.eventType = EventType.ISSUE_REFERRED_FROM_COMMIT;
+        IssueEvent.add(earlier);
+
+        RevCommit first = support.Git.commit(repository, "a.txt", "a", "first");
+        RevCommit second = support.Git.commit(repository, "a.txt", "b",
+                "Fix #" + issue.getNumber());
+        RevCommit third = support.Git.commit(repository, "a.txt", "c",
+                "Fix #" + issue.getNumber() + " and #" + other.getNumber());
+        RevCommit fourth = support.Git.commit(repository, "a.txt", "d", "See #999999");
+
+        PushEvent event = PushEvent.walk(repository, Collections.singletonList(
+                new ReceiveCommand(first, fourth, "refs/heads/master")));
+
+        // When
+        new IssueReferredFromCommitEvent(project, user).onPush(event);
+
+        // Then
+        assertThat(referringCommits(issue)).hasSize(3)
+                .containsOnly("earlier", second.getName(), third.getName());
+        assertThat(referringCommits(other)).containsOnly(third.getName());
+    }
+
+    private static List<String> referringCommits(Issue issue) {
+        List<String> commitIds = new ArrayList<>();
+        for (IssueEvent event : IssueEvent.find.where()
+                .eq("issue.id", issue.id)
+                .eq("eventType", EventType.ISSUE_REFERRED_FROM_COMMIT)
+                .findList()) {
+            commitIds.add(event.newValue);
+        }
+        return commitIds;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package playRepository.hooks;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playRepository.GitRepository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static utils.FileUtil.rm_rf;
+
+public class PushEventTest {
+    private static final String REPO_PREFIX = "resources/test/repo/git/";
+
+    private Repository repository;
+
+    @Before
+    public void before() throws Exception {
+        GitRepository.setRepoPrefix(REPO_PREFIX);
+        repository = support.Git.createRepository("yobi", "pushEvent", false);
+    }
+
+    @After
+    public void after() throws Exception {
+        repository.close();
+        rm_rf(new File(REPO_PREFIX));
+    }
+
+    @Test
+    public void walk() throws Exception {
+        // Given
+        RevCommit first = support.Git.commit(repository, "a.txt", "a", "first");
+        RevCommit second = support.Git.commit(repository, "a.txt", "b", "Fix #3 and #12\n\nSee #3");
+        RevCommit third = support.Git.commit(repository, "a.txt", "c", "third");
+
+        List<ReceiveCommand> commands = new ArrayList<>();
+        commands.add(new ReceiveCommand(first, third, "refs/heads/master"));
+        commands.add(new ReceiveCommand(ObjectId.zeroId(), third, "refs/heads/copy"));
+        commands.add(new ReceiveCommand(ObjectId.zeroId(), first, "refs/tags/v1"));
+        commands.add(new ReceiveCommand(second, ObjectId.zeroId(), "refs/heads/old"));
+
+        // When
+        PushEvent event = PushEvent.walk(repository, commands);
+
+        // Then
+        assertThat(event.getCommands()).hasSize(4);
+        assertThat(event.getRefNames()).containsExactly(
+                "refs/heads/master", "refs/heads/copy", "refs/tags/v1");
+
+        List<String> ids = new ArrayList<>();
+        for (PushEvent.PushedCommit commit : event.getCommits()) {
+            ids.add(commit.getId());
+        }
+        assertThat(ids).containsExactly(third.getName(), second.getName(), first.getName());
+
+        PushEvent.PushedCommit pushed = event.getCommits().get(1);
+        assertThat(pushed.getShortMessage()).isEqualTo("Fix #3 and #12");
+        assertThat(pushed.getShortId()).isEqualTo(second.abbreviate(7).name());
+        assertThat(pushed.getIssueNumbers()).containsOnly(3L, 12L);
+        assertThat(event.getCommits().get(0).getIssueNumbers()).isEmpty();
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package support;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An SMTP server which accepts every mail and throws it away.
+ *
+ * It counts the connections, the mail transactions and the received mails, so
+ * that a test can tell how a client used it. It can also reject every
+ * recipient, or drop the connection instead of accepting a mail.
+ */
+public class FakeSmtpServer {
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Set<Socket> sockets =
+            Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger transactions = new AtomicInteger();
+    private final AtomicInteger messages = new AtomicInteger();
+    private final AtomicInteger connectionsToDrop = new AtomicInteger();
+
+    private volatile boolean rejectRecipients;
+    private volatile int messagesPerConnection;
+
+    public FakeSmtpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public void start() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        sockets.add(socket);
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // The server has been stopped.
+                    }
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        close(serverSocket);
+        for (Socket socket : sockets) {
+            close(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Makes the server reply to every RCPT command with a permanent error.
+     */
+    public void setRejectRecipients(boolean rejectRecipients) {
+        this.rejectRecipients = rejectRecipients;
+    }
+
+    /**
+     * Makes the server close a connection after it has received the given
+     * number of mails through it, as servers do with long-lived connections.
+     *
+     * @param messagesPerConnection the number of mails, or 0 for no limit
+     */
+    public void setMessagesPerConnection(int messagesPerConnection) {
+        this.messagesPerConnection = messagesPerConnection;
+    }
+
+    /**
+     * Makes the server drop the connection, without a reply, at the end of the
+     * data of the next {@code count} mails. Those mails are not received.
+     */
+    public void dropConnections(int count) {
+        connectionsToDrop.set(count);
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Returns the number of MAIL commands, which is the number of attempts to
+     * send a mail.
+     */
+    public int getTransactions() {
+        return transactions.get();
+    }
+
+    public int getMessages() {
+        return messages.get();
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII);
+            int received = 0;
+
+            reply(out, "220 localhost Fake SMTP");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() < 4 ? line : line.substring(0, 4).toUpperCase();
+                switch (command) {
+                    case "MAIL":
+                        transactions.incrementAndGet();
+                        reply(out, "250 OK");
+                        break;
+                    case "RCPT":
+                        reply(out, rejectRecipients ? "550 No such user" : "250 OK");
+                        break;
+                    case "DATA":
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // Discard the mail.
+                        }
+                        if (takeConnectionToDrop()) {
+                            return;
+                        }
+                        messages.incrementAndGet();
+                        reply(out, "250 OK");
+                        received++;
+                        if (messagesPerConnection > 0 && received >= messagesPerConnection) {
+                            return;
+                        }
+                        break;
+                    case "QUIT":
+                        reply(out, "221 Bye");
+                        return;
+                    default:
+                        reply(out, "250 OK");
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            // The client has closed the connection.
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private boolean takeConnectionToDrop() {
+        while (true) {
+            int count = connectionsToDrop.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (connectionsToDrop.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing to do.
+        }
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+        out.write(reply + "\r\n");
+        out.flush();
+    }
+}
@@ -28,10 +28,13 @@ import models.Issue;
 import models.Posting;
 import models.Project;
 import models.PullRequest;
+import models.support.UserCache;
+import models.support.VisibleProjects;
 
 import play.Application;
 import play.GlobalSettings;
 import play.test.FakeApplication;
+import utils.AttachmentCache;
 import utils.YamlUtil;
 
 public class Helpers {
@@ -52,6 +55,14 @@ public class Helpers {
                 insertTestData();
                 PullRequest.regulateNumbers();
             }
+
+            @Override
+            public void onStop(Application application) {
+                // The database is created again for the next application.
+                AttachmentCache.onStop();
+                VisibleProjects.onStop();
+                UserCache.onStop();
+            }
         };
     }
 
@@ -0,0 +1,50 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FileRangeResultTest {
+    @Test
+    public void parseRange() {
+        assertThat(FileRangeResult.parseRange("bytes=0-9", 100)).isEqualTo(new long[]{0, 9});
+        assertThat(FileRangeResult.parseRange("bytes=90-", 100)).isEqualTo(new long[]{90, 99});
+        assertThat(FileRangeResult.parseRange("bytes=90-200", 100)).isEqualTo(new long[]{90, 99});
+        assertThat(FileRangeResult.parseRange("bytes=-10", 100)).isEqualTo(new long[]{90, 99});
+        assertThat(FileRangeResult.parseRange("bytes=-200", 100)).isEqualTo(new long[]{0, 99});
+    }
+
+    @Test
+    public void parseRange_wholeFile() {
+        assertThat(FileRangeResult.parseRange(null, 100)).isNull();
+        assertThat(FileRangeResult.parseRange("bytes=0-9,20-29", 100)).isNull();
+        assertThat(FileRangeResult.parseRange("bytes=9-0", 100)).isNull();
+        assertThat(FileRangeResult.parseRange("items=0-9", 100)).isNull();
+    }
+
+    @Test
+    public void parseRange_unsatisfiable() {
+        assertThat(FileRangeResult.parseRange("bytes=100-", 100))
+                .isSameAs(FileRangeResult.UNSATISFIABLE);
+        assertThat(FileRangeResult.parseRange("bytes=-0", 100))
+                .isSameAs(FileRangeResult.UNSATISFIABLE);
+    }
+}
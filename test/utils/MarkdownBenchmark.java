@@ -0,0 +1,84 @@
+/**
+ * Yobi, Project Hosting SW
+ *
+ * Copyright 2015 NAVER Corp.
+ * http://yobi.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utils;
+
+import models.Project;
+import play.test.FakeApplication;
+import support.Helpers;
+
+/**
+ * Measures {@link Markdown#render(String, Project)} on a document of about
+ * 200 sections with links, references and code blocks.
+ *
+ * Run it with {@code activator "test:runMain utils.MarkdownBenchmark"}. It
+ * prints the average time of a rendering whose result is not cached, which
+ * runs Marked, xss.js and the post-processing, and of one whose result is
+ * cached, which runs only the post-processing.
+ */
+public class MarkdownBenchmark {
+    private static final int WARMUP = 300;
+    private static final int ITERATIONS = 1000;
+
+    public static void main(String[] args) {
+        FakeApplication app = Helpers.makeTestApplication();
+        play.test.Helpers.start(app);
+
+        try {
+            Project project = Project.find.byId(1L);
+            String source = source();
+
+            for (int round = 0; round < 3; round++) {
+                measure("not cached", source, project, true);
+                measure("cached", source, project, false);
+            }
+        } finally {
+            play.test.Helpers.stop(app);
+        }
+    }
+
+    private static void measure(String name, String source, Project project, boolean unique) {
+        long length = 0;
+
+        for (int i = 0; i < WARMUP; i++) {
+            length += Markdown.render(unique ? source + i : source, project).length();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            length += Markdown.render(unique ? source + (WARMUP + i) : source, project).length();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format("%s: %.3f ms/op (%d chars)", name,
+                elapsed / 1e6 / ITERATIONS, length));
+    }
+
+    private static String source() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("## Section ").append(i).append("\n\n");
+            sb.append("See [example](http://example.com/").append(i).append("), issue #")
+                    .append(i).append(" and @admin. Fixed in yobi/projectYobi#").append(i)
+                    .append(".\n\n");
+            sb.append("    int x = ").append(i).append(";\n\n");
+            sb.append("* one\n* two *three*\n\n");
+        }
+        return sb.toString();
+    }
+}